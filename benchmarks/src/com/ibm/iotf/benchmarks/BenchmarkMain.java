@@ -0,0 +1,49 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Runs the benchmarks with the options of the JMH command line, and by default:</p>
+ *
+ * <ul>
+ * <li>the GC profiler, which reports the allocation rate and the bytes allocated per operation
+ * (gc.alloc.rate.norm) next to the timings</li>
+ * <li>the results written as JSON to benchmarks.json, to be compared with those of earlier builds</li>
+ * </ul>
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar [regexp] [JMH options]
+ * </pre>
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+		if (cmd.getProfilers().isEmpty()) {
+			options.addProfiler(GCProfiler.class);
+		}
+		if (!cmd.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+			if (!cmd.getResult().hasValue()) {
+				options.result("benchmarks.json");
+			}
+		}
+		new Runner(options.build()).run();
+	}
+}
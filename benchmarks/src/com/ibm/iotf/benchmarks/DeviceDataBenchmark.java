@@ -0,0 +1,82 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.devicemgmt.device.DeviceData;
+import com.ibm.iotf.devicemgmt.device.DeviceFirmware;
+import com.ibm.iotf.devicemgmt.device.DeviceInfo;
+import com.ibm.iotf.devicemgmt.device.DeviceLocation;
+import com.ibm.iotf.devicemgmt.device.resource.Resource;
+
+/**
+ * The resource model of the managed devices: the lookup of the resources by the device management
+ * requests and the conversion of the location to json
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceDataBenchmark {
+
+	private DeviceData deviceData;
+	private DeviceLocation location;
+
+	@Setup
+	public void setUp() {
+		DeviceInfo info = new DeviceInfo.Builder().serialNumber("10087").manufacturer("IBM")
+				.model("7865").deviceClass("A").description("My RasPi").fwVersion("1.0.0")
+				.hwVersion("1.0").descriptiveLocation("EGL C").build();
+		location = new DeviceLocation.Builder(30.28565, -97.73921).elevation(10)
+				.measuredDateTime(new Date()).accuracy(5).build();
+		DeviceFirmware firmware = new DeviceFirmware.Builder().version("1.0.1")
+				.name("iot-arm.deb").url("http://example.com/iot-arm.deb").verifier("12345")
+				.state(DeviceFirmware.FirmwareState.IDLE).build();
+		deviceData = new DeviceData.Builder().typeId("sensor").deviceId("dev1").deviceInfo(info)
+				.deviceLocation(location).deviceFirmware(firmware).build();
+	}
+
+	@Benchmark
+	public Resource getTopLevelResource() {
+		return deviceData.getResource("location");
+	}
+
+	@Benchmark
+	public Resource getNestedResource() {
+		return deviceData.getResource("deviceInfo.fwVersion");
+	}
+
+	@Benchmark
+	public Resource getDeepResource() {
+		return deviceData.getResource("mgmt.firmware.version");
+	}
+
+	@Benchmark
+	public JsonObject locationToJson() {
+		return location.toJsonObject();
+	}
+}
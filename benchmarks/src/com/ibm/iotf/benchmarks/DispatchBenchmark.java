@@ -0,0 +1,110 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.ApplicationStatus;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.DeviceStatus;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.app.StatusCallback;
+
+/**
+ * The dispatch of the received messages by ApplicationClient.messageArrived(), from the matching of
+ * the topic to the callback, without the transport
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+	private ApplicationClient app;
+	private MqttMessage event;
+	private MqttMessage deviceStatus;
+	private MqttMessage appStatus;
+
+	@Setup
+	public void setUp(final Blackhole blackhole) throws Exception {
+		Properties props = new Properties();
+		props.setProperty("org", "bench");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-bench-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		app = new ApplicationClient(props);
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				blackhole.consume(evt);
+			}
+			public void processCommand(Command cmd) {
+				blackhole.consume(cmd);
+			}
+		});
+		app.setStatusCallback(new StatusCallback() {
+			public void processApplicationStatus(ApplicationStatus status) {
+				blackhole.consume(status);
+			}
+			public void processDeviceStatus(DeviceStatus status) {
+				blackhole.consume(status);
+			}
+		});
+		event = new MqttMessage(ParseBenchmark.EVENT.getBytes("UTF-8"));
+		deviceStatus = new MqttMessage(ParseBenchmark.DEVICE_STATUS.getBytes("UTF-8"));
+		appStatus = new MqttMessage(ParseBenchmark.APP_STATUS.getBytes("UTF-8"));
+	}
+
+	@Benchmark
+	public void event() throws Exception {
+		app.messageArrived("iot-2/type/sensor/id/dev1/evt/reading/fmt/json", event);
+	}
+
+	@Benchmark
+	public void command() throws Exception {
+		app.messageArrived("iot-2/type/sensor/id/dev1/cmd/reboot/fmt/json", event);
+	}
+
+	@Benchmark
+	public void deviceStatus() throws Exception {
+		app.messageArrived("iot-2/type/sensor/id/dev1/mon", deviceStatus);
+	}
+
+	@Benchmark
+	public void applicationStatus() throws Exception {
+		app.messageArrived("iot-2/app/app2/mon", appStatus);
+	}
+
+	/* A topic that matches none of the patterns, the cost of the matching alone */
+	@Benchmark
+	public void unmatched() throws Exception {
+		app.messageArrived("iot-2/type/sensor/id/dev1/other", event);
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.benchmarks;
+
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.devicemgmt.device.DeviceData;
+import com.ibm.iotf.devicemgmt.device.DeviceInfo;
+import com.ibm.iotf.devicemgmt.device.DeviceLocation;
+import com.ibm.iotf.devicemgmt.device.ManagedDevice;
+import com.ibm.iotf.devicemgmt.device.handler.ObserveRequestHandler;
+
+/**
+ * The update of an observed location of a managed device over the loopback transport. The
+ * observe handler notifies only the members of the location that changed since the last
+ * notification, and nothing when none did. Both benchmarks include the update request of the
+ * location, which waits for the response of the loopback broker. The notifications are published
+ * by the thread of the managed device, outside of the measured operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObserveBenchmark {
+
+	private static final String BROKER = "ObserveBenchmark";
+	private static final String OBSERVE_REQUEST =
+			"{\"reqId\":\"benchmark\",\"d\":{\"fields\":[\"location\"]}}";
+
+	private final Date measured = new Date();
+	private DeviceLocation location;
+	private ManagedDevice device;
+	private boolean toggle;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		location = new DeviceLocation.Builder(30.28565, -97.73921).elevation(10)
+				.measuredDateTime(measured).accuracy(5).build();
+		DeviceInfo deviceInfo = new DeviceInfo.Builder().serialNumber("10087").manufacturer("IBM").build();
+		DeviceData deviceData = new DeviceData.Builder().typeId("sensor").deviceId("dev1")
+				.deviceInfo(deviceInfo).deviceLocation(location).build();
+
+		Properties props = new Properties();
+		props.setProperty("org", "bench");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		device = new ManagedDevice(props, deviceData);
+		device.connect();
+		if (!device.manage()) {
+			throw new IllegalStateException("The device could not be managed");
+		}
+
+		// The observe request of the platform, as received on the observe topic
+		ObserveRequestHandler handler = new ObserveRequestHandler(device);
+		handler.messageArrived("iotdm-1/observe", new MqttMessage(OBSERVE_REQUEST.getBytes("UTF-8")));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		device.disconnect();
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	/* The latitude changes at each update and is notified */
+	@Benchmark
+	public int changed() {
+		toggle = !toggle;
+		return location.update(toggle ? 30.28570 : 30.28565, -97.73921, 10.0, measured, 5.0);
+	}
+
+	/* The same values are set again, nothing is notified */
+	@Benchmark
+	public int unchanged() {
+		return location.update(30.28565, -97.73921, 10.0, measured, 5.0);
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.iotf.client.Message;
+import com.ibm.iotf.client.app.ApplicationStatus;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.DeviceStatus;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+
+/**
+ * The parsing of the messages received by the applications: the events, the commands and the
+ * status messages of the devices and applications
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+	static final String EVENT = "{\"ts\":\"2015-10-19T15:24:52.123+02:00\",\"d\":{\"temp\":21.5,\"humidity\":48.25,"
+			+ "\"counter\":1234567,\"alarm\":false,\"status\":\"ok\"}}";
+
+	static final String DEVICE_STATUS = "{\"ClientAddr\":\"195.212.29.68\",\"Protocol\":\"mqtt4-tcp\","
+			+ "\"ClientID\":\"d:bench:sensor:dev1\",\"User\":\"use-token-auth\",\"Time\":\"2015-10-19T15:24:52.123+02:00\","
+			+ "\"Action\":\"Disconnect\",\"ConnectTime\":\"2015-10-19T14:24:52.123+02:00\",\"Port\":1883,"
+			+ "\"WriteMsg\":12,\"ReadMsg\":3456,\"ReadBytes\":234567,\"WriteBytes\":1234,"
+			+ "\"Reason\":\"The client disconnected\"}";
+
+	static final String APP_STATUS = "{\"ClientAddr\":\"195.212.29.68\",\"Protocol\":\"mqtt4-tcp\","
+			+ "\"ClientID\":\"a:bench:app1\",\"User\":\"a-bench-key\",\"Time\":\"2015-10-19T15:24:52.123+02:00\","
+			+ "\"Action\":\"Connect\",\"ConnectTime\":\"2015-10-19T15:24:52.123+02:00\",\"Port\":8883}";
+
+	private MqttMessage event;
+	private MqttMessage cborEvent;
+	private MqttMessage deviceStatus;
+	private MqttMessage appStatus;
+
+	@Setup
+	public void setUp() throws Exception {
+		event = new MqttMessage(EVENT.getBytes("UTF-8"));
+		cborEvent = new MqttMessage(PayloadCodecs.get(PayloadCodecs.CBOR).encode(
+				PayloadCodecs.get(PayloadCodecs.JSON).decode(event.getPayload())));
+		deviceStatus = new MqttMessage(DEVICE_STATUS.getBytes("UTF-8"));
+		appStatus = new MqttMessage(APP_STATUS.getBytes("UTF-8"));
+	}
+
+	@Benchmark
+	public Message message() throws Exception {
+		return new Message(event, PayloadCodecs.JSON);
+	}
+
+	@Benchmark
+	public Event event() throws Exception {
+		return new Event("sensor", "dev1", "reading", PayloadCodecs.JSON, event);
+	}
+
+	@Benchmark
+	public Event cborEvent() throws Exception {
+		return new Event("sensor", "dev1", "reading", PayloadCodecs.CBOR, cborEvent);
+	}
+
+	@Benchmark
+	public Command command() throws Exception {
+		return new Command("sensor", "dev1", "reboot", PayloadCodecs.JSON, event);
+	}
+
+	@Benchmark
+	public DeviceStatus deviceStatus() throws Exception {
+		return new DeviceStatus("sensor", "dev1", deviceStatus);
+	}
+
+	@Benchmark
+	public ApplicationStatus applicationStatus() throws Exception {
+		return new ApplicationStatus("app1", appStatus);
+	}
+}
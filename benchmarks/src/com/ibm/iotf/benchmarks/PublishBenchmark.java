@@ -0,0 +1,139 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.codec.PayloadCodec;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+import com.ibm.iotf.client.codec.TelemetryTemplate;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.util.Iso8601;
+
+/**
+ * The encoding of the events by DeviceClient.publishEvent(), alone and through a publish over the
+ * loopback transport, which has no network cost
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishBenchmark {
+
+	private static final String BROKER = "PublishBenchmark";
+
+	private final Gson gson = new Gson();
+	private final PayloadCodec json = PayloadCodecs.get(PayloadCodecs.JSON);
+	private final PayloadCodec cbor = PayloadCodecs.get(PayloadCodecs.CBOR);
+
+	private JsonObject data;
+	private Reading reading;
+	private TelemetryTemplate template;
+	private DeviceClient device;
+
+	/* A typical sensor reading, converted with Gson */
+	static class Reading {
+		double temp = 21.5;
+		double humidity = 48.25;
+		long counter = 1234567;
+		boolean alarm = false;
+		String status = "ok";
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		data = new JsonObject();
+		data.addProperty("temp", 21.5);
+		data.addProperty("humidity", 48.25);
+		data.addProperty("counter", 1234567);
+		data.addProperty("alarm", false);
+		data.addProperty("status", "ok");
+		reading = new Reading();
+		template = new TelemetryTemplate("temp", "humidity", "counter", "alarm", "status")
+				.setDouble("temp", 21.5).setDouble("humidity", 48.25).setLong("counter", 1234567)
+				.setBoolean("alarm", false).setString("status", "ok");
+
+		Properties props = new Properties();
+		props.setProperty("org", "bench");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		device = new DeviceClient(props);
+		device.connect();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		device.disconnect();
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Benchmark
+	public byte[] encodeJson() throws Exception {
+		return json.encode(message(data));
+	}
+
+	@Benchmark
+	public byte[] encodeCbor() throws Exception {
+		return cbor.encode(message(data));
+	}
+
+	@Benchmark
+	public byte[] encodeObject() throws Exception {
+		return json.encode(message(gson.toJsonTree(reading)));
+	}
+
+	@Benchmark
+	public byte[] encodeTemplate() {
+		return template.toByteArray(System.currentTimeMillis());
+	}
+
+	@Benchmark
+	public boolean publishJson() {
+		return device.publishEvent("reading", data);
+	}
+
+	@Benchmark
+	public boolean publishTemplate() {
+		return device.publishEvent("reading", template);
+	}
+
+	/* The message built by DeviceClient around the data of an event */
+	private static JsonObject message(JsonElement data) {
+		JsonObject message = new JsonObject();
+		message.addProperty("ts", Iso8601.now());
+		message.add("d", data);
+		return message;
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.jfr;
+
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The fields common to the events of the clients. The events are enabled without a stack trace and
+ * without a threshold, the settings of a recording can set one to keep only the outliers
+ */
+@Enabled(true)
+@StackTrace(false)
+abstract class ClientEvent extends Event {
+
+	@Label("Client Id")
+	String clientId;
+}
@@ -0,0 +1,36 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An attempt to connect to an endpoint
+ */
+@Name("com.ibm.iotf.Connect")
+@Label("Connect Attempt")
+@Category({ "IBM IoT Foundation", "Connection" })
+@Description("An attempt to connect or reconnect to an MQTT endpoint")
+class ConnectEvent extends ClientEvent {
+
+	@Label("Server URI")
+	String serverURI;
+
+	@Label("Attempt")
+	@Description("The number of the attempt, starting at 1 for each connect")
+	int attempt;
+
+	@Label("Connected")
+	boolean connected;
+}
@@ -0,0 +1,121 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.jfr;
+
+import com.ibm.iotf.client.AbstractClient;
+import com.ibm.iotf.client.ClientTracer;
+
+/**
+ * <p>Traces the clients with Java Flight Recorder events, registered with the ServiceLoader when
+ * the iotf-jfr jar is in the classpath:</p>
+ *
+ * <ul>
+ * <li>com.ibm.iotf.Publish, the publishes with their topic, size and delivery</li>
+ * <li>com.ibm.iotf.MessageArrived, the dispatch of the received messages to the callbacks</li>
+ * <li>com.ibm.iotf.Connect, the connect attempts with their endpoint</li>
+ * <li>com.ibm.iotf.DeviceManagementRequest, the round trip of the device management requests</li>
+ * </ul>
+ *
+ * <p>The duration of an event is the time between the start and end hooks. The hooks do nothing
+ * but check a flag when no recording has enabled the event.</p>
+ */
+public class JfrClientTracer extends ClientTracer {
+
+	@Override
+	public Object publishStarted(AbstractClient client, String topic) {
+		PublishEvent event = new PublishEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		event.clientId = client.getClientId();
+		event.topic = topic;
+		return event;
+	}
+
+	@Override
+	public void publishCompleted(Object context, int bytes, boolean delivered) {
+		if (context != null) {
+			PublishEvent event = (PublishEvent) context;
+			event.end();
+			if (event.shouldCommit()) {
+				event.bytes = bytes;
+				event.delivered = delivered;
+				event.commit();
+			}
+		}
+	}
+
+	@Override
+	public Object messageArrived(AbstractClient client, String topic, int bytes) {
+		MessageEvent event = new MessageEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		event.clientId = client.getClientId();
+		event.topic = topic;
+		event.bytes = bytes;
+		return event;
+	}
+
+	@Override
+	public void messageDispatched(Object context) {
+		if (context != null) {
+			((MessageEvent) context).commit();
+		}
+	}
+
+	@Override
+	public Object connectStarted(AbstractClient client, String serverURI, int attempt) {
+		ConnectEvent event = new ConnectEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		event.clientId = client.getClientId();
+		event.serverURI = serverURI;
+		event.attempt = attempt;
+		return event;
+	}
+
+	@Override
+	public void connectCompleted(Object context, boolean connected) {
+		if (context != null) {
+			ConnectEvent event = (ConnectEvent) context;
+			event.connected = connected;
+			event.commit();
+		}
+	}
+
+	@Override
+	public Object requestStarted(AbstractClient client, String topic, String reqId, int bytes) {
+		RequestEvent event = new RequestEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		event.clientId = client.getClientId();
+		event.topic = topic;
+		event.reqId = reqId;
+		event.bytes = bytes;
+		return event;
+	}
+
+	@Override
+	public void requestCompleted(Object context, boolean responded) {
+		if (context != null) {
+			RequestEvent event = (RequestEvent) context;
+			event.responded = responded;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The dispatch of a received message to the callbacks of the client
+ */
+@Name("com.ibm.iotf.MessageArrived")
+@Label("Message Arrived")
+@Category({ "IBM IoT Foundation", "Messaging" })
+@Description("A message received over MQTT, until the callbacks of the client returned")
+class MessageEvent extends ClientEvent {
+
+	@Label("Topic")
+	String topic;
+
+	@Label("Payload Size")
+	@DataAmount
+	int bytes;
+}
@@ -0,0 +1,38 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A publish over MQTT, from the call to the completion of its delivery token
+ */
+@Name("com.ibm.iotf.Publish")
+@Label("Publish")
+@Category({ "IBM IoT Foundation", "Messaging" })
+@Description("A message published over MQTT, until the completion of its delivery token")
+class PublishEvent extends ClientEvent {
+
+	@Label("Topic")
+	String topic;
+
+	@Label("Payload Size")
+	@DataAmount
+	int bytes;
+
+	@Label("Delivered")
+	@Description("False when the publish failed")
+	boolean delivered;
+}
@@ -0,0 +1,41 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A device management request, from its publish to its response
+ */
+@Name("com.ibm.iotf.DeviceManagementRequest")
+@Label("Device Management Request")
+@Category({ "IBM IoT Foundation", "Device Management" })
+@Description("A device management request, until its response or its timeout")
+class RequestEvent extends ClientEvent {
+
+	@Label("Topic")
+	String topic;
+
+	@Label("Request Id")
+	String reqId;
+
+	@Label("Request Size")
+	@DataAmount
+	int bytes;
+
+	@Label("Responded")
+	@Description("False when the request timed out or could not be published")
+	boolean responded;
+}
@@ -0,0 +1,132 @@
+package com.ibm.iotf.jfr.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.ClientTracer;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.jfr.JfrClientTracer;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+/**
+ * Tests the flight recorder events of the clients over the loopback transport
+ */
+public class TestJfrClientTracer extends TestCase {
+
+	private static final String BROKER = "TestJfrClientTracer";
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testEvents() throws Exception {
+		assertTrue(ClientTracer.getInstance() instanceof JfrClientTracer);
+
+		Path file = Files.createTempFile("iotf", ".jfr");
+		Recording recording = new Recording();
+		recording.enable("com.ibm.iotf.Publish");
+		recording.enable("com.ibm.iotf.MessageArrived");
+		recording.enable("com.ibm.iotf.Connect");
+		recording.start();
+
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		DeviceClient device = new DeviceClient(deviceProperties());
+		try {
+			app.subscribeToDeviceEvents("sensor", "dev1");
+			device.connect();
+			JsonObject data = new JsonObject();
+			data.addProperty("temp", 21.5);
+			for (int i = 0; i < 5; i++) {
+				assertTrue(device.publishEvent("reading", data));
+			}
+			for (int i = 0; i < 5; i++) {
+				assertNotNull(events.poll(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			device.disconnect();
+			app.disconnect();
+			recording.stop();
+			recording.dump(file);
+			recording.close();
+		}
+
+		int publishes = 0;
+		int arrived = 0;
+		int connects = 0;
+		List<RecordedEvent> recorded = RecordingFile.readAllEvents(file);
+		Files.delete(file);
+		for (RecordedEvent event : recorded) {
+			String name = event.getEventType().getName();
+			if (name.equals("com.ibm.iotf.Publish")) {
+				publishes++;
+				assertEquals("d:jfr:sensor:dev1", event.getString("clientId"));
+				assertEquals("iot-2/evt/reading/fmt/json", event.getString("topic"));
+				assertTrue(event.getInt("bytes") > 20);
+				assertTrue(event.getBoolean("delivered"));
+			} else if (name.equals("com.ibm.iotf.MessageArrived")) {
+				arrived++;
+				assertEquals("a:jfr:app1", event.getString("clientId"));
+				assertEquals("iot-2/type/sensor/id/dev1/evt/reading/fmt/json", event.getString("topic"));
+			} else if (name.equals("com.ibm.iotf.Connect")) {
+				connects++;
+				assertEquals(1, event.getInt("attempt"));
+				assertTrue(event.getBoolean("connected"));
+			}
+		}
+		assertEquals(5, publishes);
+		assertEquals(5, arrived);
+		assertEquals(2, connects);
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "jfr");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "jfr");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-jfr-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
@@ -0,0 +1,301 @@
+/**
+ *****************************************************************************
+ * Copyright (c) 2015 IBM Corporation and other Contributors.
+
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ */
+package com.ibm.iotf.sample.loadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.ClientMetrics;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.client.transport.loopback.LoopbackServer;
+import com.ibm.iotf.util.EpochClock;
+import com.ibm.iotf.util.LatencyHistogram;
+
+/**
+ * <p>Simulates a fleet of devices publishing events at a fixed rate, and measures with an application
+ * the throughput, the latency from the devices to the application and the loss of the events.</p>
+ *
+ * <p>The devices stamp their events with a sequence number and the time they are sent (see
+ * DeviceClient.isLatencyStampingEnabled()), the application checks them. By default the devices run
+ * on the non-blocking transport, so that one JVM can simulate thousands of them, against a loopback
+ * server started in the JVM. Set Endpoints to run against another broker.</p>
+ *
+ * <p>The settings are read from the properties file given as argument, see loadtest.prop. The
+ * properties of the clients, e.g. Nio-Threads or Compression-Threshold, can be set in the same file.</p>
+ *
+ * <pre>
+ * java -cp ... com.ibm.iotf.sample.loadtest.LoadTest loadtest.prop
+ * </pre>
+ */
+public class LoadTest {
+
+	private static final String BROKER = "loadtest";
+
+	private final Properties options;
+	private final int devices;
+	private final double rate;
+	private final int duration;
+	private final int reportInterval;
+	private final int qos;
+	private final String format;
+	private final String event;
+	private final int fields;
+	private final int textBytes;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong receivedBytes = new AtomicLong();
+	private final LatencyHistogram publishTime = new LatencyHistogram();
+	private final LatencyHistogram intervalLatency = new LatencyHistogram();
+
+	public LoadTest(Properties options) {
+		this.options = options;
+		this.devices = getInt("Devices", 100);
+		this.rate = Double.parseDouble(getProperty("Rate", "1"));
+		this.duration = getInt("Duration", 60);
+		this.reportInterval = getInt("Report-Interval", 5);
+		this.qos = getInt("QoS", 0);
+		this.format = getProperty("Format", "json");
+		this.event = getProperty("Event", "reading");
+		this.fields = getInt("Payload-Fields", 5);
+		this.textBytes = getInt("Payload-Text-Bytes", 0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Properties options = new Properties();
+		if (args.length > 0) {
+			options = DeviceClient.parsePropertiesFile(new File(args[0]));
+		}
+		new LoadTest(options).run();
+		System.exit(0);
+	}
+
+	public void run() throws Exception {
+		LoopbackServer server = null;
+		if (getProperty("Endpoints", null) == null) {
+			server = new LoopbackServer(LoopbackBroker.getBroker(BROKER), 0);
+			options.setProperty("Endpoints", "tcp://localhost:" + server.getPort());
+		}
+		System.out.printf(Locale.ROOT, "%d devices publishing %s %s events of %d fields at %.2f/s each, QoS %d, to %s%n",
+				devices, format, event, fields, rate, qos, options.getProperty("Endpoints"));
+
+		ApplicationClient app = createApplication();
+		app.connect();
+		app.subscribeToDeviceEvents(getProperty("Device-Type", "loadtest"), "+", event, format, qos);
+
+		List<DeviceClient> clients = connectDevices();
+		ScheduledExecutorService publishers = Executors.newScheduledThreadPool(getInt("Publisher-Threads",
+				Runtime.getRuntime().availableProcessors()));
+		long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+		for (int i = 0; i < clients.size(); i++) {
+			// The first publishes are spread over the period to avoid a burst every period
+			publishers.scheduleAtFixedRate(new Publisher(clients.get(i), i), period * i / clients.size(),
+					period, TimeUnit.NANOSECONDS);
+		}
+
+		long start = System.nanoTime();
+		long lastSent = 0;
+		long lastReceived = 0;
+		for (int elapsed = reportInterval; elapsed <= duration; elapsed += reportInterval) {
+			Thread.sleep(Math.max(0, start + TimeUnit.SECONDS.toNanos(elapsed) - System.nanoTime()) / 1000000);
+			long s = sent.get();
+			long r = received.get();
+			System.out.printf(Locale.ROOT, "%4ds sent %8.1f/s received %8.1f/s latency p50 %8.3f ms p99 %8.3f ms max %8.3f ms missing %d%n",
+					elapsed, (s - lastSent) / (double) reportInterval, (r - lastReceived) / (double) reportInterval,
+					millis(intervalLatency.getPercentile(50)), millis(intervalLatency.getPercentile(99)),
+					millis(intervalLatency.getMax()), app.getMetrics().getEventsMissing());
+			intervalLatency.reset();
+			lastSent = s;
+			lastReceived = r;
+		}
+		publishers.shutdown();
+		publishers.awaitTermination(10, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - start;
+
+		// Wait for the events in flight
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(getInt("Drain-Timeout", 10));
+		while (received.get() < sent.get() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+		report(app.getMetrics(), elapsed);
+
+		disconnectDevices(clients);
+		app.disconnect();
+		if (server != null) {
+			server.stop();
+			LoopbackBroker.shutdown(BROKER);
+		}
+	}
+
+	private void report(ClientMetrics metrics, long elapsed) {
+		double seconds = elapsed / 1e9;
+		long s = sent.get();
+		long r = received.get();
+		System.out.println();
+		System.out.printf(Locale.ROOT, "Devices             %d%n", devices);
+		System.out.printf(Locale.ROOT, "Sent                %d (%.1f/s), %d failed%n", s, s / seconds, failed.get());
+		System.out.printf(Locale.ROOT, "Received            %d (%.1f/s, %.1f KB/s)%n", r, r / seconds,
+				receivedBytes.get() / seconds / 1024);
+		System.out.printf(Locale.ROOT, "Lost                %d (%.3f%%)%n", Math.max(0, s - r),
+				s == 0 ? 0.0 : Math.max(0, s - r) * 100.0 / s);
+		System.out.printf(Locale.ROOT, "Missing             %d, reordered %d, duplicated %d%n", metrics.getEventsMissing(),
+				metrics.getEventsReordered(), metrics.getEventsDuplicated());
+		System.out.println("End-to-end latency  " + metrics.getEndToEndLatency());
+		System.out.println("Publish time        " + publishTime.snapshot());
+		if (!metrics.getEventsMissingByDevice().isEmpty()) {
+			System.out.println("Missing by device   " + metrics.getEventsMissingByDevice());
+		}
+	}
+
+	private ApplicationClient createApplication() throws Exception {
+		Properties props = new Properties();
+		props.putAll(options);
+		props.setProperty("org", getProperty("Organization-ID", "loadtest"));
+		props.setProperty("id", getProperty("App-ID", "loadtest"));
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", getProperty("API-Key", "a-loadtest-key"));
+		props.setProperty("auth-token", getProperty("Authentication-Token", "token"));
+		props.setProperty("Transport", getProperty("Transport", "nio"));
+		ApplicationClient app = new ApplicationClient(props);
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				received.incrementAndGet();
+				receivedBytes.addAndGet(evt.getRawPayload().length);
+				if (evt.getSentTime() >= 0) {
+					intervalLatency.record((EpochClock.currentTimeMicros() - evt.getSentTime()) * 1000);
+				}
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		return app;
+	}
+
+	/*
+	 * Connects the devices a few at a time, the devices that fail to connect are left out
+	 */
+	private List<DeviceClient> connectDevices() throws Exception {
+		ExecutorService connectors = Executors.newFixedThreadPool(getInt("Connect-Threads", 16));
+		List<Future<DeviceClient>> futures = new ArrayList<Future<DeviceClient>>();
+		for (int i = 0; i < devices; i++) {
+			final Properties props = new Properties();
+			props.putAll(options);
+			props.setProperty("org", getProperty("Organization-ID", "loadtest"));
+			props.setProperty("type", getProperty("Device-Type", "loadtest"));
+			props.setProperty("id", String.format(Locale.ROOT, "%s%06d", getProperty("Device-ID-Prefix", "dev"), i));
+			props.setProperty("auth-method", "token");
+			props.setProperty("auth-token", getProperty("Authentication-Token", "token"));
+			props.setProperty("Transport", getProperty("Transport", "nio"));
+			props.setProperty("Latency-Stamps", "true");
+			futures.add(connectors.submit(new Callable<DeviceClient>() {
+				public DeviceClient call() throws Exception {
+					DeviceClient client = new DeviceClient(props);
+					client.connect();
+					return client;
+				}
+			}));
+		}
+		List<DeviceClient> clients = new ArrayList<DeviceClient>();
+		long start = System.nanoTime();
+		for (Future<DeviceClient> future : futures) {
+			try {
+				clients.add(future.get());
+			} catch (Exception e) {
+				System.out.println("A device failed to connect: " + e.getCause());
+			}
+		}
+		connectors.shutdown();
+		System.out.printf(Locale.ROOT, "%d devices connected in %.1f s%n", clients.size(),
+				(System.nanoTime() - start) / 1e9);
+		return clients;
+	}
+
+	private void disconnectDevices(List<DeviceClient> clients) throws InterruptedException {
+		ExecutorService disconnectors = Executors.newFixedThreadPool(getInt("Connect-Threads", 16));
+		for (final DeviceClient client : clients) {
+			disconnectors.execute(new Runnable() {
+				public void run() {
+					client.disconnect();
+				}
+			});
+		}
+		disconnectors.shutdown();
+		disconnectors.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	/*
+	 * Publishes the events of one device, the task is never run concurrently with itself
+	 */
+	private class Publisher implements Runnable {
+		private final DeviceClient client;
+		private final JsonObject data = new JsonObject();
+		private final Random random;
+
+		private Publisher(DeviceClient client, int seed) {
+			this.client = client;
+			this.random = new Random(seed);
+			if (textBytes > 0) {
+				StringBuilder text = new StringBuilder(textBytes);
+				for (int i = 0; i < textBytes; i++) {
+					text.append((char) ('a' + i % 26));
+				}
+				data.addProperty("text", text.toString());
+			}
+		}
+
+		public void run() {
+			for (int i = 0; i < fields; i++) {
+				data.addProperty("f" + i, Math.round(random.nextGaussian() * 1000) / 100.0);
+			}
+			long start = System.nanoTime();
+			if (client.publishEvent(event, data, format, qos)) {
+				publishTime.recordSince(start);
+				sent.incrementAndGet();
+			} else {
+				failed.incrementAndGet();
+			}
+		}
+	}
+
+	private String getProperty(String name, String defaultValue) {
+		String value = options.getProperty(name);
+		if (value == null || value.trim().equals("")) {
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+	private int getInt(String name, int defaultValue) {
+		return Integer.parseInt(getProperty(name, String.valueOf(defaultValue)));
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+}
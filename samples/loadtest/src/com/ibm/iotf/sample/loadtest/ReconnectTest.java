@@ -0,0 +1,462 @@
+/**
+ *****************************************************************************
+ * Copyright (c) 2015 IBM Corporation and other Contributors.
+
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ */
+package com.ibm.iotf.sample.loadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.AbstractClient;
+import com.ibm.iotf.client.ClientMetrics;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.CommandCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.FaultProxy;
+import com.ibm.iotf.client.transport.loopback.FaultProxy.Fault;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.client.transport.loopback.LoopbackServer;
+import com.ibm.iotf.devicemgmt.device.DeviceData;
+import com.ibm.iotf.devicemgmt.device.DeviceInfo;
+import com.ibm.iotf.devicemgmt.device.ManagedDevice;
+
+/**
+ * <p>Measures how the clients recover from network faults. The client under test connects to a loopback
+ * server through a {@link FaultProxy}, which drops, refuses, black-holes or delays its connection, while
+ * its peer is attached directly to the loopback broker and keeps exchanging messages with it.</p>
+ *
+ * <ul class="simple">
+ * <li>device - a DeviceClient publishes stamped events to an application and receives its probe commands</li>
+ * <li>managed - the same with a ManagedDevice, which is managed again and republishes its unacknowledged
+ * events after the reconnect</li>
+ * <li>application - an ApplicationClient receives the stamped events of a device</li>
+ * </ul>
+ *
+ * <p>For each cycle the test reports the time to detect the fault, the time to reconnect and to receive
+ * messages again after the fault is cleared, the time to deliver the pending events after the reconnect,
+ * and the events that failed, were lost or duplicated. The settings are read from the properties file
+ * given as argument, see reconnect.prop.</p>
+ *
+ * <pre>
+ * java -cp ... com.ibm.iotf.sample.loadtest.ReconnectTest reconnect.prop
+ * </pre>
+ */
+public class ReconnectTest {
+
+	private static final String BROKER = "reconnect";
+	private static final String ORG = "reconnect";
+	private static final String TYPE = "reconnect";
+
+	private final Properties options;
+	private final int cycles;
+	private final long outage;
+	private final long delay;
+	private final long settle;
+	private final long timeout;
+	private final double rate;
+	private final int qos;
+	private final long probeInterval;
+
+	private FaultProxy proxy;
+
+	public ReconnectTest(Properties options) {
+		this.options = options;
+		this.cycles = getInt("Cycles", 5);
+		this.outage = TimeUnit.SECONDS.toMillis(getInt("Outage", 3));
+		this.delay = getInt("Delay", 500);
+		this.settle = TimeUnit.SECONDS.toMillis(getInt("Settle", 2));
+		this.timeout = TimeUnit.SECONDS.toMillis(getInt("Reconnect-Timeout", 60));
+		this.rate = Double.parseDouble(getProperty("Rate", "50"));
+		this.qos = getInt("QoS", 1);
+		this.probeInterval = getInt("Probe-Interval", 10);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Properties options = new Properties();
+		if (args.length > 0) {
+			options = DeviceClient.parsePropertiesFile(new File(args[0]));
+		}
+		new ReconnectTest(options).run();
+		System.exit(0);
+	}
+
+	public void run() throws Exception {
+		LoopbackServer server = new LoopbackServer(LoopbackBroker.getBroker(BROKER), 0);
+		proxy = new FaultProxy("localhost", server.getPort(), 0);
+		System.out.printf(Locale.ROOT, "%d cycles per fault, outage %d ms, events at %.1f/s with QoS %d, "
+				+ "keep alive %s s, transport %s%n", cycles, outage, rate, qos, getProperty("Keep-Alive", "60"),
+				getProperty("Transport", "nio"));
+
+		List<String> summary = new ArrayList<String>();
+		for (String client : getProperty("Clients", "device,application,managed").split(",")) {
+			for (String fault : getProperty("Faults", "drop,refuse,blackhole,delay").split(",")) {
+				Scenario scenario = new Scenario(client.trim(), fault.trim());
+				scenario.run();
+				summary.add(scenario.summary());
+			}
+		}
+
+		System.out.println();
+		System.out.println("client      fault       detect p50/max ms    reconnect p50/max ms resubscribe p50/max ms"
+				+ " drain p50/max ms     failed   lost    dup");
+		for (String line : summary) {
+			System.out.println(line);
+		}
+
+		proxy.stop();
+		server.stop();
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	/**
+	 * The cycles of one fault injected on one client
+	 */
+	private class Scenario {
+		private final String kind;
+		private final String fault;
+		private final String deviceId;
+
+		private AbstractClient client;
+		private AbstractClient peer;
+		private ClientMetrics sequences;
+		private ScheduledExecutorService traffic;
+
+		private final AtomicLong sent = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong received = new AtomicLong();
+		private volatile long mark = Long.MAX_VALUE;
+		private final AtomicLong firstAfterMark = new AtomicLong();
+
+		private final List<Double> detect = new ArrayList<Double>();
+		private final List<Double> reconnect = new ArrayList<Double>();
+		private final List<Double> resubscribe = new ArrayList<Double>();
+		private final List<Double> drain = new ArrayList<Double>();
+		private long totalFailed;
+		private long totalLost;
+		private long totalDuplicated;
+
+		private Scenario(String kind, String fault) {
+			this.kind = kind;
+			this.fault = fault;
+			this.deviceId = kind + "-" + fault;
+		}
+
+		private void run() throws Exception {
+			System.out.println();
+			System.out.println(kind + " client, " + fault + " fault");
+			System.out.println("cycle   detect ms reconnect ms resubscribe ms   drain ms   failed   lost    dup");
+			start();
+			try {
+				for (int i = 1; i <= cycles; i++) {
+					cycle(i);
+				}
+			} finally {
+				stop();
+			}
+		}
+
+		private void cycle(int cycle) throws Exception {
+			Thread.sleep(settle);
+			ClientMetrics metrics = client.getMetrics();
+			long lost0 = metrics.getConnectionsLost();
+			long reconnects0 = metrics.getReconnects();
+			long failed0 = failed.get();
+			long missing0 = sequences.getEventsMissing();
+			long duplicated0 = sequences.getEventsDuplicated();
+
+			// Inject the fault and wait for the client to notice it
+			long start = System.nanoTime();
+			long detected = 0;
+			if (fault.equals("drop")) {
+				proxy.dropConnections();
+			} else if (fault.equals("refuse")) {
+				proxy.setFault(Fault.REFUSE);
+				proxy.dropConnections();
+			} else if (fault.equals("blackhole")) {
+				proxy.setFault(Fault.BLACKHOLE);
+			} else if (fault.equals("delay")) {
+				proxy.setDelay(delay);
+				proxy.setFault(Fault.DELAY);
+			} else {
+				throw new IllegalArgumentException("Unknown fault " + fault);
+			}
+			long healAt = fault.equals("drop") ? start : start + TimeUnit.MILLISECONDS.toNanos(outage);
+			while (System.nanoTime() < healAt) {
+				if (detected == 0 && metrics.getConnectionsLost() > lost0) {
+					detected = System.nanoTime();
+					// Any message received from now on went through the new connection
+					firstAfterMark.set(0);
+					mark = detected;
+				}
+				Thread.sleep(1);
+			}
+			proxy.setFault(Fault.NONE);
+			long healed = System.nanoTime();
+
+			// Wait for the reconnect, a silent fault may only be noticed now
+			long deadline = healed + TimeUnit.MILLISECONDS.toNanos(timeout);
+			long reconnected = 0;
+			while (System.nanoTime() < deadline) {
+				if (detected == 0 && metrics.getConnectionsLost() > lost0) {
+					detected = System.nanoTime();
+					firstAfterMark.set(0);
+					mark = detected;
+				}
+				if (metrics.getReconnects() > reconnects0 && client.isConnected()) {
+					reconnected = System.nanoTime();
+					break;
+				}
+				if (detected == 0 && System.nanoTime() > healed + TimeUnit.MILLISECONDS.toNanos(settle)) {
+					// The connection survived the fault
+					break;
+				}
+				Thread.sleep(1);
+			}
+			long resubscribed = 0;
+			while (reconnected > 0 && System.nanoTime() < deadline) {
+				resubscribed = firstAfterMark.get();
+				if (resubscribed > 0) {
+					break;
+				}
+				Thread.sleep(1);
+			}
+			long drained = 0;
+			if (reconnected > 0 && !kind.equals("application")) {
+				long drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+				while (System.nanoTime() < drainDeadline) {
+					if (metrics.getPendingDeliveries() == 0 && received.get() >= sent.get()) {
+						drained = System.nanoTime();
+						break;
+					}
+					Thread.sleep(1);
+				}
+			}
+			mark = Long.MAX_VALUE;
+
+			// The late messages are counted after the next settle time, the last cycle waits for them here
+			if (cycle == cycles) {
+				Thread.sleep(settle);
+			}
+			long cycleFailed = failed.get() - failed0;
+			long cycleLost = sequences.getEventsMissing() - missing0;
+			long cycleDuplicated = sequences.getEventsDuplicated() - duplicated0;
+			totalFailed += cycleFailed;
+			totalLost += cycleLost;
+			totalDuplicated += cycleDuplicated;
+
+			Double detectMs = detected == 0 ? null : millis(detected - start);
+			Double reconnectMs = reconnected == 0 ? null : millis(reconnected - healed);
+			Double resubscribeMs = resubscribed == 0 ? null : millis(Math.max(0, resubscribed - healed));
+			Double drainMs = drained == 0 ? null : millis(drained - reconnected);
+			add(detect, detectMs);
+			add(reconnect, reconnectMs);
+			add(resubscribe, resubscribeMs);
+			add(drain, drainMs);
+			System.out.printf(Locale.ROOT, "%5d %11s %12s %14s %10s %8d %6d %6d%n", cycle, format(detectMs),
+					format(reconnectMs), format(resubscribeMs), format(drainMs), cycleFailed, cycleLost,
+					cycleDuplicated);
+		}
+
+		private String summary() {
+			return String.format(Locale.ROOT, "%-11s %-11s %20s %20s %22s %16s %10d %6d %6d", kind, fault,
+					percentiles(detect), percentiles(reconnect), percentiles(resubscribe), percentiles(drain),
+					totalFailed, totalLost, totalDuplicated);
+		}
+
+		private void start() throws Exception {
+			traffic = Executors.newScheduledThreadPool(2);
+			long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+			if (kind.equals("application")) {
+				final ApplicationClient app = new ApplicationClient(applicationProperties(true));
+				app.setEventCallback(new Receiver());
+				app.connect();
+				app.subscribeToDeviceEvents(TYPE, deviceId, "reading", "json", qos);
+				final DeviceClient device = new DeviceClient(deviceProperties(false));
+				device.connect();
+				client = app;
+				peer = device;
+				sequences = app.getMetrics();
+				traffic.scheduleAtFixedRate(new Publisher(device), 0, period, TimeUnit.NANOSECONDS);
+				return;
+			}
+
+			final ApplicationClient app = new ApplicationClient(applicationProperties(false));
+			app.setEventCallback(new Receiver());
+			app.connect();
+			app.subscribeToDeviceEvents(TYPE, deviceId, "reading", "json", qos);
+			DeviceClient device;
+			if (kind.equals("managed")) {
+				DeviceInfo deviceInfo = new DeviceInfo.Builder().serialNumber(deviceId).manufacturer("IBM").
+						model("ReconnectTest").build();
+				DeviceData deviceData = new DeviceData.Builder().deviceInfo(deviceInfo).build();
+				ManagedDevice managed = new ManagedDevice(deviceProperties(true), deviceData);
+				managed.connect();
+				if (!managed.manage()) {
+					throw new IllegalStateException("The device " + deviceId + " could not be managed");
+				}
+				device = managed;
+			} else if (kind.equals("device")) {
+				device = new DeviceClient(deviceProperties(true));
+				device.connect();
+			} else {
+				throw new IllegalArgumentException("Unknown client " + kind);
+			}
+			device.setCommandCallback(new CommandCallback() {
+				public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+					arrived();
+				}
+			});
+			client = device;
+			peer = app;
+			sequences = app.getMetrics();
+			traffic.scheduleAtFixedRate(new Publisher(device), 0, period, TimeUnit.NANOSECONDS);
+			final JsonObject probe = new JsonObject();
+			traffic.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					app.publishCommand(TYPE, deviceId, "probe", probe);
+				}
+			}, probeInterval, probeInterval, TimeUnit.MILLISECONDS);
+		}
+
+		private void stop() throws InterruptedException {
+			traffic.shutdown();
+			traffic.awaitTermination(10, TimeUnit.SECONDS);
+			client.disconnect();
+			peer.disconnect();
+		}
+
+		private void arrived() {
+			long now = System.nanoTime();
+			if (now > mark) {
+				firstAfterMark.compareAndSet(0, now);
+			}
+		}
+
+		/**
+		 * Receives the events in the application, and marks the first one after a reconnect when the
+		 * application is under test
+		 */
+		private class Receiver implements EventCallback {
+			public void processEvent(Event evt) {
+				received.incrementAndGet();
+				if (kind.equals("application")) {
+					arrived();
+				}
+			}
+			public void processCommand(Command cmd) {
+			}
+		}
+
+		private Properties deviceProperties(boolean underTest) {
+			Properties props = clientProperties(underTest);
+			props.setProperty("type", TYPE);
+			props.setProperty("id", deviceId);
+			props.setProperty("auth-method", "token");
+			props.setProperty("auth-token", "token");
+			props.setProperty("Latency-Stamps", "true");
+			return props;
+		}
+
+		private Properties applicationProperties(boolean underTest) {
+			Properties props = clientProperties(underTest);
+			props.setProperty("id", deviceId);
+			props.setProperty("auth-method", "apikey");
+			props.setProperty("auth-key", "a-" + ORG + "-key");
+			props.setProperty("auth-token", "token");
+			return props;
+		}
+
+		/**
+		 * The client under test goes through the proxy, its peer is attached to the broker
+		 */
+		private Properties clientProperties(boolean underTest) {
+			Properties props = new Properties();
+			props.putAll(options);
+			props.setProperty("org", ORG);
+			if (underTest) {
+				props.setProperty("Transport", getProperty("Transport", "nio"));
+				props.setProperty("Endpoints", "tcp://localhost:" + proxy.getPort());
+			} else {
+				props.setProperty("Transport", "loopback");
+				props.setProperty("Loopback-Broker", BROKER);
+				props.remove("Keep-Alive");
+			}
+			return props;
+		}
+
+		/*
+		 * Publishes the events of the device, the task is never run concurrently with itself
+		 */
+		private class Publisher implements Runnable {
+			private final DeviceClient device;
+			private final JsonObject data = new JsonObject();
+			private long count;
+
+			private Publisher(DeviceClient device) {
+				this.device = device;
+			}
+
+			public void run() {
+				data.addProperty("count", ++count);
+				if (device.publishEvent("reading", data, qos)) {
+					sent.incrementAndGet();
+				} else {
+					failed.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private static void add(List<Double> values, Double value) {
+		if (value != null) {
+			values.add(value);
+		}
+	}
+
+	private static String percentiles(List<Double> values) {
+		if (values.isEmpty()) {
+			return "-";
+		}
+		List<Double> sorted = new ArrayList<Double>(values);
+		Collections.sort(sorted);
+		return format(sorted.get((sorted.size() - 1) / 2)) + " / " + format(sorted.get(sorted.size() - 1));
+	}
+
+	private static String format(Double millis) {
+		return millis == null ? "-" : String.format(Locale.ROOT, "%.1f", millis);
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private String getProperty(String name, String defaultValue) {
+		String value = options.getProperty(name);
+		if (value == null || value.trim().equals("")) {
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+	private int getInt(String name, int defaultValue) {
+		return Integer.parseInt(getProperty(name, String.valueOf(defaultValue)));
+	}
+}
@@ -1,22 +1,26 @@
 package com.ibm.iotf.client;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.security.GeneralSecurityException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import javax.net.ssl.SSLContext;
 
@@ -24,21 +28,39 @@ import org.apache.http.client.config.AuthSchemes;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.commons.net.util.Base64;
 import org.apache.http.Header;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.MqttSecurityException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.ibm.iotf.client.EndpointSelector.Endpoint;
+import com.ibm.iotf.client.codec.PayloadCodec;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+import com.ibm.iotf.client.codec.PayloadCompressor;
+import com.ibm.iotf.client.persist.MappedFilePersistence;
+import com.ibm.iotf.client.transport.MqttTransport;
+import com.ibm.iotf.client.transport.MqttTransportFactory;
+import com.ibm.iotf.client.transport.PahoAsyncTransport;
+import com.ibm.iotf.client.transport.PahoSyncTransport;
+import com.ibm.iotf.client.transport.PahoTransportFactory;
+import com.ibm.iotf.client.transport.loopback.LoopbackTransportFactory;
+import com.ibm.iotf.client.transport.nio.NioTransportFactory;
+import com.ibm.iotf.util.Iso8601;
 import com.ibm.iotf.util.LoggerUtility;
 
 /**
@@ -79,19 +101,35 @@ public abstract class AbstractClient {
 	private static final int THROTTLE_3 = 20;
 	private static final long RATE_3 = TimeUnit.MINUTES.toMillis(5);
 
+	/* Wait up to 10 seconds for the connection to be established */
+	private static final long CONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+	/* Wait up to 10 seconds on disconnect for the batched HTTP events, long enough for the default retries */
+	private static final long HTTP_BATCH_CLOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
 	protected static final Gson gson = new Gson();
 
 	/**
 	 * A formatter for ISO 8601 compliant timestamps.
+	 * 
+	 * @deprecated a SimpleDateFormat is not thread safe, the publish paths use {@link Iso8601}
 	 */
+	@Deprecated
 	protected static final DateFormat ISO8601_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
 
 	protected Properties options;
+	private HttpBatchPublisher httpBatchPublisher;
+	private final AtomicLong failoverCount = new AtomicLong();
+	private EndpointSelector endpointSelector;
+	private volatile PayloadCompressor compressor;
 	protected String clientId;
 	protected String clientUsername;
 	protected String clientPassword;
 
-	protected int messageCount = 0;
+	/* The number of messages delivered, updated by the callbacks of the transport through messageDelivered() */
+	private final AtomicLong messageCount = new AtomicLong();
+
+	protected final ClientMetrics metrics = new ClientMetrics(this);
 
 	protected MqttAsyncClient mqttAsyncClient = null;
 	protected MqttConnectOptions mqttClientOptions;
@@ -100,6 +138,9 @@ public abstract class AbstractClient {
 	// Supported only for DM ManagedClient
 	protected MqttClient mqttClient = null;
 
+	/* The connection used to send and receive the messages, all the MQTT operations must go through it */
+	protected MqttTransport transport = null;
+
 	/**
 	 * Note that this class does not have a default constructor <br>
 	 * @param options
@@ -110,7 +151,7 @@ public abstract class AbstractClient {
 	public AbstractClient(Properties options) {
 		final String METHOD = "Constructor";
 		this.options = options;
-		LoggerUtility.fine(CLASS_NAME, METHOD, options.toString());
+		LoggerUtility.fine(CLASS_NAME, METHOD, "{}", options);
 	}
 	
 	/**
@@ -119,6 +160,7 @@ public abstract class AbstractClient {
 	 */
 	protected AbstractClient(MqttAsyncClient mqttAsyncClient) {
 		this.mqttAsyncClient = mqttAsyncClient;
+		this.transport = new PahoAsyncTransport(mqttAsyncClient);
 	}
 
 	/**
@@ -127,6 +169,7 @@ public abstract class AbstractClient {
 	 */
 	protected AbstractClient(MqttClient mqttClient) {
 		this.mqttClient = mqttClient;
+		this.transport = new PahoSyncTransport(mqttClient);
 	}
 
 	/**
@@ -143,96 +186,186 @@ public abstract class AbstractClient {
 		System.out.println("Client Username = " + clientUsername);
 		System.out.println("Client Password = " + clientPassword);
 		this.mqttAsyncClient = null;
+		this.transport = null;
 		this.mqttClientOptions = new MqttConnectOptions();
 		this.mqttCallback = callback;
 	}
 
 	/**
 	 * Connect to the IBM Internet of Things Foundation
+	 * 
+	 * <p>When several endpoints are configured (see {@link #getEndpoints()}), they are ranked by their
+	 * latency and tried in that order. The next endpoint is tried right away when one fails, the
+	 * delay between the attempts applies only when all of them have failed.</p>
 	 */
 	public void connect() {
 		final String METHOD = "connect";
 		boolean tryAgain = true;
 		int connectAttempts = 0;
-
-		if (getOrgId() == "quickstart") {
-			configureMqtt();
-		}
-		else {
-			configureMqtts();
+		long connectStart = System.nanoTime();
+		if (isMetricsMBeanEnabled()) {
+			metrics.registerMBean();
 		}
-		
-		//configureMqtt();
-		
+
 		while (tryAgain) {
 			connectAttempts++;
 
-			LoggerUtility.info(CLASS_NAME, METHOD, "Connecting to " + mqttAsyncClient.getServerURI() + 
-					" (attempt #" + connectAttempts + ")...");
-			
-			if (clientUsername != null) {
-				LoggerUtility.fine(CLASS_NAME, METHOD, " * Username: " + mqttClientOptions.getUserName());
-			}
-			if (clientPassword != null) {
-				LoggerUtility.fine(CLASS_NAME, METHOD, " * Passowrd: " + 
-							String.valueOf(mqttClientOptions.getPassword()));
-			}
-			try {
-				mqttAsyncClient.connect(mqttClientOptions);
-				boolean connected = false;
-				// Wait up to 10 seconds for Mqtt connection is made
-				for (int i=0; i<10; i++) {
-					connected = mqttAsyncClient.isConnected();	
-					if (connected) {
-						break;
-					}
-					Thread.sleep(1000);
+			List<Endpoint> candidates = getCandidateEndpoints();
+			for (int i = 0; i < candidates.size() && tryAgain; i++) {
+				Endpoint endpoint = candidates.get(i);
+				if (getOrgId() == "quickstart" || endpoint.getServerURI().startsWith("tcp://")) {
+					configureMqtt(endpoint.getServerURI());
 				}
-			} catch (MqttSecurityException e) {
-				e.printStackTrace();
-			} catch (MqttException e) {
-				e.printStackTrace();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-
-			if (mqttAsyncClient.isConnected()) {
-				LoggerUtility.info(CLASS_NAME, METHOD, "Successfully connected "
-						+ "to the IBM Internet of Things Foundation");
+				else {
+					configureMqtts(endpoint.getServerURI());
+				}
+				
+				LoggerUtility.info(CLASS_NAME, METHOD, "Connecting to {} (attempt #{})...",
+						transport.getServerURI(), connectAttempts);
 				
-				if (LoggerUtility.isLoggable(Level.FINEST)) {
-					LoggerUtility.log(Level.FINEST, CLASS_NAME, METHOD, 
-							" * Connection attempts: " + connectAttempts);
+				if (clientUsername != null) {
+					LoggerUtility.fine(CLASS_NAME, METHOD, " * Username: {}", mqttClientOptions.getUserName());
 				}
-				tryAgain = false;
-			} else {
+				if (clientPassword != null) {
+					if (LoggerUtility.isLoggable(Level.FINE)) {
+						LoggerUtility.fine(CLASS_NAME, METHOD, " * Passowrd: " + 
+								String.valueOf(mqttClientOptions.getPassword()));
+					}
+				}
+				long start = System.currentTimeMillis();
+				ClientTracer tracer = ClientTracer.getInstance();
+				Object trace = tracer == null ? null 
+						: tracer.connectStarted(this, transport.getServerURI(), connectAttempts);
+				try {
+					IMqttToken token = transport.connect(mqttClientOptions);
+					token.waitForCompletion(CONNECT_TIMEOUT);
+				} catch (MqttSecurityException e) {
+					e.printStackTrace();
+				} catch (MqttException e) {
+					e.printStackTrace();
+				}
+				if (tracer != null) {
+					tracer.connectCompleted(trace, transport.isConnected());
+				}
+	
+				if (transport.isConnected()) {
+					LoggerUtility.info(CLASS_NAME, METHOD, "Successfully connected "
+							+ "to the IBM Internet of Things Foundation");
+					
+					if (LoggerUtility.isLoggable(Level.FINEST)) {
+						LoggerUtility.log(Level.FINEST, CLASS_NAME, METHOD, 
+								" * Connection attempts: " + connectAttempts);
+					}
+					if (endpointSelector != null) {
+						endpointSelector.connected(endpoint, System.currentTimeMillis() - start);
+					}
+					metrics.connected(connectStart);
+					tryAgain = false;
+				} else {
+					metrics.connectAttemptFailed();
+					if (endpointSelector != null) {
+						endpointSelector.failed(endpoint);
+					}
+				}
+			}
+			if (tryAgain) {
 				waitBeforeNextConnectAttempt(connectAttempts);
 			}
 		}
 	}
 
-	private void configureMqtt() {
-		String serverURI = "tcp://" + getOrgId() + "." + DOMAIN + ":" + MQTT_PORT;
+	/**
+	 * Returns the MQTT endpoints to connect to, in the order of preference. The endpoints are
+	 * read from the following property, as a comma separated list of server URIs,
+	 * 
+	 * old style - endpoints
+	 * new style - Endpoints
+	 * 
+	 * For example ssl://eu.example.com:8883, ssl://us.example.com:8883. The connect timeout of the
+	 * latency probes can be set with Endpoint-Probe-Timeout, in milliseconds.
+	 * 
+	 * @return the URIs of the endpoints, or null when the default endpoint of the organization is used
+	 */
+	public List<String> getEndpoints() {
+		String value = trimedValue(options.getProperty("endpoints"));
+		if(value == null) {
+			value = trimedValue(options.getProperty("Endpoints"));
+		}
+		if(value == null || value.equals("")) {
+			return null;
+		}
+		List<String> endpoints = new ArrayList<String>();
+		for(String endpoint : value.split(",")) {
+			if(!endpoint.trim().equals("")) {
+				endpoints.add(endpoint.trim());
+			}
+		}
+		return endpoints.isEmpty() ? null : endpoints;
+	}
+
+	/**
+	 * @return the ranked endpoints when several are configured, the default endpoint of the organization otherwise
+	 */
+	private List<Endpoint> getCandidateEndpoints() {
+		List<String> endpoints = getEndpoints();
+		if(endpoints == null) {
+			String serverURI;
+			if (getOrgId() == "quickstart") {
+				serverURI = "tcp://" + getOrgId() + "." + DOMAIN + ":" + MQTT_PORT;
+			}
+			else {
+				serverURI = "ssl://" + getOrgId() + "." + DOMAIN + ":" + MQTTS_PORT;
+			}
+			return Collections.singletonList(new Endpoint(serverURI));
+		}
+		if(endpointSelector == null) {
+			int probeTimeout = getIntProperty(options, "endpoint-probe-timeout", "Endpoint-Probe-Timeout",
+					EndpointSelector.DEFAULT_PROBE_TIMEOUT, 1);
+			endpointSelector = new EndpointSelector(endpoints, probeTimeout, EndpointSelector.DEFAULT_PROBES);
+		}
+		return endpointSelector.rank();
+	}
+
+	/**
+	 * @return the selector of the endpoints when several are configured, null otherwise
+	 */
+	public EndpointSelector getEndpointSelector() {
+		return endpointSelector;
+	}
+
+	private void configureMqtt(String serverURI) {
 		try {
-			mqttAsyncClient = new MqttAsyncClient(serverURI, clientId, null);
-			mqttAsyncClient.setCallback(mqttCallback);
+			createTransport(serverURI);
 			mqttClientOptions = new MqttConnectOptions();
+			if (clientUsername != null) {
+				// Registered organizations connect without TLS only to the configured endpoints
+				mqttClientOptions.setUserName(clientUsername);
+				mqttClientOptions.setPassword(clientPassword.toCharArray());
+				mqttClientOptions.setCleanSession(false);
+			}
+			configureKeepAlive();
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private void configureMqtts() {
+	private void configureKeepAlive() {
+		int keepAlive = getKeepAliveInterval();
+		if (keepAlive >= 0) {
+			mqttClientOptions.setKeepAliveInterval(keepAlive);
+		}
+	}
+
+	private void configureMqtts(String serverURI) {
 		final String METHOD = "configureMqtts";
-		String serverURI = "ssl://" + getOrgId() + "." + DOMAIN + ":" + MQTTS_PORT;
 		try {
-			mqttAsyncClient = new MqttAsyncClient(serverURI, clientId, null);
-			mqttAsyncClient.setCallback(mqttCallback);
+			createTransport(serverURI);
 
 			mqttClientOptions = new MqttConnectOptions();
 			mqttClientOptions.setUserName(clientUsername);
 			mqttClientOptions.setPassword(clientPassword.toCharArray());
 			mqttClientOptions.setCleanSession(false);
+			configureKeepAlive();
 
 			/* This isn't needed as the production messaging.internetofthings.ibmcloud.com
 			 * certificate should already be in trust chain.
@@ -264,6 +397,143 @@ public abstract class AbstractClient {
 		}
 	}
 
+	/**
+	 * Creates the transport to the given server as configured in the properties,
+	 * 
+	 * <ul class="simple">
+	 * <li>paho - (default) the Paho MqttAsyncClient</li>
+	 * <li>loopback - an in-JVM broker that emulates the IoTF topic space, used for the tests 
+	 * and benchmarks, see {@link com.ibm.iotf.client.transport.loopback.LoopbackBroker}</li>
+	 * <li>nio - a MQTT client that shares a few selector threads among all the clients of the JVM,
+	 * to simulate many devices, see {@link com.ibm.iotf.client.transport.nio.NioTransport}</li>
+	 * <li>Any other value is treated as the class name of a MqttTransportFactory implementation
+	 * that has a public no-arg constructor</li>
+	 * </ul>
+	 * 
+	 * old style - transport
+	 * new style - Transport
+	 * 
+	 * @param serverURI the URI of the server
+	 * @throws MqttException if the transport can not be created
+	 */
+	private void createTransport(String serverURI) throws MqttException {
+		final String METHOD = "createTransport";
+		String type = trimedValue(options.getProperty("transport"));
+		if(type == null) {
+			type = trimedValue(options.getProperty("Transport"));
+		}
+		
+		MqttTransportFactory factory;
+		if(type == null || type.equals("") || type.equalsIgnoreCase("paho")) {
+			factory = new PahoTransportFactory();
+		} else if(type.equalsIgnoreCase("loopback")) {
+			factory = new LoopbackTransportFactory();
+		} else if(type.equalsIgnoreCase("nio")) {
+			factory = new NioTransportFactory();
+		} else {
+			try {
+				factory = (MqttTransportFactory) Class.forName(type).newInstance();
+			} catch (Exception e) {
+				LoggerUtility.warn(CLASS_NAME, METHOD, "Unable to create the transport " + type + 
+						", using the Paho client: " + e.getMessage());
+				factory = new PahoTransportFactory();
+			}
+		}
+		
+		// Each connect attempt creates a new transport, the previous one holds the store of its
+		// in-flight messages and, for Paho, its threads until it is closed
+		closeTransport();
+		transport = factory.create(serverURI, clientId, createPersistence(), options);
+		transport.setCallback(mqttCallback == null ? null : new TracedCallback(mqttCallback));
+		if(transport instanceof PahoAsyncTransport) {
+			mqttAsyncClient = ((PahoAsyncTransport) transport).getClient();
+		}
+	}
+
+	private void closeTransport() {
+		final String METHOD = "closeTransport";
+		MqttTransport previous = transport;
+		if (previous == null || previous.isConnected()) {
+			return;
+		}
+		try {
+			previous.setCallback(null);
+			previous.close();
+		} catch (MqttException e) {
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Unable to close the previous transport: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates the store for the in-flight QoS 1 and QoS 2 messages as configured in the properties,
+	 * 
+	 * <ul class="simple">
+	 * <li>memory - (default) the messages are lost when the process restarts</li>
+	 * <li>mapped - the messages are stored in a memory-mapped log, see {@link MappedFilePersistence}
+	 * and {@link #isPersistenceSyncEnabled()}</li>
+	 * <li>file - the messages are stored by the Paho MqttDefaultFilePersistence, one file per message</li>
+	 * <li>Any other value is treated as the class name of a MqttClientPersistence implementation 
+	 * that has a public no-arg constructor</li>
+	 * </ul>
+	 * 
+	 * old style - persistence, persistence-directory
+	 * new style - Persistence, Persistence-Directory
+	 * 
+	 * @return MqttClientPersistence or null, in which case Paho uses the memory persistence
+	 */
+	protected MqttClientPersistence createPersistence() {
+		final String METHOD = "createPersistence";
+		String type = options == null ? null : trimedValue(options.getProperty("persistence"));
+		if(type == null && options != null) {
+			type = trimedValue(options.getProperty("Persistence"));
+		}
+		if(type == null || type.equals("") || type.equalsIgnoreCase("memory")) {
+			return null;
+		}
+		
+		String directory = trimedValue(options.getProperty("persistence-directory"));
+		if(directory == null) {
+			directory = trimedValue(options.getProperty("Persistence-Directory"));
+		}
+		if(directory == null) {
+			directory = System.getProperty("user.dir");
+		}
+		
+		if(type.equalsIgnoreCase("mapped")) {
+			return new MappedFilePersistence(directory, isPersistenceSyncEnabled());
+		} else if(type.equalsIgnoreCase("file")) {
+			return new MqttDefaultFilePersistence(directory);
+		}
+		
+		try {
+			return (MqttClientPersistence) Class.forName(type).newInstance();
+		} catch (Exception e) {
+			LoggerUtility.warn(CLASS_NAME, METHOD, "Unable to create the persistence " + type + 
+					", the in-flight messages will be kept in memory: " + e.getMessage());
+			return new MemoryPersistence();
+		}
+	}
+
+	/**
+	 * Returns whether a QoS 1 or QoS 2 publish waits until the message is forced to the disk by the
+	 * mapped persistence. By default the log is forced in the background, within milliseconds, and the
+	 * messages published just before a crash of the OS or a power loss may be lost, a crash of the process
+	 * alone loses nothing. When enabled, no message is lost but each publish pays a full disk sync while
+	 * Paho holds the lock of the client, which blocks its other publishes and the receipt of messages.
+	 * 
+	 * old style - persistence-sync
+	 * new style - Persistence-Sync
+	 * 
+	 * @return true if the property is set to true, false otherwise
+	 */
+	public boolean isPersistenceSyncEnabled() {
+		String sync = options == null ? null : options.getProperty("persistence-sync");
+		if(sync == null && options != null) {
+			sync = options.getProperty("Persistence-Sync");
+		}
+		return Boolean.parseBoolean(trimedValue(sync));
+	}
+
 	/**
 	 * Sleep for a variable period of time between connect attempts.
 	 *
@@ -307,13 +577,15 @@ public abstract class AbstractClient {
 	public void disconnect() {
 		final String METHOD = "disconnect";
 		LoggerUtility.fine(CLASS_NAME, METHOD, "Disconnecting from the IBM Internet of Things Foundation ...");
+		closeHttpBatchPublisher();
 		try {
-			mqttAsyncClient.disconnect();
+			transport.disconnect();
 			LoggerUtility.info(CLASS_NAME, METHOD, "Successfully disconnected "
 					+ "from from the IBM Internet of Things Foundation");
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
+		metrics.unregisterMBean();
 	}
 
 
@@ -326,12 +598,12 @@ public abstract class AbstractClient {
 	public boolean isConnected() {
 		final String METHOD = "isConnected";
 		boolean connected = false;
-		if (mqttAsyncClient != null) {
-			connected = mqttAsyncClient.isConnected();
-		} else if (mqttClient != null) {
-			connected = mqttClient.isConnected();
+		if (transport != null) {
+			connected = transport.isConnected();
+		}
+		if (LoggerUtility.isLoggable(Level.FINEST)) {
+			LoggerUtility.log(Level.FINEST, CLASS_NAME, METHOD, "Connected(" + connected + ")");
 		}
-		LoggerUtility.log(Level.FINEST, CLASS_NAME, METHOD, "Connected(" + connected + ")");
 		return connected;
 	}
 
@@ -342,7 +614,7 @@ public abstract class AbstractClient {
 	 * @return String representation of the Device.
 	 */
 	public String toString() {
-		return "[" + clientId + "] " + messageCount + " messages sent - Connected = " + String.valueOf(isConnected());
+		return "[" + clientId + "] " + messageCount.get() + " messages sent - Connected = " + String.valueOf(isConnected());
 	}
 
 	/**
@@ -370,6 +642,13 @@ public abstract class AbstractClient {
 		return clientProperties;
 	}
 
+	/**
+	 * @return the MQTT client id, e.g. d:org:type:id for a device
+	 */
+	public String getClientId() {
+		return clientId;
+	}
+
 	/*
 	 * old style - org
 	 * new style - Organization-ID
@@ -445,7 +724,33 @@ public abstract class AbstractClient {
 			String authToken,
 			Object payload) throws Exception {
 
-		final String METHOD = "publishEventsThroughHttps";
+		HttpPost post = createEventPost(organization, deviceType, deviceId, eventName, device, 
+				authKey, authToken, payload);
+		return executeHttpPost(HttpClientPool.getInstance(null), post);
+	}
+
+	/**
+	 * Creates the HTTP(S) post request of an event, the timestamp of the event is set to the current time
+	 * 
+	 * @param organization  Organization ID (Either "quickstart" or the registered organization ID)
+	 * @param deviceType	Device Type
+	 * @param deviceId		Device ID
+	 * @param eventName		Name of the Event
+	 * @param device 		Boolean value indicating whether the request is originated from device or application
+	 * @param authKey		Authentication Method
+	 * @param authToken		Authentication Token to securely post this event (Can be null or empty if its quickstart)
+	 * @param payload		The message to be published
+	 * @return the post request
+	 * @throws Exception	throws exception when a mandatory parameter is missing
+	 */
+	protected static HttpPost createEventPost(String organization,
+			String deviceType,
+			String deviceId,
+			String eventName,
+			boolean device,
+			String authKey,
+			String authToken,
+			Object payload) throws Exception {
 
 		validateNull("Organization ID", organization);
 		validateNull("Device Type", deviceType);
@@ -456,6 +761,79 @@ public abstract class AbstractClient {
 			validateNull("Authentication Token", authToken);
 		}
 
+		String url = getEventURL(organization, deviceType, deviceId, eventName, device);
+		
+		// Create the payload message in Json format
+		JsonObject message = new JsonObject();
+		
+		String timestamp = Iso8601.now();
+		message.addProperty("ts", timestamp);
+		
+		JsonElement dataElement = gson.toJsonTree(payload);
+		message.add("d", dataElement);
+		
+		return createEventPost(url, getAuthorization(organization, authKey, authToken), message.toString());
+	}
+
+	/**
+	 * Creates the HTTP(S) post request of an event of this organization, to the Http-Endpoint when it is set
+	 * 
+	 * @see #getEventURL(String, String, String, boolean)
+	 */
+	protected HttpPost createEventPost(String deviceType,
+			String deviceId,
+			String eventName,
+			boolean device,
+			String authKey,
+			Object payload) throws Exception {
+		HttpPost post = createEventPost(getOrgId(), deviceType, deviceId, eventName, device, 
+				authKey, getAuthToken(), payload);
+		post.setURI(URI.create(getEventURL(deviceType, deviceId, eventName, device)));
+		return post;
+	}
+
+	/**
+	 * Creates the HTTP(S) post request of an event message
+	 * 
+	 * @param url			the ReST URL of the event
+	 * @param authorization	the value of the Authorization header, null for quickstart
+	 * @param message		the message in Json format, with the timestamp and the data
+	 * @return the post request
+	 * @throws UnsupportedEncodingException
+	 */
+	protected static HttpPost createEventPost(String url, String authorization, String message) 
+			throws UnsupportedEncodingException {
+		final String METHOD = "createEventPost";
+		LoggerUtility.fine(CLASS_NAME, METHOD, "ReST URL::{}", url);
+		
+		StringEntity input = null;
+		try {
+			input = new StringEntity(message);
+		} catch (UnsupportedEncodingException e) {
+			LoggerUtility.severe(CLASS_NAME, METHOD, "Unable to carry out the ReST request");
+			throw e;
+		}
+		
+		// Create the Http post request
+		HttpPost post = new HttpPost(url);
+		post.setEntity(input);
+		post.addHeader("Content-Type", "application/json");
+		post.addHeader("Accept", "application/json");
+		
+		if(authorization != null) {
+			post.addHeader("Authorization", authorization);
+		}
+		return post;
+	}
+
+	/**
+	 * @return the ReST URL of an event, HTTP for quickstart and HTTPS for the registered organizations
+	 */
+	protected static String getEventURL(String organization,
+			String deviceType,
+			String deviceId,
+			String eventName,
+			boolean device) {
 		StringBuilder sb = new StringBuilder();
 
 		// Form the URL
@@ -478,55 +856,373 @@ public abstract class AbstractClient {
 			.append(deviceId)
 			.append("/events/")
 			.append(eventName);
-		
-		LoggerUtility.fine(CLASS_NAME, METHOD, "ReST URL::"+sb.toString());
-		BufferedReader br = null;
-		br = new BufferedReader(new InputStreamReader(System.in));
-		
-		// Create the payload message in Json format
-		JsonObject message = new JsonObject();
-		
-		String timestamp = ISO8601_DATE_FORMAT.format(new Date());
-		message.addProperty("ts", timestamp);
-		
-		JsonElement dataElement = gson.toJsonTree(payload);
-		message.add("d", dataElement);
-		
-		StringEntity input = null;
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the ReST URL of an event of this organization. The host can be replaced
+	 * through the following property, for example by a gateway or a local stand-in,
+	 * 
+	 * old style - http-endpoint
+	 * new style - Http-Endpoint
+	 * 
+	 * The value is the URL before /api/v0002, for example http://localhost:8080
+	 */
+	protected String getEventURL(String deviceType,
+			String deviceId,
+			String eventName,
+			boolean device) {
+		String url = getEventURL(getOrgId(), deviceType, deviceId, eventName, device);
+		String endpoint = trimedValue(options.getProperty("http-endpoint"));
+		if(endpoint == null) {
+			endpoint = trimedValue(options.getProperty("Http-Endpoint"));
+		}
+		if(endpoint != null && !endpoint.equals("")) {
+			if(endpoint.endsWith("/")) {
+				endpoint = endpoint.substring(0, endpoint.length() - 1);
+			}
+			url = endpoint + url.substring(url.indexOf("/api/"));
+		}
+		return url;
+	}
+
+	/**
+	 * Returns whether the events are published over HTTP(S) while the MQTT connection is down,
+	 * instead of failing the publish.
+	 * 
+	 * old style - failover-to-http
+	 * new style - Failover-To-HTTP
+	 * 
+	 * @return true if the property is set to true, false otherwise
+	 */
+	public boolean isFailoverToHttpEnabled() {
+		String failover = options.getProperty("failover-to-http");
+		if(failover == null) {
+			failover = options.getProperty("Failover-To-HTTP");
+		}
+		return Boolean.parseBoolean(trimedValue(failover));
+	}
+
+	/**
+	 * Returns the MQTT keep alive interval, in seconds. A connection that stops responding, a silent
+	 * network failure for example, is only noticed after up to twice the interval.
+	 * 
+	 * old style - keep-alive
+	 * new style - Keep-Alive
+	 * 
+	 * @return the interval, -1 when the property is not set and the default of the transport (60 seconds) applies
+	 */
+	public int getKeepAliveInterval() {
+		return getIntProperty(options, "keep-alive", "Keep-Alive", -1);
+	}
+
+	/**
+	 * Returns whether the metrics of the client are registered in the platform MBean server when it connects,
+	 * see {@link ClientMetrics#registerMBean()}.
+	 * 
+	 * old style - metrics-mbean
+	 * new style - Metrics-MBean
+	 * 
+	 * @return true if the property is set to true, false otherwise
+	 */
+	public boolean isMetricsMBeanEnabled() {
+		String enabled = options == null ? null : options.getProperty("metrics-mbean");
+		if(enabled == null && options != null) {
+			enabled = options.getProperty("Metrics-MBean");
+		}
+		return Boolean.parseBoolean(trimedValue(enabled));
+	}
+
+	/**
+	 * @return the metrics of the messages, connections and callbacks of this client
+	 */
+	public ClientMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Publishes a message over MQTT and waits for the completion of its delivery token, the publish
+	 * is recorded in the metrics of the client and traced by the {@link ClientTracer} if any
+	 * 
+	 * @param type	the event or command name the message is counted by, null to count it in the totals only
+	 * @param topic	the topic
+	 * @param msg	the message
+	 * @throws MqttException if the publish failed
+	 */
+	protected void publishAndWait(String type, String topic, MqttMessage msg) throws MqttException {
+		ClientTracer tracer = ClientTracer.getInstance();
+		Object trace = tracer == null ? null : tracer.publishStarted(this, topic);
+		long start = metrics.publishStarted();
+		boolean completed = false;
 		try {
-			input = new StringEntity(message.toString());
-		} catch (UnsupportedEncodingException e) {
-			LoggerUtility.severe(CLASS_NAME, METHOD, "Unable to carry out the ReST request");
-			throw e;
+			transport.publish(topic, msg).waitForCompletion();
+			completed = true;
+		} finally {
+			if (completed) {
+				metrics.publishCompleted(type, msg.getPayload().length, start);
+			} else {
+				metrics.publishFailed();
+			}
+			if (tracer != null) {
+				tracer.publishCompleted(trace, msg.getPayload().length, completed);
+			}
 		}
-		
-		// Create the Http post request
-		HttpPost post = new HttpPost(sb.toString());
-		post.setEntity(input);
-		post.addHeader("Content-Type", "application/json");
-		post.addHeader("Accept", "application/json");
-		
-		if("quickstart".equalsIgnoreCase(organization) == false) {
-			byte[] encoding = Base64.encodeBase64(new String(authKey + ":" + authToken).getBytes() );			
-			String encodedString = new String(encoding);
-			post.addHeader("Authorization", "Basic " + encodedString);
+	}
+
+	/**
+	 * Returns whether an event whose MQTT publish failed can be sent over HTTP without the risk
+	 * of a duplicate, i.e. the message has certainly not reached the server.
+	 * 
+	 * @param e		the exception of the publish
+	 * @param qos	the Quality of Service of the publish
+	 */
+	protected static boolean isSafeToFailover(MqttException e, int qos) {
+		switch(e.getReasonCode()) {
+		case MqttException.REASON_CODE_CLIENT_NOT_CONNECTED:
+		case MqttException.REASON_CODE_CLIENT_CLOSED:
+		case MqttException.REASON_CODE_CLIENT_DISCONNECTING:
+			// Rejected before anything was written
+			return true;
+		case MqttException.REASON_CODE_CONNECTION_LOST:
+			// A QoS 1 or 2 message may have reached the server without its acknowledgement
+			return qos == 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Creates a publish channel bound to a topic, see {@link PublishChannel}
+	 * 
+	 * @param topic		the topic of the messages, in their uncompressed format
+	 * @param format	the fmt segment of the topic
+	 * @param qos		the Quality of Service of the messages
+	 * @return the channel
+	 */
+	protected PublishChannel createChannel(String topic, String format, int qos) {
+		return new PublishChannel(this, topic, format, qos);
+	}
+
+	/**
+	 * Encodes the message of an event or a command for the fmt segment of its topic. The formats
+	 * that have a codec (see {@link PayloadCodecs}) carry the message, {"ts": ..., "d": ...}, in
+	 * their encoding. The other formats carry the data as is, a byte[] or the UTF-8 of its string.
+	 * 
+	 * @param format	the format of the topic, for example json or cbor
+	 * @param message	the message with the timestamp and the data
+	 * @param data		the data of the message
+	 * @return the payload of the MQTT message
+	 */
+	protected static byte[] encodePayload(String format, JsonObject message, Object data) throws IOException {
+		PayloadCodec codec = PayloadCodecs.get(format);
+		if (codec != null) {
+			return codec.encode(message);
+		}
+		if (data instanceof byte[]) {
+			return (byte[]) data;
+		}
+		return String.valueOf(data).getBytes("UTF-8");
+	}
+
+	/**
+	 * Publishes an event message over HTTP(S) because the MQTT connection is down. The message is
+	 * the one that would have been published over MQTT, with the same timestamp.
+	 * 
+	 * @param deviceType	Device Type
+	 * @param deviceId		Device ID
+	 * @param eventName		Name of the Event
+	 * @param device 		Boolean value indicating whether the request is originated from device or application
+	 * @param authKey		Authentication Method
+	 * @param message		the message in Json format
+	 * @return Whether the send was successful.
+	 */
+	protected boolean publishEventOverHTTPFailover(String deviceType,
+			String deviceId,
+			String eventName,
+			boolean device,
+			String authKey,
+			String message) {
+		final String METHOD = "publishEventOverHTTPFailover";
+		try {
+			String url = getEventURL(deviceType, deviceId, eventName, device);
+			HttpPost post = createEventPost(url, getAuthorization(getOrgId(), authKey, getAuthToken()), message);
+			int httpCode = executeHttpPost(getHttpClientPool(), post);
+			if(httpCode >= 200 && httpCode < 300) {
+				failoverCount.incrementAndGet();
+				LoggerUtility.fine(CLASS_NAME, METHOD, "Event {} published over HTTP", eventName);
+				return true;
+			}
+		} catch (IOException e) {
+			LoggerUtility.warn(CLASS_NAME, METHOD, "The event " + eventName + " could not be published " 
+					+ "over HTTP either: " + e.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of messages whose delivery completed since the client was created
+	 */
+	public long getMessageCount() {
+		return messageCount.get();
+	}
+
+	/**
+	 * Counts a message whose delivery completed, called by the callbacks of the transport.
+	 * The subclasses that incremented the former messageCount field call it instead.
+	 */
+	protected void messageDelivered() {
+		messageCount.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of events published over HTTP(S) while the MQTT connection was down
+	 */
+	public long getFailoverEventCount() {
+		return failoverCount.get();
+	}
+
+	/**
+	 * Returns the compressor of the payloads. The payloads of at least compression-threshold bytes
+	 * are published compressed, on the topic of their format with the -deflate suffix. The topics
+	 * with the -deflate suffix are subscribed next to those of their format whatever the threshold,
+	 * and the received compressed payloads are always decompressed.
+	 * 
+	 * old style - compression-threshold, compression-level
+	 * new style - Compression-Threshold, Compression-Level
+	 * 
+	 * @return the compressor, which only decompresses when the threshold is not set
+	 */
+	public PayloadCompressor getPayloadCompressor() {
+		// Called by every publish, the lock is only taken to create the compressor
+		PayloadCompressor current = compressor;
+		if(current == null) {
+			synchronized (this) {
+				current = compressor;
+				if(current == null) {
+					int threshold = getIntProperty(options, "compression-threshold", "Compression-Threshold", -1);
+					int level = getIntProperty(options, "compression-level", "Compression-Level", Deflater.DEFAULT_COMPRESSION);
+					current = new PayloadCompressor(threshold, level);
+					compressor = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * @return whether the payloads above the compression threshold are compressed, see {@link #getPayloadCompressor()}
+	 */
+	public boolean isCompressionEnabled() {
+		return getPayloadCompressor().isEnabled();
+	}
+
+	/**
+	 * Compresses the payload of a message when it is above the compression threshold
+	 * 
+	 * @param topic	the topic of the message, in its uncompressed format
+	 * @param msg	the message, its payload is replaced when compressed
+	 * @return the topic to publish the message to, with the -deflate suffix if the payload is compressed
+	 */
+	protected String compress(String topic, MqttMessage msg) {
+		byte[] compressed = getPayloadCompressor().compress(topic, msg.getPayload());
+		if(compressed == null) {
+			return topic;
+		}
+		msg.setPayload(compressed);
+		return topic + PayloadCompressor.DEFLATE_SUFFIX;
+	}
+
+	/**
+	 * Decompresses the payload of a received message if its format is compressed
+	 * 
+	 * @param topic		the topic of the message
+	 * @param format	the fmt segment of the topic
+	 * @param msg		the message
+	 * @return the message with the decompressed payload, or msg if it is not compressed
+	 * @throws IOException if the compressed payload is not valid
+	 */
+	protected MqttMessage decompress(String topic, String format, MqttMessage msg) throws IOException {
+		if(!PayloadCompressor.isCompressed(format)) {
+			return msg;
+		}
+		String baseTopic = topic.substring(0, topic.length() - PayloadCompressor.DEFLATE_SUFFIX.length());
+		MqttMessage decompressed = new MqttMessage(getPayloadCompressor().decompress(baseTopic, msg.getPayload()));
+		decompressed.setQos(msg.getQos());
+		decompressed.setRetained(msg.isRetained());
+		return decompressed;
+	}
+
+	static int getIntProperty(Properties options, String oldStyle, String newStyle, int defaultValue) {
+		return getIntProperty(options, oldStyle, newStyle, defaultValue, Integer.MIN_VALUE);
+	}
+
+	/*
+	 * Reads an int property by its old style or new style name, shared by the client, the HTTP pool
+	 * and the HTTP batch publisher. A value that is not a number or is below the minimum is logged
+	 * and the default applies.
+	 */
+	static int getIntProperty(Properties options, String oldStyle, String newStyle, int defaultValue, int minimum) {
+		final String METHOD = "getIntProperty";
+		if(options == null) {
+			return defaultValue;
+		}
+		String value = trimedValue(options.getProperty(oldStyle));
+		if(value == null) {
+			value = trimedValue(options.getProperty(newStyle));
+		}
+		if(value == null || value.equals("")) {
+			return defaultValue;
+		}
+		try {
+			int parsed = Integer.parseInt(value);
+			if(parsed >= minimum) {
+				return parsed;
+			}
+		} catch (NumberFormatException e) {
+			// Logged below
+		}
+		LoggerUtility.warn(CLASS_NAME, METHOD, "Invalid value " + value + " for " + newStyle + ", using " + defaultValue);
+		return defaultValue;
+	}
+
+	/**
+	 * @return the value of the basic Authorization header, null for quickstart
+	 */
+	protected static String getAuthorization(String organization, String authKey, String authToken) {
+		if("quickstart".equalsIgnoreCase(organization)) {
+			return null;
 		}
+		byte[] encoding = Base64.encodeBase64(new String(authKey + ":" + authToken).getBytes() );			
+		return "Basic " + new String(encoding);
+	}
 
+	/**
+	 * Executes the post request on a pooled keep-alive connection. The response is always
+	 * consumed, so that the connection goes back to the pool.
+	 * 
+	 * @param pool	the connection pool
+	 * @param post	the request
+	 * @return the HTTP status code
+	 * @throws IOException	throws exception when http post fails
+	 */
+	protected static int executeHttpPost(HttpClientPool pool, HttpPost post) throws IOException {
+		final String METHOD = "executeHttpPost";
+		CloseableHttpResponse response = null;
 		try {
-			HttpClient client = HttpClientBuilder.create().build();					
-			HttpResponse response = client.execute(post);
+			response = pool.getClient().execute(post);
 			
 			int httpCode = response.getStatusLine().getStatusCode();
 			if(httpCode >= 200 && httpCode < 300) {
+				EntityUtils.consume(response.getEntity());
 				return httpCode;
-	}
+			}
 
 			/**
 			 * Looks like some error so log the header and response
 			 */
 			StringBuilder log = new StringBuilder("HTTP Code: "+httpCode);
 			log.append("\nURL: ")
-				.append(sb.toString())
+				.append(post.getURI())
 				.append("\nHeader:\n");
 			Header[] headers = response.getAllHeaders();
 			for(int i = 0; i < headers.length; i++) {
@@ -536,8 +1232,9 @@ public abstract class AbstractClient {
 					.append('\n');
 			}
 			log.append("\nResponse \n");
-			br = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-			log.append(br.readLine());
+			if(response.getEntity() != null) {
+				log.append(EntityUtils.toString(response.getEntity()));
+			}
 			LoggerUtility.severe(CLASS_NAME, METHOD, log.toString());
 
 			return httpCode;
@@ -545,9 +1242,112 @@ public abstract class AbstractClient {
 			LoggerUtility.severe(CLASS_NAME, METHOD, e.getMessage());
 			throw e;
 		} finally {
-			if(br != null) {
-				br.close();
+			if(response != null) {
+				response.close();
 			}
 		}
 	}
+
+	/**
+	 * @return the HTTP connection pool shared by the clients with the same HTTP settings as this one
+	 */
+	protected HttpClientPool getHttpClientPool() {
+		return HttpClientPool.getInstance(options);
+	}
+
+	/**
+	 * @return the number of events waiting for an HTTP batch, 0 when no event was batched
+	 */
+	synchronized int getPendingHttpEvents() {
+		return httpBatchPublisher == null ? 0 : httpBatchPublisher.getPendingEvents();
+	}
+
+	/**
+	 * Returns the publisher of the batched HTTP events of this client, it is created on the first call
+	 * and after it is closed, by disconnect() for example
+	 * 
+	 * @param authKey	the authentication key of the posts
+	 */
+	protected synchronized HttpBatchPublisher getHttpBatchPublisher(String authKey) {
+		if(httpBatchPublisher == null || httpBatchPublisher.isClosed()) {
+			httpBatchPublisher = new HttpBatchPublisher(getHttpClientPool(), 
+					getAuthorization(getOrgId(), authKey, getAuthToken()), options);
+		}
+		return httpBatchPublisher;
+	}
+
+	/*
+	 * Posts the batched HTTP events and waits for them, the thread of the publisher is a daemon
+	 * and the events still pending when the process exits would be lost
+	 */
+	private void closeHttpBatchPublisher() {
+		final String METHOD = "closeHttpBatchPublisher";
+		HttpBatchPublisher publisher;
+		synchronized (this) {
+			publisher = httpBatchPublisher;
+			httpBatchPublisher = null;
+		}
+		if(publisher == null) {
+			return;
+		}
+		try {
+			if(!publisher.close(HTTP_BATCH_CLOSE_TIMEOUT)) {
+				LoggerUtility.warn(CLASS_NAME, METHOD, publisher.getPendingEvents() 
+						+ " batched HTTP event(s) are still pending after " + HTTP_BATCH_CLOSE_TIMEOUT + " ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Executes the post request on a thread of the shared HTTP connection pool
+	 * 
+	 * @param post	the request
+	 * @return the future HTTP status code
+	 */
+	protected Future<Integer> submitHttpPost(final HttpPost post) {
+		final HttpClientPool pool = getHttpClientPool();
+		return pool.getExecutor().submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return executeHttpPost(pool, post);
+			}
+		});
+	}
+
+	/**
+	 * Passes the messages received by the transport to the callback of the client, between the
+	 * messageArrived() and messageDispatched() hooks of the {@link ClientTracer} if any
+	 */
+	private class TracedCallback implements MqttCallback {
+
+		private final MqttCallback callback;
+
+		private TracedCallback(MqttCallback callback) {
+			this.callback = callback;
+		}
+
+		public void connectionLost(Throwable cause) {
+			callback.connectionLost(cause);
+		}
+
+		public void messageArrived(String topic, MqttMessage msg) throws Exception {
+			ClientTracer tracer = ClientTracer.getInstance();
+			if (tracer == null) {
+				callback.messageArrived(topic, msg);
+				return;
+			}
+			Object trace = tracer.messageArrived(AbstractClient.this, topic, msg.getPayload().length);
+			try {
+				callback.messageArrived(topic, msg);
+			} finally {
+				tracer.messageDispatched(trace);
+			}
+		}
+
+		public void deliveryComplete(IMqttDeliveryToken token) {
+			callback.deliveryComplete(token);
+		}
+	}
 }
@@ -0,0 +1,517 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ibm.iotf.client.transport.MqttTransport;
+import com.ibm.iotf.util.LatencyHistogram;
+import com.ibm.iotf.util.LatencySnapshot;
+import com.ibm.iotf.util.LoggerUtility;
+import com.ibm.iotf.util.SequenceTracker;
+
+/**
+ * <p>The instrumentation of a client, obtained with AbstractClient.getMetrics(). The metrics are
+ * updated by the publish, receive and connect paths of the client without taking a lock:</p>
+ *
+ * <ul>
+ * <li>the messages and bytes sent over MQTT and received, in total and by event or command name.
+ * The bytes are those of the payload on the wire, after the compression. The messages received by
+ * an application are also counted by device type</li>
+ * <li>the latency of the publishes, from the call to the completion of the delivery token, and the
+ * number of publishes in flight</li>
+ * <li>the time spent in the event, command and status callbacks</li>
+ * <li>the connects and reconnects, the time they took including the retries, and the lost connections</li>
+ * <li>the round trip of the device management requests, see ManagedDevice.sendAndWait()</li>
+ * <li>the latency from the devices to the application and the events missing, reordered or duplicated
+ * by device, for the events stamped by the devices, see DeviceClient.isLatencyStampingEnabled()</li>
+ * <li>the depth of the queues, the MQTT deliveries pending and the events waiting for an HTTP batch</li>
+ * </ul>
+ *
+ * <p>The metrics are exposed over JMX with {@link #registerMBean()}, or by setting the Metrics-MBean
+ * property of the client to true. The durations of the histograms are recorded in nanoseconds and
+ * reported in microseconds.</p>
+ */
+public class ClientMetrics implements ClientMetricsMXBean {
+
+	private static final String CLASS_NAME = ClientMetrics.class.getName();
+
+	/* The names counted separately, the others are counted together under OTHER_TYPES */
+	private static final int MAX_TYPES = 256;
+	public static final String OTHER_TYPES = "*";
+
+	/* The devices whose sequence numbers are tracked, the events of the others are not checked */
+	private static final int MAX_DEVICES = 65536;
+
+	private final AbstractClient client;
+
+	private final AtomicLong messagesSent = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong publishFailures = new AtomicLong();
+	private final AtomicLong messagesReceived = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final ConcurrentHashMap<String, Counters> sentByType = new ConcurrentHashMap<String, Counters>();
+	private final ConcurrentHashMap<String, Counters> receivedByType = new ConcurrentHashMap<String, Counters>();
+	private final ConcurrentHashMap<String, Counters> receivedByDeviceType = new ConcurrentHashMap<String, Counters>();
+
+	private final LatencyHistogram publishLatency = new LatencyHistogram();
+	private final LatencyHistogram callbackTime = new LatencyHistogram();
+	private final LatencyHistogram connectTime = new LatencyHistogram();
+	private final LatencyHistogram requestRoundTrip = new LatencyHistogram();
+	private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+	private final ConcurrentHashMap<String, SequenceTracker> sequences = new ConcurrentHashMap<String, SequenceTracker>();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+
+	private final AtomicLong connects = new AtomicLong();
+	private final AtomicLong failedConnectAttempts = new AtomicLong();
+	private final AtomicLong connectionsLost = new AtomicLong();
+	private final AtomicLong requestTimeouts = new AtomicLong();
+
+	private ObjectName objectName;
+
+	ClientMetrics(AbstractClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Records the start of a publish
+	 *
+	 * @return the start time, to pass to publishCompleted() or publishFailed()
+	 */
+	public long publishStarted() {
+		int current = inFlight.incrementAndGet();
+		int max;
+		while (current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current)) {
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param type the event or command name, null to count the message in the totals only
+	 * @param bytes the size of the payload sent
+	 * @param start the start time returned by publishStarted()
+	 */
+	public void publishCompleted(String type, int bytes, long start) {
+		publishLatency.recordSince(start);
+		inFlight.decrementAndGet();
+		messagesSent.incrementAndGet();
+		bytesSent.addAndGet(bytes);
+		if (type != null) {
+			counters(sentByType, type).add(bytes);
+		}
+	}
+
+	/**
+	 * Records a publish that failed after publishStarted()
+	 */
+	public void publishFailed() {
+		inFlight.decrementAndGet();
+		publishFailures.incrementAndGet();
+	}
+
+	/**
+	 * @param type the event or command name, null to count the message in the totals only
+	 * @param bytes the size of the payload received
+	 */
+	public void messageReceived(String type, int bytes) {
+		messagesReceived.incrementAndGet();
+		bytesReceived.addAndGet(bytes);
+		if (type != null) {
+			counters(receivedByType, type).add(bytes);
+		}
+	}
+
+	/**
+	 * @param deviceType the type of the device that sent the message, null if it is not from a device
+	 * @param type the event or command name, null to count the message in the totals only
+	 * @param bytes the size of the payload received
+	 */
+	public void messageReceived(String deviceType, String type, int bytes) {
+		messageReceived(type, bytes);
+		if (deviceType != null) {
+			counters(receivedByDeviceType, deviceType).add(bytes);
+		}
+	}
+
+	/**
+	 * @param start the System.nanoTime() before the callback was called
+	 */
+	public void callbackCompleted(long start) {
+		callbackTime.recordSince(start);
+	}
+
+	/**
+	 * @param start the System.nanoTime() when the connect started, before the first attempt
+	 */
+	public void connected(long start) {
+		connectTime.recordSince(start);
+		connects.incrementAndGet();
+	}
+
+	public void connectAttemptFailed() {
+		failedConnectAttempts.incrementAndGet();
+	}
+
+	public void connectionLost() {
+		connectionsLost.incrementAndGet();
+	}
+
+	/**
+	 * @param start the System.nanoTime() before the request was published
+	 */
+	public void requestCompleted(long start) {
+		requestRoundTrip.recordSince(start);
+	}
+
+	public void requestTimedOut() {
+		requestTimeouts.incrementAndGet();
+	}
+
+	/**
+	 * Records an event stamped by a device
+	 * 
+	 * @param device the type and id of the device, type:id
+	 * @param sequence the sequence number of the event, -1 if it has none
+	 * @param sentTime the time the device sent the event in microseconds since the epoch, -1 if it has none
+	 * @param receivedTime the time the event arrived in microseconds since the epoch, see EpochClock
+	 */
+	public void stampedEventReceived(String device, long sequence, long sentTime, long receivedTime) {
+		if (sentTime >= 0) {
+			// A negative latency, from clocks out of sync, is recorded as 0
+			endToEndLatency.record((receivedTime - sentTime) * 1000);
+		}
+		if (sequence > 0) {
+			SequenceTracker tracker = sequences.get(device);
+			if (tracker == null) {
+				if (sequences.size() >= MAX_DEVICES) {
+					return;
+				}
+				SequenceTracker created = new SequenceTracker();
+				tracker = sequences.putIfAbsent(device, created);
+				if (tracker == null) {
+					tracker = created;
+				}
+			}
+			tracker.record(sequence);
+		}
+	}
+
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public long getPublishFailures() {
+		return publishFailures.get();
+	}
+
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public Map<String, Long> getMessagesSentByType() {
+		return snapshot(sentByType, false);
+	}
+
+	public Map<String, Long> getBytesSentByType() {
+		return snapshot(sentByType, true);
+	}
+
+	public Map<String, Long> getMessagesReceivedByType() {
+		return snapshot(receivedByType, false);
+	}
+
+	public Map<String, Long> getBytesReceivedByType() {
+		return snapshot(receivedByType, true);
+	}
+
+	/**
+	 * @return the messages received by an application by device type, comparing them across the
+	 * instances of an application with a shared subscription shows how the load is spread
+	 */
+	public Map<String, Long> getMessagesReceivedByDeviceType() {
+		return snapshot(receivedByDeviceType, false);
+	}
+
+	public LatencySnapshot getPublishLatency() {
+		return publishLatency.snapshot();
+	}
+
+	public LatencySnapshot getCallbackTime() {
+		return callbackTime.snapshot();
+	}
+
+	public LatencySnapshot getConnectTime() {
+		return connectTime.snapshot();
+	}
+
+	public LatencySnapshot getRequestRoundTrip() {
+		return requestRoundTrip.snapshot();
+	}
+
+	/**
+	 * @return the latency from the devices to this application, from the time the devices stamped in 
+	 * the events, which relies on the clocks of the devices being in sync
+	 */
+	public LatencySnapshot getEndToEndLatency() {
+		return endToEndLatency.snapshot();
+	}
+
+	/**
+	 * @return the histogram of the end-to-end latencies, for the percentiles not in the snapshot
+	 */
+	public LatencyHistogram getEndToEndLatencyHistogram() {
+		return endToEndLatency;
+	}
+
+	/**
+	 * @return the events skipped in the sequences of the devices and not received since
+	 */
+	public long getEventsMissing() {
+		long missing = 0;
+		for (SequenceTracker tracker : sequences.values()) {
+			missing += tracker.getMissing();
+		}
+		return missing;
+	}
+
+	/**
+	 * @return the events received after an event of the same device with a higher sequence number
+	 */
+	public long getEventsReordered() {
+		long reordered = 0;
+		for (SequenceTracker tracker : sequences.values()) {
+			reordered += tracker.getReordered();
+		}
+		return reordered;
+	}
+
+	/**
+	 * @return the events whose sequence number was already received
+	 */
+	public long getEventsDuplicated() {
+		long duplicates = 0;
+		for (SequenceTracker tracker : sequences.values()) {
+			duplicates += tracker.getDuplicates();
+		}
+		return duplicates;
+	}
+
+	/**
+	 * @return the events missing by device, type:id, for the devices that have some
+	 */
+	public Map<String, Long> getEventsMissingByDevice() {
+		Map<String, Long> snapshot = new TreeMap<String, Long>();
+		for (Entry<String, SequenceTracker> e : sequences.entrySet()) {
+			long missing = e.getValue().getMissing();
+			if (missing > 0) {
+				snapshot.put(e.getKey(), missing);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @param device the type and id of the device, type:id
+	 * @return the tracking of the sequence numbers of the device, null if it has sent no stamped event
+	 */
+	public SequenceTracker getSequenceTracker(String device) {
+		return sequences.get(device);
+	}
+
+	/**
+	 * @return the histogram of the publish latencies, for the percentiles not in the snapshot
+	 */
+	public LatencyHistogram getPublishLatencyHistogram() {
+		return publishLatency;
+	}
+
+	/**
+	 * @return the number of publishes waiting for the completion of their delivery token
+	 */
+	public int getInFlightPublishes() {
+		return inFlight.get();
+	}
+
+	public int getMaxInFlightPublishes() {
+		return maxInFlight.get();
+	}
+
+	/**
+	 * @return the number of messages handed to the transport and not delivered yet
+	 */
+	public int getPendingDeliveries() {
+		MqttTransport transport = client.transport;
+		if (transport == null) {
+			return 0;
+		}
+		Object[] tokens = transport.getPendingDeliveryTokens();
+		return tokens == null ? 0 : tokens.length;
+	}
+
+	/**
+	 * @return the number of events waiting to be posted in an HTTP batch
+	 */
+	public int getPendingHttpEvents() {
+		return client.getPendingHttpEvents();
+	}
+
+	/**
+	 * @return the number of successful connects, the first one included
+	 */
+	public long getConnects() {
+		return connects.get();
+	}
+
+	/**
+	 * @return the number of successful connects after the first one
+	 */
+	public long getReconnects() {
+		return Math.max(0, connects.get() - 1);
+	}
+
+	public long getFailedConnectAttempts() {
+		return failedConnectAttempts.get();
+	}
+
+	public long getConnectionsLost() {
+		return connectionsLost.get();
+	}
+
+	public long getRequestTimeouts() {
+		return requestTimeouts.get();
+	}
+
+	/**
+	 * Clears the counters and the histograms, the in-flight publishes are kept
+	 */
+	public void reset() {
+		messagesSent.set(0);
+		bytesSent.set(0);
+		publishFailures.set(0);
+		messagesReceived.set(0);
+		bytesReceived.set(0);
+		sentByType.clear();
+		receivedByType.clear();
+		receivedByDeviceType.clear();
+		publishLatency.reset();
+		callbackTime.reset();
+		connectTime.reset();
+		requestRoundTrip.reset();
+		endToEndLatency.reset();
+		sequences.clear();
+		maxInFlight.set(inFlight.get());
+		connects.set(0);
+		failedConnectAttempts.set(0);
+		connectionsLost.set(0);
+		requestTimeouts.set(0);
+	}
+
+	/**
+	 * Registers the metrics in the platform MBean server, as com.ibm.iotf:type=ClientMetrics,name="client id".
+	 * The metrics of another client with the same id are replaced.
+	 *
+	 * @return the name of the MBean, null if it could not be registered
+	 */
+	public synchronized ObjectName registerMBean() {
+		final String METHOD = "registerMBean";
+		if (objectName != null) {
+			return objectName;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName("com.ibm.iotf:type=ClientMetrics,name="
+					+ ObjectName.quote(String.valueOf(client.clientId)));
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (JMException e) {
+			LoggerUtility.warn(CLASS_NAME, METHOD, "Unable to register the metrics MBean: " + e.getMessage());
+		}
+		return objectName;
+	}
+
+	public synchronized void unregisterMBean() {
+		final String METHOD = "unregisterMBean";
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (InstanceNotFoundException e) {
+			// Replaced by the metrics of another client with the same id
+		} catch (JMException e) {
+			LoggerUtility.warn(CLASS_NAME, METHOD, "Unable to unregister the metrics MBean: " + e.getMessage());
+		}
+		objectName = null;
+	}
+
+	@Override
+	public String toString() {
+		return "sent " + messagesSent.get() + " (" + bytesSent.get() + " bytes), received " + messagesReceived.get()
+				+ " (" + bytesReceived.get() + " bytes), publish latency " + publishLatency;
+	}
+
+	private static Counters counters(ConcurrentHashMap<String, Counters> map, String type) {
+		Counters counters = map.get(type);
+		if (counters == null) {
+			if (map.size() >= MAX_TYPES) {
+				type = OTHER_TYPES;
+			}
+			Counters created = new Counters();
+			counters = map.putIfAbsent(type, created);
+			if (counters == null) {
+				counters = created;
+			}
+		}
+		return counters;
+	}
+
+	private static Map<String, Long> snapshot(ConcurrentHashMap<String, Counters> map, boolean bytes) {
+		Map<String, Long> snapshot = new TreeMap<String, Long>();
+		for (Entry<String, Counters> e : map.entrySet()) {
+			snapshot.put(e.getKey(), bytes ? e.getValue().bytes.get() : e.getValue().messages.get());
+		}
+		return snapshot;
+	}
+
+	private static class Counters {
+		private final AtomicLong messages = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+
+		private void add(int size) {
+			messages.incrementAndGet();
+			bytes.addAndGet(size);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client;
+
+import java.util.Map;
+
+import com.ibm.iotf.util.LatencySnapshot;
+
+/**
+ * The JMX view of the {@link ClientMetrics} of a client, registered as
+ * com.ibm.iotf:type=ClientMetrics,name="client id". The durations are in microseconds.
+ */
+public interface ClientMetricsMXBean {
+
+	long getMessagesSent();
+
+	long getBytesSent();
+
+	long getPublishFailures();
+
+	long getMessagesReceived();
+
+	long getBytesReceived();
+
+	Map<String, Long> getMessagesSentByType();
+
+	Map<String, Long> getBytesSentByType();
+
+	Map<String, Long> getMessagesReceivedByType();
+
+	Map<String, Long> getBytesReceivedByType();
+
+	Map<String, Long> getMessagesReceivedByDeviceType();
+
+	LatencySnapshot getPublishLatency();
+
+	LatencySnapshot getCallbackTime();
+
+	LatencySnapshot getConnectTime();
+
+	LatencySnapshot getRequestRoundTrip();
+
+	LatencySnapshot getEndToEndLatency();
+
+	long getEventsMissing();
+
+	long getEventsReordered();
+
+	long getEventsDuplicated();
+
+	Map<String, Long> getEventsMissingByDevice();
+
+	int getInFlightPublishes();
+
+	int getMaxInFlightPublishes();
+
+	int getPendingDeliveries();
+
+	int getPendingHttpEvents();
+
+	long getConnects();
+
+	long getReconnects();
+
+	long getFailedConnectAttempts();
+
+	long getConnectionsLost();
+
+	long getRequestTimeouts();
+
+	void reset();
+}
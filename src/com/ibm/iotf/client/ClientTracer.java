@@ -0,0 +1,141 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+import java.util.ServiceConfigurationError;
+
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>The hooks called by the clients around the publishes, the dispatch of the received messages,
+ * the connect attempts and the device management requests, to trace them in a profiler or a
+ * flight recorder. The iotf-jfr module implements them with Java Flight Recorder events.</p>
+ *
+ * <p>The tracer is the first implementation found with the ServiceLoader, or the one set with
+ * {@link #setInstance(ClientTracer)}. Without a tracer the hooks are not called at all. Each start
+ * hook returns a context which is passed back to the matching end hook, from the same thread;
+ * the hooks are called concurrently for different operations and must not throw.</p>
+ */
+public abstract class ClientTracer {
+
+	private static final String CLASS_NAME = ClientTracer.class.getName();
+
+	private static volatile ClientTracer instance = load();
+
+	/**
+	 * @return the tracer of the clients, null when there is none
+	 */
+	public static ClientTracer getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param tracer the tracer of the clients, null to stop tracing
+	 */
+	public static void setInstance(ClientTracer tracer) {
+		instance = tracer;
+	}
+
+	/**
+	 * Called before a message is handed to the transport
+	 *
+	 * @param client the client publishing the message
+	 * @param topic the topic of the message
+	 * @return the context passed to publishCompleted()
+	 */
+	public Object publishStarted(AbstractClient client, String topic) {
+		return null;
+	}
+
+	/**
+	 * @param context the context returned by publishStarted()
+	 * @param bytes the size of the payload on the wire
+	 * @param delivered whether the delivery token completed, false if the publish failed
+	 */
+	public void publishCompleted(Object context, int bytes, boolean delivered) {
+	}
+
+	/**
+	 * Called when the transport delivers a message, before the client dispatches it to its callbacks
+	 *
+	 * @param client the client receiving the message
+	 * @param topic the topic of the message
+	 * @param bytes the size of the payload on the wire
+	 * @return the context passed to messageDispatched()
+	 */
+	public Object messageArrived(AbstractClient client, String topic, int bytes) {
+		return null;
+	}
+
+	/**
+	 * @param context the context returned by messageArrived()
+	 */
+	public void messageDispatched(Object context) {
+	}
+
+	/**
+	 * Called before each attempt to connect to an endpoint
+	 *
+	 * @param client the client connecting
+	 * @param serverURI the URI of the endpoint
+	 * @param attempt the number of the attempt, starting at 1
+	 * @return the context passed to connectCompleted()
+	 */
+	public Object connectStarted(AbstractClient client, String serverURI, int attempt) {
+		return null;
+	}
+
+	/**
+	 * @param context the context returned by connectStarted()
+	 * @param connected whether the attempt succeeded
+	 */
+	public void connectCompleted(Object context, boolean connected) {
+	}
+
+	/**
+	 * Called before a device management request is published
+	 *
+	 * @param client the managed device
+	 * @param topic the topic of the request
+	 * @param reqId the id of the request
+	 * @param bytes the size of the request
+	 * @return the context passed to requestCompleted()
+	 */
+	public Object requestStarted(AbstractClient client, String topic, String reqId, int bytes) {
+		return null;
+	}
+
+	/**
+	 * @param context the context returned by requestStarted()
+	 * @param responded whether the response arrived, false on a timeout
+	 */
+	public void requestCompleted(Object context, boolean responded) {
+	}
+
+	private static ClientTracer load() {
+		final String METHOD = "load";
+		Iterator<ClientTracer> it = ServiceLoader.load(ClientTracer.class).iterator();
+		while (true) {
+			try {
+				if (!it.hasNext()) {
+					return null;
+				}
+				ClientTracer tracer = it.next();
+				LoggerUtility.info(CLASS_NAME, METHOD, "Client tracer " + tracer.getClass().getName() + " registered");
+				return tracer;
+			} catch (ServiceConfigurationError e) {
+				LoggerUtility.warn(CLASS_NAME, METHOD, "Unable to load a client tracer: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>Ranks the candidate MQTT endpoints of a client by their latency. Each endpoint is probed by
+ * opening a TCP connection to it, the round trip time of the handshake is the smallest of a few
+ * probes. All the endpoints are probed in parallel, so a ranking takes at most the probe timeout.</p>
+ *
+ * <p>The endpoints are tried in the order of the ranking: the endpoints that failed the MQTT connect
+ * less often first, then the fastest ones, the unreachable endpoints last.</p>
+ */
+public class EndpointSelector {
+
+	private static final String CLASS_NAME = EndpointSelector.class.getName();
+
+	static final int DEFAULT_PROBE_TIMEOUT = 2000;
+	static final int DEFAULT_PROBES = 2;
+
+	private static final ExecutorService PROBES = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "iotf-endpoint-probe-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+	private final int probeTimeout;
+	private final int probes;
+
+	/**
+	 * @param serverURIs the URIs of the endpoints, for example ssl://host:8883
+	 * @param probeTimeout the connect timeout of a probe in milliseconds
+	 * @param probes the number of probes per endpoint
+	 */
+	public EndpointSelector(List<String> serverURIs, int probeTimeout, int probes) {
+		for (String serverURI : serverURIs) {
+			endpoints.add(new Endpoint(serverURI));
+		}
+		this.probeTimeout = probeTimeout;
+		this.probes = Math.max(1, probes);
+	}
+
+	/**
+	 * @return the endpoints in the configured order
+	 */
+	public List<Endpoint> getEndpoints() {
+		return Collections.unmodifiableList(endpoints);
+	}
+
+	/**
+	 * Probes all the endpoints and ranks them
+	 *
+	 * @return the endpoints in the order they must be tried
+	 */
+	public List<Endpoint> rank() {
+		final String METHOD = "rank";
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		for (final Endpoint endpoint : endpoints) {
+			results.add(PROBES.submit(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return probe(endpoint);
+				}
+			}));
+		}
+		long deadline = System.currentTimeMillis() + (long) probeTimeout * probes + 1000;
+		for (int i = 0; i < endpoints.size(); i++) {
+			long rtt = -1;
+			try {
+				rtt = results.get(i).get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// The probe failed, the endpoint is unreachable
+			} catch (TimeoutException e) {
+				results.get(i).cancel(true);
+			}
+			endpoints.get(i).rtt = rtt;
+		}
+
+		List<Endpoint> ranked = new ArrayList<Endpoint>(endpoints);
+		Collections.sort(ranked, new Comparator<Endpoint>() {
+			@Override
+			public int compare(Endpoint a, Endpoint b) {
+				if (a.isReachable() != b.isReachable()) {
+					return a.isReachable() ? -1 : 1;
+				}
+				if (a.failures != b.failures) {
+					return a.failures < b.failures ? -1 : 1;
+				}
+				return a.rtt < b.rtt ? -1 : (a.rtt == b.rtt ? 0 : 1);
+			}
+		});
+		LoggerUtility.fine(CLASS_NAME, METHOD, "Endpoints ranked {}", ranked);
+		return ranked;
+	}
+
+	/**
+	 * Records a successful MQTT connect to the endpoint
+	 *
+	 * @param connectTime the time the MQTT connect took in milliseconds
+	 */
+	public void connected(Endpoint endpoint, long connectTime) {
+		endpoint.failures = 0;
+		endpoint.connectTime = connectTime;
+	}
+
+	/**
+	 * Records a failed MQTT connect to the endpoint, it is ranked after the others next time
+	 */
+	public void failed(Endpoint endpoint) {
+		endpoint.failures++;
+	}
+
+	/**
+	 * Measures the round trip time of the TCP handshake with the endpoint
+	 *
+	 * @return the smallest round trip time of the probes in microseconds, or -1 when the endpoint is unreachable
+	 */
+	protected long probe(Endpoint endpoint) {
+		long best = -1;
+		InetSocketAddress address = new InetSocketAddress(endpoint.host, endpoint.port);
+		if (address.isUnresolved()) {
+			return -1;
+		}
+		for (int i = 0; i < probes; i++) {
+			Socket socket = new Socket();
+			try {
+				long start = System.nanoTime();
+				socket.connect(address, probeTimeout);
+				long rtt = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+				if (best < 0 || rtt < best) {
+					best = rtt;
+				}
+			} catch (IOException e) {
+				return -1;
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * A candidate endpoint and its latest measurements
+	 */
+	public static class Endpoint {
+		private final String serverURI;
+		private final String host;
+		private final int port;
+		private volatile long rtt = -1;
+		private volatile long connectTime = -1;
+		private volatile int failures = 0;
+
+		Endpoint(String serverURI) {
+			this.serverURI = serverURI;
+			URI uri = URI.create(serverURI);
+			this.host = uri.getHost();
+			int port = uri.getPort();
+			if (port < 0) {
+				port = "ssl".equalsIgnoreCase(uri.getScheme()) ? 8883 : 1883;
+			}
+			this.port = port;
+		}
+
+		public String getServerURI() {
+			return serverURI;
+		}
+
+		/**
+		 * @return the round trip time of the latest probe in microseconds, -1 when the endpoint is unreachable
+		 */
+		public long getRtt() {
+			return rtt;
+		}
+
+		/**
+		 * @return the time the latest successful MQTT connect took in milliseconds, -1 if none
+		 */
+		public long getConnectTime() {
+			return connectTime;
+		}
+
+		/**
+		 * @return the number of consecutive failed MQTT connects
+		 */
+		public int getFailures() {
+			return failures;
+		}
+
+		public boolean isReachable() {
+			return rtt >= 0;
+		}
+
+		@Override
+		public String toString() {
+			return serverURI + " (rtt " + (rtt < 0 ? "unreachable" : rtt + "us") + ", failures " + failures + ")";
+		}
+	}
+}
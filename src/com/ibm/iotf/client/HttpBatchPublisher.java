@@ -0,0 +1,369 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.ibm.iotf.util.Iso8601;
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>Accumulates the events published over HTTP(S) and posts them in batches. The events of a batch
+ * go to the same event URL, the body of the post is the gzip compressed JSON array of the messages
+ * that publishEventOverHTTP() would send one by one.</p>
+ *
+ * <p>A batch is posted when it is full or when its oldest event has waited for the linger time.
+ * The number of concurrent posts is bounded, the batches that fail with an I/O error, a 429 or a 5xx
+ * response are retried with an exponential backoff, the others are dropped.</p>
+ *
+ * <p>The following optional properties are read,</p>
+ * <ul class="simple">
+ * <li>http-batch-size / Http-Batch-Size - the maximum number of events in a batch, default 100</li>
+ * <li>http-batch-linger / Http-Batch-Linger - the maximum time an event waits for its batch in milliseconds, default 1000</li>
+ * <li>http-batch-max-requests / Http-Batch-Max-Requests - the maximum number of concurrent posts, default 4</li>
+ * <li>http-batch-retries / Http-Batch-Retries - the number of retries of a failed batch, default 3</li>
+ * <li>http-batch-max-pending / Http-Batch-Max-Pending - the maximum number of events not yet posted, the
+ * events published above this limit are rejected, default 10000</li>
+ * </ul>
+ */
+public class HttpBatchPublisher {
+
+	private static final String CLASS_NAME = HttpBatchPublisher.class.getName();
+
+	static final int DEFAULT_BATCH_SIZE = 100;
+	static final int DEFAULT_LINGER = 1000;
+	static final int DEFAULT_MAX_REQUESTS = 4;
+	static final int DEFAULT_RETRIES = 3;
+	static final int DEFAULT_MAX_PENDING = 10000;
+	private static final long RETRY_DELAY = 1000;
+
+	private final HttpClientPool pool;
+	private final String authorization;
+	private final int batchSize;
+	private final long linger;
+	private final int maxRetries;
+	private final int maxPending;
+	private final Semaphore requests;
+	private final ScheduledExecutorService scheduler;
+
+	// Guarded by this
+	private final Map<String, List<JsonObject>> batches = new HashMap<String, List<JsonObject>>();
+	private int pending = 0;
+	private boolean lingerScheduled = false;
+	private boolean closed = false;
+
+	private final Queue<Batch> ready = new ConcurrentLinkedQueue<Batch>();
+
+	private final AtomicLong eventsSent = new AtomicLong();
+	private final AtomicLong eventsDropped = new AtomicLong();
+	private final AtomicLong batchesSent = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesUncompressed = new AtomicLong();
+
+	/**
+	 * @param pool the HTTP connection pool
+	 * @param authorization the value of the Authorization header, or null for quickstart
+	 * @param options the properties of the client, can be null for the defaults
+	 */
+	public HttpBatchPublisher(HttpClientPool pool, String authorization, Properties options) {
+		this.pool = pool;
+		this.authorization = authorization;
+		this.batchSize = AbstractClient.getIntProperty(options, "http-batch-size", "Http-Batch-Size",
+				DEFAULT_BATCH_SIZE, 1);
+		this.linger = AbstractClient.getIntProperty(options, "http-batch-linger", "Http-Batch-Linger", DEFAULT_LINGER, 0);
+		this.maxRetries = AbstractClient.getIntProperty(options, "http-batch-retries", "Http-Batch-Retries",
+				DEFAULT_RETRIES, 0);
+		this.maxPending = AbstractClient.getIntProperty(options, "http-batch-max-pending", "Http-Batch-Max-Pending",
+				DEFAULT_MAX_PENDING, 1);
+		this.requests = new Semaphore(AbstractClient.getIntProperty(options, "http-batch-max-requests",
+				"Http-Batch-Max-Requests", DEFAULT_MAX_REQUESTS, 1));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "iotf-http-batch");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Adds an event to the batch of its URL, the timestamp of the event is set to the current time
+	 *
+	 * @param eventURL the URL of the event, as used by publishEventOverHTTP()
+	 * @param payload Object to be added to the payload as the dataset
+	 * @return false when the publisher is closed or too many events are pending
+	 */
+	public boolean publish(String eventURL, Object payload) {
+		final String METHOD = "publish";
+		JsonObject message = new JsonObject();
+		message.addProperty("ts", Iso8601.now());
+		message.add("d", AbstractClient.gson.toJsonTree(payload));
+
+		List<JsonObject> full = null;
+		synchronized (this) {
+			if (closed) {
+				return false;
+			}
+			if (pending >= maxPending) {
+				eventsDropped.incrementAndGet();
+				LoggerUtility.warn(CLASS_NAME, METHOD, "Too many pending events, the event is dropped");
+				return false;
+			}
+			List<JsonObject> batch = batches.get(eventURL);
+			if (batch == null) {
+				batch = new ArrayList<JsonObject>();
+				batches.put(eventURL, batch);
+			}
+			batch.add(message);
+			pending++;
+			if (batch.size() >= batchSize) {
+				full = batches.remove(eventURL);
+			} else if (!lingerScheduled) {
+				lingerScheduled = true;
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flush();
+					}
+				}, linger, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (full != null) {
+			ready.add(new Batch(eventURL, full));
+			drain();
+		}
+		return true;
+	}
+
+	/**
+	 * Posts all the accumulated events without waiting for the responses
+	 */
+	public void flush() {
+		List<Batch> flushed = new ArrayList<Batch>();
+		synchronized (this) {
+			lingerScheduled = false;
+			for (Map.Entry<String, List<JsonObject>> e : batches.entrySet()) {
+				flushed.add(new Batch(e.getKey(), e.getValue()));
+			}
+			batches.clear();
+		}
+		ready.addAll(flushed);
+		drain();
+	}
+
+	/**
+	 * Posts the accumulated events and waits for all the pending events to be posted or dropped
+	 *
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return whether all the events are done
+	 */
+	public boolean close(long timeout) throws InterruptedException {
+		synchronized (this) {
+			closed = true;
+		}
+		flush();
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (this) {
+			long remaining;
+			while (pending > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+				wait(remaining);
+			}
+			scheduler.shutdown();
+			return pending == 0;
+		}
+	}
+
+	/**
+	 * @return whether the publisher is closed, it rejects the events from then on
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of the events accumulated, being posted or waiting for a retry
+	 */
+	public synchronized int getPendingEvents() {
+		return pending;
+	}
+
+	public long getEventsSent() {
+		return eventsSent.get();
+	}
+
+	/**
+	 * @return the number of the events rejected or dropped after the retries
+	 */
+	public long getEventsDropped() {
+		return eventsDropped.get();
+	}
+
+	public long getBatchesSent() {
+		return batchesSent.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * @return the compressed size of the batches sent
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * @return the uncompressed size of the batches sent
+	 */
+	public long getBytesUncompressed() {
+		return bytesUncompressed.get();
+	}
+
+	/**
+	 * Starts posting the ready batches, as many as the concurrency limit allows
+	 */
+	private void drain() {
+		while (!ready.isEmpty() && requests.tryAcquire()) {
+			final Batch batch = ready.poll();
+			if (batch == null) {
+				requests.release();
+				// Another thread took the last batch
+				continue;
+			}
+			pool.getExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						post(batch);
+					} finally {
+						requests.release();
+						drain();
+					}
+				}
+			});
+		}
+	}
+
+	private void post(final Batch batch) {
+		final String METHOD = "post";
+		int httpCode;
+		try {
+			HttpPost post = new HttpPost(batch.url);
+			ByteArrayEntity entity = new ByteArrayEntity(batch.getBody());
+			post.setEntity(entity);
+			post.addHeader("Content-Type", "application/json");
+			post.addHeader("Content-Encoding", "gzip");
+			post.addHeader("Accept", "application/json");
+			if (authorization != null) {
+				post.addHeader("Authorization", authorization);
+			}
+			httpCode = AbstractClient.executeHttpPost(pool, post);
+		} catch (IOException e) {
+			httpCode = -1;
+		}
+
+		if (httpCode >= 200 && httpCode < 300) {
+			eventsSent.addAndGet(batch.messages.size());
+			batchesSent.incrementAndGet();
+			bytesSent.addAndGet(batch.body.length);
+			bytesUncompressed.addAndGet(batch.uncompressedSize);
+			done(batch);
+		} else if ((httpCode == -1 || httpCode == 429 || httpCode >= 500) && batch.attempts < maxRetries) {
+			retries.incrementAndGet();
+			long delay = RETRY_DELAY << batch.attempts;
+			batch.attempts++;
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Retrying a batch of {} events in {} ms",
+					batch.messages.size(), delay);
+			try {
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						ready.add(batch);
+						drain();
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			} catch (RuntimeException e) {
+				// The publisher is closed
+				drop(batch);
+			}
+		} else {
+			drop(batch);
+		}
+	}
+
+	private void drop(Batch batch) {
+		LoggerUtility.warn(CLASS_NAME, "drop", "A batch of " + batch.messages.size() + " events to "
+				+ batch.url + " is dropped");
+		eventsDropped.addAndGet(batch.messages.size());
+		done(batch);
+	}
+
+	private synchronized void done(Batch batch) {
+		pending -= batch.messages.size();
+		notifyAll();
+	}
+
+	/**
+	 * The events of a batch, the compressed body is created once and kept for the retries
+	 */
+	private static class Batch {
+		private final String url;
+		private final List<JsonObject> messages;
+		private byte[] body;
+		private int uncompressedSize;
+		private int attempts = 0;
+
+		private Batch(String url, List<JsonObject> messages) {
+			this.url = url;
+			this.messages = messages;
+		}
+
+		private byte[] getBody() throws IOException {
+			if (body == null) {
+				JsonArray array = new JsonArray();
+				for (JsonObject message : messages) {
+					array.add(message);
+				}
+				byte[] json = array.toString().getBytes("UTF-8");
+				uncompressedSize = json.length;
+				ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+				GZIPOutputStream gzip = new GZIPOutputStream(out);
+				gzip.write(json);
+				gzip.close();
+				body = out.toByteArray();
+			}
+			return body;
+		}
+	}
+}
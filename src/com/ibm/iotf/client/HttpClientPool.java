@@ -0,0 +1,220 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>The HTTP client shared by the device and application clients of the JVM to publish
+ * the events over HTTP(S). The connections are pooled and kept alive, so that the TCP and TLS
+ * handshakes are done once per connection instead of once per event.</p>
+ *
+ * <p>The clients that have the same settings share a pool, the clients with other settings get a pool
+ * of their own. The settings are read from the properties of the client,</p>
+ * <ul class="simple">
+ * <li>http-max-connections / Http-Max-Connections - the maximum number of connections, default 100</li>
+ * <li>http-max-connections-per-route / Http-Max-Connections-Per-Route - the maximum number of connections
+ * to one organization, default 20</li>
+ * <li>http-connect-timeout / Http-Connect-Timeout - the connect timeout in milliseconds, default 10000</li>
+ * <li>http-socket-timeout / Http-Socket-Timeout - the read timeout in milliseconds, default 30000</li>
+ * <li>http-idle-timeout / Http-Idle-Timeout - the idle connections are closed after this many seconds, default 60</li>
+ * </ul>
+ */
+public final class HttpClientPool {
+
+	private static final String CLASS_NAME = HttpClientPool.class.getName();
+
+	static final int DEFAULT_MAX_CONNECTIONS = 100;
+	static final int DEFAULT_MAX_PER_ROUTE = 20;
+	static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+	static final int DEFAULT_IDLE_TIMEOUT = 60;
+
+	// The pools by their settings, most JVMs have only one
+	private static final Map<Settings, HttpClientPool> instances = new HashMap<Settings, HttpClientPool>();
+
+	private final PoolingHttpClientConnectionManager manager;
+	private final CloseableHttpClient client;
+	private final ExecutorService executor;
+	private final long idleTimeout;
+	private volatile long lastEviction = System.currentTimeMillis();
+
+	private HttpClientPool(Settings settings) {
+		int maxTotal = settings.maxTotal;
+		this.idleTimeout = TimeUnit.SECONDS.toMillis(settings.idleTimeout);
+
+		manager = new PoolingHttpClientConnectionManager();
+		manager.setMaxTotal(maxTotal);
+		manager.setDefaultMaxPerRoute(settings.maxPerRoute);
+
+		RequestConfig config = RequestConfig.custom()
+				.setConnectTimeout(settings.connectTimeout)
+				.setSocketTimeout(settings.socketTimeout)
+				.setConnectionRequestTimeout(settings.connectTimeout)
+				.setStaleConnectionCheckEnabled(true)
+				.build();
+		client = HttpClients.custom()
+				.setConnectionManager(manager)
+				.setDefaultRequestConfig(config)
+				.build();
+
+		// One thread per pooled connection is enough for the asynchronous publishes
+		executor = Executors.newFixedThreadPool(maxTotal, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "iotf-http-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		LoggerUtility.info(CLASS_NAME, "HttpClientPool", "HTTP connection pool created with " + settings);
+	}
+
+	/**
+	 * Returns the pool shared by the clients with the same settings, it is created on the first call
+	 *
+	 * @param options the properties of the client, can be null for the defaults
+	 */
+	public static synchronized HttpClientPool getInstance(Properties options) {
+		Settings settings = new Settings(options);
+		HttpClientPool instance = instances.get(settings);
+		if (instance == null) {
+			instance = new HttpClientPool(settings);
+			instances.put(settings, instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * Closes the pooled connections of all the pools. The next call to getInstance() creates a new pool.
+	 */
+	public static synchronized void shutdown() {
+		for (HttpClientPool instance : instances.values()) {
+			instance.executor.shutdown();
+			try {
+				instance.client.close();
+			} catch (IOException e) {
+				// ignore, the connections are closed anyway
+			}
+		}
+		instances.clear();
+	}
+
+	/**
+	 * @return the pooled HTTP client, the response entities must be consumed to return the connections to the pool
+	 */
+	public CloseableHttpClient getClient() {
+		evictIdleConnections();
+		return client;
+	}
+
+	/**
+	 * @return the executor of the asynchronous HTTP publishes
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return the number of the connections in use
+	 */
+	public int getLeasedConnections() {
+		return manager.getTotalStats().getLeased();
+	}
+
+	/**
+	 * @return the number of the idle connections kept alive in the pool
+	 */
+	public int getAvailableConnections() {
+		PoolStats stats = manager.getTotalStats();
+		return stats.getAvailable();
+	}
+
+	/**
+	 * Closes the expired and long idle connections, at most once in a few seconds
+	 */
+	private void evictIdleConnections() {
+		long now = System.currentTimeMillis();
+		if (now - lastEviction > 5000) {
+			lastEviction = now;
+			manager.closeExpiredConnections();
+			manager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * The settings of a pool, the key of the shared pools
+	 */
+	private static final class Settings {
+		private final int maxTotal;
+		private final int maxPerRoute;
+		private final int connectTimeout;
+		private final int socketTimeout;
+		private final int idleTimeout;
+
+		private Settings(Properties options) {
+			// The pool and its executor need at least one connection
+			maxTotal = AbstractClient.getIntProperty(options, "http-max-connections", "Http-Max-Connections",
+					DEFAULT_MAX_CONNECTIONS, 1);
+			maxPerRoute = AbstractClient.getIntProperty(options, "http-max-connections-per-route",
+					"Http-Max-Connections-Per-Route", DEFAULT_MAX_PER_ROUTE, 1);
+			connectTimeout = AbstractClient.getIntProperty(options, "http-connect-timeout", "Http-Connect-Timeout",
+					DEFAULT_CONNECT_TIMEOUT, 0);
+			socketTimeout = AbstractClient.getIntProperty(options, "http-socket-timeout", "Http-Socket-Timeout",
+					DEFAULT_SOCKET_TIMEOUT, 0);
+			idleTimeout = AbstractClient.getIntProperty(options, "http-idle-timeout", "Http-Idle-Timeout",
+					DEFAULT_IDLE_TIMEOUT, 0);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Settings)) {
+				return false;
+			}
+			Settings other = (Settings) o;
+			return maxTotal == other.maxTotal && maxPerRoute == other.maxPerRoute
+					&& connectTimeout == other.connectTimeout && socketTimeout == other.socketTimeout
+					&& idleTimeout == other.idleTimeout;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = maxTotal;
+			hash = 31 * hash + maxPerRoute;
+			hash = 31 * hash + connectTimeout;
+			hash = 31 * hash + socketTimeout;
+			return 31 * hash + idleTimeout;
+		}
+
+		@Override
+		public String toString() {
+			return "max " + maxTotal + " connections, " + maxPerRoute + " per route, connect timeout "
+					+ connectTimeout + " ms, socket timeout " + socketTimeout + " ms, idle timeout " + idleTimeout + " s";
+		}
+	}
+}
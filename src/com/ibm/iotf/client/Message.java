@@ -1,5 +1,6 @@
 package com.ibm.iotf.client;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -9,11 +10,17 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.codec.JsonCodec;
+import com.ibm.iotf.client.codec.PayloadCodec;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+import com.ibm.iotf.client.codec.PayloadCompressor;
+import com.ibm.iotf.util.Iso8601;
 import com.ibm.iotf.util.LoggerUtility;
 
 
@@ -27,11 +34,18 @@ public class Message {
 	private static final String CLASS_NAME = ApplicationClient.class.getName();
 
 	protected final static JsonParser JSON_PARSER = new JsonParser();
+	/**
+	 * @deprecated the timestamps are parsed by {@link Iso8601}
+	 */
+	@Deprecated
 	protected final static DateTimeFormatter DT_PARSER = ISODateTimeFormat.dateTimeParser();
 	
 	protected String payload;
+	protected byte[] rawPayload;
 	protected String data = null;
 	protected DateTime timestamp = null;
+	protected long sequence = -1;
+	protected long sentTime = -1;
 	
 	/**
 	 * 
@@ -41,7 +55,8 @@ public class Message {
 	 */
 	public Message(MqttMessage msg) throws UnsupportedEncodingException{
 		final String METHOD = "Message(1)";
-		this.payload = new String(msg.getPayload(), "UTF8");
+		this.rawPayload = msg.getPayload();
+		this.payload = new String(rawPayload, "UTF8");
 		
 		try {
 			JsonObject payloadJson = JSON_PARSER.parse(payload).getAsJsonObject();
@@ -54,7 +69,7 @@ public class Message {
 		
 			if (payloadJson.has("ts")) {
 				try {
-					timestamp = DT_PARSER.parseDateTime(payloadJson.get("ts").getAsString());
+					timestamp = new DateTime(Iso8601.parse(payloadJson.get("ts").getAsString()));
 				} catch (IllegalArgumentException e) {
 					timestamp = DateTime.now();
 				}
@@ -73,41 +88,62 @@ public class Message {
 	 * @param msg
 	 * 				MqttMessage
 	 * @param format
-	 * 				an object of String which comtains format such as json
+	 * 				an object of String which comtains format such as json. The payload of the formats 
+	 * 				that have a codec, see {@link PayloadCodecs}, is decoded, the payload of the other
+	 * 				formats is kept as a string
 	 * @throws UnsupportedEncodingException
 	 */
 	public Message(MqttMessage msg, String format) throws UnsupportedEncodingException{
 		final String METHOD = "Message(2)";
-		this.payload = new String(msg.getPayload(), "UTF8");
+		this.rawPayload = msg.getPayload();
 		
-		if(format.equalsIgnoreCase("json")) {
-
-			try {
-				JsonObject payloadJson = JSON_PARSER.parse(payload).getAsJsonObject();
-				if (payloadJson.has("d")) {
-					data = payloadJson.get("d").getAsJsonObject().toString();
-				} else {
-					data = payloadJson.toString();
-				}
-				if (payloadJson.has("ts")) {
-					try {
-						timestamp = DT_PARSER.parseDateTime(payloadJson.get("ts").getAsString());
-					} catch (IllegalArgumentException e) {
-						timestamp = DateTime.now();
-					}
-				} else {
+		// The compressed payloads are decompressed by the clients before they get here
+		PayloadCodec codec = PayloadCodecs.get(PayloadCompressor.getBaseFormat(format));
+		if(codec == null) {
+			this.payload = new String(rawPayload, "UTF8");
+			data = this.payload;
+			timestamp = DateTime.now();
+			return;
+		}
+		
+		JsonElement payloadElement = null;
+		try {
+			payloadElement = codec.decode(rawPayload);
+		} catch (IOException e) {
+			LoggerUtility.warn(CLASS_NAME, METHOD, "Unable to decode the " + format + " payload: " + e.getMessage());
+		}
+		if(codec instanceof JsonCodec || payloadElement == null) {
+			this.payload = new String(rawPayload, "UTF8");
+		} else {
+			// The binary payloads are presented in their JSON form
+			this.payload = payloadElement.toString();
+		}
+		if(payloadElement == null) {
+			return;
+		}
+		
+		if(payloadElement.isJsonObject()) {
+			JsonObject payloadJson = payloadElement.getAsJsonObject();
+			if (payloadJson.has("d")) {
+				data = payloadJson.get("d").toString();
+			} else {
+				data = payloadJson.toString();
+			}
+			if (payloadJson.has("ts") && payloadJson.get("ts").isJsonPrimitive()) {
+				try {
+					timestamp = new DateTime(Iso8601.parse(payloadJson.get("ts").getAsString()));
+				} catch (IllegalArgumentException e) {
 					timestamp = DateTime.now();
 				}
-			} catch (JsonSyntaxException e) {
-				LoggerUtility.warn(CLASS_NAME, METHOD, "JsonSyntaxException thrown");
-			} catch (JsonParseException jpe) {
-				LoggerUtility.warn(CLASS_NAME, METHOD, "JsonParseException thrown");							
-			}			
+			} else {
+				timestamp = DateTime.now();
+			}
+			sequence = getLong(payloadJson, "seq");
+			sentTime = getLong(payloadJson, "sent");
 		} else {
-			data = this.payload;
-			timestamp = DateTime.now();			
+			data = payloadElement.toString();
+			timestamp = DateTime.now();
 		}
-		
 	}
 	
 /////	
@@ -115,10 +151,52 @@ public class Message {
 		return payload;
 	}
 
+	/**
+	 * @return the payload as received, for example the CBOR bytes of a cbor message
+	 */
+	public byte[] getRawPayload() {
+		return rawPayload;
+	}
+
+	/**
+	 * @return the data of the message, the JSON text of "d" for the formats that have a codec, the payload for the others
+	 */
+	public String getData() {
+		return data;
+	}
+
 	public DateTime getTimestamp() {
 		return timestamp;
 	}
 
+	/**
+	 * @return the sequence number stamped by the device, see DeviceClient.isLatencyStampingEnabled(), 
+	 * -1 if the message is not stamped
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the time the device sent the message in microseconds since the epoch, see 
+	 * DeviceClient.isLatencyStampingEnabled(), -1 if the message is not stamped
+	 */
+	public long getSentTime() {
+		return sentTime;
+	}
+
+	private static long getLong(JsonObject json, String name) {
+		JsonElement element = json.get(name);
+		if (element == null || !element.isJsonPrimitive()) {
+			return -1;
+		}
+		try {
+			return element.getAsLong();
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
 	/**
 	 * 
 	 * Provides a human readable String representation of message, including timestamp and data.
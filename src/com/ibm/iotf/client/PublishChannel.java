@@ -0,0 +1,172 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.logging.Level;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.ibm.iotf.client.codec.PayloadCodec;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+import com.ibm.iotf.client.codec.PayloadCompressor;
+import com.ibm.iotf.client.codec.TelemetryTemplate;
+import com.ibm.iotf.util.Iso8601;
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>A publish handle bound to one topic, format and QoS, for the code that publishes to a few fixed
+ * topics at a high rate. The topic, its compressed variant and the codec of the format are resolved
+ * once, when the channel is created, and the json messages are written straight into a buffer
+ * that is reused by the following publishes of the thread.</p>
+ *
+ * <p>The channels are obtained with DeviceClient.createPublishChannel(), ApplicationClient.createEventChannel()
+ * and ApplicationClient.createCommandChannel(). A channel publishes over MQTT only, the publish filter
+ * and the HTTP failover of publishEvent() do not apply to it. A channel can be used by several threads,
+ * each thread encodes its messages into a buffer of its own.</p>
+ */
+public class PublishChannel {
+
+	private static final String CLASS_NAME = PublishChannel.class.getName();
+
+	private static final Gson ELEMENT_GSON = new GsonBuilder().serializeNulls().create();
+
+	private final AbstractClient client;
+	private final String topic;
+	private final String compressedTopic;
+	private final String type;
+	private final String format;
+	private final PayloadCodec codec;
+	private final int qos;
+
+	// The buffer of each publishing thread, the threads encode their messages concurrently
+	private final ThreadLocal<StringWriter> buffers = new ThreadLocal<StringWriter>() {
+		@Override
+		protected StringWriter initialValue() {
+			return new StringWriter(256);
+		}
+	};
+
+	PublishChannel(AbstractClient client, String topic, String format, int qos) {
+		this.client = client;
+		this.topic = topic;
+		this.compressedTopic = topic + PayloadCompressor.DEFLATE_SUFFIX;
+		// The event or command name, the segment before /fmt/
+		int fmt = topic.lastIndexOf("/fmt/");
+		this.type = fmt > 0 ? topic.substring(topic.lastIndexOf('/', fmt - 1) + 1, fmt) : null;
+		this.format = format;
+		this.codec = PayloadCodecs.get(format);
+		this.qos = qos;
+	}
+
+	/**
+	 * @return the topic of the messages, without the compression suffix
+	 */
+	public String getTopic() {
+		return topic;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public int getQos() {
+		return qos;
+	}
+
+	/**
+	 * Publishes the data with the current time as its timestamp
+	 *
+	 * @param data the data, converted with Gson as by publishEvent(), or a TelemetryTemplate for a json channel
+	 * @return Whether the send was successful.
+	 */
+	public boolean publish(Object data) {
+		final String METHOD = "publish";
+		if (!client.isConnected()) {
+			return false;
+		}
+		MqttMessage msg;
+		try {
+			msg = new MqttMessage(encode(data));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		String destination = topic;
+		byte[] compressed = client.getPayloadCompressor().compress(topic, msg.getPayload());
+		if (compressed != null) {
+			msg.setPayload(compressed);
+			destination = compressedTopic;
+		}
+		msg.setQos(qos);
+		msg.setRetained(false);
+		if (LoggerUtility.isLoggable(Level.FINE)) {
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Topic   = " + destination);
+		}
+
+		try {
+			client.publishAndWait(type, destination, msg);
+		} catch (MqttException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes the message {"ts": timestamp, "d": data} in the format of the channel
+	 */
+	private byte[] encode(Object data) throws IOException {
+		long now = System.currentTimeMillis();
+		if (codec == null) {
+			return AbstractClient.encodePayload(format, null, data);
+		}
+		if (data instanceof TelemetryTemplate && PayloadCodecs.JSON.equals(codec.getFormat())) {
+			return ((TelemetryTemplate) data).toByteArray(now);
+		}
+		String timestamp = Iso8601.format(now);
+		if (!PayloadCodecs.JSON.equals(codec.getFormat())) {
+			JsonObject message = new JsonObject();
+			message.addProperty("ts", timestamp);
+			message.add("d", data instanceof JsonElement ? (JsonElement) data : AbstractClient.gson.toJsonTree(data));
+			return codec.encode(message);
+		}
+		// The data is written without building its tree, the null fields of a JSON element are kept
+		StringWriter buffer = buffers.get();
+		buffer.getBuffer().setLength(0);
+		JsonWriter writer = new JsonWriter(buffer);
+		writer.beginObject();
+		writer.name("ts").value(timestamp);
+		writer.name("d");
+		if (data == null) {
+			writer.nullValue();
+		} else if (data instanceof JsonElement) {
+			ELEMENT_GSON.toJson((JsonElement) data, writer);
+		} else {
+			AbstractClient.gson.toJson(data, data.getClass(), writer);
+		}
+		writer.endObject();
+		writer.flush();
+		return buffer.toString().getBytes("UTF-8");
+	}
+
+	@Override
+	public String toString() {
+		return "PublishChannel " + topic + " qos " + qos;
+	}
+}
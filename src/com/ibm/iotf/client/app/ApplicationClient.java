@@ -1,11 +1,12 @@
 package com.ibm.iotf.client.app;
 
-import java.nio.charset.Charset;
-import java.util.Date;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,6 +19,12 @@ import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.ibm.iotf.client.AbstractClient;
+import com.ibm.iotf.client.HttpBatchPublisher;
+import com.ibm.iotf.client.PublishChannel;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+import com.ibm.iotf.client.codec.PayloadCompressor;
+import com.ibm.iotf.util.EpochClock;
+import com.ibm.iotf.util.Iso8601;
 import com.ibm.iotf.util.LoggerUtility;
 
 /**
@@ -53,7 +60,12 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 			
 			throw new Exception("Invalid Auth Key");
 		}
-		this.clientId = "a" + CLIENT_ID_DELIMITER + getOrgId() + CLIENT_ID_DELIMITER + getAppId();
+		if(isSharedSubscriptionEnabled()) {
+			// Clients that share the same App ID split the subscription among themselves
+			this.clientId = "A" + CLIENT_ID_DELIMITER + getOrgId() + CLIENT_ID_DELIMITER + getAppId();
+		} else {
+			this.clientId = "a" + CLIENT_ID_DELIMITER + getOrgId() + CLIENT_ID_DELIMITER + getAppId();
+		}
 		
 		if (getAuthMethod() == null) {
 			this.clientUsername = null;
@@ -118,6 +130,43 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	}
 	
 	
+	/**
+	 * Returns whether the shared subscription mode is enabled for this client.
+	 * 
+	 * <p>In shared subscription mode, all the application clients that connect with the same
+	 * App ID (in the same JVM or across several) split the matching messages among themselves,
+	 * rather than every client receiving a copy of each message. This allows the consumers
+	 * of a large event stream to be scaled horizontally.</p>
+	 * 
+	 * old style - shared-subscription
+	 * new style - Shared-Subscription
+	 * 
+	 * @return true if the property is set to true, false otherwise
+	 */
+	public boolean isSharedSubscriptionEnabled() {
+		String shared = options.getProperty("shared-subscription");
+		if(shared == null) {
+			shared = options.getProperty("Shared-Subscription");
+		}
+		return Boolean.parseBoolean(trimedValue(shared));
+	}
+	
+	/**
+	 * Returns the number of messages (events, commands and status) delivered 
+	 * to this client instance since it was created or its metrics were reset.
+	 * 
+	 * <p>When the shared subscription mode is enabled, comparing this value across
+	 * the instances that share the App ID shows how the load is spread across them.</p>
+	 * 
+	 * <p>This is a shortcut for getMetrics().getMessagesReceived(), the metrics also count
+	 * the messages by device type.</p>
+	 * 
+	 * @return number of messages received
+	 */
+	public long getMessagesReceived() {
+		return metrics.getMessagesReceived();
+	}
+	
 	@Override
 	public void connect() {
 		super.connect();
@@ -160,33 +209,80 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	 * @return Whether the send was successful.
 	 */
 	public boolean publishEvent(String deviceType, String deviceId, String event, Object data, int qos) {
-		if (!isConnected()) {
+		return publishEvent(deviceType, deviceId, event, data, PayloadCodecs.JSON, qos);
+	}
+	
+	/**
+	 * Publish event, on the behalf of a device, to the IBM Internet of Things Foundation in the given format. <br>
+	 * The format is the fmt segment of the topic, see {@link PayloadCodecs} for the formats that 
+	 * carry the timestamp and the data in their encoding, the other formats carry the data as is.
+	 * Only the json events fail over to HTTP.
+	 * 
+	 * @param deviceType
+	 *            object of String which denotes deviceType 
+	 * @param deviceId
+	 *            object of String which denotes deviceId
+	 * @param event
+	 *            object of String which denotes event
+	 * @param data
+	 *            Payload data
+	 * @param format
+	 *            the format of the event, for example cbor
+	 * @param qos
+	 *            Quality of Service, in int - can have values 0,1,2
+	 * @return Whether the send was successful.
+	 */
+	public boolean publishEvent(String deviceType, String deviceId, String event, Object data, String format, int qos) {
+		boolean connected = isConnected();
+		boolean failover = isFailoverToHttpEnabled() && PayloadCodecs.JSON.equalsIgnoreCase(format);
+		if (!connected && !failover) {
 			return false;
 		}
-		final String METHOD = "publishEvent(5)";
+		final String METHOD = "publishEvent(6)";
 		JsonObject payload = new JsonObject();
 		
-		String timestamp = ISO8601_DATE_FORMAT.format(new Date());
+		String timestamp = Iso8601.now();
 		payload.addProperty("ts", timestamp);
 		
 		JsonElement dataElement = gson.toJsonTree(data);
 		payload.add("d", dataElement);
 		
-		String topic = "iot-2/type/" + deviceType + "/id/" + deviceId + "/evt/" + event + "/fmt/json";
+		String topic = "iot-2/type/" + deviceType + "/id/" + deviceId + "/evt/" + event + "/fmt/" + format;
+		
+		if (LoggerUtility.isLoggable(Level.FINE)) {
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Topic   = " + topic);
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Payload = " + payload.toString());
+		}
 		
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic   = " + topic);
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Payload = " + payload.toString());
+		if (!connected) {
+			// The MQTT connection is down, see isFailoverToHttpEnabled()
+			return publishEventOverHTTPFailover(deviceType, deviceId, event, false, 
+					this.getAuthKey(), payload.toString());
+		}
 		
-		MqttMessage msg = new MqttMessage(payload.toString().getBytes(Charset.forName("UTF-8")));
+		MqttMessage msg;
+		try {
+			msg = new MqttMessage(encodePayload(format, payload, data));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		topic = compress(topic, msg);
 		msg.setQos(0);
 		msg.setRetained(false);
 		
 		try {
-			mqttAsyncClient.publish(topic, msg).waitForCompletion();
+			publishAndWait(event, topic, msg);
 		} catch (MqttPersistenceException e) {
 			e.printStackTrace();
 			return false;
 		} catch (MqttException e) {
+			if (failover && isSafeToFailover(e, msg.getQos())) {
+				LoggerUtility.info(CLASS_NAME, METHOD, "MQTT publish failed (" + e.getMessage() 
+						+ "), publishing over HTTP");
+				return publishEventOverHTTPFailover(deviceType, deviceId, event, false, 
+						this.getAuthKey(), payload.toString());
+			}
 			e.printStackTrace();
 			return false;
 		}
@@ -230,29 +326,108 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	 * @return Whether the send was successful.
 	 */
 	public boolean publishCommand(String deviceType, String deviceId, String command, Object data, int qos) {
+		return publishCommand(deviceType, deviceId, command, data, PayloadCodecs.JSON, qos);
+	}
+
+	/**
+	 * Creates a channel that publishes the events of a device, on its behalf, in the given format 
+	 * and QoS.<br>
+	 * 
+	 * The topic and the encoder of the events are prepared once, which saves their creation on
+	 * every publish for the code that publishes to a few events at a high rate. The channel 
+	 * publishes over MQTT only, the HTTP failover does not apply to it.
+	 * 
+	 * @param deviceType
+	 *            object of String which denotes deviceType 
+	 * @param deviceId
+	 *            object of String which denotes deviceId
+	 * @param event
+	 *            object of String which denotes event
+	 * @param format
+	 *            the format of the events, for example json or cbor
+	 * @param qos
+	 *            Quality of Service, in int - can have values 0,1,2
+	 * @return the channel, it remains valid across the reconnects of the client
+	 */
+	public PublishChannel createEventChannel(String deviceType, String deviceId, String event, String format, int qos) {
+		return createChannel("iot-2/type/" + deviceType + "/id/" + deviceId + "/evt/" + event + "/fmt/" + format, 
+				format, qos);
+	}
+
+	/**
+	 * Creates a channel that publishes the commands of the given name to a device, in the given 
+	 * format and QoS, see {@link #createEventChannel(String, String, String, String, int)}
+	 * 
+	 * @param deviceType
+	 *            object of String which denotes deviceType 
+	 * @param deviceId
+	 *            object of String which denotes deviceId
+	 * @param command
+	 *            object of String which denotes command
+	 * @param format
+	 *            the format of the commands, for example json or cbor
+	 * @param qos
+	 *            Quality of Service, in int - can have values 0,1,2
+	 * @return the channel
+	 */
+	public PublishChannel createCommandChannel(String deviceType, String deviceId, String command, String format, int qos) {
+		return createChannel("iot-2/type/" + deviceType + "/id/" + deviceId + "/cmd/" + command + "/fmt/" + format, 
+				format, qos);
+	}
+
+	/**
+	 * Publish command to the IBM Internet of Things Foundation in the given format. <br>
+	 * The format is the fmt segment of the topic, the device receives the command only if it 
+	 * subscribes to this format. See {@link PayloadCodecs} for the formats that carry the timestamp 
+	 * and the data in their encoding, the other formats carry the data as is.
+	 * 
+	 * @param deviceType
+	 *            object of String which denotes deviceType 
+	 * @param deviceId
+	 *            object of String which denotes deviceId
+	 * @param command
+	 *            object of String which denotes command
+	 * @param data
+	 *            Payload data
+	 * @param format
+	 *            the format of the command, for example cbor
+	 * @param qos
+	 *            Quality of Service, in int - can have values 0,1,2
+	 * @return Whether the send was successful.
+	 */
+	public boolean publishCommand(String deviceType, String deviceId, String command, Object data, String format, int qos) {
 		if (!isConnected()) {
 			return false;
 		}
-		final String METHOD = "publishCommand(5)";
+		final String METHOD = "publishCommand(6)";
 		JsonObject payload = new JsonObject();
 		
-		String timestamp = ISO8601_DATE_FORMAT.format(new Date());
+		String timestamp = Iso8601.now();
 		payload.addProperty("ts", timestamp);
 		
 		JsonElement dataElement = gson.toJsonTree(data);
 		payload.add("d", dataElement);
 		
-		String topic = "iot-2/type/" + deviceType + "/id/" + deviceId + "/cmd/" + command + "/fmt/json";
+		String topic = "iot-2/type/" + deviceType + "/id/" + deviceId + "/cmd/" + command + "/fmt/" + format;
 		
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic   = " + topic);
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Payload = " + payload.toString());
+		if (LoggerUtility.isLoggable(Level.FINE)) {
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Topic   = " + topic);
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Payload = " + payload.toString());
+		}
 		
-		MqttMessage msg = new MqttMessage(payload.toString().getBytes(Charset.forName("UTF-8")));
+		MqttMessage msg;
+		try {
+			msg = new MqttMessage(encodePayload(format, payload, data));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		topic = compress(topic, msg);
 		msg.setQos(0);
 		msg.setRetained(false);
 		
 		try {
-			mqttAsyncClient.publish(topic, msg).waitForCompletion();
+			publishAndWait(command, topic, msg);
 		} catch (MqttPersistenceException e) {
 			e.printStackTrace();
 			return false;
@@ -267,6 +442,10 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	 * Subscribe to device events of the IBM Internet of Things Foundation. <br>
 	 * Quality of Service is set to 0
 	 * All events, for the given org are subscribed to
+	 * 
+	 * <p>If the shared subscription mode is enabled (see {@link #isSharedSubscriptionEnabled()}), 
+	 * this and the other subscribe methods create a shared subscription, i.e, the events are 
+	 * load balanced across all the client instances that use the same App ID.</p>
 	 */
 	public void subscribeToDeviceEvents() {
 		subscribeToDeviceEvents("+", "+", "+", 0);
@@ -326,8 +505,7 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	public void subscribeToDeviceEvents(String deviceType, String deviceId, String event, int qos) {
 		try {
 			String newTopic = "iot-2/type/"+deviceType+"/id/"+deviceId+"/evt/"+event+"/fmt/json";
-			subscriptions.put(newTopic, new Integer(qos));
-			mqttAsyncClient.subscribe(newTopic, qos);
+			subscribe(newTopic, qos);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
@@ -349,8 +527,7 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	public void subscribeToDeviceEvents(String deviceType, String deviceId, String event, String format) {
 		try {
 			String newTopic = "iot-2/type/"+deviceType+"/id/"+deviceId+"/evt/"+event+"/fmt/" + format;
-			subscriptions.put(newTopic, new Integer(0));
-			mqttAsyncClient.subscribe(newTopic, 0);
+			subscribe(newTopic, 0);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
@@ -374,8 +551,7 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	public void subscribeToDeviceEvents(String deviceType, String deviceId, String event, String format, int qos) {
 		try {
 			String newTopic = "iot-2/type/"+deviceType+"/id/"+deviceId+"/evt/"+event+"/fmt/" + format;
-			subscriptions.put(newTopic, new Integer(qos));
-			mqttAsyncClient.subscribe(newTopic, qos);
+			subscribe(newTopic, qos);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
@@ -398,9 +574,7 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	public void unsubscribeFromDeviceEvents(String deviceType, String deviceId, String event, String format, int qos) {
 		try {
 			String newTopic = "iot-2/type/"+deviceType+"/id/"+deviceId+"/evt/"+event+"/fmt/" + format;
-			subscriptions.remove(newTopic);
-			mqttAsyncClient.unsubscribe(newTopic);
-
+			unsubscribe(newTopic);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
@@ -470,8 +644,7 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	public void subscribeToDeviceCommands(String deviceType, String deviceId, String command, int qos) {
 		try {
 			String newTopic = "iot-2/type/"+deviceType+"/id/"+deviceId+"/cmd/" + command + "/fmt/json";
-			subscriptions.put(newTopic, new Integer(qos));
-			mqttAsyncClient.subscribe(newTopic, qos);
+			subscribe(newTopic, qos);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
@@ -493,8 +666,7 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	public void subscribeToDeviceCommands(String deviceType, String deviceId, String command, String format) {
 		try {
 			String newTopic = "iot-2/type/"+deviceType+"/id/"+deviceId+"/cmd/" + command + "/fmt/" + format;
-			subscriptions.put(newTopic, new Integer(0));
-			mqttAsyncClient.subscribe(newTopic, 0);
+			subscribe(newTopic, 0);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
@@ -517,13 +689,47 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	public void subscribeToDeviceCommands(String deviceType, String deviceId, String command, String format, int qos) {
 		try {
 			String newTopic = "iot-2/type/"+deviceType+"/id/"+deviceId+"/cmd/"+ command +"/fmt/" + format;
-			subscriptions.put(newTopic, new Integer(qos));			
-			mqttAsyncClient.subscribe(newTopic, qos);
+			subscribe(newTopic, qos);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
 	}
 	
+	/*
+	 * Subscribes to the topic and to the topic of its compressed payloads, which the devices
+	 * publish to depending on their own compression threshold, see getPayloadCompressor()
+	 */
+	private void subscribe(String topic, int qos) throws MqttException {
+		subscriptions.put(topic, new Integer(qos));
+		transport.subscribe(topic, qos);
+		String compressedTopic = compressedTopic(topic);
+		if (compressedTopic != null) {
+			subscriptions.put(compressedTopic, new Integer(qos));
+			transport.subscribe(compressedTopic, qos);
+		}
+	}
+
+	private void unsubscribe(String topic) throws MqttException {
+		subscriptions.remove(topic);
+		transport.unsubscribe(topic);
+		String compressedTopic = compressedTopic(topic);
+		if (compressedTopic != null) {
+			subscriptions.remove(compressedTopic);
+			transport.unsubscribe(compressedTopic);
+		}
+	}
+
+	/*
+	 * Returns null when the format is a wildcard, which also matches the compressed formats
+	 */
+	private static String compressedTopic(String topic) {
+		String format = topic.substring(topic.lastIndexOf('/') + 1);
+		if (format.equals("+") || format.equals("#") || PayloadCompressor.isCompressed(format)) {
+			return null;
+		}
+		return topic + PayloadCompressor.DEFLATE_SUFFIX;
+	}
+
 	/**
 	 * Subscribe to device status of the IBM Internet of Things Foundation. <br>
 	 * All the devices, for an org, are monitored
@@ -554,7 +760,7 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 		try {
 			String newTopic = "iot-2/type/"+deviceType+"/id/"+deviceId+"/mon";
 			subscriptions.put(newTopic, new Integer(0));			
-			mqttAsyncClient.subscribe(newTopic, 0);
+			transport.subscribe(newTopic, 0);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
@@ -568,15 +774,16 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	public void connectionLost(Throwable e) {
 		final String METHOD = "connectionLost";
 		LoggerUtility.info(CLASS_NAME, METHOD, "Connection lost: " + e.getMessage());
+		metrics.connectionLost();
 		connect();
 	    Iterator<Entry<String, Integer>> iterator = subscriptions.entrySet().iterator();
 	    LoggerUtility.info(CLASS_NAME, METHOD, "Resubscribing....");
 	    while (iterator.hasNext()) {
 	        //Map.Entry pairs = (Map.Entry)iterator.next();
 	        Entry<String, Integer> pairs = iterator.next();
-	        LoggerUtility.info(CLASS_NAME, METHOD, pairs.getKey() + " = " + pairs.getValue());
+	        LoggerUtility.info(CLASS_NAME, METHOD, "{} = {}", pairs.getKey(), pairs.getValue());
 	        try {
-	        	mqttAsyncClient.subscribe(pairs.getKey().toString(), Integer.parseInt(pairs.getValue().toString()));
+	        	transport.subscribe(pairs.getKey().toString(), Integer.parseInt(pairs.getValue().toString()));
 			} catch (NumberFormatException | MqttException e1) {
 				// TODO Auto-generated catch block
 				e1.printStackTrace();
@@ -593,8 +800,10 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 	 */
 	public void deliveryComplete(IMqttDeliveryToken token) {
 		final String METHOD = "deliveryComplete";
-		LoggerUtility.fine(CLASS_NAME, METHOD, "token = "+token.getMessageId());
-		messageCount++;
+		if (LoggerUtility.isLoggable(Level.FINE)) {
+			LoggerUtility.fine(CLASS_NAME, METHOD, "token = "+token.getMessageId());
+		}
+		messageDelivered();
 	}
 	
 	/**
@@ -610,15 +819,31 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 			 */
 			Matcher matcher = DEVICE_EVENT_PATTERN.matcher(topic);
 			if (matcher.matches()) {
+				long received = EpochClock.currentTimeMicros();
 				String type = matcher.group(1);
 				String id = matcher.group(2);
 				String event = matcher.group(3);
 				String format = matcher.group(4);
+				metrics.messageReceived(type, event, msg.getPayload().length);
+				try {
+					msg = decompress(topic, format, msg);
+				} catch (IOException e) {
+					LoggerUtility.warn(CLASS_NAME, METHOD, "The event " + event + " is dropped: " + e.getMessage());
+					return;
+				}
 				Event evt = new Event(type, id, event, format, msg);
+				if (evt.getSequence() > 0 || evt.getSentTime() >= 0) {
+					metrics.stampedEventReceived(type + ":" + id, evt.getSequence(), evt.getSentTime(), received);
+				}
 
 				if(evt.getTimestamp() != null) {
-					LoggerUtility.fine(CLASS_NAME, METHOD, "Event received: " + evt.toString());
-					eventCallback.processEvent(evt);					
+					LoggerUtility.fine(CLASS_NAME, METHOD, "Event received: {}", evt);
+					long start = System.nanoTime();
+					try {
+						eventCallback.processEvent(evt);
+					} finally {
+						metrics.callbackCompleted(start);
+					}
 				} else {
 					LoggerUtility.warn(CLASS_NAME, METHOD, "Event is not formatted properly, so not processing");						
 				}
@@ -632,11 +857,23 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 				String id = matcher.group(2);
 				String command = matcher.group(3);
 				String format = matcher.group(4);
+				metrics.messageReceived(type, command, msg.getPayload().length);
+				try {
+					msg = decompress(topic, format, msg);
+				} catch (IOException e) {
+					LoggerUtility.warn(CLASS_NAME, METHOD, "The command " + command + " is dropped: " + e.getMessage());
+					return;
+				}
 				Command cmd = new Command(type, id, command, format, msg);
 			
 				if(cmd.getTimestamp() != null ) {
-					LoggerUtility.fine(CLASS_NAME, METHOD, "Command received: " + cmd.toString());	
-					eventCallback.processCommand(cmd);					
+					LoggerUtility.fine(CLASS_NAME, METHOD, "Command received: {}", cmd);	
+					long start = System.nanoTime();
+					try {
+						eventCallback.processCommand(cmd);
+					} finally {
+						metrics.callbackCompleted(start);
+					}
 				} else {
 					LoggerUtility.warn(CLASS_NAME, METHOD, "Command is not formatted properly, so not processing");					
 				}
@@ -656,22 +893,46 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 			if (matcher.matches()) {
 				String type = matcher.group(1);
 				String id = matcher.group(2);
+				metrics.messageReceived(type, null, msg.getPayload().length);
 				DeviceStatus status = new DeviceStatus(type, id, msg);
-				LoggerUtility.fine(CLASS_NAME, METHOD, "Device status received: " + status.toString());
-				statusCallback.processDeviceStatus(status);
+				LoggerUtility.fine(CLASS_NAME, METHOD, "Device status received: {}", status);
+				long start = System.nanoTime();
+				try {
+					statusCallback.processDeviceStatus(status);
+				} finally {
+					metrics.callbackCompleted(start);
+				}
 		    }
 			
 			matcher = APP_STATUS_PATTERN.matcher(topic);
 			if (matcher.matches()) {
 				String id = matcher.group(1);
+				metrics.messageReceived(null, msg.getPayload().length);
 				ApplicationStatus status = new ApplicationStatus(id, msg);
-				LoggerUtility.fine(CLASS_NAME, METHOD, "Application status received: " + status.toString());
-				statusCallback.processApplicationStatus(status);
+				LoggerUtility.fine(CLASS_NAME, METHOD, "Application status received: {}", status);
+				long start = System.nanoTime();
+				try {
+					statusCallback.processApplicationStatus(status);
+				} finally {
+					metrics.callbackCompleted(start);
+				}
 		    }
 		}
 	}
 
 
+	/**
+	 * Provides a human readable String representation of this client, including the number
+	 * of messages sent and received and the current connect status.
+	 *
+	 * @return String representation of the client.
+	 */
+	@Override
+	public String toString() {
+		return super.toString() + " - " + metrics.getMessagesReceived() + " messages received" +
+				(isSharedSubscriptionEnabled() ? " (shared subscription)" : "");
+	}
+
 	public void setEventCallback(EventCallback callback) {
 		this.eventCallback  = callback;
 	}
@@ -694,8 +955,54 @@ public class ApplicationClient extends AbstractClient implements MqttCallback{
 									String deviceId,
 									String eventName, 
 									Object payload) throws Exception {
-		return publishEventsThroughHttps(this.getOrgId(), deviceType, deviceId, 
-				eventName, false, this.getAuthKey(), this.getAuthToken(), payload);
+		return executeHttpPost(getHttpClientPool(), createEventPost(deviceType, deviceId, eventName, false, 
+				this.getAuthKey(), payload));
+	}
+	
+	/**
+	 * Publish an event to the IBM Internet of Things Foundation using HTTP(S) without waiting for the response.<br>
+	 * The events are posted concurrently over the pooled keep-alive connections.
+	 * 
+ 	 * @param deviceType	Device Type
+	 * @param deviceId		Device ID
+	 * @param eventName  Name of the dataset under which to publish the data
+	 * @param payload Object to be added to the payload as the dataset
+	 * @return the future httpcode
+	 * @throws Exception if the event can not be created
+	 */
+	public Future<Integer> publishEventOverHTTPAsync(String deviceType,
+									String deviceId,
+									String eventName, 
+									Object payload) throws Exception {
+		return submitHttpPost(createEventPost(deviceType, deviceId, eventName, false, 
+				this.getAuthKey(), payload));
+	}
+	
+	/**
+	 * Publish an event to the IBM Internet of Things Foundation using HTTP(S) in a batch.<br>
+	 * The event is posted later, together with the other events of the same device and name, in a
+	 * gzip compressed post. Use getHttpBatchPublisher() to flush the pending events, disconnect() posts them
+	 * and waits for them.
+	 * 
+ 	 * @param deviceType	Device Type
+	 * @param deviceId		Device ID
+	 * @param eventName  Name of the dataset under which to publish the data
+	 * @param payload Object to be added to the payload as the dataset
+	 * @return false when too many events are pending
+	 */
+	public boolean publishEventOverHTTPBatched(String deviceType,
+									String deviceId,
+									String eventName, 
+									Object payload) {
+		String url = getEventURL(deviceType, deviceId, eventName, false);
+		return getHttpBatchPublisher().publish(url, payload);
+	}
+	
+	/**
+	 * @return the publisher of the batched HTTP events of this application
+	 */
+	public HttpBatchPublisher getHttpBatchPublisher() {
+		return getHttpBatchPublisher(this.getAuthKey());
 	}
 
 }
@@ -0,0 +1,197 @@
+package com.ibm.iotf.client.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>Rebuilds the state documents of the devices from their state events, see 
+ * com.ibm.iotf.client.device.DeviceState. A snapshot replaces the state of the device, a delta sets
+ * its fields and removes its null fields.</p>
+ *
+ * <p>When a delta is missed, the state of the device is no longer synchronized until the next
+ * snapshot, the tracker asks the device for one with the iotf-state-sync command if it has a client
+ * to publish it.</p>
+ *
+ * <pre>
+ * public void processEvent(Event evt) {
+ *     if (!tracker.update(evt)) {
+ *         // not a state event
+ *     }
+ * }
+ * </pre>
+ */
+public class DeviceStateTracker {
+
+	private static final String CLASS_NAME = DeviceStateTracker.class.getName();
+
+	public static final String SYNC_COMMAND = "iotf-state-sync";
+
+	private final ApplicationClient client;
+	private final String event;
+	private final ConcurrentHashMap<String, TrackedState> states = new ConcurrentHashMap<String, TrackedState>();
+	private final JsonParser parser = new JsonParser();
+
+	/**
+	 * @param client the client used to ask the devices for a snapshot, or null
+	 */
+	public DeviceStateTracker(ApplicationClient client) {
+		this(client, "state");
+	}
+
+	/**
+	 * @param client the client used to ask the devices for a snapshot, or null
+	 * @param event the name of the state events, as set by State-Event on the devices
+	 */
+	public DeviceStateTracker(ApplicationClient client, String event) {
+		this.client = client;
+		this.event = event;
+	}
+
+	/**
+	 * Applies a state event to the state of its device
+	 *
+	 * @return false if the event is not a state event
+	 */
+	public boolean update(Event evt) {
+		final String METHOD = "update";
+		if (!event.equals(evt.getEvent()) || evt.getData() == null) {
+			return false;
+		}
+		JsonObject message;
+		try {
+			JsonElement element = parser.parse(evt.getData());
+			if (!element.isJsonObject()) {
+				return false;
+			}
+			message = element.getAsJsonObject();
+		} catch (JsonParseException e) {
+			return false;
+		}
+		if (!message.has("v") || !message.has("state") || !message.get("state").isJsonObject()) {
+			return false;
+		}
+		long version = message.get("v").getAsLong();
+		boolean full = message.has("full") && message.get("full").getAsBoolean();
+		JsonObject fields = message.getAsJsonObject("state");
+
+		String key = evt.getDeviceType() + ':' + evt.getDeviceId();
+		TrackedState tracked = states.get(key);
+		if (tracked == null) {
+			TrackedState newState = new TrackedState(evt.getDeviceType(), evt.getDeviceId());
+			tracked = states.putIfAbsent(key, newState);
+			if (tracked == null) {
+				tracked = newState;
+			}
+		}
+
+		boolean requestSnapshot = false;
+		synchronized (tracked) {
+			if (full) {
+				// The versions restart when the device restarts, a snapshot is always applied
+				tracked.state = new JsonObject();
+				for (Map.Entry<String, JsonElement> e : fields.entrySet()) {
+					tracked.state.add(e.getKey(), e.getValue());
+				}
+				tracked.inSync = true;
+				tracked.version = version;
+			} else if (version <= tracked.version && tracked.state != null) {
+				LoggerUtility.fine(CLASS_NAME, METHOD, "Outdated state delta {} of {}", version, key);
+				return true;
+			} else {
+				if (tracked.state == null || version != tracked.version + 1) {
+					LoggerUtility.info(CLASS_NAME, METHOD, "Missed state delta of " + key + ", got " + version 
+							+ " after " + tracked.version);
+					requestSnapshot = tracked.inSync || tracked.state == null;
+					tracked.inSync = false;
+					if (tracked.state == null) {
+						tracked.state = new JsonObject();
+					}
+				}
+				for (Map.Entry<String, JsonElement> e : fields.entrySet()) {
+					if (e.getValue().isJsonNull()) {
+						tracked.state.remove(e.getKey());
+					} else {
+						tracked.state.add(e.getKey(), e.getValue());
+					}
+				}
+				tracked.version = version;
+			}
+		}
+		if (requestSnapshot && client != null) {
+			client.publishCommand(evt.getDeviceType(), evt.getDeviceId(), SYNC_COMMAND, new JsonObject());
+		}
+		return true;
+	}
+
+	/**
+	 * @return a copy of the state of the device, or null if no state event was received from it
+	 */
+	public JsonObject getState(String deviceType, String deviceId) {
+		TrackedState tracked = states.get(deviceType + ':' + deviceId);
+		if (tracked == null) {
+			return null;
+		}
+		synchronized (tracked) {
+			return tracked.state == null ? null : parser.parse(tracked.state.toString()).getAsJsonObject();
+		}
+	}
+
+	/**
+	 * @return whether the state of the device includes all its changes, i.e. no delta was missed since the latest snapshot
+	 */
+	public boolean isSynchronized(String deviceType, String deviceId) {
+		TrackedState tracked = states.get(deviceType + ':' + deviceId);
+		if (tracked == null) {
+			return false;
+		}
+		synchronized (tracked) {
+			return tracked.inSync;
+		}
+	}
+
+	/**
+	 * @return the version of the latest state event of the device, 0 if none
+	 */
+	public long getVersion(String deviceType, String deviceId) {
+		TrackedState tracked = states.get(deviceType + ':' + deviceId);
+		if (tracked == null) {
+			return 0;
+		}
+		synchronized (tracked) {
+			return tracked.version;
+		}
+	}
+
+	/**
+	 * @return the devices tracked, as type:id
+	 */
+	public List<String> getDevices() {
+		return new ArrayList<String>(states.keySet());
+	}
+
+	private static class TrackedState {
+		private final String type;
+		private final String id;
+		private JsonObject state;
+		private long version = 0;
+		private boolean inSync = false;
+
+		private TrackedState(String type, String id) {
+			this.type = type;
+			this.id = id;
+		}
+
+		@Override
+		public String toString() {
+			return type + ':' + id + " v" + version + " " + state;
+		}
+	}
+}
@@ -1,10 +1,19 @@
 package com.ibm.iotf.client.app;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
+import com.google.gson.JsonObject;
 import com.ibm.iotf.client.Message;
+import com.ibm.iotf.client.codec.GorillaCodec;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+import com.ibm.iotf.client.codec.PayloadCompressor;
+import com.ibm.iotf.client.codec.TelemetryBatch;
+import com.ibm.iotf.util.Iso8601;
 
 
 /**
@@ -55,6 +64,59 @@ public class Event extends Message{
 	}
 	
 	
+	/**
+	 * @return whether the event is a batch of samples published with DeviceClient.publishTelemetryBatch()
+	 */
+	public boolean isTelemetryBatch() {
+		return PayloadCodecs.GORILLA.equalsIgnoreCase(PayloadCompressor.getBaseFormat(format));
+	}
+
+	/**
+	 * Decodes the samples of a telemetry batch as columns of primitives
+	 * 
+	 * @return the batch, or null if the event is not a telemetry batch
+	 * @throws IOException if the payload is not a valid batch
+	 */
+	public TelemetryBatch getTelemetryBatch() throws IOException {
+		if (!isTelemetryBatch()) {
+			return null;
+		}
+		return ((GorillaCodec) PayloadCodecs.get(PayloadCodecs.GORILLA)).decodeBatch(rawPayload);
+	}
+
+	/**
+	 * Splits a telemetry batch into one json event per sample, {"ts": ..., "d": {"channel": value, ...}}
+	 * 
+	 * @return the events of the samples, or a list of this event if it is not a telemetry batch
+	 * @throws IOException if the payload is not a valid batch
+	 */
+	public List<Event> getSamples() throws IOException {
+		List<Event> samples = new ArrayList<Event>();
+		TelemetryBatch batch = getTelemetryBatch();
+		if (batch == null) {
+			samples.add(this);
+			return samples;
+		}
+		List<String> channels = batch.getChannels();
+		for (int i = 0; i < batch.size(); i++) {
+			JsonObject data = new JsonObject();
+			for (int c = 0; c < channels.size(); c++) {
+				double value = batch.getValue(c, i);
+				if (Double.isNaN(value) || Double.isInfinite(value)) {
+					data.add(channels.get(c), null);
+				} else {
+					data.addProperty(channels.get(c), value);
+				}
+			}
+			JsonObject message = new JsonObject();
+			message.addProperty("ts", Iso8601.formatUTC(batch.getTimestamp(i)));
+			message.add("d", data);
+			MqttMessage msg = new MqttMessage(message.toString().getBytes("UTF-8"));
+			samples.add(new Event(type, id, event, PayloadCodecs.JSON, msg));
+		}
+		return samples;
+	}
+	
 	/**
 	 * Provides a human readable String representing this event and contains timestamp, type, id and payload
 	 */
@@ -9,6 +9,7 @@ import org.joda.time.format.ISODateTimeFormat;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.ibm.iotf.util.Iso8601;
 
 
 /**
@@ -17,6 +18,10 @@ import com.google.gson.JsonParser;
  */
 public abstract class Status {
 	protected final static JsonParser JSON_PARSER = new JsonParser();
+	/**
+	 * @deprecated the timestamps are parsed by {@link Iso8601}
+	 */
+	@Deprecated
 	protected final static DateTimeFormatter DT_PARSER = ISODateTimeFormat.dateTimeParser();
 
 	// Properties from the "Connect" status are common in "Disconnect" status too
@@ -45,7 +50,7 @@ public abstract class Status {
 		protocol = payloadJson.get("Protocol").getAsString();
 		clientId = payloadJson.get("ClientID").getAsString();
 		user = payloadJson.get("User").getAsString();
-		time = DT_PARSER.parseDateTime(payloadJson.get("Time").getAsString());
+		time = new DateTime(Iso8601.parse(payloadJson.get("Time").getAsString()));
 		action = payloadJson.get("Action").getAsString();
 		connectTime = payloadJson.get("ConnectTime").getAsString();
 		port = payloadJson.get("Port").getAsInt();
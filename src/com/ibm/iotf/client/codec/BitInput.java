@@ -0,0 +1,74 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.io.IOException;
+
+/**
+ * Reads the stream of bits written by a {@link BitOutput}
+ */
+class BitInput {
+
+	private final byte[] buffer;
+	private final long limit;
+	private long position = 0;
+
+	BitInput(byte[] buffer) {
+		this.buffer = buffer;
+		this.limit = (long) buffer.length * 8;
+	}
+
+	boolean readBit() throws IOException {
+		if (position >= limit) {
+			throw new IOException("Truncated bit stream");
+		}
+		boolean bit = (buffer[(int) (position >>> 3)] & (0x80 >>> (int) (position & 7))) != 0;
+		position++;
+		return bit;
+	}
+
+	long readBits(int count) throws IOException {
+		if (position + count > limit) {
+			throw new IOException("Truncated bit stream");
+		}
+		long value = 0;
+		while (count > 0) {
+			int offset = (int) (position & 7);
+			int n = Math.min(8 - offset, count);
+			int chunk = ((buffer[(int) (position >>> 3)] & 0xff) >>> (8 - offset - n)) & ((1 << n) - 1);
+			value = (value << n) | chunk;
+			position += n;
+			count -= n;
+		}
+		return value;
+	}
+
+	/* The bits left to read */
+	long remaining() {
+		return limit - position;
+	}
+
+	int readByte() throws IOException {
+		return (int) readBits(8);
+	}
+
+	long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid variable length integer");
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.util.Arrays;
+
+/**
+ * Writes a stream of bits, the most significant bit of each byte first
+ */
+class BitOutput {
+
+	private byte[] buffer;
+	private int bits = 0;
+
+	BitOutput(int initialCapacity) {
+		buffer = new byte[Math.max(16, initialCapacity)];
+	}
+
+	void writeBit(boolean bit) {
+		ensureCapacity(1);
+		if (bit) {
+			buffer[bits >>> 3] |= 0x80 >>> (bits & 7);
+		}
+		bits++;
+	}
+
+	/**
+	 * Writes the count low order bits of the value, from the most significant one
+	 */
+	void writeBits(long value, int count) {
+		ensureCapacity(count);
+		while (count > 0) {
+			int free = 8 - (bits & 7);
+			int n = Math.min(free, count);
+			int chunk = (int) (value >>> (count - n)) & ((1 << n) - 1);
+			buffer[bits >>> 3] |= chunk << (free - n);
+			bits += n;
+			count -= n;
+		}
+	}
+
+	void writeByte(int value) {
+		writeBits(value & 0xff, 8);
+	}
+
+	/**
+	 * Writes an unsigned LEB128 variable length integer
+	 */
+	void writeVarint(long value) {
+		while ((value & ~0x7fL) != 0) {
+			writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		writeByte((int) value);
+	}
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer, (bits + 7) >>> 3);
+	}
+
+	private void ensureCapacity(int count) {
+		int needed = (bits + count + 7) >>> 3;
+		if (needed > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+		}
+	}
+}
@@ -0,0 +1,347 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * <p>The cbor format, the Concise Binary Object Representation of RFC 7049.</p>
+ *
+ * <p>The objects are encoded as maps, the integers as major types 0 and 1, the other numbers
+ * as single precision floats when it is lossless, double precision otherwise. The decoder accepts
+ * the indefinite lengths, the half precision floats and ignores the tags, the byte strings are
+ * decoded as Base64 strings as JSON has no binary type.</p>
+ */
+public class CborCodec implements PayloadCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final BigInteger UINT64_MAX = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+	private static final int UNSIGNED = 0;
+	private static final int NEGATIVE = 1;
+	private static final int BYTES = 2;
+	private static final int TEXT = 3;
+	private static final int ARRAY = 4;
+	private static final int MAP = 5;
+	private static final int TAG = 6;
+	private static final int SIMPLE = 7;
+
+	private static final int FALSE = 0xf4;
+	private static final int TRUE = 0xf5;
+	private static final int NULL = 0xf6;
+	private static final int UNDEFINED = 0xf7;
+	private static final int FLOAT16 = 0xf9;
+	private static final int FLOAT32 = 0xfa;
+	private static final int FLOAT64 = 0xfb;
+	private static final int BREAK = 0xff;
+	private static final int INDEFINITE = 31;
+
+	@Override
+	public String getFormat() {
+		return PayloadCodecs.CBOR;
+	}
+
+	@Override
+	public byte[] encode(JsonElement message) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+		write(out, message);
+		return out.toByteArray();
+	}
+
+	@Override
+	public JsonElement decode(byte[] payload) throws IOException {
+		Reader reader = new Reader(payload);
+		JsonElement element = reader.read();
+		if (element == null) {
+			throw new IOException("Unexpected break in the CBOR payload");
+		}
+		if (reader.pos != payload.length) {
+			throw new IOException("Trailing bytes after the CBOR payload");
+		}
+		return element;
+	}
+
+	private static void write(ByteArrayOutputStream out, JsonElement element) {
+		if (element == null || element.isJsonNull()) {
+			out.write(NULL);
+		} else if (element.isJsonObject()) {
+			JsonObject object = element.getAsJsonObject();
+			writeHeader(out, MAP, object.entrySet().size());
+			for (Map.Entry<String, JsonElement> e : object.entrySet()) {
+				writeText(out, e.getKey());
+				write(out, e.getValue());
+			}
+		} else if (element.isJsonArray()) {
+			JsonArray array = element.getAsJsonArray();
+			writeHeader(out, ARRAY, array.size());
+			for (JsonElement e : array) {
+				write(out, e);
+			}
+		} else {
+			JsonPrimitive primitive = element.getAsJsonPrimitive();
+			if (primitive.isBoolean()) {
+				out.write(primitive.getAsBoolean() ? TRUE : FALSE);
+			} else if (primitive.isNumber()) {
+				writeNumber(out, primitive);
+			} else {
+				writeText(out, primitive.getAsString());
+			}
+		}
+	}
+
+	private static void writeNumber(ByteArrayOutputStream out, JsonPrimitive number) {
+		Long integer = Numbers.asLong(number);
+		if (integer != null) {
+			long value = integer.longValue();
+			if (value >= 0) {
+				writeHeader(out, UNSIGNED, value);
+			} else {
+				writeHeader(out, NEGATIVE, -1 - value);
+			}
+			return;
+		}
+		double value = number.getAsDouble();
+		float single = (float) value;
+		if (single == value || Double.isNaN(value)) {
+			out.write(FLOAT32);
+			writeBigEndian(out, Float.floatToIntBits(single) & 0xffffffffL, 4);
+		} else {
+			out.write(FLOAT64);
+			writeBigEndian(out, Double.doubleToLongBits(value), 8);
+		}
+	}
+
+	private static void writeText(ByteArrayOutputStream out, String text) {
+		byte[] bytes = text.getBytes(UTF8);
+		writeHeader(out, TEXT, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static void writeHeader(ByteArrayOutputStream out, int major, long length) {
+		int type = major << 5;
+		if (length < 24) {
+			out.write(type | (int) length);
+		} else if (length < 0x100) {
+			out.write(type | 24);
+			out.write((int) length);
+		} else if (length < 0x10000) {
+			out.write(type | 25);
+			writeBigEndian(out, length, 2);
+		} else if (length < 0x100000000L) {
+			out.write(type | 26);
+			writeBigEndian(out, length, 4);
+		} else {
+			out.write(type | 27);
+			writeBigEndian(out, length, 8);
+		}
+	}
+
+	private static void writeBigEndian(ByteArrayOutputStream out, long value, int size) {
+		for (int i = size - 1; i >= 0; i--) {
+			out.write((int) (value >>> (8 * i)));
+		}
+	}
+
+	/**
+	 * Decodes the data items of a payload, null stands for the break of an indefinite length item
+	 */
+	private static class Reader {
+		private final byte[] in;
+		private int pos = 0;
+
+		private Reader(byte[] in) {
+			this.in = in;
+		}
+
+		private JsonElement read() throws IOException {
+			int initial = next();
+			int major = initial >>> 5;
+			int info = initial & 0x1f;
+			if (initial == BREAK) {
+				return null;
+			}
+			switch (major) {
+			case UNSIGNED:
+				return unsigned(info, false);
+			case NEGATIVE:
+				return unsigned(info, true);
+			case BYTES:
+				return new JsonPrimitive(Base64.encodeBase64String(readString(BYTES, info)));
+			case TEXT:
+				return new JsonPrimitive(new String(readString(TEXT, info), UTF8));
+			case ARRAY: {
+				JsonArray array = new JsonArray();
+				long length = info == INDEFINITE ? -1 : length(info);
+				for (long i = 0; length < 0 || i < length; i++) {
+					JsonElement element = read();
+					if (element == null) {
+						if (length < 0) {
+							break;
+						}
+						throw new IOException("Unexpected break in a CBOR array");
+					}
+					array.add(element);
+				}
+				return array;
+			}
+			case MAP: {
+				JsonObject object = new JsonObject();
+				long length = info == INDEFINITE ? -1 : length(info);
+				for (long i = 0; length < 0 || i < length; i++) {
+					JsonElement key = read();
+					if (key == null) {
+						if (length < 0) {
+							break;
+						}
+						throw new IOException("Unexpected break in a CBOR map");
+					}
+					JsonElement value = read();
+					if (value == null) {
+						throw new IOException("Unexpected break in a CBOR map");
+					}
+					object.add(key.isJsonPrimitive() ? key.getAsString() : key.toString(), value);
+				}
+				return object;
+			}
+			case TAG:
+				// The tags carry the semantics of the next item, which is kept as is
+				length(info);
+				return read();
+			default:
+				return simple(initial, info);
+			}
+		}
+
+		private JsonElement unsigned(int info, boolean negative) throws IOException {
+			long value = length(info);
+			if (value >= 0) {
+				return new JsonPrimitive(negative ? -1 - value : value);
+			}
+			BigInteger big = BigInteger.valueOf(value).and(UINT64_MAX);
+			return new JsonPrimitive(negative ? BigInteger.valueOf(-1).subtract(big) : big);
+		}
+
+		private JsonElement simple(int initial, int info) throws IOException {
+			switch (initial) {
+			case FALSE:
+				return new JsonPrimitive(Boolean.FALSE);
+			case TRUE:
+				return new JsonPrimitive(Boolean.TRUE);
+			case NULL:
+			case UNDEFINED:
+				return JsonNull.INSTANCE;
+			case FLOAT16:
+				return Numbers.toJson(halfToFloat((int) readBigEndian(2)));
+			case FLOAT32:
+				return Numbers.toJson(Float.intBitsToFloat((int) readBigEndian(4)));
+			case FLOAT64:
+				return Numbers.toJson(Double.longBitsToDouble(readBigEndian(8)));
+			default:
+				// The unassigned simple values have no JSON equivalent
+				if (info < 24) {
+					return JsonNull.INSTANCE;
+				} else if (info == 24) {
+					next();
+					return JsonNull.INSTANCE;
+				}
+				throw new IOException("Invalid CBOR simple value " + initial);
+			}
+		}
+
+		private byte[] readString(int major, int info) throws IOException {
+			if (info != INDEFINITE) {
+				long length = length(info);
+				if (length < 0 || length > in.length - pos) {
+					throw new IOException("Truncated CBOR string");
+				}
+				byte[] bytes = new byte[(int) length];
+				System.arraycopy(in, pos, bytes, 0, bytes.length);
+				pos += bytes.length;
+				return bytes;
+			}
+			// The chunks of an indefinite length string are definite length strings of the same type
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			while (true) {
+				int initial = next();
+				if (initial == BREAK) {
+					return out.toByteArray();
+				}
+				if (initial >>> 5 != major || (initial & 0x1f) == INDEFINITE) {
+					throw new IOException("Invalid chunk in a CBOR string");
+				}
+				byte[] chunk = readString(major, initial & 0x1f);
+				out.write(chunk, 0, chunk.length);
+			}
+		}
+
+		private long length(int info) throws IOException {
+			if (info < 24) {
+				return info;
+			}
+			switch (info) {
+			case 24:
+				return readBigEndian(1);
+			case 25:
+				return readBigEndian(2);
+			case 26:
+				return readBigEndian(4);
+			case 27:
+				return readBigEndian(8);
+			default:
+				throw new IOException("Invalid CBOR additional information " + info);
+			}
+		}
+
+		private long readBigEndian(int size) throws IOException {
+			if (in.length - pos < size) {
+				throw new IOException("Truncated CBOR payload");
+			}
+			long value = 0;
+			for (int i = 0; i < size; i++) {
+				value = (value << 8) | (in[pos++] & 0xff);
+			}
+			return value;
+		}
+
+		private int next() throws IOException {
+			if (pos >= in.length) {
+				throw new IOException("Truncated CBOR payload");
+			}
+			return in[pos++] & 0xff;
+		}
+	}
+
+	private static float halfToFloat(int half) {
+		int exponent = (half >>> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		float value;
+		if (exponent == 0) {
+			value = (float) (mantissa * Math.pow(2, -24));
+		} else if (exponent == 31) {
+			value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		} else {
+			value = (float) ((mantissa + 1024) * Math.pow(2, exponent - 25));
+		}
+		return (half & 0x8000) != 0 ? -value : value;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The compression statistics of an event or command and format, see {@link PayloadCompressor}. The times are the time spent
+ * in zlib by the publishing and the receiving threads, deflate being CPU bound it is its CPU cost.
+ */
+public class CompressionStatistics {
+
+	final AtomicLong messages = new AtomicLong();
+	final AtomicLong compressedMessages = new AtomicLong();
+	final AtomicLong uncompressedBytes = new AtomicLong();
+	final AtomicLong compressedBytes = new AtomicLong();
+	final AtomicLong compressNanos = new AtomicLong();
+	final AtomicLong decompressedMessages = new AtomicLong();
+	final AtomicLong receivedBytes = new AtomicLong();
+	final AtomicLong decompressedBytes = new AtomicLong();
+	final AtomicLong decompressNanos = new AtomicLong();
+
+	CompressionStatistics() {
+	}
+
+	/**
+	 * @return the number of the payloads published, compressed or not
+	 */
+	public long getMessages() {
+		return messages.get();
+	}
+
+	public long getCompressedMessages() {
+		return compressedMessages.get();
+	}
+
+	/**
+	 * @return the size of the published payloads that were compressed, before the compression
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes.get();
+	}
+
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	/**
+	 * @return the time spent compressing, in nanoseconds
+	 */
+	public long getCompressNanos() {
+		return compressNanos.get();
+	}
+
+	/**
+	 * @return the uncompressed size divided by the compressed size of the published payloads, 1 if none was compressed
+	 */
+	public double getCompressionRatio() {
+		long compressed = compressedBytes.get();
+		return compressed == 0 ? 1 : (double) uncompressedBytes.get() / compressed;
+	}
+
+	public long getDecompressedMessages() {
+		return decompressedMessages.get();
+	}
+
+	/**
+	 * @return the size of the received compressed payloads
+	 */
+	public long getReceivedBytes() {
+		return receivedBytes.get();
+	}
+
+	public long getDecompressedBytes() {
+		return decompressedBytes.get();
+	}
+
+	/**
+	 * @return the time spent decompressing, in nanoseconds
+	 */
+	public long getDecompressNanos() {
+		return decompressNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return "[messages=" + getMessages() + ", compressed=" + getCompressedMessages()
+				+ ", ratio=" + String.format("%.2f", getCompressionRatio())
+				+ ", compressNanos=" + getCompressNanos() + ", decompressed=" + getDecompressedMessages()
+				+ ", decompressNanos=" + getDecompressNanos() + "]";
+	}
+}
@@ -0,0 +1,302 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.ibm.iotf.util.Iso8601;
+
+/**
+ * <p>The gorilla format, the columnar compression of the numeric time series of the Gorilla paper
+ * (Pelkonen et al., VLDB 2015). The payload is a {@link TelemetryBatch}: the timestamps are encoded
+ * as the variable length deltas of their deltas, the values of each channel as the meaningful bits of
+ * their XOR with the previous value. Regular samples of slowly changing values take a few bits each.</p>
+ *
+ * <p>The layout is a version byte, the number of channels, their UTF-8 names, the number of samples,
+ * the timestamps column then one column per channel, all the counts as unsigned varints.</p>
+ *
+ * <p>As a {@link PayloadCodec} the batch is represented as
+ * {"ts": first timestamp, "d": {"timestamps": [ms, ...], "channels": {"name": [value, ...], ...}}},
+ * NaN and the infinities are represented as null.</p>
+ */
+public class GorillaCodec implements PayloadCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int VERSION = 1;
+
+	@Override
+	public String getFormat() {
+		return PayloadCodecs.GORILLA;
+	}
+
+	/**
+	 * Encodes a batch
+	 */
+	public byte[] encodeBatch(TelemetryBatch batch) {
+		List<String> channels = batch.getChannels();
+		int size = batch.size();
+		BitOutput out = new BitOutput(32 + size * (1 + channels.size() * 2));
+		out.writeByte(VERSION);
+		out.writeVarint(channels.size());
+		for (String channel : channels) {
+			byte[] name = channel.getBytes(UTF8);
+			out.writeVarint(name.length);
+			for (byte b : name) {
+				out.writeByte(b);
+			}
+		}
+		out.writeVarint(size);
+		if (size == 0) {
+			return out.toByteArray();
+		}
+
+		long previous = batch.getTimestamp(0);
+		long previousDelta = 0;
+		out.writeBits(previous, 64);
+		for (int i = 1; i < size; i++) {
+			long timestamp = batch.getTimestamp(i);
+			long delta = timestamp - previous;
+			writeDeltaOfDelta(out, delta - previousDelta);
+			previous = timestamp;
+			previousDelta = delta;
+		}
+
+		for (int c = 0; c < channels.size(); c++) {
+			long previousBits = Double.doubleToRawLongBits(batch.getValue(c, 0));
+			out.writeBits(previousBits, 64);
+			int previousLeading = -1;
+			int previousTrailing = 0;
+			for (int i = 1; i < size; i++) {
+				long bits = Double.doubleToRawLongBits(batch.getValue(c, i));
+				long xor = bits ^ previousBits;
+				previousBits = bits;
+				if (xor == 0) {
+					out.writeBit(false);
+					continue;
+				}
+				out.writeBit(true);
+				int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+				int trailing = Long.numberOfTrailingZeros(xor);
+				if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+					// The meaningful bits fit in the window of the previous value
+					out.writeBit(false);
+					out.writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+				} else {
+					int meaningful = 64 - leading - trailing;
+					out.writeBit(true);
+					out.writeBits(leading, 5);
+					// 64 meaningful bits are written as 0
+					out.writeBits(meaningful & 0x3f, 6);
+					out.writeBits(xor >>> trailing, meaningful);
+					previousLeading = leading;
+					previousTrailing = trailing;
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a batch
+	 *
+	 * @throws IOException if the payload is not a valid batch
+	 */
+	public TelemetryBatch decodeBatch(byte[] payload) throws IOException {
+		BitInput in = new BitInput(payload);
+		int version = in.readByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported gorilla batch version " + version);
+		}
+		int count = checkedCount(in.readVarint(), payload.length);
+		String[] channels = new String[count];
+		for (int c = 0; c < count; c++) {
+			byte[] name = new byte[checkedCount(in.readVarint(), payload.length)];
+			for (int i = 0; i < name.length; i++) {
+				name[i] = (byte) in.readByte();
+			}
+			channels[c] = new String(name, UTF8);
+		}
+		if (count == 0) {
+			throw new IOException("A gorilla batch has at least one channel");
+		}
+		// Each sample takes at least one bit per column
+		int size = checkedCount(in.readVarint(), payload.length * 8L);
+		// The first timestamp and value take 64 bits, the others at least one bit, checked before
+		// allocating the columns
+		if (size > 0 && (count + 1L) * (63L + size) > in.remaining()) {
+			throw new IOException("The gorilla batch of " + count + " channels and " + size
+					+ " samples is longer than the payload");
+		}
+		TelemetryBatch batch = new TelemetryBatch(size, channels);
+		if (size == 0) {
+			return batch;
+		}
+
+		long[] timestamps = new long[size];
+		long previous = in.readBits(64);
+		long previousDelta = 0;
+		timestamps[0] = previous;
+		for (int i = 1; i < size; i++) {
+			previousDelta += readDeltaOfDelta(in);
+			previous += previousDelta;
+			timestamps[i] = previous;
+		}
+
+		double[][] values = new double[count][size];
+		for (int c = 0; c < count; c++) {
+			long bits = in.readBits(64);
+			values[c][0] = Double.longBitsToDouble(bits);
+			int leading = 0;
+			int meaningful = 0;
+			for (int i = 1; i < size; i++) {
+				if (in.readBit()) {
+					if (in.readBit()) {
+						leading = (int) in.readBits(5);
+						meaningful = (int) in.readBits(6);
+						if (meaningful == 0) {
+							meaningful = 64;
+						}
+						if (leading + meaningful > 64) {
+							throw new IOException("Invalid gorilla value");
+						}
+					} else if (meaningful == 0) {
+						throw new IOException("Invalid gorilla value");
+					}
+					int trailing = 64 - leading - meaningful;
+					bits ^= in.readBits(meaningful) << trailing;
+				}
+				values[c][i] = Double.longBitsToDouble(bits);
+			}
+		}
+
+		double[] sample = new double[count];
+		for (int i = 0; i < size; i++) {
+			for (int c = 0; c < count; c++) {
+				sample[c] = values[c][i];
+			}
+			batch.add(timestamps[i], sample);
+		}
+		return batch;
+	}
+
+	@Override
+	public byte[] encode(JsonElement message) throws IOException {
+		JsonObject data = message.getAsJsonObject();
+		if (data.has("d")) {
+			data = data.getAsJsonObject("d");
+		}
+		if (!data.has("timestamps") || !data.has("channels")) {
+			throw new IOException("A gorilla batch has timestamps and channels");
+		}
+		JsonArray timestamps = data.getAsJsonArray("timestamps");
+		List<String> names = new ArrayList<String>();
+		List<JsonArray> columns = new ArrayList<JsonArray>();
+		for (Map.Entry<String, JsonElement> e : data.getAsJsonObject("channels").entrySet()) {
+			names.add(e.getKey());
+			columns.add(e.getValue().getAsJsonArray());
+		}
+		TelemetryBatch batch = new TelemetryBatch(timestamps.size(), names.toArray(new String[names.size()]));
+		double[] sample = new double[names.size()];
+		for (int i = 0; i < timestamps.size(); i++) {
+			for (int c = 0; c < sample.length; c++) {
+				JsonElement value = columns.get(c).get(i);
+				sample[c] = value.isJsonNull() ? Double.NaN : value.getAsDouble();
+			}
+			batch.add(timestamps.get(i).getAsLong(), sample);
+		}
+		return encodeBatch(batch);
+	}
+
+	@Override
+	public JsonElement decode(byte[] payload) throws IOException {
+		TelemetryBatch batch = decodeBatch(payload);
+		JsonArray timestamps = new JsonArray();
+		for (int i = 0; i < batch.size(); i++) {
+			timestamps.add(new JsonPrimitive(batch.getTimestamp(i)));
+		}
+		JsonObject channels = new JsonObject();
+		List<String> names = batch.getChannels();
+		for (int c = 0; c < names.size(); c++) {
+			JsonArray column = new JsonArray();
+			for (int i = 0; i < batch.size(); i++) {
+				column.add(Numbers.toJson(batch.getValue(c, i)));
+			}
+			channels.add(names.get(c), column);
+		}
+		JsonObject data = new JsonObject();
+		data.add("timestamps", timestamps);
+		data.add("channels", channels);
+		JsonObject message = new JsonObject();
+		if (batch.size() > 0) {
+			message.addProperty("ts", Iso8601.formatUTC(batch.getTimestamp(0)));
+		}
+		message.add("d", data);
+		return message;
+	}
+
+	/**
+	 * Writes the delta of delta of a timestamp in the smallest of the buckets of the paper,
+	 * widened to two's complement ranges and to 64 bits for the largest bucket
+	 */
+	private static void writeDeltaOfDelta(BitOutput out, long dod) {
+		if (dod == 0) {
+			out.writeBit(false);
+		} else if (dod >= -64 && dod < 64) {
+			out.writeBits(0x2, 2);
+			out.writeBits(dod, 7);
+		} else if (dod >= -256 && dod < 256) {
+			out.writeBits(0x6, 3);
+			out.writeBits(dod, 9);
+		} else if (dod >= -2048 && dod < 2048) {
+			out.writeBits(0xe, 4);
+			out.writeBits(dod, 12);
+		} else {
+			out.writeBits(0xf, 4);
+			out.writeBits(dod, 64);
+		}
+	}
+
+	private static long readDeltaOfDelta(BitInput in) throws IOException {
+		if (!in.readBit()) {
+			return 0;
+		}
+		if (!in.readBit()) {
+			return signExtend(in.readBits(7), 7);
+		}
+		if (!in.readBit()) {
+			return signExtend(in.readBits(9), 9);
+		}
+		if (!in.readBit()) {
+			return signExtend(in.readBits(12), 12);
+		}
+		return in.readBits(64);
+	}
+
+	private static long signExtend(long value, int bits) {
+		return (value << (64 - bits)) >> (64 - bits);
+	}
+
+	private static int checkedCount(long count, long limit) throws IOException {
+		if (count < 0 || count > limit) {
+			throw new IOException("Invalid count " + count + " in the gorilla batch");
+		}
+		return (int) count;
+	}
+}
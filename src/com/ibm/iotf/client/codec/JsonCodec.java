@@ -0,0 +1,47 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * The json format, the payload is the UTF-8 JSON text of the message
+ */
+public class JsonCodec implements PayloadCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final JsonParser parser = new JsonParser();
+
+	@Override
+	public String getFormat() {
+		return PayloadCodecs.JSON;
+	}
+
+	@Override
+	public byte[] encode(JsonElement message) {
+		return message.toString().getBytes(UTF8);
+	}
+
+	@Override
+	public JsonElement decode(byte[] payload) throws IOException {
+		try {
+			return parser.parse(new String(payload, UTF8));
+		} catch (JsonParseException e) {
+			throw new IOException("Invalid JSON payload: " + e.getMessage(), e);
+		}
+	}
+}
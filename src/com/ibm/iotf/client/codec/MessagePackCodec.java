@@ -0,0 +1,347 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * <p>The msgpack format, see https://github.com/msgpack/msgpack/blob/master/spec.md</p>
+ *
+ * <p>The integers are encoded in the smallest format that holds them, the other numbers as float 32
+ * when it is lossless, float 64 otherwise. The binary and the extension types are decoded as Base64
+ * strings as JSON has no binary type.</p>
+ */
+public class MessagePackCodec implements PayloadCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final BigInteger UINT64_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+	private static final int NIL = 0xc0;
+	private static final int FALSE = 0xc2;
+	private static final int TRUE = 0xc3;
+	private static final int BIN8 = 0xc4;
+	private static final int BIN16 = 0xc5;
+	private static final int BIN32 = 0xc6;
+	private static final int EXT8 = 0xc7;
+	private static final int EXT16 = 0xc8;
+	private static final int EXT32 = 0xc9;
+	private static final int FLOAT32 = 0xca;
+	private static final int FLOAT64 = 0xcb;
+	private static final int UINT8 = 0xcc;
+	private static final int UINT16 = 0xcd;
+	private static final int UINT32 = 0xce;
+	private static final int UINT64 = 0xcf;
+	private static final int INT8 = 0xd0;
+	private static final int INT16 = 0xd1;
+	private static final int INT32 = 0xd2;
+	private static final int INT64 = 0xd3;
+	private static final int FIXEXT1 = 0xd4;
+	private static final int FIXEXT16 = 0xd8;
+	private static final int STR8 = 0xd9;
+	private static final int STR16 = 0xda;
+	private static final int STR32 = 0xdb;
+	private static final int ARRAY16 = 0xdc;
+	private static final int ARRAY32 = 0xdd;
+	private static final int MAP16 = 0xde;
+	private static final int MAP32 = 0xdf;
+
+	@Override
+	public String getFormat() {
+		return PayloadCodecs.MSGPACK;
+	}
+
+	@Override
+	public byte[] encode(JsonElement message) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+		write(out, message);
+		return out.toByteArray();
+	}
+
+	@Override
+	public JsonElement decode(byte[] payload) throws IOException {
+		Reader reader = new Reader(payload);
+		JsonElement element = reader.read();
+		if (reader.pos != payload.length) {
+			throw new IOException("Trailing bytes after the MessagePack payload");
+		}
+		return element;
+	}
+
+	private static void write(ByteArrayOutputStream out, JsonElement element) {
+		if (element == null || element.isJsonNull()) {
+			out.write(NIL);
+		} else if (element.isJsonObject()) {
+			JsonObject object = element.getAsJsonObject();
+			writeHeader(out, 0x80, MAP16, MAP32, 16, object.entrySet().size());
+			for (Map.Entry<String, JsonElement> e : object.entrySet()) {
+				writeString(out, e.getKey());
+				write(out, e.getValue());
+			}
+		} else if (element.isJsonArray()) {
+			JsonArray array = element.getAsJsonArray();
+			writeHeader(out, 0x90, ARRAY16, ARRAY32, 16, array.size());
+			for (JsonElement e : array) {
+				write(out, e);
+			}
+		} else {
+			JsonPrimitive primitive = element.getAsJsonPrimitive();
+			if (primitive.isBoolean()) {
+				out.write(primitive.getAsBoolean() ? TRUE : FALSE);
+			} else if (primitive.isNumber()) {
+				writeNumber(out, primitive);
+			} else {
+				writeString(out, primitive.getAsString());
+			}
+		}
+	}
+
+	private static void writeNumber(ByteArrayOutputStream out, JsonPrimitive number) {
+		Long integer = Numbers.asLong(number);
+		if (integer != null) {
+			long value = integer.longValue();
+			if (value >= 0) {
+				if (value < 0x80) {
+					out.write((int) value);
+				} else if (value < 0x100) {
+					out.write(UINT8);
+					out.write((int) value);
+				} else if (value < 0x10000) {
+					out.write(UINT16);
+					writeBigEndian(out, value, 2);
+				} else if (value < 0x100000000L) {
+					out.write(UINT32);
+					writeBigEndian(out, value, 4);
+				} else {
+					out.write(UINT64);
+					writeBigEndian(out, value, 8);
+				}
+			} else if (value >= -32) {
+				out.write((int) value & 0xff);
+			} else if (value >= Byte.MIN_VALUE) {
+				out.write(INT8);
+				writeBigEndian(out, value, 1);
+			} else if (value >= Short.MIN_VALUE) {
+				out.write(INT16);
+				writeBigEndian(out, value, 2);
+			} else if (value >= Integer.MIN_VALUE) {
+				out.write(INT32);
+				writeBigEndian(out, value, 4);
+			} else {
+				out.write(INT64);
+				writeBigEndian(out, value, 8);
+			}
+			return;
+		}
+		double value = number.getAsDouble();
+		float single = (float) value;
+		if (single == value || Double.isNaN(value)) {
+			out.write(FLOAT32);
+			writeBigEndian(out, Float.floatToIntBits(single), 4);
+		} else {
+			out.write(FLOAT64);
+			writeBigEndian(out, Double.doubleToLongBits(value), 8);
+		}
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String text) {
+		byte[] bytes = text.getBytes(UTF8);
+		if (bytes.length < 32) {
+			out.write(0xa0 | bytes.length);
+		} else if (bytes.length < 0x100) {
+			out.write(STR8);
+			out.write(bytes.length);
+		} else {
+			writeHeader(out, 0, STR16, STR32, 0, bytes.length);
+		}
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes the header of a map, an array or a long string, in its fix format when the size is below fixLimit
+	 */
+	private static void writeHeader(ByteArrayOutputStream out, int fix, int type16, int type32, int fixLimit, int size) {
+		if (size < fixLimit) {
+			out.write(fix | size);
+		} else if (size < 0x10000) {
+			out.write(type16);
+			writeBigEndian(out, size, 2);
+		} else {
+			out.write(type32);
+			writeBigEndian(out, size, 4);
+		}
+	}
+
+	private static void writeBigEndian(ByteArrayOutputStream out, long value, int size) {
+		for (int i = size - 1; i >= 0; i--) {
+			out.write((int) (value >>> (8 * i)));
+		}
+	}
+
+	private static class Reader {
+		private final byte[] in;
+		private int pos = 0;
+
+		private Reader(byte[] in) {
+			this.in = in;
+		}
+
+		private JsonElement read() throws IOException {
+			int type = next();
+			if (type < 0x80) {
+				return new JsonPrimitive(type);
+			} else if (type < 0x90) {
+				return readMap(type & 0x0f);
+			} else if (type < 0xa0) {
+				return readArray(type & 0x0f);
+			} else if (type < 0xc0) {
+				return readString(type & 0x1f);
+			} else if (type >= 0xe0) {
+				return new JsonPrimitive((byte) type);
+			}
+
+			switch (type) {
+			case NIL:
+				return JsonNull.INSTANCE;
+			case FALSE:
+				return new JsonPrimitive(Boolean.FALSE);
+			case TRUE:
+				return new JsonPrimitive(Boolean.TRUE);
+			case BIN8:
+				return readBinary(readBigEndian(1));
+			case BIN16:
+				return readBinary(readBigEndian(2));
+			case BIN32:
+				return readBinary(readBigEndian(4));
+			case EXT8:
+				return readExtension(readBigEndian(1));
+			case EXT16:
+				return readExtension(readBigEndian(2));
+			case EXT32:
+				return readExtension(readBigEndian(4));
+			case FLOAT32:
+				return Numbers.toJson(Float.intBitsToFloat((int) readBigEndian(4)));
+			case FLOAT64:
+				return Numbers.toJson(Double.longBitsToDouble(readBigEndian(8)));
+			case UINT8:
+				return new JsonPrimitive(readBigEndian(1));
+			case UINT16:
+				return new JsonPrimitive(readBigEndian(2));
+			case UINT32:
+				return new JsonPrimitive(readBigEndian(4));
+			case UINT64: {
+				long value = readBigEndian(8);
+				if (value >= 0) {
+					return new JsonPrimitive(value);
+				}
+				return new JsonPrimitive(BigInteger.valueOf(value).and(UINT64_MASK));
+			}
+			case INT8:
+				return new JsonPrimitive((byte) readBigEndian(1));
+			case INT16:
+				return new JsonPrimitive((short) readBigEndian(2));
+			case INT32:
+				return new JsonPrimitive((int) readBigEndian(4));
+			case INT64:
+				return new JsonPrimitive(readBigEndian(8));
+			case STR8:
+				return readString(readBigEndian(1));
+			case STR16:
+				return readString(readBigEndian(2));
+			case STR32:
+				return readString(readBigEndian(4));
+			case ARRAY16:
+				return readArray(readBigEndian(2));
+			case ARRAY32:
+				return readArray(readBigEndian(4));
+			case MAP16:
+				return readMap(readBigEndian(2));
+			case MAP32:
+				return readMap(readBigEndian(4));
+			default:
+				if (type >= FIXEXT1 && type <= FIXEXT16) {
+					return readExtension(1 << (type - FIXEXT1));
+				}
+				throw new IOException("Invalid MessagePack type " + type);
+			}
+		}
+
+		private JsonElement readMap(long size) throws IOException {
+			JsonObject object = new JsonObject();
+			for (long i = 0; i < size; i++) {
+				JsonElement key = read();
+				object.add(key.isJsonPrimitive() ? key.getAsString() : key.toString(), read());
+			}
+			return object;
+		}
+
+		private JsonElement readArray(long size) throws IOException {
+			JsonArray array = new JsonArray();
+			for (long i = 0; i < size; i++) {
+				array.add(read());
+			}
+			return array;
+		}
+
+		private JsonElement readString(long length) throws IOException {
+			return new JsonPrimitive(new String(readBytes(length), UTF8));
+		}
+
+		private JsonElement readBinary(long length) throws IOException {
+			return new JsonPrimitive(Base64.encodeBase64String(readBytes(length)));
+		}
+
+		private JsonElement readExtension(long length) throws IOException {
+			// The type of the extension is not representable in JSON, only its data is kept
+			next();
+			return readBinary(length);
+		}
+
+		private byte[] readBytes(long length) throws IOException {
+			if (length > in.length - pos) {
+				throw new IOException("Truncated MessagePack payload");
+			}
+			byte[] bytes = new byte[(int) length];
+			System.arraycopy(in, pos, bytes, 0, bytes.length);
+			pos += bytes.length;
+			return bytes;
+		}
+
+		private long readBigEndian(int size) throws IOException {
+			if (in.length - pos < size) {
+				throw new IOException("Truncated MessagePack payload");
+			}
+			long value = 0;
+			for (int i = 0; i < size; i++) {
+				value = (value << 8) | (in[pos++] & 0xff);
+			}
+			return value;
+		}
+
+		private int next() throws IOException {
+			if (pos >= in.length) {
+				throw new IOException("Truncated MessagePack payload");
+			}
+			return in[pos++] & 0xff;
+		}
+	}
+}
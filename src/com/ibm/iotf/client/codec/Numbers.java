@@ -0,0 +1,66 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.math.BigDecimal;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * The conversions of the JSON numbers shared by the binary codecs
+ */
+final class Numbers {
+
+	private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+	private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
+	private Numbers() {
+	}
+
+	/**
+	 * @return the value of a number written without a fraction or an exponent, or null if it is not an integer
+	 */
+	static Long asLong(JsonPrimitive primitive) {
+		Number number = primitive.getAsNumber();
+		if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+			return number.longValue();
+		}
+		if (number instanceof Double || number instanceof Float) {
+			return null;
+		}
+		// A number parsed from JSON text, or a BigInteger / BigDecimal
+		String text = number.toString();
+		if (text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0) {
+			return null;
+		}
+		try {
+			BigDecimal value = new BigDecimal(text);
+			if (value.compareTo(LONG_MIN) < 0 || value.compareTo(LONG_MAX) > 0) {
+				return null;
+			}
+			return value.longValue();
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the number, or null for NaN and the infinities that JSON can not represent
+	 */
+	static JsonElement toJson(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return JsonNull.INSTANCE;
+		}
+		return new JsonPrimitive(value);
+	}
+}
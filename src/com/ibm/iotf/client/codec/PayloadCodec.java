@@ -0,0 +1,44 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.io.IOException;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Encodes and decodes the payload of the events and commands of a format, the format is
+ * the fmt segment of the topics. The messages are represented as Gson trees, so that the
+ * payloads of all the formats are accessed the same way, {"ts": ..., "d": {...}}.
+ *
+ * <p>The codecs are found by their format through {@link PayloadCodecs}, custom codecs can be
+ * registered there or listed in META-INF/services/com.ibm.iotf.client.codec.PayloadCodec.</p>
+ */
+public interface PayloadCodec {
+
+	/**
+	 * @return the format of the topics this codec handles, for example cbor
+	 */
+	String getFormat();
+
+	/**
+	 * @param message the message to encode
+	 * @return the payload
+	 */
+	byte[] encode(JsonElement message) throws IOException;
+
+	/**
+	 * @param payload the payload of a MQTT message
+	 * @return the message
+	 * @throws IOException if the payload is not valid in this format
+	 */
+	JsonElement decode(byte[] payload) throws IOException;
+}
@@ -0,0 +1,85 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * The registry of the payload codecs, by format. The json, cbor, msgpack and gorilla codecs are built in,
+ * the codecs listed in META-INF/services/com.ibm.iotf.client.codec.PayloadCodec are loaded on first use.
+ */
+public final class PayloadCodecs {
+
+	private static final String CLASS_NAME = PayloadCodecs.class.getName();
+
+	public static final String JSON = "json";
+	public static final String CBOR = "cbor";
+	public static final String MSGPACK = "msgpack";
+	public static final String GORILLA = "gorilla";
+
+	private static final ConcurrentHashMap<String, PayloadCodec> CODECS = new ConcurrentHashMap<String, PayloadCodec>();
+
+	static {
+		register(new JsonCodec());
+		register(new CborCodec());
+		register(new MessagePackCodec());
+		register(new GorillaCodec());
+		loadServices();
+	}
+
+	private PayloadCodecs() {
+	}
+
+	/**
+	 * Registers a codec, it replaces the codec of the same format if any
+	 */
+	public static void register(PayloadCodec codec) {
+		CODECS.put(codec.getFormat().toLowerCase(Locale.ENGLISH), codec);
+	}
+
+	/**
+	 * @param format the fmt segment of a topic
+	 * @return the codec of the format or null, in which case the payload is handled as a raw string
+	 */
+	public static PayloadCodec get(String format) {
+		if (format == null) {
+			return null;
+		}
+		PayloadCodec codec = CODECS.get(format);
+		if (codec == null) {
+			codec = CODECS.get(format.toLowerCase(Locale.ENGLISH));
+		}
+		return codec;
+	}
+
+	private static void loadServices() {
+		final String METHOD = "loadServices";
+		Iterator<PayloadCodec> it = ServiceLoader.load(PayloadCodec.class).iterator();
+		while (true) {
+			try {
+				if (!it.hasNext()) {
+					break;
+				}
+				PayloadCodec codec = it.next();
+				register(codec);
+				LoggerUtility.info(CLASS_NAME, METHOD, "Payload codec " + codec.getFormat() + " registered");
+			} catch (ServiceConfigurationError e) {
+				LoggerUtility.warn(CLASS_NAME, METHOD, "Unable to load a payload codec: " + e.getMessage());
+			}
+		}
+	}
+}
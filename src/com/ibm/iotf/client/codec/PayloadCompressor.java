@@ -0,0 +1,222 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Compresses the payloads of the events and commands with deflate (the zlib format of RFC 1950).
+ * A compressed message is published on the topic of its format with the -deflate suffix, for example
+ * iot-2/evt/status/fmt/json-deflate, so that the receivers know to decompress it before decoding it.</p>
+ *
+ * <p>Only the payloads of at least the threshold size are compressed, and only when it makes them
+ * smaller. The sizes and the time spent compressing and decompressing are recorded per event or command
+ * and format, whatever the device, so that the statistics of an application do not grow with the number
+ * of devices it receives from. The format of the statistics is the uncompressed one.</p>
+ */
+public class PayloadCompressor {
+
+	public static final String DEFLATE_SUFFIX = "-deflate";
+
+	/**
+	 * The largest decompressed payload, to protect the receivers from the payloads that inflate without limit
+	 */
+	static final int MAX_INFLATED_SIZE = 64 * 1024 * 1024;
+
+	private final int threshold;
+	private final int level;
+	private final ConcurrentHashMap<String, CompressionStatistics> statistics =
+			new ConcurrentHashMap<String, CompressionStatistics>();
+
+	// The native zlib streams are expensive to create, each thread reuses its own
+	private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>();
+	private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>();
+
+	/**
+	 * @param threshold the size from which the payloads are compressed, -1 to only decompress
+	 * @param level the deflate level, from 1 (fastest) to 9 (smallest), or -1 for the default of zlib
+	 */
+	public PayloadCompressor(int threshold, int level) {
+		this.threshold = threshold;
+		this.level = level;
+	}
+
+	/**
+	 * @return whether the payloads above the threshold are compressed
+	 */
+	public boolean isEnabled() {
+		return threshold >= 0;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param format the fmt segment of a topic
+	 * @return whether the payloads of the format are compressed
+	 */
+	public static boolean isCompressed(String format) {
+		return format != null && format.endsWith(DEFLATE_SUFFIX);
+	}
+
+	/**
+	 * @param format the fmt segment of a topic
+	 * @return the format of the payloads once decompressed, json for json-deflate
+	 */
+	public static String getBaseFormat(String format) {
+		if (isCompressed(format)) {
+			return format.substring(0, format.length() - DEFLATE_SUFFIX.length());
+		}
+		return format;
+	}
+
+	/**
+	 * Compresses a payload to be published
+	 *
+	 * @param topic the topic of the uncompressed payload
+	 * @param payload the payload
+	 * @return the compressed payload, or null if it is not compressed
+	 */
+	public byte[] compress(String topic, byte[] payload) {
+		if (!isEnabled()) {
+			return null;
+		}
+		CompressionStatistics stats = getOrCreateStatistics(topic);
+		if (payload.length < threshold) {
+			stats.messages.incrementAndGet();
+			return null;
+		}
+
+		long start = System.nanoTime();
+		Deflater deflater = deflaters.get();
+		if (deflater == null) {
+			deflater = new Deflater(level);
+			deflaters.set(deflater);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2 + 64);
+		byte[] buffer = new byte[Math.min(payload.length + 64, 8192)];
+		try {
+			deflater.setInput(payload);
+			deflater.finish();
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer);
+				out.write(buffer, 0, length);
+			}
+		} finally {
+			deflater.reset();
+		}
+		byte[] compressed = out.toByteArray();
+		stats.compressNanos.addAndGet(System.nanoTime() - start);
+		stats.messages.incrementAndGet();
+		if (compressed.length >= payload.length) {
+			// Already compressed data, or too small to benefit
+			return null;
+		}
+		stats.compressedMessages.incrementAndGet();
+		stats.uncompressedBytes.addAndGet(payload.length);
+		stats.compressedBytes.addAndGet(compressed.length);
+		return compressed;
+	}
+
+	/**
+	 * Decompresses a received payload
+	 *
+	 * @param topic the topic of the uncompressed payload
+	 * @param payload the compressed payload
+	 * @return the payload
+	 * @throws IOException if the payload is not valid
+	 */
+	public byte[] decompress(String topic, byte[] payload) throws IOException {
+		long start = System.nanoTime();
+		Inflater inflater = inflaters.get();
+		if (inflater == null) {
+			inflater = new Inflater();
+			inflaters.set(inflater);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 4 + 64);
+		byte[] buffer = new byte[8192];
+		try {
+			inflater.setInput(payload);
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated deflate payload");
+				}
+				out.write(buffer, 0, length);
+				if (out.size() > MAX_INFLATED_SIZE) {
+					throw new IOException("The decompressed payload is larger than " + MAX_INFLATED_SIZE + " bytes");
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid deflate payload: " + e.getMessage(), e);
+		} finally {
+			inflater.reset();
+		}
+		byte[] decompressed = out.toByteArray();
+		CompressionStatistics stats = getOrCreateStatistics(topic);
+		stats.decompressNanos.addAndGet(System.nanoTime() - start);
+		stats.decompressedMessages.incrementAndGet();
+		stats.receivedBytes.addAndGet(payload.length);
+		stats.decompressedBytes.addAndGet(decompressed.length);
+		return decompressed;
+	}
+
+	/**
+	 * @param topic the topic of the uncompressed payloads, or the key of the statistics, evt/status/fmt/json for example
+	 * @return the statistics of the event or command of the topic, or null if no such payload went through the compressor
+	 */
+	public CompressionStatistics getStatistics(String topic) {
+		return statistics.get(getStatisticsKey(topic));
+	}
+
+	/**
+	 * @return the statistics by event or command and format, keyed as evt/status/fmt/json or cmd/reboot/fmt/json
+	 */
+	public Map<String, CompressionStatistics> getStatistics() {
+		return Collections.<String, CompressionStatistics>unmodifiableMap(statistics);
+	}
+
+	/*
+	 * Keeps the last four levels of the topic, iot-2/type/T/id/D/evt/E/fmt/F and iot-2/evt/E/fmt/F are both
+	 * counted as evt/E/fmt/F
+	 */
+	static String getStatisticsKey(String topic) {
+		int slash = topic.length();
+		for (int i = 0; i < 4; i++) {
+			slash = topic.lastIndexOf('/', slash - 1);
+			if (slash < 0) {
+				return topic;
+			}
+		}
+		return topic.substring(slash + 1);
+	}
+
+	private CompressionStatistics getOrCreateStatistics(String topic) {
+		String key = getStatisticsKey(topic);
+		CompressionStatistics stats = statistics.get(key);
+		if (stats == null) {
+			CompressionStatistics newStats = new CompressionStatistics();
+			stats = statistics.putIfAbsent(key, newStats);
+			if (stats == null) {
+				stats = newStats;
+			}
+		}
+		return stats;
+	}
+}
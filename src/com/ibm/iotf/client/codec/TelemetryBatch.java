@@ -0,0 +1,138 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>The samples of a set of numeric channels, stored as columns of primitives: one timestamp
+ * per sample and one double per channel and sample. A batch is published in the gorilla format,
+ * see {@link GorillaCodec}, and received as such by the applications.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public class TelemetryBatch {
+
+	private final String[] channels;
+	private long[] timestamps;
+	private final double[][] values;
+	private int size = 0;
+
+	/**
+	 * @param channels the names of the channels, for example x, y and z of an accelerometer
+	 */
+	public TelemetryBatch(String... channels) {
+		this(16, channels);
+	}
+
+	/**
+	 * @param capacity the expected number of samples
+	 * @param channels the names of the channels
+	 */
+	public TelemetryBatch(int capacity, String... channels) {
+		if (channels.length == 0) {
+			throw new IllegalArgumentException("A telemetry batch needs at least one channel");
+		}
+		this.channels = channels.clone();
+		this.timestamps = new long[Math.max(1, capacity)];
+		this.values = new double[channels.length][Math.max(1, capacity)];
+	}
+
+	/**
+	 * Adds a sample
+	 *
+	 * @param timestamp the time of the sample in milliseconds since the epoch
+	 * @param values the value of each channel, in the order of the channels
+	 */
+	public void add(long timestamp, double... values) {
+		if (values.length != channels.length) {
+			throw new IllegalArgumentException("Expected " + channels.length + " values, got " + values.length);
+		}
+		if (size == timestamps.length) {
+			int capacity = size * 2;
+			timestamps = Arrays.copyOf(timestamps, capacity);
+			for (int c = 0; c < channels.length; c++) {
+				this.values[c] = Arrays.copyOf(this.values[c], capacity);
+			}
+		}
+		timestamps[size] = timestamp;
+		for (int c = 0; c < channels.length; c++) {
+			this.values[c][size] = values[c];
+		}
+		size++;
+	}
+
+	/**
+	 * @return the number of samples
+	 */
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public List<String> getChannels() {
+		return Collections.unmodifiableList(Arrays.asList(channels));
+	}
+
+	public long getTimestamp(int sample) {
+		checkIndex(sample);
+		return timestamps[sample];
+	}
+
+	public double getValue(int channel, int sample) {
+		checkIndex(sample);
+		return values[channel][sample];
+	}
+
+	/**
+	 * @return a copy of the timestamps of the samples
+	 */
+	public long[] getTimestamps() {
+		return Arrays.copyOf(timestamps, size);
+	}
+
+	/**
+	 * @param channel the name of a channel
+	 * @return a copy of the values of the channel, or null if the batch has no such channel
+	 */
+	public double[] getValues(String channel) {
+		int index = indexOf(channel);
+		return index < 0 ? null : Arrays.copyOf(values[index], size);
+	}
+
+	/**
+	 * @return the position of the channel, or -1
+	 */
+	public int indexOf(String channel) {
+		for (int c = 0; c < channels.length; c++) {
+			if (channels[c].equals(channel)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	private void checkIndex(int sample) {
+		if (sample < 0 || sample >= size) {
+			throw new IndexOutOfBoundsException("Sample " + sample + " of " + size);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TelemetryBatch " + Arrays.toString(channels) + " of " + size + " samples";
+	}
+}
@@ -0,0 +1,397 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.codec;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import com.ibm.iotf.util.Iso8601;
+
+/**
+ * <p>A json event of a fixed shape, {"ts": timestamp, "d": {"field1": value1, ...}}, encoded without
+ * creating any object. The skeleton of the message is compiled once into byte fragments, the values
+ * are set into primitive slots and written with the fragments into a buffer reused by every encoding.</p>
+ *
+ * <p>The doubles are written in fixed point with up to 6 decimals by default, see {@link #setDecimals(String, int)},
+ * NaN and the infinities are written as null. A field that is not set is null. The timestamp is written
+ * in the ISO 8601 form of the other events, in the default time zone.</p>
+ *
+ * <p>A template is published with DeviceClient.publishEvent(String, TelemetryTemplate) or a json
+ * PublishChannel. This class is not thread safe, the publishing threads use a template each.</p>
+ */
+public class TelemetryTemplate {
+
+	static final int DEFAULT_DECIMALS = 6;
+
+	private static final byte NULL = 0;
+	private static final byte DOUBLE = 1;
+	private static final byte LONG = 2;
+	private static final byte BOOLEAN = 3;
+	private static final byte STRING = 4;
+
+	private static final long[] POWERS = new long[16];
+	static {
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++) {
+			POWERS[i] = POWERS[i - 1] * 10;
+		}
+	}
+
+	private static final byte[] OPEN = ascii("{\"ts\":\"");
+	private static final byte[] CLOSE = ascii("}}");
+	private static final byte[] NULL_VALUE = ascii("null");
+	private static final byte[] TRUE_VALUE = ascii("true");
+	private static final byte[] FALSE_VALUE = ascii("false");
+	private static final byte[] HEX = ascii("0123456789abcdef");
+
+	private final String[] fields;
+	private final byte[][] prefixes;
+	private final byte[] types;
+	private final long[] values;
+	private final String[] strings;
+	private final int[] decimals;
+	private final TimeZone timeZone = TimeZone.getDefault();
+
+	private byte[] buffer = new byte[128];
+	private int length = 0;
+
+	/**
+	 * @param fields the names of the fields of the data, in the order they are written
+	 */
+	public TelemetryTemplate(String... fields) {
+		if (fields.length == 0) {
+			throw new IllegalArgumentException("A telemetry template needs at least one field");
+		}
+		this.fields = fields.clone();
+		this.prefixes = new byte[fields.length][];
+		this.types = new byte[fields.length];
+		this.values = new long[fields.length];
+		this.strings = new String[fields.length];
+		this.decimals = new int[fields.length];
+		Arrays.fill(decimals, DEFAULT_DECIMALS);
+		for (int i = 0; i < fields.length; i++) {
+			if (indexOf(fields[i]) != i) {
+				throw new IllegalArgumentException("The field " + fields[i] + " is repeated");
+			}
+			// The fragment that precedes the value, the name is escaped once here
+			int mark = length;
+			writeString(i == 0 ? "\",\"d\":{" : ",", false);
+			writeString(fields[i], true);
+			write((byte) ':');
+			prefixes[i] = Arrays.copyOfRange(buffer, mark, length);
+			length = mark;
+		}
+	}
+
+	/**
+	 * @return the index of the field, to set its value without looking up its name, or -1
+	 */
+	public int indexOf(String field) {
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i] == field) {
+				return i;
+			}
+		}
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].equals(field)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Sets the number of decimals of a double field, the value is rounded to it
+	 *
+	 * @param decimals between 0 and 15
+	 */
+	public TelemetryTemplate setDecimals(String field, int decimals) {
+		if (decimals < 0 || decimals >= POWERS.length) {
+			throw new IllegalArgumentException("Invalid number of decimals " + decimals);
+		}
+		this.decimals[index(field)] = decimals;
+		return this;
+	}
+
+	public TelemetryTemplate setDouble(String field, double value) {
+		return setDouble(index(field), value);
+	}
+
+	public TelemetryTemplate setDouble(int index, double value) {
+		types[index] = DOUBLE;
+		values[index] = Double.doubleToRawLongBits(value);
+		return this;
+	}
+
+	public TelemetryTemplate setLong(String field, long value) {
+		return setLong(index(field), value);
+	}
+
+	public TelemetryTemplate setLong(int index, long value) {
+		types[index] = LONG;
+		values[index] = value;
+		return this;
+	}
+
+	public TelemetryTemplate setBoolean(String field, boolean value) {
+		return setBoolean(index(field), value);
+	}
+
+	public TelemetryTemplate setBoolean(int index, boolean value) {
+		types[index] = BOOLEAN;
+		values[index] = value ? 1 : 0;
+		return this;
+	}
+
+	/**
+	 * Sets a string field, the string is kept by reference and escaped when the template is encoded
+	 */
+	public TelemetryTemplate setString(String field, String value) {
+		return setString(index(field), value);
+	}
+
+	public TelemetryTemplate setString(int index, String value) {
+		types[index] = value == null ? NULL : STRING;
+		strings[index] = value;
+		return this;
+	}
+
+	public TelemetryTemplate setNull(String field) {
+		return setString(index(field), null);
+	}
+
+	/**
+	 * Sets all the fields to null
+	 */
+	public void clear() {
+		Arrays.fill(types, NULL);
+		Arrays.fill(strings, null);
+	}
+
+	/**
+	 * Encodes the message with the current values into the buffer of the template
+	 *
+	 * @param timestamp the time of the message in milliseconds since the epoch
+	 * @return the length of the message, the message is the start of {@link #getBuffer()}
+	 */
+	public int encode(long timestamp) {
+		length = 0;
+		write(OPEN);
+		writeTimestamp(timestamp);
+		for (int i = 0; i < fields.length; i++) {
+			write(prefixes[i]);
+			switch (types[i]) {
+			case DOUBLE:
+				writeDouble(Double.longBitsToDouble(values[i]), decimals[i]);
+				break;
+			case LONG:
+				writeLong(values[i]);
+				break;
+			case BOOLEAN:
+				write(values[i] != 0 ? TRUE_VALUE : FALSE_VALUE);
+				break;
+			case STRING:
+				writeString(strings[i], true);
+				break;
+			default:
+				write(NULL_VALUE);
+			}
+		}
+		write(CLOSE);
+		return length;
+	}
+
+	/**
+	 * @return the buffer the message is encoded into, it is replaced when it grows
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return the length of the latest encoded message
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return a copy of the message encoded with the current values
+	 */
+	public byte[] toByteArray(long timestamp) {
+		// The buffer is read once encoded, the encoding can replace it
+		int messageLength = encode(timestamp);
+		return Arrays.copyOf(buffer, messageLength);
+	}
+
+	public String[] getFields() {
+		return fields.clone();
+	}
+
+	/**
+	 * Writes the timestamp as yyyy-MM-dd'T'HH:mm:ss.SSSZ, as the other messages of the clients
+	 */
+	private void writeTimestamp(long timestamp) {
+		ensureCapacity(40);
+		length = Iso8601.format(timestamp, timeZone, buffer, length);
+	}
+
+	private void writeDouble(double value, int decimals) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			write(NULL_VALUE);
+			return;
+		}
+		double scaled = Math.abs(value) * POWERS[decimals];
+		if (scaled >= 9.0e18) {
+			// Too large for the fixed point, rare enough to allocate
+			writeString(Double.toString(value), false);
+			return;
+		}
+		long units = Math.round(scaled);
+		if (units == 0) {
+			write((byte) '0');
+			return;
+		}
+		if (value < 0) {
+			write((byte) '-');
+		}
+		// The trailing zeros of the fraction are dropped
+		while (decimals > 0 && units % 10 == 0) {
+			units /= 10;
+			decimals--;
+		}
+		long integer = units / POWERS[decimals];
+		writeLong(integer);
+		if (decimals > 0) {
+			write((byte) '.');
+			writeDigits(units - integer * POWERS[decimals], decimals);
+		}
+	}
+
+	private void writeLong(long value) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				writeString("-9223372036854775808", false);
+				return;
+			}
+			write((byte) '-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		writeDigits(value, digits);
+	}
+
+	/**
+	 * Writes the value on the given number of digits, padded with zeros
+	 */
+	private void writeDigits(long value, int digits) {
+		ensureCapacity(digits);
+		for (int i = length + digits - 1; i >= length; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		length += digits;
+	}
+
+	/**
+	 * Writes the UTF-8 of a string, as a quoted and escaped JSON string or as is
+	 */
+	private void writeString(String value, boolean quoted) {
+		ensureCapacity(value.length() * 3 + 2);
+		if (quoted) {
+			buffer[length++] = '"';
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (quoted && (c == '"' || c == '\\')) {
+				ensureCapacity(2 + (value.length() - i) * 3);
+				buffer[length++] = '\\';
+				buffer[length++] = (byte) c;
+			} else if (quoted && c < 0x20) {
+				ensureCapacity(6 + (value.length() - i) * 3);
+				buffer[length++] = '\\';
+				buffer[length++] = 'u';
+				buffer[length++] = '0';
+				buffer[length++] = '0';
+				buffer[length++] = HEX[c >> 4];
+				buffer[length++] = HEX[c & 0xf];
+			} else if (c < 0x80) {
+				buffer[length++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[length++] = (byte) (0xc0 | (c >> 6));
+				buffer[length++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+				buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				// An unpaired surrogate, as String.getBytes() does
+				buffer[length++] = '?';
+			} else {
+				buffer[length++] = (byte) (0xe0 | (c >> 12));
+				buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[length++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		if (quoted) {
+			buffer[length++] = '"';
+		}
+	}
+
+	private void write(byte b) {
+		ensureCapacity(1);
+		buffer[length++] = b;
+	}
+
+	private void write(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	private void ensureCapacity(int count) {
+		if (length + count > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+		}
+	}
+
+	private int index(String field) {
+		int index = indexOf(field);
+		if (index < 0) {
+			throw new IllegalArgumentException("The template has no field " + field);
+		}
+		return index;
+	}
+
+	private static byte[] ascii(String text) {
+		try {
+			return text.getBytes("US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return new String(toByteArray(System.currentTimeMillis()), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
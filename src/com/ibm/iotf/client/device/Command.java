@@ -34,7 +34,7 @@ public class Command extends Message{
 	 */	
 	
 	public Command(String command, String format, MqttMessage msg) throws UnsupportedEncodingException{
-		super(msg);
+		super(msg, format);
 		this.command = command;
 		this.format = format;
 	}
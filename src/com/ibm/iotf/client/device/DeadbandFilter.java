@@ -0,0 +1,182 @@
+package com.ibm.iotf.client.device;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * <p>Filters the fields of the events published by a device, so that only the changes are sent.
+ * A numeric field is sent when it moves by more than its deadband since it was last sent, the
+ * deadband being the larger of an absolute value and a percentage of the last sent value. The other
+ * fields are sent when they change. Any field is sent again once it has not been sent for the
+ * maximum silence interval, so that the applications know the device is alive.</p>
+ *
+ * <p>The event published contains the fields that passed the filter, the event is suppressed when
+ * none did. The fields are tracked per event name, the deadbands are set per field name.</p>
+ *
+ * <pre>
+ * DeadbandFilter filter = new DeadbandFilter(0, 0, 60000);
+ * filter.setDeadband("temperature", 0.5, 0);
+ * filter.setDeadband("power", 0, 2);
+ * deviceClient.setPublishFilter(filter);
+ * </pre>
+ */
+public class DeadbandFilter {
+
+	private final double defaultAbsolute;
+	private final double defaultPercent;
+	private final long maxSilence;
+	private final Map<String, double[]> deadbands = new HashMap<String, double[]>();
+
+	// The last sent state, one slot per event and field: the numeric value or the other value, the time it was sent
+	private final Map<String, Integer> slots = new HashMap<String, Integer>();
+	private double[] lastValues = new double[16];
+	private JsonElement[] lastElements = new JsonElement[16];
+	private long[] lastSent = new long[16];
+
+	private final AtomicLong messages = new AtomicLong();
+	private final AtomicLong suppressedMessages = new AtomicLong();
+	private final AtomicLong suppressedFields = new AtomicLong();
+
+	/**
+	 * @param absolute the default absolute deadband of the numeric fields, 0 to send any change
+	 * @param percent the default deadband of the numeric fields in percent of the last sent value, 0 for none
+	 * @param maxSilence the maximum time a field is not sent in milliseconds, 0 for no limit
+	 */
+	public DeadbandFilter(double absolute, double percent, long maxSilence) {
+		this.defaultAbsolute = absolute;
+		this.defaultPercent = percent;
+		this.maxSilence = maxSilence;
+	}
+
+	/**
+	 * Sets the deadband of a field, for all the events
+	 *
+	 * @param field the name of the field
+	 * @param absolute the absolute deadband
+	 * @param percent the deadband in percent of the last sent value
+	 */
+	public synchronized void setDeadband(String field, double absolute, double percent) {
+		deadbands.put(field, new double[] { absolute, percent });
+	}
+
+	/**
+	 * Filters the data of an event, and records the fields that pass as sent
+	 *
+	 * @param event the name of the event
+	 * @param data the data of the event
+	 * @param now the current time in milliseconds
+	 * @return the fields to send, or null if the event is suppressed
+	 */
+	public synchronized JsonObject filter(String event, JsonObject data, long now) {
+		messages.incrementAndGet();
+		JsonObject changed = null;
+		int skipped = 0;
+		for (Map.Entry<String, JsonElement> e : data.entrySet()) {
+			String field = e.getKey();
+			JsonElement value = e.getValue();
+			int slot = slot(event, field);
+			boolean send;
+			boolean numeric = value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber();
+			if (lastSent[slot] == Long.MIN_VALUE) {
+				send = true;
+			} else if (maxSilence > 0 && now - lastSent[slot] >= maxSilence) {
+				send = true;
+			} else if (numeric && lastElements[slot] == null) {
+				send = exceedsDeadband(field, lastValues[slot], value.getAsDouble());
+			} else {
+				send = !value.equals(lastElements[slot]);
+			}
+			if (send) {
+				if (changed == null) {
+					changed = new JsonObject();
+				}
+				changed.add(field, value);
+				lastSent[slot] = now;
+				if (numeric) {
+					lastValues[slot] = value.getAsDouble();
+					lastElements[slot] = null;
+				} else {
+					lastElements[slot] = value;
+				}
+			} else {
+				skipped++;
+			}
+		}
+		suppressedFields.addAndGet(skipped);
+		if (changed == null && data.entrySet().size() > 0) {
+			suppressedMessages.incrementAndGet();
+			return null;
+		}
+		return changed == null ? data : changed;
+	}
+
+	/**
+	 * Forgets the last sent state of the fields of an event, they are all sent next time. This is
+	 * used when the publish of the filtered event fails.
+	 */
+	public synchronized void reset(String event) {
+		String prefix = event + '\u0000';
+		for (Map.Entry<String, Integer> e : slots.entrySet()) {
+			if (e.getKey().startsWith(prefix)) {
+				lastSent[e.getValue()] = Long.MIN_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of the events filtered
+	 */
+	public long getMessages() {
+		return messages.get();
+	}
+
+	/**
+	 * @return the number of the events not published because none of their fields changed enough
+	 */
+	public long getSuppressedMessages() {
+		return suppressedMessages.get();
+	}
+
+	/**
+	 * @return the number of the fields removed from the events
+	 */
+	public long getSuppressedFields() {
+		return suppressedFields.get();
+	}
+
+	private boolean exceedsDeadband(String field, double last, double value) {
+		double absolute = defaultAbsolute;
+		double percent = defaultPercent;
+		double[] deadband = deadbands.get(field);
+		if (deadband != null) {
+			absolute = deadband[0];
+			percent = deadband[1];
+		}
+		double threshold = Math.max(absolute, Math.abs(last) * percent / 100);
+		double change = Math.abs(value - last);
+		// A NaN is a change
+		return change > threshold || (Double.isNaN(change) && !(Double.isNaN(value) && Double.isNaN(last)));
+	}
+
+	private int slot(String event, String field) {
+		String key = event + '\u0000' + field;
+		Integer slot = slots.get(key);
+		if (slot == null) {
+			slot = slots.size();
+			if (slot == lastSent.length) {
+				int capacity = slot * 2;
+				lastValues = Arrays.copyOf(lastValues, capacity);
+				lastElements = Arrays.copyOf(lastElements, capacity);
+				lastSent = Arrays.copyOf(lastSent, capacity);
+			}
+			lastSent[slot] = Long.MIN_VALUE;
+			slots.put(key, slot);
+		}
+		return slot;
+	}
+}
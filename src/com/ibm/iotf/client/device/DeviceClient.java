@@ -4,9 +4,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
-import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,6 +28,15 @@ import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.ibm.iotf.client.AbstractClient;
+import com.ibm.iotf.client.HttpBatchPublisher;
+import com.ibm.iotf.client.PublishChannel;
+import com.ibm.iotf.client.codec.GorillaCodec;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+import com.ibm.iotf.client.codec.PayloadCompressor;
+import com.ibm.iotf.client.codec.TelemetryBatch;
+import com.ibm.iotf.client.codec.TelemetryTemplate;
+import com.ibm.iotf.util.EpochClock;
+import com.ibm.iotf.util.Iso8601;
 import com.ibm.iotf.util.LoggerUtility;
 
 
@@ -42,6 +52,10 @@ public class DeviceClient extends AbstractClient {
 	private static final Pattern COMMAND_PATTERN = Pattern.compile("iot-2/cmd/(.+)/fmt/(.+)");
 	
 	private CommandCallback commandCallback = null;
+	private volatile DeadbandFilter publishFilter = null;
+	private volatile DeviceState deviceState = null;
+	private boolean latencyStamping = false;
+	private final AtomicLong eventSequence = new AtomicLong();
 	
 	/**
 	 * This constructor allows external user to pass the existing MqttAsyncClient 
@@ -82,6 +96,54 @@ public class DeviceClient extends AbstractClient {
 			this.clientPassword = getAuthToken();
 		}
 		createClient(this.new MqttDeviceCallBack());
+		this.publishFilter = createPublishFilter();
+		this.latencyStamping = Boolean.parseBoolean(getProperty("latency-stamps", "Latency-Stamps"));
+	}
+
+	/**
+	 * Returns whether the json events are stamped with a sequence number and the time they are sent,
+	 * for the applications to measure the latency and the loss of the events, see 
+	 * ClientMetrics.getEndToEndLatency(). The events carry two more fields next to "ts":
+	 * 
+	 * <ul class="simple">
+	 * <li>"seq", the number of the event for this client, starting at 1</li>
+	 * <li>"sent", the time the event is sent in microseconds since the epoch</li>
+	 * </ul>
+	 * 
+	 * old style - latency-stamps
+	 * new style - Latency-Stamps
+	 * 
+	 * @return true if the property is set to true, false otherwise
+	 */
+	public boolean isLatencyStampingEnabled() {
+		return latencyStamping;
+	}
+	
+	/*
+	 * old style - deadband, deadband-percent, max-silence
+	 * new style - Deadband, Deadband-Percent, Max-Silence
+	 */
+	private DeadbandFilter createPublishFilter() {
+		String absolute = getProperty("deadband", "Deadband");
+		String percent = getProperty("deadband-percent", "Deadband-Percent");
+		String maxSilence = getProperty("max-silence", "Max-Silence");
+		if (absolute == null && percent == null && maxSilence == null) {
+			return null;
+		}
+		return new DeadbandFilter(absolute == null ? 0 : Double.parseDouble(absolute), 
+				percent == null ? 0 : Double.parseDouble(percent), 
+				maxSilence == null ? 0 : Long.parseLong(maxSilence));
+	}
+	
+	private String getProperty(String oldStyle, String newStyle) {
+		String value = trimedValue(options.getProperty(oldStyle));
+		if (value == null) {
+			value = trimedValue(options.getProperty(newStyle));
+		}
+		if (value == null || value.equals("")) {
+			return null;
+		}
+		return value;
 	}
 	
 	/*
@@ -129,6 +191,7 @@ public class DeviceClient extends AbstractClient {
 		if (!getOrgId().equals("quickstart")) {
 			subscribeToCommands();
 		}
+		snapshotDeviceState();
 	}
 	
 	/*
@@ -139,11 +202,14 @@ public class DeviceClient extends AbstractClient {
 		if (!getOrgId().equals("quickstart")) {
 			subscribeToCommands();
 		}
+		snapshotDeviceState();
 	}
 	
 	private void subscribeToCommands() {
 		try {
-			mqttAsyncClient.subscribe("iot-2/cmd/+/fmt/" + getFormat(), 2);
+			transport.subscribe("iot-2/cmd/+/fmt/" + getFormat(), 2);
+			// The applications compress the commands depending on their own threshold
+			transport.subscribe("iot-2/cmd/+/fmt/" + getFormat() + PayloadCompressor.DEFLATE_SUFFIX, 2);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
@@ -179,39 +245,345 @@ public class DeviceClient extends AbstractClient {
 	 * @return Whether the send was successful.
 	 */	
 	public boolean publishEvent(String event, Object data, int qos) {
-		if (!isConnected()) {
+		return publishEvent(event, data, PayloadCodecs.JSON, qos);
+	}
+
+	/**
+	 * Creates a channel that publishes json events of the given name at QoS 0, see 
+	 * {@link #createPublishChannel(String, String, int)}
+	 * 
+	 * @param event
+	 *            Name of the dataset under which to publish the data
+	 * @return the channel
+	 */
+	public PublishChannel createPublishChannel(String event) {
+		return createPublishChannel(event, PayloadCodecs.JSON, 0);
+	}
+
+	/**
+	 * Creates a channel that publishes the events of the given name, format and QoS.<br>
+	 * 
+	 * The topic and the encoder of the events are prepared once, which saves their creation on
+	 * every publish for the code that publishes to a few events at a high rate. The channel 
+	 * publishes over MQTT only, the publish filter and the HTTP failover do not apply to it.
+	 * 
+	 * @param event
+	 *            Name of the dataset under which to publish the data
+	 * @param format
+	 *            the format of the events, for example json or cbor
+	 * @param qos
+	 *            Quality of Service - should be 0, 1 or 2
+	 * @return the channel, it remains valid across the reconnects of the client
+	 */
+	public PublishChannel createPublishChannel(String event, String format, int qos) {
+		return createChannel("iot-2/evt/" + event + "/fmt/" + format, format, qos);
+	}
+
+	/**
+	 * Publish data to the IBM Internet of Things Foundation in the given format.<br>
+	 * 
+	 * The format is the fmt segment of the topic. The formats that have a codec, json, cbor,
+	 * msgpack and the ones registered with {@link PayloadCodecs}, carry the timestamp and the
+	 * data in their encoding. The payload of the other formats is the data as is, a byte[] or
+	 * the UTF-8 of its string form. Only the json events fail over to HTTP.
+	 * 
+	 * @param event
+	 *            Name of the dataset under which to publish the data
+	 * @param data
+	 *            Object to be added to the payload as the dataset
+	 * @param format
+	 *            the format of the event, for example cbor
+	 * @param qos
+	 *            Quality of Service - should be 0, 1 or 2
+	 * @return Whether the send was successful.
+	 */	
+	public boolean publishEvent(String event, Object data, String format, int qos) {
+		DeadbandFilter filter = publishFilter;
+		if (filter == null || PayloadCodecs.get(format) == null) {
+			return publish(event, data, format, qos);
+		}
+		JsonElement dataElement = gson.toJsonTree(data);
+		if (!dataElement.isJsonObject()) {
+			return publish(event, dataElement, format, qos);
+		}
+		JsonObject changed = filter.filter(event, dataElement.getAsJsonObject(), System.currentTimeMillis());
+		if (changed == null) {
+			LoggerUtility.fine(CLASS_NAME, "publishEvent(4)", "No field of the event {} changed, the event is suppressed", event);
+			return true;
+		}
+		boolean sent = publish(event, changed, format, qos);
+		if (!sent) {
+			// The fields are sent again with the next event
+			filter.reset(event);
+		}
+		return sent;
+	}
+
+	/**
+	 * Sets the filter of the events, so that only the fields that changed are published. 
+	 * An event whose fields did not change is not published, publishEvent() returns true for it.
+	 * 
+	 * <p>A filter is also created from the properties of the client when one of these is set,</p>
+	 * <ul class="simple">
+	 * <li>deadband / Deadband - the absolute deadband of the numeric fields, default 0</li>
+	 * <li>deadband-percent / Deadband-Percent - the deadband in percent of the last sent value, default 0</li>
+	 * <li>max-silence / Max-Silence - the time after which a field is sent even if unchanged, in milliseconds</li>
+	 * </ul>
+	 * 
+	 * @param filter the filter, or null to publish all the events as they are
+	 */
+	public void setPublishFilter(DeadbandFilter filter) {
+		this.publishFilter = filter;
+	}
+
+	public DeadbandFilter getPublishFilter() {
+		return publishFilter;
+	}
+
+	/**
+	 * Returns the state document of the device. The changes of the document are published as
+	 * deltas, coalesced over state-coalesce-window / State-Coalesce-Window milliseconds (default 100),
+	 * and a full snapshot is published on every connect. The events are named state-event / 
+	 * State-Event, state by default.
+	 * 
+	 * @return the state document, created on first use
+	 */
+	public synchronized DeviceState getDeviceState() {
+		if (deviceState == null) {
+			String event = getProperty("state-event", "State-Event");
+			String window = getProperty("state-coalesce-window", "State-Coalesce-Window");
+			deviceState = new DeviceState(this, event == null ? DeviceState.DEFAULT_EVENT : event, 
+					window == null ? DeviceState.DEFAULT_WINDOW : Long.parseLong(window));
+			if (isConnected()) {
+				deviceState.requestSnapshot();
+			}
+		}
+		return deviceState;
+	}
+	
+	/**
+	 * Publishes the pending changes of the state document, if any, and disconnects
+	 */
+	@Override
+	public void disconnect() {
+		DeviceState state = deviceState;
+		if (state != null) {
+			state.close();
+		}
+		super.disconnect();
+	}
+	
+	private void snapshotDeviceState() {
+		DeviceState state = deviceState;
+		if (state != null && isConnected()) {
+			state.requestSnapshot();
+		}
+	}
+	
+	/**
+	 * Publishes a json event without the publish filter, for the events whose fields must all be sent
+	 */
+	boolean publishUnfiltered(String event, Object data, int qos) {
+		return publish(event, data, PayloadCodecs.JSON, qos);
+	}
+
+	private boolean publish(String event, Object data, String format, int qos) {
+		boolean connected = isConnected();
+		boolean failover = isFailoverToHttpEnabled() && PayloadCodecs.JSON.equalsIgnoreCase(format);
+		if (!connected && !failover) {
 			return false;
 		}
-		final String METHOD = "publishEvent(2)";
+		final String METHOD = "publishEvent(4)";
 		JsonObject payload = new JsonObject();
 		
-		String timestamp = ISO8601_DATE_FORMAT.format(new Date());
+		String timestamp = Iso8601.now();
 		payload.addProperty("ts", timestamp);
 		
-		JsonElement dataElement = gson.toJsonTree(data);
+		// A JSON element is kept as is, toJsonTree() would drop its null fields
+		JsonElement dataElement = data instanceof JsonElement ? (JsonElement) data : gson.toJsonTree(data);
 		payload.add("d", dataElement);
+		if (latencyStamping) {
+			payload.addProperty("seq", eventSequence.incrementAndGet());
+			payload.addProperty("sent", EpochClock.currentTimeMicros());
+		}
+		
+		String topic = "iot-2/evt/" + event + "/fmt/" + format;
 		
-		String topic = "iot-2/evt/" + event + "/fmt/json";
+		if (LoggerUtility.isLoggable(Level.FINE)) {
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Topic   = " + topic);
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Payload = " + payload.toString());
+		}
 		
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic   = " + topic);
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Payload = " + payload.toString());
+		if (!connected) {
+			// The MQTT connection is down, see isFailoverToHttpEnabled()
+			return publishEventOverHTTPFailover(event, payload.toString());
+		}
 		
-		MqttMessage msg = new MqttMessage(payload.toString().getBytes(Charset.forName("UTF-8")));
+		MqttMessage msg;
+		try {
+			msg = new MqttMessage(encodePayload(format, payload, data));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		topic = compress(topic, msg);
 		msg.setQos(qos);
 		msg.setRetained(false);
 		
 		try {
-			mqttAsyncClient.publish(topic, msg).waitForCompletion();
+			publishAndWait(event, topic, msg);
 		} catch (MqttPersistenceException e) {
 			e.printStackTrace();
 			return false;
 		} catch (MqttException e) {
+			if (failover && isSafeToFailover(e, qos)) {
+				LoggerUtility.info(CLASS_NAME, METHOD, "MQTT publish failed (" + e.getMessage() 
+						+ "), publishing over HTTP");
+				return publishEventOverHTTPFailover(event, payload.toString());
+			}
 			e.printStackTrace();
 			return false;
 		}
 		return true;
 	}
 	
+	/**
+	 * Publish a json event of a fixed shape to the IBM Internet of Things Foundation.<br>
+	 * 
+	 * The message is encoded by the template with its current values, without creating the objects
+	 * that the conversion of the data with Gson creates, see {@link TelemetryTemplate}.
+	 * 
+	 * @param event
+	 *            Name of the dataset under which to publish the data
+	 * @param template
+	 *            the template holding the values of the fields
+	 * @return Whether the send was successful.
+	 */
+	public boolean publishEvent(String event, TelemetryTemplate template) {
+		return publishEvent(event, template, 0);
+	}
+
+	/**
+	 * Publish a json event of a fixed shape to the IBM Internet of Things Foundation.<br>
+	 * 
+	 * The publish filter does not apply to the templates, the event fails over to HTTP as the 
+	 * other json events.
+	 * 
+	 * @param event
+	 *            Name of the dataset under which to publish the data
+	 * @param template
+	 *            the template holding the values of the fields
+	 * @param qos
+	 *            Quality of Service - should be 0, 1 or 2
+	 * @return Whether the send was successful.
+	 */
+	public boolean publishEvent(String event, TelemetryTemplate template, int qos) {
+		boolean connected = isConnected();
+		boolean failover = isFailoverToHttpEnabled();
+		if (!connected && !failover) {
+			return false;
+		}
+		final String METHOD = "publishEvent(template)";
+		MqttMessage msg = new MqttMessage(template.toByteArray(System.currentTimeMillis()));
+		String topic = "iot-2/evt/" + event + "/fmt/" + PayloadCodecs.JSON;
+		if (!connected) {
+			return publishEventOverHTTPFailover(event, toString(msg.getPayload()));
+		}
+		byte[] payload = msg.getPayload();
+		topic = compress(topic, msg);
+		msg.setQos(qos);
+		msg.setRetained(false);
+		
+		try {
+			publishAndWait(event, topic, msg);
+		} catch (MqttPersistenceException e) {
+			e.printStackTrace();
+			return false;
+		} catch (MqttException e) {
+			if (failover && isSafeToFailover(e, qos)) {
+				LoggerUtility.info(CLASS_NAME, METHOD, "MQTT publish failed (" + e.getMessage() 
+						+ "), publishing over HTTP");
+				return publishEventOverHTTPFailover(event, toString(payload));
+			}
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	private static String toString(byte[] payload) {
+		try {
+			return new String(payload, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Publish a batch of numeric samples to the IBM Internet of Things Foundation, in the 
+	 * gorilla format.<br>
+	 * 
+	 * The timestamps and the values of the batch are compressed column by column, see 
+	 * {@link GorillaCodec}, the regular samples of slowly changing values take a few bits each.
+	 * The applications decode the event with Event.getTelemetryBatch() or Event.getSamples().
+	 * 
+	 * @param event
+	 *            Name of the dataset under which to publish the data
+	 * @param batch
+	 *            the samples, the batch can be cleared and reused once the method returns
+	 * @return Whether the send was successful.
+	 */
+	public boolean publishTelemetryBatch(String event, TelemetryBatch batch) {
+		return publishTelemetryBatch(event, batch, 0);
+	}
+
+	/**
+	 * Publish a batch of numeric samples to the IBM Internet of Things Foundation, in the 
+	 * gorilla format.<br>
+	 * 
+	 * @param event
+	 *            Name of the dataset under which to publish the data
+	 * @param batch
+	 *            the samples, the batch can be cleared and reused once the method returns
+	 * @param qos
+	 *            Quality of Service - should be 0, 1 or 2
+	 * @return Whether the send was successful.
+	 */
+	public boolean publishTelemetryBatch(String event, TelemetryBatch batch, int qos) {
+		if (!isConnected()) {
+			return false;
+		}
+		final String METHOD = "publishTelemetryBatch";
+		String topic = "iot-2/evt/" + event + "/fmt/" + PayloadCodecs.GORILLA;
+		GorillaCodec codec = (GorillaCodec) PayloadCodecs.get(PayloadCodecs.GORILLA);
+		MqttMessage msg = new MqttMessage(codec.encodeBatch(batch));
+		
+		if (LoggerUtility.isLoggable(Level.FINE)) {
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Topic   = " + topic);
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Payload = " + batch + " in " + msg.getPayload().length + " bytes");
+		}
+		
+		topic = compress(topic, msg);
+		msg.setQos(qos);
+		msg.setRetained(false);
+		
+		try {
+			publishAndWait(event, topic, msg);
+		} catch (MqttPersistenceException e) {
+			e.printStackTrace();
+			return false;
+		} catch (MqttException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+	
+	private boolean publishEventOverHTTPFailover(String event, String message) {
+		return publishEventOverHTTPFailover(this.getDeviceType(), this.getDeviceId(), event, true, 
+				"use-token-auth", message);
+	}
+	
 	
 
 	
@@ -227,6 +599,7 @@ public class DeviceClient extends AbstractClient {
 		public void connectionLost(Throwable exception) {
 			final String METHOD = "connectionLost";
 			LoggerUtility.info(CLASS_NAME, METHOD, exception.getMessage());
+			metrics.connectionLost();
 			reconnect();
 		}
 		
@@ -242,8 +615,10 @@ public class DeviceClient extends AbstractClient {
 		 */
 		public void deliveryComplete(IMqttDeliveryToken token) {
 			final String METHOD = "deliveryComplete";
-			LoggerUtility.fine(CLASS_NAME, METHOD, "token " + token.getMessageId());
-			messageCount++;
+			if (LoggerUtility.isLoggable(Level.FINE)) {
+				LoggerUtility.fine(CLASS_NAME, METHOD, "token " + token.getMessageId());
+			}
+			messageDelivered();
 		}
 		
 		/**
@@ -251,19 +626,34 @@ public class DeviceClient extends AbstractClient {
 		 */
 		public void messageArrived(String topic, MqttMessage msg) throws Exception {
 			final String METHOD = "messageArrived";
+			// Every message is counted, with or without a callback to process it
+			Matcher matcher = COMMAND_PATTERN.matcher(topic);
+			boolean isCommand = matcher.matches();
+			metrics.messageReceived(isCommand ? matcher.group(1) : null, msg.getPayload().length);
+			DeviceState state = deviceState;
+			if (state != null && topic.startsWith("iot-2/cmd/" + DeviceState.SYNC_COMMAND + "/fmt/")) {
+				LoggerUtility.fine(CLASS_NAME, METHOD, "State snapshot requested");
+				state.requestSnapshot();
+				return;
+			}
 			if (commandCallback != null) {
-				/* Only check whether the message is a command if a callback 
-				 * has been defined, otherwise it is a waste of time
-				 * as without a callback there is nothing to process the generated
-				 * command.
-				 */
-				Matcher matcher = COMMAND_PATTERN.matcher(topic);
-				if (matcher.matches()) {
+				if (isCommand) {
 					String command = matcher.group(1);
 					String format = matcher.group(2);
+					try {
+						msg = decompress(topic, format, msg);
+					} catch (IOException e) {
+						LoggerUtility.warn(CLASS_NAME, METHOD, "The command " + command + " is dropped: " + e.getMessage());
+						return;
+					}
 					Command cmd = new Command(command, format, msg);
-					LoggerUtility.fine(CLASS_NAME, METHOD, "Event received: " + cmd.toString());
-					commandCallback.processCommand(cmd);
+					LoggerUtility.fine(CLASS_NAME, METHOD, "Event received: {}", cmd);
+					long start = System.nanoTime();
+					try {
+						commandCallback.processCommand(cmd);
+					} finally {
+						metrics.callbackCompleted(start);
+					}
 			    }
 			}
 		}
@@ -283,9 +673,46 @@ public class DeviceClient extends AbstractClient {
 	 * @throws Exception if the operation is not successful
 	 */
 	public int publishEventOverHTTP(String eventName, Object payload) throws Exception {
+		return executeHttpPost(getHttpClientPool(), createEventPost(eventName, payload));
+	}
+	
+	/**
+	 * Publish an event to the IBM Internet of Things Foundation using HTTP(S) without waiting for the response.<br>
+	 * The events are posted concurrently over the pooled keep-alive connections.
+	 * 
+	 * @param eventName  Name of the dataset under which to publish the data
+	 * @param payload Object to be added to the payload as the dataset
+	 * @return the future httpcode
+	 * @throws Exception if the event can not be created
+	 */
+	public Future<Integer> publishEventOverHTTPAsync(String eventName, Object payload) throws Exception {
+		return submitHttpPost(createEventPost(eventName, payload));
+	}
+	
+	/**
+	 * Publish an event to the IBM Internet of Things Foundation using HTTP(S) in a batch.<br>
+	 * The event is posted later, together with the other events of the same name, in a gzip compressed post.
+	 * Use getHttpBatchPublisher() to flush the pending events, disconnect() posts them and waits for them.
+	 * 
+	 * @param eventName  Name of the dataset under which to publish the data
+	 * @param payload Object to be added to the payload as the dataset
+	 * @return false when too many events are pending
+	 */
+	public boolean publishEventOverHTTPBatched(String eventName, Object payload) {
+		String url = getEventURL(this.getDeviceType(), this.getDeviceId(), eventName, true);
+		return getHttpBatchPublisher().publish(url, payload);
+	}
+	
+	/**
+	 * @return the publisher of the batched HTTP events of this device
+	 */
+	public HttpBatchPublisher getHttpBatchPublisher() {
+		return getHttpBatchPublisher("use-token-auth");
+	}
+	
+	private HttpPost createEventPost(String eventName, Object payload) throws Exception {
 		String authKey = "use-token-auth";
-		return publishEventsThroughHttps(this.getOrgId(), this.getDeviceType(), this.getDeviceId(), 
-				eventName, true, authKey, this.getAuthToken(), payload);
+		return createEventPost(this.getDeviceType(), this.getDeviceId(), eventName, true, authKey, payload);
 	}
 	
 }
@@ -0,0 +1,277 @@
+package com.ibm.iotf.client.device;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>The state document of a device, kept in sync with the applications. The device updates the
+ * fields of the document locally, the changes made within the coalescing window are published as
+ * one delta event that holds the changed fields only, a removed field being null. A full snapshot of
+ * the document is published on every connect, and when an application asks for it.</p>
+ *
+ * <p>The events are published at QoS 1 as {"v": version, "full": true|false, "state": {...}}, the
+ * version is incremented by each event so that the applications can detect a missed delta, see
+ * com.ibm.iotf.client.app.DeviceStateTracker.</p>
+ *
+ * <p>The document is obtained with DeviceClient.getDeviceState(). The events are published by a thread
+ * of the document, which is stopped when the client disconnects and started again on the next change.</p>
+ */
+public class DeviceState {
+
+	private static final String CLASS_NAME = DeviceState.class.getName();
+
+	/**
+	 * The command sent by the applications to get a snapshot of the state
+	 */
+	public static final String SYNC_COMMAND = "iotf-state-sync";
+
+	static final String DEFAULT_EVENT = "state";
+	static final long DEFAULT_WINDOW = 100;
+	private static final long CLOSE_TIMEOUT = 5 * 1000;
+
+	private static final Gson gson = new Gson();
+
+	private final DeviceClient client;
+	private final String event;
+	private final long window;
+
+	// Guarded by this
+	private ScheduledThreadPoolExecutor scheduler;
+	private final Map<String, JsonElement> state = new LinkedHashMap<String, JsonElement>();
+	private final Map<String, JsonElement> pending = new LinkedHashMap<String, JsonElement>();
+	private boolean flushScheduled = false;
+	private boolean snapshotNeeded = true;
+	private long version = 0;
+	private long deltasSent = 0;
+	private long snapshotsSent = 0;
+
+	DeviceState(DeviceClient client, String event, long window) {
+		this.client = client;
+		this.event = event;
+		this.window = window;
+	}
+
+	/**
+	 * Sets a field of the document, the change is published after the coalescing window
+	 *
+	 * @param key the name of the field
+	 * @param value the value of the field, converted with Gson, null removes the field
+	 */
+	public void set(String key, Object value) {
+		JsonElement element = value == null ? JsonNull.INSTANCE : gson.toJsonTree(value);
+		synchronized (this) {
+			JsonElement current = state.get(key);
+			if (element.isJsonNull()) {
+				if (current == null) {
+					return;
+				}
+				state.remove(key);
+			} else {
+				if (element.equals(current)) {
+					return;
+				}
+				state.put(key, element);
+			}
+			pending.put(key, element);
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * Sets several fields of the document at once
+	 */
+	public void setAll(Map<String, ?> fields) {
+		for (Map.Entry<String, ?> e : fields.entrySet()) {
+			set(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Removes a field of the document
+	 */
+	public void remove(String key) {
+		set(key, null);
+	}
+
+	/**
+	 * @return the value of a field, or null
+	 */
+	public synchronized JsonElement get(String key) {
+		JsonElement value = state.get(key);
+		return value == null ? null : copy(value);
+	}
+
+	/**
+	 * @return a copy of the document
+	 */
+	public synchronized JsonObject getSnapshot() {
+		JsonObject snapshot = new JsonObject();
+		for (Map.Entry<String, JsonElement> e : state.entrySet()) {
+			snapshot.add(e.getKey(), copy(e.getValue()));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Publishes the pending changes now instead of at the end of the coalescing window
+	 */
+	public void flush() {
+		scheduler().execute(new Runnable() {
+			@Override
+			public void run() {
+				publish();
+			}
+		});
+	}
+
+	/**
+	 * @return the version of the latest event published
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	public synchronized long getDeltasSent() {
+		return deltasSent;
+	}
+
+	public synchronized long getSnapshotsSent() {
+		return snapshotsSent;
+	}
+
+	/**
+	 * Publishes a full snapshot instead of the next delta, called on connect and on the sync command
+	 */
+	void requestSnapshot() {
+		synchronized (this) {
+			snapshotNeeded = true;
+		}
+		flush();
+	}
+
+	/**
+	 * Publishes the pending changes and stops the thread, called when the client disconnects
+	 */
+	void close() {
+		ScheduledThreadPoolExecutor current;
+		synchronized (this) {
+			current = scheduler;
+			scheduler = null;
+		}
+		if (current == null) {
+			return;
+		}
+		// The delayed flush is dropped by the shutdown, the changes are published by this task instead
+		current.execute(new Runnable() {
+			@Override
+			public void run() {
+				publish();
+			}
+		});
+		current.shutdown();
+		try {
+			current.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized ScheduledThreadPoolExecutor scheduler() {
+		if (scheduler == null) {
+			scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "iotf-device-state");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		}
+		return scheduler;
+	}
+
+	private void scheduleFlush() {
+		if (!flushScheduled) {
+			flushScheduled = true;
+			scheduler().schedule(new Runnable() {
+				@Override
+				public void run() {
+					publish();
+				}
+			}, window, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void publish() {
+		final String METHOD = "publish";
+		JsonObject message = new JsonObject();
+		boolean full;
+		long next;
+		synchronized (this) {
+			flushScheduled = false;
+			full = snapshotNeeded;
+			if (!full && pending.isEmpty()) {
+				return;
+			}
+			if (!client.isConnected()) {
+				// The changes are sent with the snapshot that follows the connect
+				snapshotNeeded = true;
+				pending.clear();
+				return;
+			}
+			JsonObject fields = new JsonObject();
+			for (Map.Entry<String, JsonElement> e : (full ? state : pending).entrySet()) {
+				fields.add(e.getKey(), copy(e.getValue()));
+			}
+			next = version + 1;
+			message.addProperty("v", next);
+			message.addProperty("full", full);
+			message.add("state", fields);
+			pending.clear();
+			snapshotNeeded = false;
+			version = next;
+			// Counted before the publish, the event can be received before the publish returns
+			if (full) {
+				snapshotsSent++;
+			} else {
+				deltasSent++;
+			}
+		}
+		// The events are published in version order, all from the scheduler thread
+		if (!client.publishUnfiltered(event, message, 1)) {
+			LoggerUtility.warn(CLASS_NAME, METHOD, "The state " + (full ? "snapshot" : "delta") + " " + next 
+					+ " is not published, a snapshot is published next");
+			synchronized (this) {
+				if (full) {
+					snapshotsSent--;
+				} else {
+					deltasSent--;
+				}
+				snapshotNeeded = true;
+			}
+		}
+	}
+
+	private static JsonElement copy(JsonElement element) {
+		// The elements are immutable once in the document, except the objects and arrays
+		if (element.isJsonPrimitive() || element.isJsonNull()) {
+			return element;
+		}
+		return gson.fromJson(element.toString(), JsonElement.class);
+	}
+
+	@Override
+	public String toString() {
+		return "DeviceState " + getSnapshot() + " v" + getVersion();
+	}
+}
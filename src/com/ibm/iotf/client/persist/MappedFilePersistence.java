@@ -0,0 +1,726 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.persist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>A high performance, file backed implementation of the Paho <code>MqttClientPersistence</code>
+ * interface, which allows the in-flight QoS 1 and QoS 2 messages to survive a restart of the process.</p>
+ *
+ * <p>Unlike the Paho <code>MqttDefaultFilePersistence</code>, which writes one file per message,
+ * all the messages of a client are appended to a single memory-mapped log file:</p>
+ * <ul class="simple">
+ * <li>Each put/remove is an append to the mapped region, no system call is made on the publish path.</li>
+ * <li>A background committer thread forces the log to the disk. All the writers that arrive while
+ * a force is in progress are made durable by the next force (group commit), so the cost
+ * of a fsync is shared by the concurrent writers.</li>
+ * <li>The index of live records is kept in memory, and the log is compacted into a new
+ * generation file when most of it is made up of removed records.</li>
+ * </ul>
+ *
+ * <p>Each record is protected by a CRC32 checksum, a torn record at the end of the log
+ * (because of a crash in the middle of a write) is discarded when the log is opened.</p>
+ *
+ * <p>Note that a Paho client calls <code>put</code> while it holds the lock of its message queue,
+ * so when <code>put</code> waits for the commit the publishes of one client are forced one at a time
+ * and block its other senders. The clients therefore do not wait for the commit unless
+ * <code>Persistence-Sync</code> is set, see AbstractClient.isPersistenceSyncEnabled().</p>
+ */
+public class MappedFilePersistence implements MqttClientPersistence {
+
+	private static final String CLASS_NAME = MappedFilePersistence.class.getName();
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MAGIC = 0x494f5446; // "IOTF"
+	private static final int VERSION = 1;
+	private static final int FILE_HEADER_SIZE = 16; // magic, version, generation (long)
+
+	private static final byte RECORD_PUT = 1;
+	private static final byte RECORD_REMOVE = 2;
+
+	// length + type + key length + header length + payload length + crc
+	private static final int RECORD_OVERHEAD = 4 + 1 + 2 + 4 + 4 + 4;
+
+	private static final int DEFAULT_INITIAL_SIZE = 1024 * 1024;
+	private static final int MIN_COMPACTION_SIZE = 256 * 1024;
+
+	private static final String LOG_PREFIX = "mqtt-";
+	private static final String LOG_SUFFIX = ".log";
+	private static final String LOCK_FILE = ".lck";
+
+	private final File directory;
+	private final boolean waitForCommit;
+	private final int initialSize;
+
+	private final Object lock = new Object();
+
+	private File clientDir;
+	private RandomAccessFile lockFile;
+	private FileLock fileLock;
+
+	private long generation;
+	private File logFile;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+
+	// Position of the next record to be written and the position up to which the log is durable
+	private int writePosition;
+	private int durablePosition;
+	private long liveBytes;
+
+	// key -> position of the live PUT record in the log
+	private Map<String, Integer> index = new HashMap<String, Integer>();
+
+	private final CRC32 crc = new CRC32();
+	private byte[] scratch = new byte[1024];
+
+	private Thread committer;
+	private long commitCount;
+	private volatile boolean open = false;
+	private IOException commitFailure;
+
+	/**
+	 * Creates a persistence that stores the log files under the given directory.
+	 * The <code>put</code> method returns only after the message is forced to the disk.
+	 *
+	 * @param directory the base directory, a sub directory is created for each client
+	 */
+	public MappedFilePersistence(String directory) {
+		this(directory, true, DEFAULT_INITIAL_SIZE);
+	}
+
+	/**
+	 * Creates a persistence that stores the log files under the given directory.
+	 *
+	 * @param directory the base directory, a sub directory is created for each client
+	 * @param waitForCommit whether <code>put</code> waits until the message is forced to the disk
+	 */
+	public MappedFilePersistence(String directory, boolean waitForCommit) {
+		this(directory, waitForCommit, DEFAULT_INITIAL_SIZE);
+	}
+
+	/**
+	 * Creates a persistence that stores the log files under the given directory.
+	 *
+	 * @param directory the base directory, a sub directory is created for each client
+	 * @param waitForCommit whether <code>put</code> waits until the message is forced to the disk.
+	 *        When set to false, the committer thread forces the log in the background and a message that
+	 *        was published just before a crash of the OS (not of the process) may be lost.
+	 * @param initialSize the initial size of the mapped region in bytes, the region grows as required
+	 */
+	public MappedFilePersistence(String directory, boolean waitForCommit, int initialSize) {
+		this.directory = new File(directory);
+		this.waitForCommit = waitForCommit;
+		this.initialSize = Math.max(initialSize, 4096);
+	}
+
+	@Override
+	public void open(String clientId, String serverURI) throws MqttPersistenceException {
+		final String METHOD = "open";
+		synchronized (lock) {
+			if (open) {
+				return;
+			}
+			clientDir = new File(directory, sanitize(clientId + "-" + serverURI));
+			if (!clientDir.exists() && !clientDir.mkdirs()) {
+				throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_CLIENT_EXCEPTION,
+						new IOException("Unable to create the directory " + clientDir));
+			}
+			try {
+				lockFile = new RandomAccessFile(new File(clientDir, LOCK_FILE), "rw");
+				try {
+					fileLock = lockFile.getChannel().tryLock();
+				} catch (OverlappingFileLockException e) {
+					// Already opened by another persistence of this JVM
+					fileLock = null;
+				}
+				if (fileLock == null) {
+					lockFile.close();
+					throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+				}
+
+				File latest = findLatestLog();
+				index = new HashMap<String, Integer>();
+				if (latest != null) {
+					mapLog(latest, Math.max(initialSize, (int) latest.length()));
+					replay();
+				} else {
+					createLog(0, initialSize);
+				}
+				deleteStaleLogs();
+			} catch (IOException e) {
+				releaseLock();
+				throw new MqttPersistenceException(e);
+			}
+
+			open = true;
+			commitFailure = null;
+			committer = new Thread(new Committer(), "IoTF persistence committer: " + clientId);
+			committer.setDaemon(true);
+			committer.start();
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Opened " + logFile + " with " + index.size() + " in-flight message(s)");
+		}
+	}
+
+	@Override
+	public void close() throws MqttPersistenceException {
+		synchronized (lock) {
+			if (!open) {
+				return;
+			}
+			open = false;
+			lock.notifyAll();
+		}
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (lock) {
+			try {
+				buffer.force();
+				channel.close();
+				raf.close();
+			} catch (IOException e) {
+				throw new MqttPersistenceException(e);
+			} finally {
+				buffer = null;
+				releaseLock();
+			}
+		}
+	}
+
+	@Override
+	public void put(String key, MqttPersistable message) throws MqttPersistenceException {
+		byte[] keyBytes = key.getBytes(UTF8);
+		int headerLength = message.getHeaderLength();
+		int payloadLength = message.getPayloadBytes() == null ? 0 : message.getPayloadLength();
+		int recordLength = RECORD_OVERHEAD + keyBytes.length + headerLength + payloadLength;
+		int end;
+		synchronized (lock) {
+			checkOpen();
+			int position = reserve(recordLength);
+			writeRecord(position, RECORD_PUT, keyBytes,
+					message.getHeaderBytes(), message.getHeaderOffset(), headerLength,
+					message.getPayloadBytes(), message.getPayloadOffset(), payloadLength);
+
+			Integer previous = index.put(key, position);
+			if (previous != null) {
+				liveBytes -= buffer.getInt(previous);
+			}
+			liveBytes += recordLength;
+			end = writePosition;
+			lock.notifyAll();
+		}
+		if (waitForCommit) {
+			awaitDurable(end);
+		}
+	}
+
+	@Override
+	public MqttPersistable get(String key) throws MqttPersistenceException {
+		synchronized (lock) {
+			checkOpen();
+			Integer position = index.get(key);
+			if (position == null) {
+				return null;
+			}
+			buffer.position(position + 4 + 1);
+			int keyLength = buffer.getShort();
+			buffer.position(buffer.position() + keyLength);
+			byte[] header = new byte[buffer.getInt()];
+			buffer.get(header);
+			byte[] payload = new byte[buffer.getInt()];
+			buffer.get(payload);
+			return new StoredMessage(header, payload);
+		}
+	}
+
+	@Override
+	public void remove(String key) throws MqttPersistenceException {
+		synchronized (lock) {
+			checkOpen();
+			Integer position = index.remove(key);
+			if (position == null) {
+				return;
+			}
+			liveBytes -= buffer.getInt(position);
+
+			/*
+			 * The remove record doesn't need to be forced before returning,
+			 * if it is lost the message is delivered again which is allowed for QoS 1
+			 */
+			byte[] keyBytes = key.getBytes(UTF8);
+			int recordLength = RECORD_OVERHEAD + keyBytes.length;
+			int recordPosition = reserve(recordLength);
+			writeRecord(recordPosition, RECORD_REMOVE, keyBytes, null, 0, 0, null, 0, 0);
+
+			compactIfRequired();
+			lock.notifyAll();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Enumeration keys() throws MqttPersistenceException {
+		synchronized (lock) {
+			checkOpen();
+			return Collections.enumeration(new ArrayList<String>(index.keySet()));
+		}
+	}
+
+	@Override
+	public void clear() throws MqttPersistenceException {
+		synchronized (lock) {
+			checkOpen();
+			index.clear();
+			liveBytes = 0;
+			try {
+				compact();
+			} catch (IOException e) {
+				throw new MqttPersistenceException(e);
+			}
+		}
+	}
+
+	@Override
+	public boolean containsKey(String key) throws MqttPersistenceException {
+		synchronized (lock) {
+			checkOpen();
+			return index.containsKey(key);
+		}
+	}
+
+	/**
+	 * Returns the current size of the log, in bytes, including the removed records
+	 * that are not compacted yet.
+	 *
+	 * @return size of the log in bytes
+	 */
+	public long getLogSize() {
+		synchronized (lock) {
+			return writePosition;
+		}
+	}
+
+	/**
+	 * Returns the number of times the committer forced the log to the disk, which is lower than the
+	 * number of writes when the writes are batched.
+	 *
+	 * @return the number of commits since the persistence was created
+	 */
+	public long getCommitCount() {
+		synchronized (lock) {
+			return commitCount;
+		}
+	}
+
+	private void checkOpen() throws MqttPersistenceException {
+		if (!open) {
+			throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_CLIENT_EXCEPTION);
+		}
+		if (commitFailure != null) {
+			throw new MqttPersistenceException(commitFailure);
+		}
+	}
+
+	/*
+	 * Returns the position of the new record, remaps the file if the record doesn't fit
+	 */
+	private int reserve(int recordLength) throws MqttPersistenceException {
+		// keep room for the zero length marker that terminates the log
+		long required = (long) writePosition + recordLength + 4;
+		if (required > buffer.capacity()) {
+			long newSize = buffer.capacity();
+			while (newSize < required) {
+				newSize *= 2;
+			}
+			if (newSize > Integer.MAX_VALUE) {
+				throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_CLIENT_EXCEPTION);
+			}
+			try {
+				buffer.force();
+				durablePosition = writePosition;
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+			} catch (IOException e) {
+				throw new MqttPersistenceException(e);
+			}
+		}
+		int position = writePosition;
+		writePosition += recordLength;
+		return position;
+	}
+
+	/*
+	 * Lays out the record in the scratch array, so that the checksum is computed
+	 * over a plain array and the record is copied into the mapped region in one go
+	 */
+	private void writeRecord(int position, byte type, byte[] key,
+			byte[] header, int headerOffset, int headerLength,
+			byte[] payload, int payloadOffset, int payloadLength) {
+		int recordLength = RECORD_OVERHEAD + key.length + headerLength + payloadLength;
+		if (scratch.length < recordLength) {
+			scratch = new byte[Math.max(recordLength, scratch.length * 2)];
+		}
+		ByteBuffer record = ByteBuffer.wrap(scratch, 0, recordLength);
+		record.putInt(recordLength);
+		record.put(type);
+		record.putShort((short) key.length);
+		record.put(key);
+		record.putInt(headerLength);
+		if (headerLength > 0) {
+			record.put(header, headerOffset, headerLength);
+		}
+		record.putInt(payloadLength);
+		if (payloadLength > 0) {
+			record.put(payload, payloadOffset, payloadLength);
+		}
+		crc.reset();
+		crc.update(scratch, 4, recordLength - 8);
+		record.putInt((int) crc.getValue());
+
+		buffer.position(position);
+		buffer.put(scratch, 0, recordLength);
+	}
+
+	private boolean isValid(int position, int recordLength) {
+		if (recordLength < RECORD_OVERHEAD || (long) position + recordLength > buffer.capacity()) {
+			return false;
+		}
+		if (scratch.length < recordLength) {
+			scratch = new byte[recordLength];
+		}
+		buffer.position(position);
+		buffer.get(scratch, 0, recordLength);
+		crc.reset();
+		crc.update(scratch, 4, recordLength - 8);
+		return ByteBuffer.wrap(scratch, recordLength - 4, 4).getInt() == (int) crc.getValue();
+	}
+
+	private void replay() {
+		final String METHOD = "replay";
+		int position = FILE_HEADER_SIZE;
+		while (position + 4 <= buffer.capacity()) {
+			int recordLength = buffer.getInt(position);
+			if (recordLength == 0) {
+				break;
+			}
+			if (!isValid(position, recordLength)) {
+				LoggerUtility.warn(CLASS_NAME, METHOD, "Discarding the torn record at position " + position +
+						" of " + logFile);
+				break;
+			}
+			buffer.position(position + 4);
+			byte type = buffer.get();
+			byte[] keyBytes = new byte[buffer.getShort()];
+			buffer.get(keyBytes);
+			String key = new String(keyBytes, UTF8);
+			Integer previous = null;
+			if (type == RECORD_PUT) {
+				previous = index.put(key, position);
+				liveBytes += recordLength;
+			} else if (type == RECORD_REMOVE) {
+				previous = index.remove(key);
+			}
+			if (previous != null) {
+				liveBytes -= buffer.getInt(previous);
+			}
+			position += recordLength;
+		}
+		writePosition = position;
+		durablePosition = position;
+
+		// Clear whatever follows the last valid record, so that it can never be mistaken for a record
+		for (int i = position; i < buffer.capacity(); i++) {
+			buffer.put(i, (byte) 0);
+		}
+		buffer.force();
+	}
+
+	private void compactIfRequired() throws MqttPersistenceException {
+		long deadBytes = writePosition - FILE_HEADER_SIZE - liveBytes;
+		if (writePosition >= MIN_COMPACTION_SIZE && deadBytes > liveBytes * 3) {
+			try {
+				compact();
+			} catch (IOException e) {
+				throw new MqttPersistenceException(e);
+			}
+		}
+	}
+
+	/*
+	 * Copies the live records into a new generation of the log, the old
+	 * generation is deleted only after the new one is forced to the disk
+	 */
+	private void compact() throws IOException {
+		final String METHOD = "compact";
+		MappedByteBuffer oldBuffer = buffer;
+		FileChannel oldChannel = channel;
+		RandomAccessFile oldRaf = raf;
+		File oldFile = logFile;
+		Map<String, Integer> oldIndex = index;
+
+		long live = liveBytes;
+		int size = initialSize;
+		while (size < live + FILE_HEADER_SIZE + 4) {
+			size *= 2;
+		}
+		createLog(generation + 1, size);
+		liveBytes = live;
+
+		index = new HashMap<String, Integer>();
+		int position = FILE_HEADER_SIZE;
+		for (Map.Entry<String, Integer> e : oldIndex.entrySet()) {
+			int oldPosition = e.getValue();
+			int recordLength = oldBuffer.getInt(oldPosition);
+			for (int i = 0; i < recordLength; i++) {
+				buffer.put(position + i, oldBuffer.get(oldPosition + i));
+			}
+			index.put(e.getKey(), position);
+			position += recordLength;
+		}
+		buffer.force();
+		writePosition = position;
+		durablePosition = position;
+
+		oldChannel.close();
+		oldRaf.close();
+		if (!oldFile.delete()) {
+			// Still mapped on some platforms, it is ignored on open as it has an older generation
+			oldFile.deleteOnExit();
+		}
+		LoggerUtility.fine(CLASS_NAME, METHOD, "Compacted " + oldFile + " into " + logFile +
+				" (" + index.size() + " live records)");
+	}
+
+	private void createLog(long newGeneration, int size) throws IOException {
+		File file = new File(clientDir, LOG_PREFIX + newGeneration + LOG_SUFFIX);
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Unable to delete the stale log " + file);
+		}
+		mapLog(file, size);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putLong(8, newGeneration);
+		buffer.putInt(FILE_HEADER_SIZE, 0);
+		buffer.force();
+		generation = newGeneration;
+		writePosition = FILE_HEADER_SIZE;
+		durablePosition = FILE_HEADER_SIZE;
+		liveBytes = 0;
+	}
+
+	private void mapLog(File file, int size) throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		logFile = file;
+		generation = buffer.getLong(8);
+	}
+
+	/*
+	 * Returns the log with the highest generation that has a valid header
+	 */
+	private File findLatestLog() throws IOException {
+		File latest = null;
+		long latestGeneration = -1;
+		File[] files = clientDir.listFiles();
+		if (files == null) {
+			return null;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.startsWith(LOG_PREFIX) || !name.endsWith(LOG_SUFFIX) || file.length() < FILE_HEADER_SIZE) {
+				continue;
+			}
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+					long fileGeneration = in.readLong();
+					if (fileGeneration > latestGeneration) {
+						latestGeneration = fileGeneration;
+						latest = file;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return latest;
+	}
+
+	private void deleteStaleLogs() {
+		File[] files = clientDir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX) && !file.equals(logFile)) {
+				file.delete();
+			}
+		}
+	}
+
+	private void releaseLock() {
+		try {
+			if (fileLock != null) {
+				fileLock.release();
+			}
+			if (lockFile != null) {
+				lockFile.close();
+			}
+		} catch (IOException e) {
+			LoggerUtility.log(Level.WARNING, CLASS_NAME, "releaseLock", "Unable to release the lock", e);
+		}
+		fileLock = null;
+		lockFile = null;
+	}
+
+	private void awaitDurable(int position) throws MqttPersistenceException {
+		synchronized (lock) {
+			while (durablePosition < position && open && commitFailure == null && buffer != null) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new MqttPersistenceException(e);
+				}
+			}
+			if (commitFailure != null) {
+				throw new MqttPersistenceException(commitFailure);
+			}
+		}
+	}
+
+	private static String sanitize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '-' || c == '.') {
+				sb.append(c);
+			} else {
+				sb.append('_');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Forces the log to the disk on behalf of all the writers that are waiting.
+	 * The writers that arrive during a force are handled by the next one.
+	 */
+	private class Committer implements Runnable {
+		@Override
+		public void run() {
+			final String METHOD = "run";
+			while (true) {
+				MappedByteBuffer toForce;
+				int target;
+				synchronized (lock) {
+					while (open && durablePosition >= writePosition) {
+						try {
+							lock.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					if (!open) {
+						return;
+					}
+					toForce = buffer;
+					target = writePosition;
+				}
+
+				try {
+					toForce.force();
+				} catch (RuntimeException e) {
+					synchronized (lock) {
+						LoggerUtility.log(Level.SEVERE, CLASS_NAME, METHOD, "Unable to force the log " + logFile, e);
+						commitFailure = new IOException(e.getMessage());
+						lock.notifyAll();
+					}
+					return;
+				}
+
+				synchronized (lock) {
+					// The buffer might have been remapped or compacted while forcing, these force on their own
+					if (toForce == buffer && target > durablePosition) {
+						durablePosition = target;
+					}
+					commitCount++;
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A message read back from the log
+	 */
+	private static class StoredMessage implements MqttPersistable {
+		private final byte[] header;
+		private final byte[] payload;
+
+		StoredMessage(byte[] header, byte[] payload) {
+			this.header = header;
+			this.payload = payload;
+		}
+
+		public byte[] getHeaderBytes() {
+			return header;
+		}
+
+		public int getHeaderLength() {
+			return header.length;
+		}
+
+		public int getHeaderOffset() {
+			return 0;
+		}
+
+		public byte[] getPayloadBytes() {
+			return payload;
+		}
+
+		public int getPayloadLength() {
+			return payload.length;
+		}
+
+		public int getPayloadOffset() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * <p>The connection used by the device and application clients to exchange MQTT messages
+ * with the IBM Internet of Things Foundation.</p>
+ *
+ * <p>The interface is a subset of the Paho <code>IMqttAsyncClient</code> and reuses its
+ * message, callback and token types, so that the clients can run on top of the
+ * Paho client library (the default) or any other implementation, like the in-JVM loopback broker
+ * that is used for the tests and benchmarks.</p>
+ *
+ * <p>The operations are asynchronous, the returned token can be used to wait
+ * for the completion of the operation.</p>
+ *
+ * @see <a href="http://www.eclipse.org/paho/files/javadoc/index.html">Paho Client Library</a>
+ */
+public interface MqttTransport {
+
+	/**
+	 * @return the URI of the server this transport connects to
+	 */
+	String getServerURI();
+
+	/**
+	 * @return the MQTT client ID
+	 */
+	String getClientId();
+
+	/**
+	 * Sets the callback that is notified of the lost connection, the arrived messages
+	 * and the completed deliveries
+	 *
+	 * @param callback the MqttCallback
+	 */
+	void setCallback(MqttCallback callback);
+
+	/**
+	 * Connects to the server using the given options
+	 *
+	 * @param options MQTT connect options
+	 * @return token that completes when the connection is established
+	 * @throws MqttException if the connect can not be started
+	 */
+	IMqttToken connect(MqttConnectOptions options) throws MqttException;
+
+	/**
+	 * @return whether the transport is currently connected to the server
+	 */
+	boolean isConnected();
+
+	/**
+	 * Disconnects from the server
+	 *
+	 * @return token that completes when the client is disconnected
+	 * @throws MqttException if the disconnect can not be started
+	 */
+	IMqttToken disconnect() throws MqttException;
+
+	/**
+	 * Publishes the message to the given topic
+	 *
+	 * @param topic the topic to publish to
+	 * @param message the message, including the QoS
+	 * @return token that completes when the message is delivered as per its QoS
+	 * @throws MqttException if the message can not be accepted for delivery
+	 */
+	IMqttDeliveryToken publish(String topic, MqttMessage message) throws MqttException;
+
+	/**
+	 * Subscribes to the topic filter, the messages are passed to the callback
+	 */
+	IMqttToken subscribe(String topicFilter, int qos) throws MqttException;
+
+	/**
+	 * Subscribes to the topic filter, the messages are passed to the given listener
+	 */
+	IMqttToken subscribe(String topicFilter, int qos, IMqttMessageListener listener) throws MqttException;
+
+	/**
+	 * Subscribes to each of the topic filters, the messages are passed to the corresponding listener
+	 */
+	IMqttToken subscribe(String[] topicFilters, int[] qos, IMqttMessageListener[] listeners) throws MqttException;
+
+	/**
+	 * Removes the subscription to the topic filter
+	 */
+	IMqttToken unsubscribe(String topicFilter) throws MqttException;
+
+	/**
+	 * Removes the subscriptions to each of the topic filters
+	 */
+	IMqttToken unsubscribe(String[] topicFilters) throws MqttException;
+
+	/**
+	 * @return the tokens of the messages whose delivery is not complete yet
+	 */
+	IMqttDeliveryToken[] getPendingDeliveryTokens();
+
+	/**
+	 * Releases the resources held by the transport, it can not be used afterwards
+	 *
+	 * @throws MqttException if the transport is still connected
+	 */
+	void close() throws MqttException;
+}
@@ -0,0 +1,37 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport;
+
+import java.util.Properties;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+/**
+ * Creates the transports used by the clients. The factory is selected with the
+ * <code>Transport</code> property of the client, which can be set to one of the built-in
+ * transports or to the class name of an implementation of this interface.
+ */
+public interface MqttTransportFactory {
+
+	/**
+	 * Creates a transport, that is not connected yet
+	 *
+	 * @param serverURI the URI of the server, for example ssl://org.messaging.internetofthings.ibmcloud.com:8883
+	 * @param clientId the MQTT client ID
+	 * @param persistence the store for the in-flight messages, can be null
+	 * @param options the properties of the client
+	 * @return the transport
+	 * @throws MqttException if the transport can not be created
+	 */
+	MqttTransport create(String serverURI, String clientId, MqttClientPersistence persistence,
+			Properties options) throws MqttException;
+}
@@ -0,0 +1,109 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * The default transport, which delegates to the Paho MqttAsyncClient
+ */
+public class PahoAsyncTransport implements MqttTransport {
+
+	private final MqttAsyncClient client;
+
+	public PahoAsyncTransport(MqttAsyncClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * @return the underlying Paho client
+	 */
+	public MqttAsyncClient getClient() {
+		return client;
+	}
+
+	@Override
+	public String getServerURI() {
+		return client.getServerURI();
+	}
+
+	@Override
+	public String getClientId() {
+		return client.getClientId();
+	}
+
+	@Override
+	public void setCallback(MqttCallback callback) {
+		client.setCallback(callback);
+	}
+
+	@Override
+	public IMqttToken connect(MqttConnectOptions options) throws MqttException {
+		return client.connect(options);
+	}
+
+	@Override
+	public boolean isConnected() {
+		return client.isConnected();
+	}
+
+	@Override
+	public IMqttToken disconnect() throws MqttException {
+		return client.disconnect();
+	}
+
+	@Override
+	public IMqttDeliveryToken publish(String topic, MqttMessage message) throws MqttException {
+		return client.publish(topic, message);
+	}
+
+	@Override
+	public IMqttToken subscribe(String topicFilter, int qos) throws MqttException {
+		return client.subscribe(topicFilter, qos);
+	}
+
+	@Override
+	public IMqttToken subscribe(String topicFilter, int qos, IMqttMessageListener listener) throws MqttException {
+		return client.subscribe(topicFilter, qos, listener);
+	}
+
+	@Override
+	public IMqttToken subscribe(String[] topicFilters, int[] qos, IMqttMessageListener[] listeners) throws MqttException {
+		return client.subscribe(topicFilters, qos, listeners);
+	}
+
+	@Override
+	public IMqttToken unsubscribe(String topicFilter) throws MqttException {
+		return client.unsubscribe(topicFilter);
+	}
+
+	@Override
+	public IMqttToken unsubscribe(String[] topicFilters) throws MqttException {
+		return client.unsubscribe(topicFilters);
+	}
+
+	@Override
+	public IMqttDeliveryToken[] getPendingDeliveryTokens() {
+		return client.getPendingDeliveryTokens();
+	}
+
+	@Override
+	public void close() throws MqttException {
+		client.close();
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Transport for the clients that are created with a (blocking) Paho MqttClient,
+ * the operations complete before the tokens are returned.
+ */
+public class PahoSyncTransport implements MqttTransport {
+
+	private final MqttClient client;
+
+	public PahoSyncTransport(MqttClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * @return the underlying Paho client
+	 */
+	public MqttClient getClient() {
+		return client;
+	}
+
+	@Override
+	public String getServerURI() {
+		return client.getServerURI();
+	}
+
+	@Override
+	public String getClientId() {
+		return client.getClientId();
+	}
+
+	@Override
+	public void setCallback(MqttCallback callback) {
+		client.setCallback(callback);
+	}
+
+	@Override
+	public IMqttToken connect(MqttConnectOptions options) throws MqttException {
+		return client.connectWithResult(options);
+	}
+
+	@Override
+	public boolean isConnected() {
+		return client.isConnected();
+	}
+
+	@Override
+	public IMqttToken disconnect() throws MqttException {
+		client.disconnect();
+		return TransportToken.completed(null);
+	}
+
+	@Override
+	public IMqttDeliveryToken publish(String topic, MqttMessage message) throws MqttException {
+		client.publish(topic, message);
+		TransportToken token = new TransportToken(topic, message);
+		token.setMessageId(message.getId());
+		token.markComplete(null);
+		return token;
+	}
+
+	@Override
+	public IMqttToken subscribe(String topicFilter, int qos) throws MqttException {
+		client.subscribe(topicFilter, qos);
+		return TransportToken.completed(new String[] {topicFilter});
+	}
+
+	@Override
+	public IMqttToken subscribe(String topicFilter, int qos, IMqttMessageListener listener) throws MqttException {
+		client.subscribe(topicFilter, qos, listener);
+		return TransportToken.completed(new String[] {topicFilter});
+	}
+
+	@Override
+	public IMqttToken subscribe(String[] topicFilters, int[] qos, IMqttMessageListener[] listeners) throws MqttException {
+		client.subscribe(topicFilters, qos, listeners);
+		return TransportToken.completed(topicFilters);
+	}
+
+	@Override
+	public IMqttToken unsubscribe(String topicFilter) throws MqttException {
+		client.unsubscribe(topicFilter);
+		return TransportToken.completed(new String[] {topicFilter});
+	}
+
+	@Override
+	public IMqttToken unsubscribe(String[] topicFilters) throws MqttException {
+		client.unsubscribe(topicFilters);
+		return TransportToken.completed(topicFilters);
+	}
+
+	@Override
+	public IMqttDeliveryToken[] getPendingDeliveryTokens() {
+		return client.getPendingDeliveryTokens();
+	}
+
+	@Override
+	public void close() throws MqttException {
+		client.close();
+	}
+}
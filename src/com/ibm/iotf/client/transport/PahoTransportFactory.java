@@ -0,0 +1,29 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport;
+
+import java.util.Properties;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+/**
+ * Creates the transports based on the Paho MqttAsyncClient
+ */
+public class PahoTransportFactory implements MqttTransportFactory {
+
+	@Override
+	public MqttTransport create(String serverURI, String clientId, MqttClientPersistence persistence,
+			Properties options) throws MqttException {
+		return new PahoAsyncTransport(new MqttAsyncClient(serverURI, clientId, persistence));
+	}
+}
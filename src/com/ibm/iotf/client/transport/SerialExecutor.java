@@ -0,0 +1,69 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * Runs the tasks one at a time and in order, on the threads of a (shared) executor.
+ *
+ * <p>Used by the transports to call the MqttCallback of a client the same way Paho does,
+ * without a dedicated callback thread per client.</p>
+ */
+public class SerialExecutor implements Executor {
+
+	private static final String CLASS_NAME = SerialExecutor.class.getName();
+
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	public SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(drain);
+		}
+	}
+
+	private void drain() {
+		final String METHOD = "drain";
+		while (true) {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					LoggerUtility.warn(CLASS_NAME, METHOD, "Callback failed: " + e.getMessage());
+				}
+			}
+			scheduled.set(false);
+			// A task may have been added after the last poll
+			if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport;
+
+/**
+ * Matches the MQTT topic names against the topic filters, without allocating
+ */
+public final class TopicMatcher {
+
+	private TopicMatcher() {
+	}
+
+	/**
+	 * Returns whether the topic matches the filter, which can contain the MQTT wildcards + and #
+	 *
+	 * @param filter the topic filter, for example iot-2/type/+/id/+/evt/#
+	 * @param topic the topic name
+	 * @return whether the topic matches
+	 */
+	public static boolean matches(String filter, String topic) {
+		int fl = filter.length();
+		int tl = topic.length();
+		int f = 0;
+		int t = 0;
+		while (f < fl) {
+			char c = filter.charAt(f);
+			if (c == '#') {
+				return true;
+			} else if (c == '+') {
+				while (t < tl && topic.charAt(t) != '/') {
+					t++;
+				}
+				f++;
+			} else if (t < tl && topic.charAt(t) == c) {
+				f++;
+				t++;
+			} else {
+				// sport/# also matches the parent level sport
+				return t == tl && c == '/' && f == fl - 2 && filter.charAt(fl - 1) == '#';
+			}
+		}
+		return t == tl;
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttWireMessage;
+
+/**
+ * A token, used by the transports that are not based on the Paho client, to track
+ * the completion of an operation.
+ */
+public class TransportToken implements IMqttDeliveryToken {
+
+	private final String[] topics;
+	private final MqttMessage message;
+	private volatile int messageId;
+	private int[] grantedQos;
+
+	private boolean complete = false;
+	private MqttException exception = null;
+	private IMqttActionListener actionCallback;
+	private Object userContext;
+
+	/**
+	 * Creates a token for an operation that doesn't involve a message
+	 *
+	 * @param topics the topics of the operation, can be null
+	 */
+	public TransportToken(String[] topics) {
+		this(topics, null);
+	}
+
+	/**
+	 * Creates a token for the delivery of the message
+	 *
+	 * @param topic the topic where the message is published
+	 * @param message the message
+	 */
+	public TransportToken(String topic, MqttMessage message) {
+		this(new String[] {topic}, message);
+	}
+
+	private TransportToken(String[] topics, MqttMessage message) {
+		this.topics = topics;
+		this.message = message;
+	}
+
+	/**
+	 * Returns a token that is already complete
+	 */
+	public static TransportToken completed(String[] topics) {
+		TransportToken token = new TransportToken(topics);
+		token.markComplete(null);
+		return token;
+	}
+
+	/**
+	 * Marks the operation as complete and notifies the waiters and the action callback
+	 *
+	 * @param exception the reason of the failure or null if the operation is successful
+	 */
+	public void markComplete(MqttException exception) {
+		IMqttActionListener callback;
+		synchronized (this) {
+			if (complete) {
+				return;
+			}
+			this.exception = exception;
+			this.complete = true;
+			callback = actionCallback;
+			notifyAll();
+		}
+		if (callback != null) {
+			if (exception == null) {
+				callback.onSuccess(this);
+			} else {
+				callback.onFailure(this, exception);
+			}
+		}
+	}
+
+	public void setMessageId(int messageId) {
+		this.messageId = messageId;
+	}
+
+	public synchronized void setGrantedQos(int[] grantedQos) {
+		this.grantedQos = grantedQos;
+	}
+
+	@Override
+	public void waitForCompletion() throws MqttException {
+		waitForCompletion(-1);
+	}
+
+	@Override
+	public synchronized void waitForCompletion(long timeout) throws MqttException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!complete) {
+			long wait = 0;
+			if (timeout >= 0) {
+				wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					throw new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT);
+				}
+			}
+			try {
+				wait(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MqttException(e);
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	@Override
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+
+	@Override
+	public synchronized MqttException getException() {
+		return exception;
+	}
+
+	@Override
+	public void setActionCallback(IMqttActionListener listener) {
+		boolean alreadyComplete;
+		synchronized (this) {
+			this.actionCallback = listener;
+			alreadyComplete = complete;
+		}
+		if (alreadyComplete && listener != null) {
+			if (getException() == null) {
+				listener.onSuccess(this);
+			} else {
+				listener.onFailure(this, getException());
+			}
+		}
+	}
+
+	@Override
+	public synchronized IMqttActionListener getActionCallback() {
+		return actionCallback;
+	}
+
+	@Override
+	public IMqttAsyncClient getClient() {
+		return null;
+	}
+
+	@Override
+	public String[] getTopics() {
+		return topics;
+	}
+
+	@Override
+	public synchronized void setUserContext(Object userContext) {
+		this.userContext = userContext;
+	}
+
+	@Override
+	public synchronized Object getUserContext() {
+		return userContext;
+	}
+
+	@Override
+	public int getMessageId() {
+		return messageId;
+	}
+
+	@Override
+	public synchronized int[] getGrantedQos() {
+		return grantedQos;
+	}
+
+	@Override
+	public boolean getSessionPresent() {
+		return false;
+	}
+
+	@Override
+	public MqttWireMessage getResponse() {
+		return null;
+	}
+
+	@Override
+	public MqttMessage getMessage() throws MqttException {
+		return message;
+	}
+}
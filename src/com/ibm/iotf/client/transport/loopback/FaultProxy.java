@@ -0,0 +1,334 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.loopback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>A TCP proxy that injects network faults between the clients and a broker, typically a
+ * {@link LoopbackServer}, to measure how the clients detect the failures and recover from them.
+ * The clients connect to the port of the proxy, set with the <code>Endpoints</code> property.</p>
+ *
+ * <ul class="simple">
+ * <li>{@link Fault#NONE} - the bytes are forwarded as they arrive</li>
+ * <li>{@link Fault#DELAY} - the bytes are forwarded after the delay set with {@link #setDelay(long)},
+ * in both directions, the order is kept and the throughput is not limited</li>
+ * <li>{@link Fault#BLACKHOLE} - the connections stay open but the bytes are discarded, as with a silent
+ * network failure. The connections that lost bytes are closed when the fault is cleared.</li>
+ * <li>{@link Fault#REFUSE} - the new connections are closed as soon as they are accepted, the open ones
+ * are not affected</li>
+ * </ul>
+ *
+ * <p>{@link #dropConnections()} resets the open connections, as when a router or the broker fails. Each
+ * connection is served by four threads, the proxy is meant for a few clients.</p>
+ */
+public class FaultProxy {
+
+	private static final String CLASS_NAME = FaultProxy.class.getName();
+
+	public enum Fault {
+		NONE, DELAY, BLACKHOLE, REFUSE
+	}
+
+	private final InetSocketAddress target;
+	private final ServerSocket serverSocket;
+	private final Set<Connection> connections =
+			Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	private volatile Fault fault = Fault.NONE;
+	private volatile long delayNanos;
+	private volatile boolean running = true;
+
+	/**
+	 * Starts a proxy on localhost
+	 *
+	 * @param targetHost the host of the broker
+	 * @param targetPort the port of the broker
+	 * @param port the port of the proxy, 0 for any free port
+	 */
+	public FaultProxy(String targetHost, int targetPort, int port) throws IOException {
+		this.target = new InetSocketAddress(targetHost, targetPort);
+		this.serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "fault-proxy-" + getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the number of the open connections
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	public Fault getFault() {
+		return fault;
+	}
+
+	/**
+	 * Sets the fault injected from now on, clearing a black hole closes the connections that lost bytes
+	 *
+	 * @param fault the fault
+	 */
+	public void setFault(Fault fault) {
+		this.fault = fault;
+		if (fault != Fault.BLACKHOLE) {
+			for (Connection connection : connections) {
+				if (connection.discarded) {
+					connection.close(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param millis the delay of the bytes while the fault is {@link Fault#DELAY}
+	 */
+	public void setDelay(long millis) {
+		this.delayNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Resets the open connections
+	 *
+	 * @return the number of the connections reset
+	 */
+	public int dropConnections() {
+		int count = 0;
+		for (Connection connection : connections) {
+			connection.close(true);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Stops accepting the connections and closes the open ones
+	 */
+	public void stop() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		for (Connection connection : connections) {
+			connection.close(false);
+		}
+	}
+
+	private void accept() {
+		final String METHOD = "accept";
+		while (running) {
+			Socket client = null;
+			Socket server = null;
+			try {
+				client = serverSocket.accept();
+				if (fault == Fault.REFUSE) {
+					client.setSoLinger(true, 0);
+					client.close();
+					continue;
+				}
+				server = new Socket();
+				server.connect(target);
+				client.setTcpNoDelay(true);
+				server.setTcpNoDelay(true);
+				Connection connection = new Connection(client, server, connectionCount.incrementAndGet());
+				connections.add(connection);
+				connection.start();
+			} catch (IOException e) {
+				if (running) {
+					LoggerUtility.warn(CLASS_NAME, METHOD, "Failed to proxy a connection: " + e.getMessage());
+					close(client);
+					close(server);
+				}
+			}
+		}
+	}
+
+	private static void close(Socket socket) {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * A chunk of bytes and the time it can be forwarded at, the chunk without bytes closes the connection
+	 */
+	private static class Chunk {
+		private final long due;
+		private final byte[] bytes;
+
+		private Chunk(long due, byte[] bytes) {
+			this.due = due;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * A proxied connection, the bytes of each direction are read by one thread and written by another
+	 * so that a delay does not limit the throughput
+	 */
+	private class Connection {
+
+		private final Socket client;
+		private final Socket server;
+		private final int id;
+		private volatile boolean open = true;
+		private volatile boolean discarded;
+
+		private Connection(Socket client, Socket server, int id) {
+			this.client = client;
+			this.server = server;
+			this.id = id;
+		}
+
+		private void start() throws IOException {
+			// The streams are opened before the threads start, which close the sockets when they are done
+			InputStream clientIn = client.getInputStream();
+			OutputStream clientOut = client.getOutputStream();
+			InputStream serverIn = server.getInputStream();
+			OutputStream serverOut = server.getOutputStream();
+			pipe(clientIn, serverOut, "up");
+			pipe(serverIn, clientOut, "down");
+		}
+
+		private void pipe(final InputStream in, final OutputStream out, String direction) {
+			final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+			Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					read(in, queue);
+				}
+			}, "fault-proxy-" + id + "-" + direction + "-read");
+			Thread writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					write(queue, out);
+				}
+			}, "fault-proxy-" + id + "-" + direction + "-write");
+			reader.setDaemon(true);
+			writer.setDaemon(true);
+			reader.start();
+			writer.start();
+		}
+
+		private void read(InputStream in, BlockingQueue<Chunk> queue) {
+			byte[] buffer = new byte[8192];
+			try {
+				while (open) {
+					int n = in.read(buffer);
+					Fault current = fault;
+					if (current == Fault.BLACKHOLE) {
+						discarded = true;
+						if (n < 0) {
+							// The peer never learns about the close, until the fault is cleared
+							return;
+						}
+						continue;
+					}
+					if (discarded) {
+						// The stream is corrupt once bytes are lost
+						break;
+					}
+					long delay = current == Fault.DELAY ? delayNanos : 0;
+					if (n < 0) {
+						// Closed by the peer, the bytes still queued are forwarded first
+						queue.add(new Chunk(System.nanoTime() + delay, null));
+						return;
+					}
+					queue.add(new Chunk(System.nanoTime() + delay, Arrays.copyOf(buffer, n)));
+				}
+			} catch (IOException e) {
+				// The connection is closed
+			}
+			close(false);
+		}
+
+		private void write(BlockingQueue<Chunk> queue, OutputStream out) {
+			try {
+				while (open) {
+					Chunk chunk = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (chunk == null) {
+						continue;
+					}
+					long wait = chunk.due - System.nanoTime();
+					if (wait > 0) {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					}
+					if (chunk.bytes == null) {
+						break;
+					}
+					out.write(chunk.bytes);
+					out.flush();
+				}
+			} catch (IOException e) {
+				// The connection is closed
+			} catch (InterruptedException e) {
+				// ignore, the connection is closed
+			}
+			close(false);
+		}
+
+		/**
+		 * @param reset whether the connections are reset rather than closed gracefully
+		 */
+		private void close(boolean reset) {
+			open = false;
+			connections.remove(this);
+			close(client, reset);
+			close(server, reset);
+		}
+
+		private void close(Socket socket, boolean reset) {
+			try {
+				if (reset) {
+					socket.setSoLinger(true, 0);
+				}
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,357 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.loopback;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.util.Iso8601;
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>An in-JVM message broker that emulates the topic space of the IBM Internet of Things Foundation,
+ * so that the device and application clients can exchange messages without the network.
+ * The clients use the broker when the <code>Transport</code> property is set to <code>loopback</code>,
+ * the broker is selected with the <code>Loopback-Broker</code> property (default: default).</p>
+ *
+ * <ul class="simple">
+ * <li>The device events, iot-2/evt/[event]/fmt/[format], are delivered to the applications
+ * of the same organization as iot-2/type/[type]/id/[id]/evt/[event]/fmt/[format]</li>
+ * <li>The commands published by the applications, iot-2/type/[type]/id/[id]/cmd/[command]/fmt/[format],
+ * are delivered to the device as iot-2/cmd/[command]/fmt/[format]</li>
+ * <li>The connect and disconnect of the devices and applications are published to the
+ * iot-2/type/[type]/id/[id]/mon and iot-2/app/[id]/mon topics</li>
+ * <li>The messages for the applications with shared subscription (client ID A:org:appId)
+ * are distributed among the instances with the same application ID</li>
+ * <li>The device management requests of the devices, iotdevice-1/mgmt/manage for example, are
+ * accepted with the response code 200 on iotdm-1/response, the notifications on iotdevice-1/notify
+ * are dropped</li>
+ * </ul>
+ *
+ * <p>The messages are delivered once and in order per publisher, the QoS is not emulated.
+ * The callbacks of each client are called one at a time, from a thread of a pool shared by all the clients
+ * of the broker.</p>
+ */
+public class LoopbackBroker {
+
+	private static final String CLASS_NAME = LoopbackBroker.class.getName();
+
+	public static final String DEFAULT_BROKER = "default";
+
+	private static final Map<String, LoopbackBroker> brokers = new HashMap<String, LoopbackBroker>();
+
+	private final String name;
+	private final ConcurrentHashMap<String, LoopbackTransport> sessions = new ConcurrentHashMap<String, LoopbackTransport>();
+	private final CopyOnWriteArrayList<LoopbackTransport> applications = new CopyOnWriteArrayList<LoopbackTransport>();
+	private final AtomicInteger sharedIndex = new AtomicInteger();
+	private final ExecutorService dispatcher;
+	private volatile boolean available = true;
+
+	/**
+	 * Returns the broker with the given name, the broker is created when it doesn't exist
+	 *
+	 * @param name the name of the broker
+	 * @return the broker
+	 */
+	public static LoopbackBroker getBroker(String name) {
+		synchronized (brokers) {
+			LoopbackBroker broker = brokers.get(name);
+			if (broker == null) {
+				broker = new LoopbackBroker(name);
+				brokers.put(name, broker);
+			}
+			return broker;
+		}
+	}
+
+	/**
+	 * Disconnects all the clients of the broker with the given name and releases its threads
+	 *
+	 * @param name the name of the broker
+	 */
+	public static void shutdown(String name) {
+		LoopbackBroker broker;
+		synchronized (brokers) {
+			broker = brokers.remove(name);
+		}
+		if (broker != null) {
+			broker.shutdown();
+		}
+	}
+
+	private LoopbackBroker(final String name) {
+		this.name = name;
+		this.dispatcher = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "loopback-" + name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of the connected clients
+	 */
+	public int getConnectionCount() {
+		int count = sessions.size();
+		for (LoopbackTransport app : applications) {
+			if (app.isShared()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns whether a client with the given client ID is connected
+	 */
+	public boolean isConnected(String clientId) {
+		return findSession(clientId) != null;
+	}
+
+	private LoopbackTransport findSession(String clientId) {
+		LoopbackTransport session = sessions.get(clientId);
+		if (session == null) {
+			for (LoopbackTransport app : applications) {
+				if (app.isShared() && app.getClientId().equals(clientId)) {
+					return app;
+				}
+			}
+		}
+		return session;
+	}
+
+	/**
+	 * Drops the connection of the client as if the network failed, the client is notified through
+	 * its connectionLost() callback. When several instances of a shared application are connected,
+	 * only one of them is disconnected.
+	 *
+	 * @param clientId the client ID
+	 * @return whether the client was connected
+	 */
+	public boolean dropConnection(String clientId) {
+		LoopbackTransport session = findSession(clientId);
+		if (session == null) {
+			return false;
+		}
+		disconnected(session, "The connection was dropped");
+		session.connectionLost(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+		return true;
+	}
+
+	/**
+	 * Emulates an outage of the broker. While the broker is unavailable the connections are refused,
+	 * making it unavailable drops all the connected clients.
+	 *
+	 * @param available whether the clients can connect
+	 */
+	public void setAvailable(boolean available) {
+		this.available = available;
+		if (!available) {
+			List<LoopbackTransport> dropped = new ArrayList<LoopbackTransport>(sessions.values());
+			for (LoopbackTransport app : applications) {
+				if (app.isShared()) {
+					dropped.add(app);
+				}
+			}
+			for (LoopbackTransport session : dropped) {
+				disconnected(session, "The broker is unavailable");
+				session.connectionLost(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+			}
+		}
+	}
+
+	public boolean isAvailable() {
+		return available;
+	}
+
+	void connected(LoopbackTransport session) {
+		final String METHOD = "connected";
+		if (session.isShared()) {
+			// The instances of a shared application connect with the same client ID
+			applications.addIfAbsent(session);
+			publishStatus(session, "Connect", null);
+			return;
+		}
+		LoopbackTransport previous = sessions.put(session.getClientId(), session);
+		if (previous != null && previous != session) {
+			// Same as the IoTF, the new connection takes over the client ID
+			LoggerUtility.info(CLASS_NAME, METHOD, "The client " + session.getClientId() + " is already connected, "
+					+ "closing the previous connection");
+			applications.remove(previous);
+			publishStatus(previous, "Disconnect", "The client ID was reused");
+			previous.connectionLost(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+		}
+		if (session.isApplication()) {
+			applications.addIfAbsent(session);
+		}
+		publishStatus(session, "Connect", null);
+	}
+
+	void disconnected(LoopbackTransport session, String reason) {
+		if (session.isShared()) {
+			if (applications.remove(session)) {
+				publishStatus(session, "Disconnect", reason);
+			}
+		} else if (sessions.remove(session.getClientId(), session)) {
+			applications.remove(session);
+			publishStatus(session, "Disconnect", reason);
+		}
+	}
+
+	/**
+	 * Routes the message published by the given client to the subscribers
+	 */
+	void publish(LoopbackTransport from, String topic, MqttMessage message) {
+		if (from.isApplication()) {
+			deliverToApplications(from.getOrgId(), topic, message);
+			// iot-2/type/[type]/id/[id]/cmd/[command]/fmt/[format]
+			if (topic.startsWith("iot-2/type/")) {
+				String[] levels = topic.split("/", 7);
+				if (levels.length == 7 && levels[3].equals("id") && levels[5].equals("cmd")) {
+					String deviceClientId = "d:" + from.getOrgId() + ":" + levels[2] + ":" + levels[4];
+					LoopbackTransport device = sessions.get(deviceClientId);
+					if (device != null) {
+						device.deliver("iot-2/cmd/" + levels[6], message);
+					}
+				}
+			}
+		} else if (topic.startsWith("iot-2/evt/")) {
+			String appTopic = "iot-2/type/" + from.getDeviceType() + "/id/" + from.getDeviceId() + topic.substring(5);
+			deliverToApplications(from.getOrgId(), appTopic, message);
+		} else if (topic.startsWith("iotdevice-1/") && !topic.equals("iotdevice-1/response")
+				&& !topic.equals("iotdevice-1/notify")) {
+			respondToRequest(from, message);
+		}
+	}
+
+	/**
+	 * Accepts the device management request of a device, the requests from the server are not emulated
+	 */
+	private void respondToRequest(LoopbackTransport from, MqttMessage message) {
+		final String METHOD = "respondToRequest";
+		JsonElement reqId;
+		try {
+			JsonElement request = new JsonParser().parse(new String(message.getPayload(), LoopbackTransport.UTF8));
+			reqId = request.isJsonObject() ? request.getAsJsonObject().get("reqId") : null;
+		} catch (JsonParseException e) {
+			reqId = null;
+		}
+		if (reqId == null) {
+			LoggerUtility.warn(CLASS_NAME, METHOD, "The request of " + from.getClientId() + " has no reqId");
+			return;
+		}
+		JsonObject response = new JsonObject();
+		response.addProperty("rc", 200);
+		response.add("reqId", reqId);
+		MqttMessage reply = new MqttMessage(response.toString().getBytes(LoopbackTransport.UTF8));
+		reply.setQos(1);
+		from.deliver("iotdm-1/response", reply);
+	}
+
+	private void deliverToApplications(String orgId, String topic, MqttMessage message) {
+		Map<String, List<LoopbackTransport>> shared = null;
+		for (LoopbackTransport app : applications) {
+			if (!app.getOrgId().equals(orgId)) {
+				continue;
+			}
+			if (app.isShared()) {
+				// Pick one of the instances of the application after checking all of them
+				if (app.matches(topic)) {
+					if (shared == null) {
+						shared = new HashMap<String, List<LoopbackTransport>>();
+					}
+					List<LoopbackTransport> instances = shared.get(app.getAppId());
+					if (instances == null) {
+						instances = new ArrayList<LoopbackTransport>();
+						shared.put(app.getAppId(), instances);
+					}
+					instances.add(app);
+				}
+			} else {
+				app.deliver(topic, message);
+			}
+		}
+		if (shared != null) {
+			for (List<LoopbackTransport> instances : shared.values()) {
+				int index = (sharedIndex.getAndIncrement() & Integer.MAX_VALUE) % instances.size();
+				instances.get(index).deliver(topic, message);
+			}
+		}
+	}
+
+	private void publishStatus(LoopbackTransport session, String action, String reason) {
+		String topic;
+		if (session.isApplication()) {
+			topic = "iot-2/app/" + session.getAppId() + "/mon";
+		} else {
+			topic = "iot-2/type/" + session.getDeviceType() + "/id/" + session.getDeviceId() + "/mon";
+		}
+
+		JsonObject status = new JsonObject();
+		status.addProperty("ClientAddr", "127.0.0.1");
+		status.addProperty("Protocol", "mqtt4-tcp");
+		status.addProperty("ClientID", session.getClientId());
+		status.addProperty("User", session.getUserName() == null ? "" : session.getUserName());
+		status.addProperty("Time", Iso8601.now());
+		status.addProperty("Action", action);
+		status.addProperty("ConnectTime", session.getConnectTime().toString());
+		status.addProperty("Port", 1883);
+		if (action.equals("Disconnect")) {
+			status.addProperty("WriteMsg", session.getWriteMsg());
+			status.addProperty("ReadMsg", session.getReadMsg());
+			status.addProperty("ReadBytes", session.getReadBytes());
+			status.addProperty("WriteBytes", session.getWriteBytes());
+			status.addProperty("Reason", reason);
+		}
+		MqttMessage message = new MqttMessage(status.toString().getBytes(LoopbackTransport.UTF8));
+		deliverToApplications(session.getOrgId(), topic, message);
+	}
+
+	Executor getDispatcher() {
+		return dispatcher;
+	}
+
+	private void shutdown() {
+		for (LoopbackTransport session : sessions.values()) {
+			dropConnection(session.getClientId());
+		}
+		for (LoopbackTransport app : applications) {
+			disconnected(app, "The broker is shut down");
+			app.connectionLost(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+		}
+		dispatcher.shutdown();
+	}
+}
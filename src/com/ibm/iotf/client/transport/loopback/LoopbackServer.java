@@ -0,0 +1,265 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.loopback;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import com.ibm.iotf.client.transport.nio.MqttCodec;
+import com.ibm.iotf.client.transport.nio.MqttPacket;
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>Serves the {@link LoopbackBroker} over TCP (or TLS), so that the MQTT clients, including the Paho client,
+ * can be tested against the emulated IoTF topic space on localhost.</p>
+ *
+ * <p>Any user name and password is accepted. The QoS 1 and QoS 2 publishes of the clients are acknowledged,
+ * the messages are delivered to the clients with the QoS of their subscriptions but without waiting for
+ * the acknowledgements. Each connection is served by its own thread.</p>
+ */
+public class LoopbackServer {
+
+	private static final String CLASS_NAME = LoopbackServer.class.getName();
+
+	private final LoopbackBroker broker;
+	private final ServerSocket serverSocket;
+	private final Set<Connection> connections =
+			Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	private volatile boolean running = true;
+
+	/**
+	 * Starts a server on localhost
+	 *
+	 * @param broker the broker to serve
+	 * @param port the port, 0 for any free port
+	 */
+	public LoopbackServer(LoopbackBroker broker, int port) throws IOException {
+		this(broker, port, null);
+	}
+
+	/**
+	 * Starts a server on localhost
+	 *
+	 * @param broker the broker to serve
+	 * @param port the port, 0 for any free port
+	 * @param sslContext the TLS context with the key of the server, or null for plain TCP
+	 */
+	public LoopbackServer(LoopbackBroker broker, int port, SSLContext sslContext) throws IOException {
+		this.broker = broker;
+		if (sslContext != null) {
+			this.serverSocket = sslContext.getServerSocketFactory().createServerSocket();
+		} else {
+			this.serverSocket = new ServerSocket();
+		}
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "loopback-server-" + getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the number of the open connections
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	/**
+	 * Stops accepting the connections and closes the open ones
+	 */
+	public void stop() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		for (Connection connection : connections) {
+			connection.close();
+		}
+	}
+
+	private void accept() {
+		final String METHOD = "accept";
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Connection connection = new Connection(socket);
+				connections.add(connection);
+				Thread thread = new Thread(connection, "loopback-connection-" + connectionCount.incrementAndGet());
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				if (running) {
+					LoggerUtility.warn(CLASS_NAME, METHOD, "Failed to accept a connection: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * A client connection, it is attached to the broker through a LoopbackTransport
+	 */
+	private class Connection implements Runnable, MqttCallback {
+
+		private final Socket socket;
+		private OutputStream out;
+		private LoopbackTransport session;
+		private final AtomicInteger nextMessageId = new AtomicInteger();
+
+		private Connection(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				out = socket.getOutputStream();
+				while (running) {
+					MqttPacket packet = MqttCodec.read(in);
+					if (!received(packet)) {
+						break;
+					}
+				}
+			} catch (Exception e) {
+				// The client has closed the connection or sent an invalid packet
+			} finally {
+				if (session != null) {
+					try {
+						session.disconnect();
+					} catch (MqttException e) {
+						// ignore
+					}
+				}
+				close();
+			}
+		}
+
+		/**
+		 * @return false when the connection must be closed
+		 */
+		private boolean received(MqttPacket packet) throws IOException, MqttException {
+			switch (packet.type) {
+			case MqttPacket.CONNECT:
+				session = new LoopbackTransport(broker, packet.clientId);
+				session.setCallback(this);
+				MqttConnectOptions options = new MqttConnectOptions();
+				if (packet.userName != null) {
+					options.setUserName(packet.userName);
+				}
+				options.setCleanSession(packet.cleanSession);
+				session.connect(options);
+				write(MqttPacket.connack(0));
+				return true;
+			case MqttPacket.PUBLISH:
+				MqttMessage message = new MqttMessage(packet.payload);
+				message.setQos(packet.qos);
+				message.setRetained(packet.retained);
+				session.publish(packet.topic, message);
+				if (packet.qos == 1) {
+					write(MqttPacket.ack(MqttPacket.PUBACK, packet.messageId));
+				} else if (packet.qos == 2) {
+					write(MqttPacket.ack(MqttPacket.PUBREC, packet.messageId));
+				}
+				return true;
+			case MqttPacket.PUBREL:
+				write(MqttPacket.ack(MqttPacket.PUBCOMP, packet.messageId));
+				return true;
+			case MqttPacket.SUBSCRIBE:
+				IMqttToken token = session.subscribe(packet.topics, packet.qosLevels, null);
+				write(MqttPacket.suback(packet.messageId, token.getGrantedQos()));
+				return true;
+			case MqttPacket.UNSUBSCRIBE:
+				session.unsubscribe(packet.topics);
+				write(MqttPacket.ack(MqttPacket.UNSUBACK, packet.messageId));
+				return true;
+			case MqttPacket.PINGREQ:
+				write(new MqttPacket(MqttPacket.PINGRESP));
+				return true;
+			case MqttPacket.DISCONNECT:
+				return false;
+			default:
+				// PUBACK, PUBREC, PUBCOMP of the messages sent to the client are not tracked
+				return true;
+			}
+		}
+
+		private void write(MqttPacket packet) throws IOException {
+			ByteBuffer buffer = MqttCodec.encode(packet);
+			synchronized (this) {
+				out.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+				out.flush();
+			}
+		}
+
+		@Override
+		public void messageArrived(String topic, MqttMessage message) throws Exception {
+			int messageId = 0;
+			if (message.getQos() > 0) {
+				messageId = (nextMessageId.getAndIncrement() & 0xffff) % 65535 + 1;
+			}
+			write(MqttPacket.publish(topic, message.getPayload(), message.getQos(), false, messageId));
+		}
+
+		@Override
+		public void connectionLost(Throwable cause) {
+			// The session was taken over or dropped by the broker
+			close();
+		}
+
+		@Override
+		public void deliveryComplete(IMqttDeliveryToken token) {
+		}
+
+		private void close() {
+			connections.remove(this);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,381 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.loopback;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.joda.time.DateTime;
+
+import com.ibm.iotf.client.transport.MqttTransport;
+import com.ibm.iotf.client.transport.SerialExecutor;
+import com.ibm.iotf.client.transport.TopicMatcher;
+import com.ibm.iotf.client.transport.TransportToken;
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * A client connection to the {@link LoopbackBroker}
+ */
+public class LoopbackTransport implements MqttTransport {
+
+	private static final String CLASS_NAME = LoopbackTransport.class.getName();
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final IMqttDeliveryToken[] NO_TOKENS = new IMqttDeliveryToken[0];
+
+	private final LoopbackBroker broker;
+	private final String clientId;
+
+	// Parsed from the client ID, [d|g|a|A]:org:[type:id|appId]
+	private final boolean application;
+	private final boolean shared;
+	private final String orgId;
+	private final String appId;
+	private final String deviceType;
+	private final String deviceId;
+
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final AtomicInteger nextMessageId = new AtomicInteger();
+
+	private volatile MqttCallback callback;
+	private volatile boolean connected = false;
+	private volatile String userName;
+	private volatile DateTime connectTime = new DateTime();
+
+	// Callbacks of this client, run one at a time on the dispatcher of the broker
+	private final SerialExecutor callbacks;
+
+	// Statistics reported in the Disconnect status
+	private final AtomicLong readMsg = new AtomicLong();
+	private final AtomicLong writeMsg = new AtomicLong();
+	private final AtomicLong readBytes = new AtomicLong();
+	private final AtomicLong writeBytes = new AtomicLong();
+
+	public LoopbackTransport(LoopbackBroker broker, String clientId) {
+		this.broker = broker;
+		this.clientId = clientId;
+		this.callbacks = new SerialExecutor(broker.getDispatcher());
+
+		String[] parts = clientId.split(":");
+		this.application = parts[0].equalsIgnoreCase("a");
+		this.shared = parts[0].equals("A");
+		this.orgId = parts.length > 1 ? parts[1] : "";
+		if (application) {
+			this.appId = parts.length > 2 ? parts[2] : "";
+			this.deviceType = null;
+			this.deviceId = null;
+		} else {
+			this.appId = null;
+			this.deviceType = parts.length > 2 ? parts[2] : "";
+			this.deviceId = parts.length > 3 ? parts[3] : "";
+		}
+	}
+
+	public LoopbackBroker getBroker() {
+		return broker;
+	}
+
+	@Override
+	public String getServerURI() {
+		return "loopback://" + broker.getName();
+	}
+
+	@Override
+	public String getClientId() {
+		return clientId;
+	}
+
+	@Override
+	public void setCallback(MqttCallback callback) {
+		this.callback = callback;
+	}
+
+	@Override
+	public IMqttToken connect(MqttConnectOptions options) throws MqttException {
+		if (connected) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_CONNECTED);
+		}
+		if (!broker.isAvailable()) {
+			throw new MqttException(MqttException.REASON_CODE_BROKER_UNAVAILABLE);
+		}
+		if (options != null) {
+			userName = options.getUserName();
+			if (options.isCleanSession()) {
+				subscriptions.clear();
+			}
+		}
+		connectTime = new DateTime();
+		connected = true;
+		broker.connected(this);
+		return TransportToken.completed(null);
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	@Override
+	public IMqttToken disconnect() throws MqttException {
+		if (connected) {
+			connected = false;
+			broker.disconnected(this, "The client has disconnected");
+		}
+		return TransportToken.completed(null);
+	}
+
+	@Override
+	public IMqttDeliveryToken publish(String topic, MqttMessage message) throws MqttException {
+		if (!connected) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+		}
+		if (topic.indexOf('+') >= 0 || topic.indexOf('#') >= 0) {
+			throw new IllegalArgumentException("The topic name must not contain wildcards: " + topic);
+		}
+
+		// The publisher may reuse the message, the subscribers share a copy of the payload
+		byte[] payload = message.getPayload().clone();
+		MqttMessage copy = new MqttMessage(payload);
+		copy.setQos(message.getQos());
+		readMsg.incrementAndGet();
+		readBytes.addAndGet(payload.length);
+		broker.publish(this, topic, copy);
+
+		final TransportToken token = new TransportToken(topic, message);
+		token.setMessageId(nextMessageId());
+		token.markComplete(null);
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				MqttCallback cb = callback;
+				if (cb != null) {
+					cb.deliveryComplete(token);
+				}
+			}
+		});
+		return token;
+	}
+
+	@Override
+	public IMqttToken subscribe(String topicFilter, int qos) throws MqttException {
+		return subscribe(new String[] {topicFilter}, new int[] {qos}, null);
+	}
+
+	@Override
+	public IMqttToken subscribe(String topicFilter, int qos, IMqttMessageListener listener) throws MqttException {
+		return subscribe(new String[] {topicFilter}, new int[] {qos}, new IMqttMessageListener[] {listener});
+	}
+
+	@Override
+	public IMqttToken subscribe(String[] topicFilters, int[] qos, IMqttMessageListener[] listeners) throws MqttException {
+		if (!connected) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+		}
+		for (int i = 0; i < topicFilters.length; i++) {
+			// A subscription to the same filter replaces the existing one
+			removeSubscription(topicFilters[i]);
+			subscriptions.add(new Subscription(topicFilters[i], qos[i], listeners == null ? null : listeners[i]));
+		}
+		TransportToken token = new TransportToken(topicFilters);
+		token.setGrantedQos(qos);
+		token.markComplete(null);
+		return token;
+	}
+
+	@Override
+	public IMqttToken unsubscribe(String topicFilter) throws MqttException {
+		return unsubscribe(new String[] {topicFilter});
+	}
+
+	@Override
+	public IMqttToken unsubscribe(String[] topicFilters) throws MqttException {
+		for (String filter : topicFilters) {
+			removeSubscription(filter);
+		}
+		return TransportToken.completed(topicFilters);
+	}
+
+	private void removeSubscription(String filter) {
+		for (Subscription s : subscriptions) {
+			if (s.filter.equals(filter)) {
+				subscriptions.remove(s);
+			}
+		}
+	}
+
+	@Override
+	public IMqttDeliveryToken[] getPendingDeliveryTokens() {
+		return NO_TOKENS;
+	}
+
+	@Override
+	public void close() throws MqttException {
+		if (connected) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_CONNECTED);
+		}
+		subscriptions.clear();
+	}
+
+	/**
+	 * Returns whether any of the subscriptions of the client matches the topic
+	 */
+	boolean matches(String topic) {
+		for (Subscription s : subscriptions) {
+			if (TopicMatcher.matches(s.filter, topic)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Delivers the message to the client, when it is subscribed to the topic
+	 */
+	void deliver(final String topic, MqttMessage message) {
+		if (!connected) {
+			return;
+		}
+		Subscription match = null;
+		for (Subscription s : subscriptions) {
+			if (TopicMatcher.matches(s.filter, topic)) {
+				match = s;
+				if (s.listener != null) {
+					break;
+				}
+			}
+		}
+		if (match == null) {
+			return;
+		}
+
+		final MqttMessage delivered = new MqttMessage(message.getPayload());
+		delivered.setQos(Math.min(message.getQos(), match.qos));
+		delivered.setId(nextMessageId());
+		writeMsg.incrementAndGet();
+		writeBytes.addAndGet(message.getPayload().length);
+
+		final IMqttMessageListener listener = match.listener;
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				final String METHOD = "messageArrived";
+				try {
+					if (listener != null) {
+						listener.messageArrived(topic, delivered);
+					} else {
+						MqttCallback cb = callback;
+						if (cb != null) {
+							cb.messageArrived(topic, delivered);
+						}
+					}
+				} catch (Exception e) {
+					LoggerUtility.warn(CLASS_NAME, METHOD, "The callback of " + clientId + " failed to process "
+							+ "the message on topic " + topic + ": " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Called by the broker when the connection is taken over or dropped
+	 */
+	void connectionLost(final Throwable cause) {
+		connected = false;
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				MqttCallback cb = callback;
+				if (cb != null) {
+					cb.connectionLost(cause);
+				}
+			}
+		});
+	}
+
+	private void enqueue(Runnable task) {
+		callbacks.execute(task);
+	}
+
+	private int nextMessageId() {
+		// Message IDs are in the range 1 - 65535 as in MQTT
+		return (nextMessageId.getAndIncrement() & 0xffff) % 65535 + 1;
+	}
+
+	boolean isApplication() {
+		return application;
+	}
+
+	boolean isShared() {
+		return shared;
+	}
+
+	String getOrgId() {
+		return orgId;
+	}
+
+	String getAppId() {
+		return appId;
+	}
+
+	String getDeviceType() {
+		return deviceType;
+	}
+
+	String getDeviceId() {
+		return deviceId;
+	}
+
+	String getUserName() {
+		return userName;
+	}
+
+	DateTime getConnectTime() {
+		return connectTime;
+	}
+
+	long getReadMsg() {
+		return readMsg.get();
+	}
+
+	long getWriteMsg() {
+		return writeMsg.get();
+	}
+
+	long getReadBytes() {
+		return readBytes.get();
+	}
+
+	long getWriteBytes() {
+		return writeBytes.get();
+	}
+
+	private static class Subscription {
+		private final String filter;
+		private final int qos;
+		private final IMqttMessageListener listener;
+
+		private Subscription(String filter, int qos, IMqttMessageListener listener) {
+			this.filter = filter;
+			this.qos = qos;
+			this.listener = listener;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.loopback;
+
+import java.util.Properties;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import com.ibm.iotf.client.transport.MqttTransport;
+import com.ibm.iotf.client.transport.MqttTransportFactory;
+
+/**
+ * Creates the transports to the {@link LoopbackBroker} named in the properties,
+ *
+ * old style - loopback-broker
+ * new style - Loopback-Broker
+ *
+ * The server URI and the persistence are not used.
+ */
+public class LoopbackTransportFactory implements MqttTransportFactory {
+
+	@Override
+	public MqttTransport create(String serverURI, String clientId, MqttClientPersistence persistence,
+			Properties options) throws MqttException {
+		String name = null;
+		if (options != null) {
+			name = options.getProperty("loopback-broker");
+			if (name == null) {
+				name = options.getProperty("Loopback-Broker");
+			}
+		}
+		if (name == null || name.trim().equals("")) {
+			name = LoopbackBroker.DEFAULT_BROKER;
+		}
+		return new LoopbackTransport(LoopbackBroker.getBroker(name.trim()), clientId);
+	}
+}
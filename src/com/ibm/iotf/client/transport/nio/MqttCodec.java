@@ -0,0 +1,376 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the MQTT 3.1.1 control packets, used by the client and server side of
+ * the non-blocking transport as well as by the loopback server.
+ */
+public final class MqttCodec {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/* The largest packet accepted, same as the maximum message size of the IoTF */
+	public static final int MAX_PACKET_SIZE = 128 * 1024;
+
+	private static final byte[] PROTOCOL_NAME = {0, 4, 'M', 'Q', 'T', 'T'};
+	private static final int PROTOCOL_LEVEL = 4;
+
+	private MqttCodec() {
+	}
+
+	/**
+	 * Encodes the packet into a new buffer, ready to be written
+	 *
+	 * @param packet the packet
+	 * @return the buffer with the encoded packet, in read mode
+	 */
+	public static ByteBuffer encode(MqttPacket packet) {
+		byte[][] strings = null;
+		int flags = 0;
+		int length;
+		switch (packet.type) {
+		case MqttPacket.CONNECT:
+			strings = new byte[][] {utf8(packet.clientId), utf8(packet.userName)};
+			length = PROTOCOL_NAME.length + 4 + 2 + strings[0].length;
+			if (strings[1] != null) {
+				length += 2 + strings[1].length;
+			}
+			if (packet.password != null) {
+				length += 2 + packet.password.length;
+			}
+			break;
+		case MqttPacket.CONNACK:
+			length = 2;
+			break;
+		case MqttPacket.PUBLISH:
+			strings = new byte[][] {utf8(packet.topic)};
+			flags = (packet.duplicate ? 0x08 : 0) | (packet.qos << 1) | (packet.retained ? 0x01 : 0);
+			length = 2 + strings[0].length + (packet.qos > 0 ? 2 : 0) + packet.payload.length;
+			break;
+		case MqttPacket.PUBREL:
+			flags = 0x02;
+			length = 2;
+			break;
+		case MqttPacket.PUBACK:
+		case MqttPacket.PUBREC:
+		case MqttPacket.PUBCOMP:
+		case MqttPacket.UNSUBACK:
+			length = 2;
+			break;
+		case MqttPacket.SUBSCRIBE:
+		case MqttPacket.UNSUBSCRIBE:
+			flags = 0x02;
+			strings = new byte[packet.topics.length][];
+			length = 2;
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = utf8(packet.topics[i]);
+				length += 2 + strings[i].length + (packet.type == MqttPacket.SUBSCRIBE ? 1 : 0);
+			}
+			break;
+		case MqttPacket.SUBACK:
+			length = 2 + packet.qosLevels.length;
+			break;
+		case MqttPacket.PINGREQ:
+		case MqttPacket.PINGRESP:
+		case MqttPacket.DISCONNECT:
+			length = 0;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown packet type " + packet.type);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(1 + lengthSize(length) + length);
+		buffer.put((byte) ((packet.type << 4) | flags));
+		putLength(buffer, length);
+
+		switch (packet.type) {
+		case MqttPacket.CONNECT:
+			buffer.put(PROTOCOL_NAME);
+			buffer.put((byte) PROTOCOL_LEVEL);
+			int connectFlags = packet.cleanSession ? 0x02 : 0;
+			if (strings[1] != null) {
+				connectFlags |= 0x80;
+			}
+			if (packet.password != null) {
+				connectFlags |= 0x40;
+			}
+			buffer.put((byte) connectFlags);
+			buffer.putShort((short) packet.keepAlive);
+			putBytes(buffer, strings[0]);
+			if (strings[1] != null) {
+				putBytes(buffer, strings[1]);
+			}
+			if (packet.password != null) {
+				putBytes(buffer, packet.password);
+			}
+			break;
+		case MqttPacket.CONNACK:
+			buffer.put((byte) (packet.sessionPresent ? 1 : 0));
+			buffer.put((byte) packet.returnCode);
+			break;
+		case MqttPacket.PUBLISH:
+			putBytes(buffer, strings[0]);
+			if (packet.qos > 0) {
+				buffer.putShort((short) packet.messageId);
+			}
+			buffer.put(packet.payload);
+			break;
+		case MqttPacket.SUBSCRIBE:
+		case MqttPacket.UNSUBSCRIBE:
+			buffer.putShort((short) packet.messageId);
+			for (int i = 0; i < strings.length; i++) {
+				putBytes(buffer, strings[i]);
+				if (packet.type == MqttPacket.SUBSCRIBE) {
+					buffer.put((byte) packet.qosLevels[i]);
+				}
+			}
+			break;
+		case MqttPacket.SUBACK:
+			buffer.putShort((short) packet.messageId);
+			for (int qos : packet.qosLevels) {
+				buffer.put((byte) qos);
+			}
+			break;
+		case MqttPacket.PINGREQ:
+		case MqttPacket.PINGRESP:
+		case MqttPacket.DISCONNECT:
+			break;
+		default:
+			buffer.putShort((short) packet.messageId);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Decodes the next packet from the buffer
+	 *
+	 * @param in the buffer in read mode, its position is moved past the packet when a complete
+	 * packet is available
+	 * @return the packet or null if the buffer doesn't contain a complete packet yet
+	 * @throws ProtocolException if the data is not a valid MQTT packet
+	 */
+	public static MqttPacket decode(ByteBuffer in) throws ProtocolException {
+		int start = in.position();
+		int limit = in.limit();
+		if (limit - start < 2) {
+			return null;
+		}
+		int header = in.get(start) & 0xff;
+		int length = 0;
+		int multiplier = 1;
+		int i = start + 1;
+		int b;
+		do {
+			if (i == limit) {
+				return null;
+			}
+			if (multiplier > 128 * 128 * 128) {
+				throw new ProtocolException("Malformed remaining length");
+			}
+			b = in.get(i++) & 0xff;
+			length += (b & 0x7f) * multiplier;
+			multiplier *= 128;
+		} while ((b & 0x80) != 0);
+
+		if (length > MAX_PACKET_SIZE) {
+			throw new ProtocolException("Packet of " + length + " bytes is too large");
+		}
+		if (limit - i < length) {
+			return null;
+		}
+		ByteBuffer body = in.duplicate();
+		body.position(i);
+		body.limit(i + length);
+		in.position(i + length);
+		return decodeBody(header, body);
+	}
+
+	/**
+	 * Reads the next packet from the stream, blocking until the packet is complete
+	 *
+	 * @param in the stream
+	 * @return the packet
+	 * @throws IOException if the stream is closed or the data is not a valid MQTT packet
+	 */
+	public static MqttPacket read(InputStream in) throws IOException {
+		int header = in.read();
+		if (header < 0) {
+			throw new EOFException();
+		}
+		int length = 0;
+		int multiplier = 1;
+		int b;
+		do {
+			b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			if (multiplier > 128 * 128 * 128) {
+				throw new ProtocolException("Malformed remaining length");
+			}
+			length += (b & 0x7f) * multiplier;
+			multiplier *= 128;
+		} while ((b & 0x80) != 0);
+
+		if (length > MAX_PACKET_SIZE) {
+			throw new ProtocolException("Packet of " + length + " bytes is too large");
+		}
+		byte[] body = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int n = in.read(body, read, length - read);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			read += n;
+		}
+		return decodeBody(header, ByteBuffer.wrap(body));
+	}
+
+	private static MqttPacket decodeBody(int header, ByteBuffer body) throws ProtocolException {
+		MqttPacket packet = new MqttPacket(header >> 4);
+		try {
+			switch (packet.type) {
+			case MqttPacket.CONNECT:
+				// MQTT for the level 4 (3.1.1), MQIsdp for the level 3 (3.1)
+				getBytes(body);
+				int level = body.get();
+				if (level != PROTOCOL_LEVEL && level != 3) {
+					throw new ProtocolException("Unsupported protocol level " + level);
+				}
+				int connectFlags = body.get() & 0xff;
+				packet.cleanSession = (connectFlags & 0x02) != 0;
+				packet.keepAlive = body.getShort() & 0xffff;
+				packet.clientId = getString(body);
+				if ((connectFlags & 0x04) != 0) {
+					// The will is not supported, skip it
+					getBytes(body);
+					getBytes(body);
+				}
+				if ((connectFlags & 0x80) != 0) {
+					packet.userName = getString(body);
+				}
+				if ((connectFlags & 0x40) != 0) {
+					packet.password = getBytes(body);
+				}
+				break;
+			case MqttPacket.CONNACK:
+				packet.sessionPresent = (body.get() & 0x01) != 0;
+				packet.returnCode = body.get() & 0xff;
+				break;
+			case MqttPacket.PUBLISH:
+				packet.duplicate = (header & 0x08) != 0;
+				packet.qos = (header >> 1) & 0x03;
+				packet.retained = (header & 0x01) != 0;
+				packet.topic = getString(body);
+				if (packet.qos > 0) {
+					packet.messageId = body.getShort() & 0xffff;
+				}
+				packet.payload = new byte[body.remaining()];
+				body.get(packet.payload);
+				break;
+			case MqttPacket.SUBSCRIBE:
+			case MqttPacket.UNSUBSCRIBE:
+				packet.messageId = body.getShort() & 0xffff;
+				List<String> topics = new ArrayList<String>();
+				List<Integer> qos = new ArrayList<Integer>();
+				while (body.hasRemaining()) {
+					topics.add(getString(body));
+					if (packet.type == MqttPacket.SUBSCRIBE) {
+						qos.add(body.get() & 0x03);
+					}
+				}
+				packet.topics = topics.toArray(new String[topics.size()]);
+				packet.qosLevels = new int[qos.size()];
+				for (int i = 0; i < packet.qosLevels.length; i++) {
+					packet.qosLevels[i] = qos.get(i);
+				}
+				break;
+			case MqttPacket.SUBACK:
+				packet.messageId = body.getShort() & 0xffff;
+				packet.qosLevels = new int[body.remaining()];
+				for (int i = 0; i < packet.qosLevels.length; i++) {
+					packet.qosLevels[i] = body.get() & 0xff;
+				}
+				break;
+			case MqttPacket.PUBACK:
+			case MqttPacket.PUBREC:
+			case MqttPacket.PUBREL:
+			case MqttPacket.PUBCOMP:
+			case MqttPacket.UNSUBACK:
+				packet.messageId = body.getShort() & 0xffff;
+				break;
+			case MqttPacket.PINGREQ:
+			case MqttPacket.PINGRESP:
+			case MqttPacket.DISCONNECT:
+				break;
+			default:
+				throw new ProtocolException("Unknown packet type " + packet.type);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new ProtocolException("Truncated packet of type " + packet.type);
+		}
+		return packet;
+	}
+
+	private static byte[] utf8(String s) {
+		return s == null ? null : s.getBytes(UTF8);
+	}
+
+	private static int lengthSize(int length) {
+		if (length < 128) {
+			return 1;
+		} else if (length < 128 * 128) {
+			return 2;
+		} else if (length < 128 * 128 * 128) {
+			return 3;
+		}
+		return 4;
+	}
+
+	private static void putLength(ByteBuffer buffer, int length) {
+		do {
+			int b = length % 128;
+			length /= 128;
+			if (length > 0) {
+				b |= 0x80;
+			}
+			buffer.put((byte) b);
+		} while (length > 0);
+	}
+
+	private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static byte[] getBytes(ByteBuffer body) {
+		byte[] bytes = new byte[body.getShort() & 0xffff];
+		body.get(bytes);
+		return bytes;
+	}
+
+	private static String getString(ByteBuffer body) {
+		return new String(getBytes(body), UTF8);
+	}
+}
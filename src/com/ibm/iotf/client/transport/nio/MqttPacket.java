@@ -0,0 +1,128 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.nio;
+
+/**
+ * An MQTT 3.1.1 control packet, as encoded and decoded by {@link MqttCodec}.
+ * Only the fields of the given packet type are set.
+ */
+public class MqttPacket {
+
+	public static final int CONNECT = 1;
+	public static final int CONNACK = 2;
+	public static final int PUBLISH = 3;
+	public static final int PUBACK = 4;
+	public static final int PUBREC = 5;
+	public static final int PUBREL = 6;
+	public static final int PUBCOMP = 7;
+	public static final int SUBSCRIBE = 8;
+	public static final int SUBACK = 9;
+	public static final int UNSUBSCRIBE = 10;
+	public static final int UNSUBACK = 11;
+	public static final int PINGREQ = 12;
+	public static final int PINGRESP = 13;
+	public static final int DISCONNECT = 14;
+
+	public final int type;
+
+	// PUBACK, PUBREC, PUBREL, PUBCOMP, SUBSCRIBE, SUBACK, UNSUBSCRIBE, UNSUBACK and PUBLISH with QoS > 0
+	public int messageId;
+
+	// PUBLISH
+	public String topic;
+	public byte[] payload;
+	public int qos;
+	public boolean retained;
+	public boolean duplicate;
+
+	// SUBSCRIBE, UNSUBSCRIBE - the topic filters, SUBSCRIBE, SUBACK - the (granted) QoS
+	public String[] topics;
+	public int[] qosLevels;
+
+	// CONNECT
+	public String clientId;
+	public String userName;
+	public byte[] password;
+	public int keepAlive;
+	public boolean cleanSession;
+
+	// CONNACK
+	public boolean sessionPresent;
+	public int returnCode;
+
+	public MqttPacket(int type) {
+		this.type = type;
+	}
+
+	public static MqttPacket connect(String clientId, String userName, char[] password,
+			int keepAlive, boolean cleanSession) {
+		MqttPacket packet = new MqttPacket(CONNECT);
+		packet.clientId = clientId;
+		packet.userName = userName;
+		if (password != null) {
+			packet.password = new String(password).getBytes(MqttCodec.UTF8);
+		}
+		packet.keepAlive = keepAlive;
+		packet.cleanSession = cleanSession;
+		return packet;
+	}
+
+	public static MqttPacket connack(int returnCode) {
+		MqttPacket packet = new MqttPacket(CONNACK);
+		packet.returnCode = returnCode;
+		return packet;
+	}
+
+	public static MqttPacket publish(String topic, byte[] payload, int qos, boolean retained, int messageId) {
+		MqttPacket packet = new MqttPacket(PUBLISH);
+		packet.topic = topic;
+		packet.payload = payload;
+		packet.qos = qos;
+		packet.retained = retained;
+		packet.messageId = messageId;
+		return packet;
+	}
+
+	/**
+	 * Creates one of the packets that carry only a message ID, like PUBACK
+	 */
+	public static MqttPacket ack(int type, int messageId) {
+		MqttPacket packet = new MqttPacket(type);
+		packet.messageId = messageId;
+		return packet;
+	}
+
+	public static MqttPacket subscribe(int messageId, String[] topics, int[] qosLevels) {
+		MqttPacket packet = new MqttPacket(SUBSCRIBE);
+		packet.messageId = messageId;
+		packet.topics = topics;
+		packet.qosLevels = qosLevels;
+		return packet;
+	}
+
+	public static MqttPacket suback(int messageId, int[] qosLevels) {
+		MqttPacket packet = new MqttPacket(SUBACK);
+		packet.messageId = messageId;
+		packet.qosLevels = qosLevels;
+		return packet;
+	}
+
+	public static MqttPacket unsubscribe(int messageId, String[] topics) {
+		MqttPacket packet = new MqttPacket(UNSUBSCRIBE);
+		packet.messageId = messageId;
+		packet.topics = topics;
+		return packet;
+	}
+
+	public String toString() {
+		return "MqttPacket [type=" + type + ", messageId=" + messageId + (topic == null ? "" : ", topic=" + topic) + "]";
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * A selector thread that performs the network I/O of many {@link NioTransport}s.
+ *
+ * <p>The loops are shared by all the transports of the JVM, the connections are assigned to the
+ * loops in round-robin order. The user callbacks are not called from the loops but from a
+ * shared pool, so that a slow or blocking callback doesn't stall the I/O of the other connections.</p>
+ */
+final class NioEventLoop implements Runnable {
+
+	private static final String CLASS_NAME = NioEventLoop.class.getName();
+
+	/* How often the keep alive and the connect timeout are checked */
+	private static final long TIMER_INTERVAL = 1000;
+
+	private static NioEventLoop[] loops;
+	private static final AtomicInteger nextLoop = new AtomicInteger();
+	private static ExecutorService callbackExecutor;
+
+	private final Selector selector;
+	private final Thread thread;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	// Accessed only from the loop thread
+	private final Set<NioTransport> transports = new HashSet<NioTransport>();
+
+	/**
+	 * Returns the next loop of the shared group, the group is created at the first call
+	 *
+	 * @param threads the number of loops to create, when the group doesn't exist yet
+	 */
+	static synchronized NioEventLoop next(int threads) throws IOException {
+		if (loops == null) {
+			NioEventLoop[] group = new NioEventLoop[Math.max(1, threads)];
+			for (int i = 0; i < group.length; i++) {
+				group[i] = new NioEventLoop(i);
+			}
+			loops = group;
+			callbackExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "iotf-nio-callback-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+	}
+
+	/**
+	 * @return the pool that runs the callbacks of the transports
+	 */
+	static synchronized ExecutorService getCallbackExecutor() {
+		return callbackExecutor;
+	}
+
+	private NioEventLoop(int index) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this, "iotf-nio-" + index);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	Selector getSelector() {
+		return selector;
+	}
+
+	boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Runs the task on the loop thread
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		if (!inEventLoop()) {
+			selector.wakeup();
+		}
+	}
+
+	void register(NioTransport transport) {
+		transports.add(transport);
+	}
+
+	void deregister(NioTransport transport) {
+		transports.remove(transport);
+	}
+
+	@Override
+	public void run() {
+		final String METHOD = "run";
+		long nextTimer = System.currentTimeMillis() + TIMER_INTERVAL;
+		while (true) {
+			try {
+				selector.select(TIMER_INTERVAL);
+				runTasks();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					((NioTransport) key.attachment()).handle(key);
+				}
+
+				long now = System.currentTimeMillis();
+				if (now >= nextTimer) {
+					nextTimer = now + TIMER_INTERVAL;
+					// The transports may close themselves while being checked
+					for (NioTransport transport : transports.toArray(new NioTransport[transports.size()])) {
+						transport.checkTimeouts(now);
+					}
+				}
+			} catch (Throwable t) {
+				// Never let the loop die, it serves many connections
+				LoggerUtility.warn(CLASS_NAME, METHOD, "Unexpected error in the event loop: " + t);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+}
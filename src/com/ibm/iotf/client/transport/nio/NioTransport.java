@@ -0,0 +1,794 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttSecurityException;
+
+import com.ibm.iotf.client.transport.MqttTransport;
+import com.ibm.iotf.client.transport.SerialExecutor;
+import com.ibm.iotf.client.transport.TopicMatcher;
+import com.ibm.iotf.client.transport.TransportToken;
+import com.ibm.iotf.util.LoggerUtility;
+
+/**
+ * <p>A MQTT 3.1.1 client transport that runs on the shared non-blocking {@link NioEventLoop}s
+ * instead of the threads of the Paho client, so that one JVM can simulate many thousands of devices.</p>
+ *
+ * <ul class="simple">
+ * <li>QoS 0 and QoS 1 are supported, the messages published or subscribed with QoS 2 are downgraded to QoS 1</li>
+ * <li>The in-flight messages are kept in memory, the persistence is not used</li>
+ * <li>The connection is kept alive with PINGREQ as per the keep alive interval of the connect options</li>
+ * <li>The ssl:// URIs use TLS through a SSLEngine</li>
+ * </ul>
+ *
+ * <p>The network I/O happens on the event loop thread, the callbacks are called one at a time
+ * from a shared pool.</p>
+ */
+public class NioTransport implements MqttTransport {
+
+	private static final String CLASS_NAME = NioTransport.class.getName();
+
+	private static final int READ_BUFFER_SIZE = 1024;
+	private static final int MAX_GATHER = 64;
+
+	private final String serverURI;
+	private final String clientId;
+	private final SSLContext sslContext;
+	private final NioEventLoop loop;
+	private final SerialExecutor callbacks;
+
+	private volatile MqttCallback callback;
+	private volatile boolean connected = false;
+	private volatile boolean closed = false;
+
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	// Tokens of the in-flight QoS 1 publishes, subscribes and unsubscribes by message ID
+	private final Map<Integer, TransportToken> inflight = new ConcurrentHashMap<Integer, TransportToken>();
+	// QoS 1 messages that were not acknowledged before the connection was lost
+	private final List<IMqttDeliveryToken> undelivered = new ArrayList<IMqttDeliveryToken>();
+	private int nextMessageId = 0;
+
+	// Packets to be written, added by any thread and drained by the loop
+	private final ConcurrentLinkedQueue<Outbound> outbound = new ConcurrentLinkedQueue<Outbound>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushScheduled.set(false);
+			flush();
+		}
+	};
+
+	// Accessed only from the loop thread
+	private SocketChannel channel;
+	private SelectionKey key;
+	private TlsSession tls;
+	private ByteBuffer readBuffer;
+	private final ArrayDeque<Outbound> writing = new ArrayDeque<Outbound>();
+	private TransportToken connectToken;
+	private MqttPacket connectPacket;
+	private long connectDeadline;
+	private long keepAlive;
+	private long lastWrite;
+	private long pingSentAt;
+	private boolean pingOutstanding;
+
+	/**
+	 * Creates a transport that uses the default TLS context for the ssl:// URIs
+	 */
+	public NioTransport(String serverURI, String clientId) throws MqttException {
+		this(serverURI, clientId, null, NioTransportFactory.DEFAULT_THREADS);
+	}
+
+	/**
+	 * @param serverURI tcp://host:port or ssl://host:port
+	 * @param clientId the MQTT client ID
+	 * @param sslContext the TLS context for the ssl:// URIs, null for the default TLSv1.2 context
+	 * @param threads the number of event loops, used when the first transport of the JVM is created
+	 */
+	public NioTransport(String serverURI, String clientId, SSLContext sslContext, int threads) throws MqttException {
+		this.serverURI = serverURI;
+		this.clientId = clientId;
+		try {
+			if (sslContext == null && serverURI.startsWith("ssl://")) {
+				sslContext = SSLContext.getInstance("TLSv1.2");
+				sslContext.init(null, null, null);
+			}
+			this.loop = NioEventLoop.next(threads);
+		} catch (Exception e) {
+			throw new MqttException(e);
+		}
+		this.sslContext = sslContext;
+		this.callbacks = new SerialExecutor(NioEventLoop.getCallbackExecutor());
+	}
+
+	@Override
+	public String getServerURI() {
+		return serverURI;
+	}
+
+	@Override
+	public String getClientId() {
+		return clientId;
+	}
+
+	@Override
+	public void setCallback(MqttCallback callback) {
+		this.callback = callback;
+	}
+
+	@Override
+	public IMqttToken connect(MqttConnectOptions options) throws MqttException {
+		if (closed) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED);
+		}
+		if (connected) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_CONNECTED);
+		}
+		if (options == null) {
+			options = new MqttConnectOptions();
+		}
+
+		// Resolve the address on the calling thread, not on the event loop
+		final InetSocketAddress address;
+		try {
+			URI uri = new URI(serverURI);
+			int port = uri.getPort();
+			if (port == -1) {
+				port = serverURI.startsWith("ssl://") ? 8883 : 1883;
+			}
+			address = new InetSocketAddress(uri.getHost(), port);
+		} catch (Exception e) {
+			throw new MqttException(MqttException.REASON_CODE_SERVER_CONNECT_ERROR, e);
+		}
+		if (address.isUnresolved()) {
+			throw new MqttException(MqttException.REASON_CODE_SERVER_CONNECT_ERROR);
+		}
+
+		final TransportToken token = new TransportToken((String[]) null);
+		final MqttPacket packet = MqttPacket.connect(clientId, options.getUserName(), options.getPassword(),
+				options.getKeepAliveInterval(), options.isCleanSession());
+		final long timeout = options.getConnectionTimeout() * 1000L;
+		final String host = address.getHostString();
+		final int port = address.getPort();
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				startConnect(address, host, port, packet, timeout, token);
+			}
+		});
+		return token;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	@Override
+	public IMqttToken disconnect() throws MqttException {
+		final TransportToken token = new TransportToken((String[]) null);
+		if (!connected) {
+			token.markComplete(null);
+			return token;
+		}
+		connected = false;
+		Outbound disconnect = new Outbound(MqttCodec.encode(new MqttPacket(MqttPacket.DISCONNECT)), token, false);
+		disconnect.closeAfterWrite = true;
+		send(disconnect);
+		return token;
+	}
+
+	@Override
+	public IMqttDeliveryToken publish(String topic, MqttMessage message) throws MqttException {
+		if (!connected) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+		}
+		int qos = Math.min(message.getQos(), 1);
+		TransportToken token = new TransportToken(topic, message);
+		int messageId = 0;
+		if (qos > 0) {
+			messageId = register(token);
+		}
+		token.setMessageId(messageId);
+		MqttPacket packet = MqttPacket.publish(topic, message.getPayload(), qos, message.isRetained(), messageId);
+		send(new Outbound(MqttCodec.encode(packet), token, qos == 0));
+		return token;
+	}
+
+	@Override
+	public IMqttToken subscribe(String topicFilter, int qos) throws MqttException {
+		return subscribe(new String[] {topicFilter}, new int[] {qos}, null);
+	}
+
+	@Override
+	public IMqttToken subscribe(String topicFilter, int qos, IMqttMessageListener listener) throws MqttException {
+		return subscribe(new String[] {topicFilter}, new int[] {qos}, new IMqttMessageListener[] {listener});
+	}
+
+	@Override
+	public IMqttToken subscribe(String[] topicFilters, int[] qos, IMqttMessageListener[] listeners) throws MqttException {
+		if (!connected) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+		}
+		int[] requested = new int[qos.length];
+		for (int i = 0; i < topicFilters.length; i++) {
+			requested[i] = Math.min(qos[i], 1);
+			removeSubscription(topicFilters[i]);
+			subscriptions.add(new Subscription(topicFilters[i], listeners == null ? null : listeners[i]));
+		}
+		TransportToken token = new TransportToken(topicFilters);
+		int messageId = register(token);
+		send(new Outbound(MqttCodec.encode(MqttPacket.subscribe(messageId, topicFilters, requested)), null, false));
+		return token;
+	}
+
+	@Override
+	public IMqttToken unsubscribe(String topicFilter) throws MqttException {
+		return unsubscribe(new String[] {topicFilter});
+	}
+
+	@Override
+	public IMqttToken unsubscribe(String[] topicFilters) throws MqttException {
+		if (!connected) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+		}
+		for (String filter : topicFilters) {
+			removeSubscription(filter);
+		}
+		TransportToken token = new TransportToken(topicFilters);
+		int messageId = register(token);
+		send(new Outbound(MqttCodec.encode(MqttPacket.unsubscribe(messageId, topicFilters)), null, false));
+		return token;
+	}
+
+	@Override
+	public IMqttDeliveryToken[] getPendingDeliveryTokens() {
+		List<IMqttDeliveryToken> pending = new ArrayList<IMqttDeliveryToken>();
+		synchronized (undelivered) {
+			pending.addAll(undelivered);
+		}
+		for (TransportToken token : inflight.values()) {
+			try {
+				if (token.getMessage() != null) {
+					pending.add(token);
+				}
+			} catch (MqttException e) {
+				// not a publish
+			}
+		}
+		return pending.toArray(new IMqttDeliveryToken[pending.size()]);
+	}
+
+	@Override
+	public void close() throws MqttException {
+		if (connected) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_CONNECTED);
+		}
+		closed = true;
+		synchronized (undelivered) {
+			undelivered.clear();
+		}
+	}
+
+	/* ---------------------------------------------------------------------------------------
+	 * Event loop side, the following methods are called only from the loop thread
+	 * --------------------------------------------------------------------------------------- */
+
+	private void startConnect(InetSocketAddress address, String host, int port, MqttPacket packet,
+			long timeout, TransportToken token) {
+		connectToken = token;
+		connectPacket = packet;
+		connectDeadline = System.currentTimeMillis() + (timeout > 0 ? timeout : Long.MAX_VALUE / 2);
+		keepAlive = packet.keepAlive * 1000L;
+		pingOutstanding = false;
+		readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			if (sslContext != null) {
+				SSLEngine engine = sslContext.createSSLEngine(host, port);
+				engine.setUseClientMode(true);
+				tls = new TlsSession(engine);
+			} else {
+				tls = null;
+			}
+			loop.register(this);
+			if (channel.connect(address)) {
+				key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+				connectionEstablished();
+			} else {
+				key = channel.register(loop.getSelector(), SelectionKey.OP_CONNECT, this);
+			}
+		} catch (IOException e) {
+			failed(new MqttException(MqttException.REASON_CODE_SERVER_CONNECT_ERROR, e));
+		}
+	}
+
+	/**
+	 * Handles the readiness of the channel
+	 */
+	void handle(SelectionKey key) {
+		try {
+			if (!key.isValid()) {
+				return;
+			}
+			if (key.isConnectable()) {
+				if (channel.finishConnect()) {
+					key.interestOps(SelectionKey.OP_READ);
+					connectionEstablished();
+				}
+				return;
+			}
+			if (key.isReadable()) {
+				read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				if (tls != null && !tls.isHandshakeDone()) {
+					handshake();
+				} else {
+					flush();
+				}
+			}
+		} catch (IOException e) {
+			// The errors before the CONNACK fail the connect
+			int reason = connectToken != null ? MqttException.REASON_CODE_SERVER_CONNECT_ERROR
+					: MqttException.REASON_CODE_CONNECTION_LOST;
+			failed(new MqttException(reason, e));
+		} catch (MqttException e) {
+			failed(e);
+		}
+	}
+
+	private void connectionEstablished() throws IOException {
+		if (tls != null) {
+			handshake();
+		} else {
+			sendConnect();
+		}
+	}
+
+	private void handshake() throws IOException {
+		if (tls.handshake(channel)) {
+			key.interestOps(SelectionKey.OP_READ);
+			sendConnect();
+			// Application data may have arrived with the last handshake message
+			if (tls.getAppIn().position() > 0) {
+				try {
+					decode(tls.getAppIn());
+				} catch (MqttException e) {
+					failed(e);
+				}
+			}
+		} else {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	private void sendConnect() {
+		// The CONNECT goes ahead of any packet queued by the user
+		writing.addFirst(new Outbound(MqttCodec.encode(connectPacket), null, false));
+		flush();
+	}
+
+	private void read() throws IOException, MqttException {
+		if (tls != null) {
+			if (!tls.isHandshakeDone()) {
+				handshake();
+				return;
+			}
+			if (tls.read(channel) < 0) {
+				throw new EOFException("Connection closed by the server");
+			}
+			decode(tls.getAppIn());
+		} else {
+			if (channel.read(readBuffer) < 0) {
+				throw new EOFException("Connection closed by the server");
+			}
+			decode(readBuffer);
+		}
+	}
+
+	/**
+	 * Decodes the complete packets from the buffer, which is in write mode before and after the call
+	 */
+	private void decode(ByteBuffer buffer) throws MqttException {
+		buffer.flip();
+		try {
+			MqttPacket packet;
+			while ((packet = MqttCodec.decode(buffer)) != null) {
+				received(packet);
+			}
+		} catch (IOException e) {
+			throw new MqttException(MqttException.REASON_CODE_INVALID_MESSAGE, e);
+		} finally {
+			buffer.compact();
+		}
+		if (tls == null && !readBuffer.hasRemaining()) {
+			// The buffer is full with an incomplete packet, grow it up to the maximum packet size
+			ByteBuffer bigger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MqttCodec.MAX_PACKET_SIZE + 5));
+			readBuffer.flip();
+			bigger.put(readBuffer);
+			readBuffer = bigger;
+		}
+	}
+
+	private void received(MqttPacket packet) throws MqttException {
+		switch (packet.type) {
+		case MqttPacket.CONNACK:
+			if (packet.returnCode != 0) {
+				if (packet.returnCode == MqttException.REASON_CODE_FAILED_AUTHENTICATION
+						|| packet.returnCode == MqttException.REASON_CODE_NOT_AUTHORIZED) {
+					throw new MqttSecurityException(packet.returnCode);
+				}
+				throw new MqttException(packet.returnCode);
+			}
+			connected = true;
+			lastWrite = System.currentTimeMillis();
+			TransportToken token = connectToken;
+			connectToken = null;
+			token.markComplete(null);
+			break;
+		case MqttPacket.PUBLISH:
+			messageArrived(packet);
+			break;
+		case MqttPacket.PUBACK:
+		case MqttPacket.UNSUBACK:
+			complete(packet.messageId, null);
+			break;
+		case MqttPacket.SUBACK:
+			complete(packet.messageId, packet.qosLevels);
+			break;
+		case MqttPacket.PUBREL:
+			// The server sent a QoS 2 message in spite of the granted QoS
+			send(new Outbound(MqttCodec.encode(MqttPacket.ack(MqttPacket.PUBCOMP, packet.messageId)), null, false));
+			break;
+		case MqttPacket.PINGRESP:
+			pingOutstanding = false;
+			break;
+		default:
+			throw new MqttException(MqttException.REASON_CODE_UNEXPECTED_ERROR);
+		}
+	}
+
+	private void messageArrived(final MqttPacket packet) {
+		final MqttMessage message = new MqttMessage(packet.payload);
+		message.setQos(packet.qos);
+		message.setRetained(packet.retained);
+		message.setId(packet.messageId);
+
+		IMqttMessageListener match = null;
+		for (Subscription s : subscriptions) {
+			if (s.listener != null && TopicMatcher.matches(s.filter, packet.topic)) {
+				match = s.listener;
+				break;
+			}
+		}
+		final IMqttMessageListener listener = match;
+		callbacks.execute(new Runnable() {
+			@Override
+			public void run() {
+				final String METHOD = "messageArrived";
+				try {
+					if (listener != null) {
+						listener.messageArrived(packet.topic, message);
+					} else {
+						MqttCallback cb = callback;
+						if (cb != null) {
+							cb.messageArrived(packet.topic, message);
+						}
+					}
+				} catch (Exception e) {
+					LoggerUtility.warn(CLASS_NAME, METHOD, "The callback of " + clientId + " failed to process "
+							+ "the message on topic " + packet.topic + ": " + e.getMessage());
+				}
+				// Acknowledge once the message is processed, same as Paho
+				if (packet.qos == 1) {
+					send(new Outbound(MqttCodec.encode(MqttPacket.ack(MqttPacket.PUBACK, packet.messageId)), null, false));
+				} else if (packet.qos == 2) {
+					send(new Outbound(MqttCodec.encode(MqttPacket.ack(MqttPacket.PUBREC, packet.messageId)), null, false));
+				}
+			}
+		});
+	}
+
+	private void complete(int messageId, int[] grantedQos) {
+		final TransportToken token = inflight.remove(messageId);
+		if (token == null) {
+			return;
+		}
+		if (grantedQos != null) {
+			token.setGrantedQos(grantedQos);
+		}
+		token.markComplete(null);
+		if (grantedQos == null && isPublish(token)) {
+			deliveryComplete(token);
+		}
+	}
+
+	/**
+	 * Writes the queued packets as far as possible without blocking
+	 */
+	private void flush() {
+		if (channel == null || !channel.isConnected() || (tls != null && !tls.isHandshakeDone())) {
+			return;
+		}
+		Outbound next;
+		while ((next = outbound.poll()) != null) {
+			writing.add(next);
+		}
+		try {
+			boolean done = tls != null ? writeTls() : writePlain();
+			// The connection is closed after the DISCONNECT is written
+			if (key != null && key.isValid()) {
+				key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		} catch (IOException e) {
+			failed(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST, e));
+		}
+	}
+
+	private boolean writePlain() throws IOException {
+		ByteBuffer[] gather = new ByteBuffer[Math.min(writing.size(), MAX_GATHER)];
+		while (!writing.isEmpty()) {
+			int count = 0;
+			for (Outbound o : writing) {
+				if (count == gather.length) {
+					break;
+				}
+				gather[count++] = o.buffer;
+			}
+			channel.write(gather, 0, count);
+			lastWrite = System.currentTimeMillis();
+			if (!written()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean writeTls() throws IOException {
+		while (!writing.isEmpty()) {
+			if (!tls.write(channel, writing.peek().buffer)) {
+				written();
+				return false;
+			}
+			lastWrite = System.currentTimeMillis();
+			written();
+		}
+		return channel == null || tls.flush(channel);
+	}
+
+	/**
+	 * Removes the fully written packets from the queue
+	 *
+	 * @return false if the head of the queue is partially written
+	 */
+	private boolean written() {
+		while (!writing.isEmpty()) {
+			Outbound o = writing.peek();
+			if (o.buffer.hasRemaining()) {
+				return false;
+			}
+			writing.poll();
+			if (o.completeOnWrite) {
+				o.token.markComplete(null);
+				deliveryComplete(o.token);
+			}
+			if (o.closeAfterWrite) {
+				close(null);
+				if (o.token != null) {
+					o.token.markComplete(null);
+				}
+				return true;
+			}
+		}
+		return true;
+	}
+
+	void checkTimeouts(long now) {
+		if (connectToken != null) {
+			if (now >= connectDeadline) {
+				failed(new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT));
+			}
+			return;
+		}
+		if (!connected || keepAlive <= 0) {
+			return;
+		}
+		if (pingOutstanding) {
+			if (now - pingSentAt >= keepAlive) {
+				failed(new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT));
+			}
+		} else if (now - lastWrite >= keepAlive) {
+			pingOutstanding = true;
+			pingSentAt = now;
+			writing.add(new Outbound(MqttCodec.encode(new MqttPacket(MqttPacket.PINGREQ)), null, false));
+			flush();
+		}
+	}
+
+	/**
+	 * Closes the connection after an error, the waiting tokens are failed and the callback is notified
+	 * when the connection was established
+	 */
+	private void failed(MqttException cause) {
+		final String METHOD = "failed";
+		if (channel == null) {
+			return;
+		}
+		boolean wasConnected = connected || connectToken == null;
+		LoggerUtility.info(CLASS_NAME, METHOD, clientId + ": " + cause);
+		close(cause);
+		if (wasConnected) {
+			final Throwable reason = cause;
+			callbacks.execute(new Runnable() {
+				@Override
+				public void run() {
+					MqttCallback cb = callback;
+					if (cb != null) {
+						cb.connectionLost(reason);
+					}
+				}
+			});
+		}
+	}
+
+	private void close(MqttException cause) {
+		connected = false;
+		loop.deregister(this);
+		if (tls != null) {
+			tls.close();
+		}
+		try {
+			if (key != null) {
+				key.cancel();
+			}
+			channel.close();
+		} catch (IOException e) {
+			// ignore, the connection is closed anyway
+		}
+		channel = null;
+		key = null;
+		if (cause == null) {
+			cause = new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+		}
+		if (connectToken != null) {
+			connectToken.markComplete(cause);
+			connectToken = null;
+		}
+		// The unacknowledged QoS 1 messages can be republished by the application after the reconnect
+		for (Integer id : inflight.keySet()) {
+			TransportToken token = inflight.remove(id);
+			if (token != null) {
+				if (isPublish(token)) {
+					synchronized (undelivered) {
+						undelivered.add(token);
+					}
+				}
+				token.markComplete(cause);
+			}
+		}
+		Outbound next;
+		while ((next = outbound.poll()) != null) {
+			writing.add(next);
+		}
+		for (Outbound o : writing) {
+			if (o.token != null && (o.completeOnWrite || o.closeAfterWrite)) {
+				o.token.markComplete(o.closeAfterWrite ? null : cause);
+			}
+		}
+		writing.clear();
+	}
+
+	/* ---------------------------------------------------------------------------------------
+	 * Helpers, called from any thread
+	 * --------------------------------------------------------------------------------------- */
+
+	private void send(Outbound o) {
+		outbound.add(o);
+		if (flushScheduled.compareAndSet(false, true)) {
+			loop.execute(flushTask);
+		}
+	}
+
+	private synchronized int register(TransportToken token) throws MqttException {
+		// Message IDs are in the range 1 - 65535 and must not be in use
+		for (int i = 0; i < 65535; i++) {
+			nextMessageId = nextMessageId % 65535 + 1;
+			if (!inflight.containsKey(nextMessageId)) {
+				inflight.put(nextMessageId, token);
+				token.setMessageId(nextMessageId);
+				return nextMessageId;
+			}
+		}
+		throw new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+	}
+
+	private void deliveryComplete(final TransportToken token) {
+		callbacks.execute(new Runnable() {
+			@Override
+			public void run() {
+				MqttCallback cb = callback;
+				if (cb != null) {
+					cb.deliveryComplete(token);
+				}
+			}
+		});
+	}
+
+	private void removeSubscription(String filter) {
+		for (Subscription s : subscriptions) {
+			if (s.filter.equals(filter)) {
+				subscriptions.remove(s);
+			}
+		}
+	}
+
+	private static boolean isPublish(TransportToken token) {
+		try {
+			return token.getMessage() != null;
+		} catch (MqttException e) {
+			return false;
+		}
+	}
+
+	private static class Outbound {
+		private final ByteBuffer buffer;
+		private final TransportToken token;
+		private final boolean completeOnWrite;
+		private boolean closeAfterWrite;
+
+		private Outbound(ByteBuffer buffer, TransportToken token, boolean completeOnWrite) {
+			this.buffer = buffer;
+			this.token = token;
+			this.completeOnWrite = completeOnWrite;
+		}
+	}
+
+	private static class Subscription {
+		private final String filter;
+		private final IMqttMessageListener listener;
+
+		private Subscription(String filter, IMqttMessageListener listener) {
+			this.filter = filter;
+			this.listener = listener;
+		}
+	}
+}
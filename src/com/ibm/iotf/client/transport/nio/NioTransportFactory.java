@@ -0,0 +1,67 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.nio;
+
+import java.util.Properties;
+
+import javax.net.ssl.SSLContext;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import com.ibm.iotf.client.transport.MqttTransport;
+import com.ibm.iotf.client.transport.MqttTransportFactory;
+
+/**
+ * Creates the {@link NioTransport}s. The number of event loop threads shared by all the
+ * transports of the JVM can be set in the properties of the first client,
+ *
+ * old style - nio-threads
+ * new style - Nio-Threads
+ *
+ * The default is the number of processors. The persistence is not used.
+ */
+public class NioTransportFactory implements MqttTransportFactory {
+
+	static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+	private final SSLContext sslContext;
+
+	/**
+	 * Creates a factory that uses the default TLSv1.2 context for the ssl:// URIs
+	 */
+	public NioTransportFactory() {
+		this(null);
+	}
+
+	/**
+	 * @param sslContext the TLS context for the ssl:// URIs, for example one that trusts a test server
+	 */
+	public NioTransportFactory(SSLContext sslContext) {
+		this.sslContext = sslContext;
+	}
+
+	@Override
+	public MqttTransport create(String serverURI, String clientId, MqttClientPersistence persistence,
+			Properties options) throws MqttException {
+		int threads = DEFAULT_THREADS;
+		if (options != null) {
+			String value = options.getProperty("nio-threads");
+			if (value == null) {
+				value = options.getProperty("Nio-Threads");
+			}
+			if (value != null && !value.trim().equals("")) {
+				threads = Integer.parseInt(value.trim());
+			}
+		}
+		return new NioTransport(serverURI, clientId, sslContext, threads);
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.client.transport.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+/**
+ * Runs TLS over a non-blocking channel with an SSLEngine. All the methods are called
+ * from the event loop thread.
+ *
+ * <p>The buffers are kept in the following modes between the calls,</p>
+ * <ul class="simple">
+ * <li>netIn - write mode, the encrypted data read from the channel</li>
+ * <li>netOut - write mode, the encrypted data not yet written to the channel</li>
+ * <li>appIn - write mode, the decrypted data not yet consumed by the transport</li>
+ * </ul>
+ */
+final class TlsSession {
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final SSLEngine engine;
+	private ByteBuffer netIn;
+	private ByteBuffer netOut;
+	private ByteBuffer appIn;
+	private boolean handshakeDone = false;
+
+	TlsSession(SSLEngine engine) throws SSLException {
+		this.engine = engine;
+		int packetSize = engine.getSession().getPacketBufferSize();
+		this.netIn = ByteBuffer.allocate(packetSize);
+		this.netOut = ByteBuffer.allocate(packetSize);
+		this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+		engine.beginHandshake();
+	}
+
+	boolean isHandshakeDone() {
+		return handshakeDone;
+	}
+
+	/**
+	 * @return the buffer with the decrypted data, in write mode
+	 */
+	ByteBuffer getAppIn() {
+		return appIn;
+	}
+
+	/**
+	 * Drives the handshake as far as possible without blocking
+	 *
+	 * @return whether the handshake is done
+	 */
+	boolean handshake(SocketChannel channel) throws IOException {
+		while (!handshakeDone) {
+			if (!flush(channel)) {
+				return false;
+			}
+			HandshakeStatus status = engine.getHandshakeStatus();
+			switch (status) {
+			case NEED_TASK:
+				runTasks();
+				break;
+			case NEED_WRAP:
+				wrap(EMPTY);
+				break;
+			case NEED_UNWRAP:
+				if (!unwrap()) {
+					int n = channel.read(netIn);
+					if (n < 0) {
+						throw new EOFException("Connection closed during the TLS handshake");
+					} else if (n == 0) {
+						return false;
+					}
+				}
+				break;
+			default:
+				handshakeDone = true;
+			}
+		}
+		return flush(channel);
+	}
+
+	/**
+	 * Reads the available data from the channel and decrypts it into the application buffer
+	 *
+	 * @return the number of bytes read from the channel or -1 at the end of the stream
+	 */
+	int read(SocketChannel channel) throws IOException {
+		int n = channel.read(netIn);
+		if (n < 0) {
+			return -1;
+		}
+		while (unwrap()) {
+			if (engine.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+				runTasks();
+			}
+			if (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+				wrap(EMPTY);
+				flush(channel);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Encrypts the data and writes as much as possible to the channel
+	 *
+	 * @param src the data, it is fully consumed unless the channel can't accept more
+	 * @return whether all the encrypted data has been written
+	 */
+	boolean write(SocketChannel channel, ByteBuffer src) throws IOException {
+		while (src.hasRemaining()) {
+			if (!wrap(src)) {
+				// netOut is full
+				if (!flush(channel)) {
+					return false;
+				}
+			}
+		}
+		return flush(channel);
+	}
+
+	/**
+	 * Writes the pending encrypted data
+	 *
+	 * @return whether all the data has been written
+	 */
+	boolean flush(SocketChannel channel) throws IOException {
+		if (netOut.position() == 0) {
+			return true;
+		}
+		netOut.flip();
+		try {
+			channel.write(netOut);
+			return !netOut.hasRemaining();
+		} finally {
+			netOut.compact();
+		}
+	}
+
+	void close() {
+		engine.closeOutbound();
+	}
+
+	/**
+	 * @return false when netOut must be flushed before more data can be wrapped
+	 */
+	private boolean wrap(ByteBuffer src) throws SSLException {
+		SSLEngineResult result = engine.wrap(src, netOut);
+		switch (result.getStatus()) {
+		case BUFFER_OVERFLOW:
+			if (netOut.position() == 0) {
+				netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+				return true;
+			}
+			return false;
+		case CLOSED:
+			throw new SSLException("The TLS session is closed");
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * @return whether any data was unwrapped, false when more data must be read from the channel
+	 */
+	private boolean unwrap() throws IOException {
+		netIn.flip();
+		try {
+			if (!netIn.hasRemaining()) {
+				return false;
+			}
+			SSLEngineResult result = engine.unwrap(netIn, appIn);
+			switch (result.getStatus()) {
+			case BUFFER_OVERFLOW:
+				ByteBuffer bigger = ByteBuffer.allocate(appIn.capacity() + engine.getSession().getApplicationBufferSize());
+				appIn.flip();
+				bigger.put(appIn);
+				appIn = bigger;
+				return true;
+			case BUFFER_UNDERFLOW:
+				if (netIn.limit() == netIn.capacity()) {
+					// A record larger than the buffer
+					ByteBuffer larger = ByteBuffer.allocate(netIn.capacity() + engine.getSession().getPacketBufferSize());
+					larger.put(netIn);
+					larger.flip();
+					netIn = larger;
+				}
+				return false;
+			case CLOSED:
+				throw new EOFException("The TLS session is closed by the server");
+			default:
+				return result.bytesConsumed() > 0 || result.bytesProduced() > 0
+						|| result.getHandshakeStatus() == HandshakeStatus.NEED_TASK;
+			}
+		} finally {
+			netIn.compact();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = engine.getDelegatedTask()) != null) {
+			task.run();
+		}
+	}
+}
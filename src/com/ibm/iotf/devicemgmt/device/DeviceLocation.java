@@ -18,13 +18,12 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.apache.commons.lang3.time.DateFormatUtils;
-
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.ibm.iotf.devicemgmt.device.resource.DateResource;
 import com.ibm.iotf.devicemgmt.device.resource.NumberResource;
 import com.ibm.iotf.devicemgmt.device.resource.Resource;
+import com.ibm.iotf.util.Iso8601;
 
 /**
  * A bean class which represents the location of a device.  When a property is changed, 
@@ -226,8 +225,7 @@ public class DeviceLocation extends Resource {
 			json.addProperty(this.elevation.getResourceName(), elevation.getValue());
 		}
 		
-		String utcTime = DateFormatUtils.formatUTC(measuredDateTime.getValue(), 
-				DateFormatUtils.ISO_DATETIME_TIME_ZONE_FORMAT.getPattern());
+		String utcTime = Iso8601.formatUTCSeconds(measuredDateTime.getValue().getTime());
 		
 		json.addProperty(this.measuredDateTime.getResourceName(), utcTime);
 		
@@ -17,7 +17,6 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.Date;
 
-import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.commons.codec.binary.Base64;
 
 import com.google.gson.JsonElement;
@@ -25,6 +24,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.ibm.iotf.devicemgmt.device.internal.DeviceDiagnostic;
 import com.ibm.iotf.devicemgmt.device.resource.Resource;
+import com.ibm.iotf.util.Iso8601;
 
 /**
  * <p>This class represents the Diagnostic Log information of a device.  
@@ -146,8 +146,7 @@ public class DiagnosticLog extends Resource {
 		JsonObject o = new JsonObject();
 		o.add("message", new JsonPrimitive(this.message));
 		o.add("severity", new JsonPrimitive(severity.getSeverity()));
-		String utcTime = DateFormatUtils.formatUTC(timestamp, 
-				DateFormatUtils.ISO_DATETIME_TIME_ZONE_FORMAT.getPattern());
+		String utcTime = Iso8601.formatUTCSeconds(timestamp.getTime());
 		o.add("timestamp", new JsonPrimitive(utcTime));
 
 		if(this.data != null) {
@@ -14,12 +14,13 @@
 package com.ibm.iotf.devicemgmt.device;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
@@ -35,6 +36,7 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import com.ibm.iotf.client.ClientTracer;
 import com.ibm.iotf.client.device.DeviceClient;
 import com.ibm.iotf.devicemgmt.device.DeviceData;
 import com.ibm.iotf.devicemgmt.device.handler.DMRequestHandler;
@@ -73,15 +75,18 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 	
 	private static final String CLASS_NAME = ManagedDevice.class.getName();
 	private static final int REGISTER_TIMEOUT_VALUE = 60 * 1000 * 2; // wait for 2 minute
+	private static final long RESPONSE_HANDOFF_TIMEOUT = 5 * 1000;
 	
 	private final SynchronousQueue<JsonObject> queue = new SynchronousQueue<JsonObject>();
 	
-	private boolean running = false;
-	private BlockingQueue<JsonObject> publishQueue;
+	// Publishes the responses and notifications of the request handlers on its own thread, one per
+	// managed device however many times it is managed again
+	private Publisher publisher;
+	private volatile BlockingQueue<JsonObject> publishQueue;
 	JsonObject dummy = new JsonObject();
 	
-	//Map to handle duplicate responses
-	private Map<String, MqttMessage> requests = new HashMap<String, MqttMessage>();
+	//Map to handle duplicate responses, the requests are removed when they time out
+	private final Map<String, MqttMessage> requests = new ConcurrentHashMap<String, MqttMessage>();
 	
 	//Device specific information
 	private DeviceData deviceData = null;
@@ -287,7 +292,7 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 		
 		final String METHOD = "manage";
 		
-		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "lifetime value (" + lifetime + ")");
+		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "lifetime value ({})", lifetime);
 		
 		boolean success = false;
 		DeviceTopic topic = DeviceTopic.MANAGE;
@@ -323,11 +328,9 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 		JsonObject jsonResponse = sendAndWait(topic, jsonPayload, REGISTER_TIMEOUT_VALUE);
 		if (jsonResponse != null && jsonResponse.get("rc").getAsInt() == 
 				ResponseCode.DM_SUCCESS.getCode()) {
+			startPublisher();
 			DMListener.start(this);
 			DMRequestHandler.setRequestHandlers(this);
-			publishQueue = new LinkedBlockingQueue<JsonObject>();
-			Thread t = new Thread(this);
-			t.start();
 			/*
 			 * set the dormant time to a local variable, in case if the connection is
 			 * lost due to n/w interruption, we need to send another manage request
@@ -339,7 +342,7 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 			}
 			success = true;			
 		}
-		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "Success (" + success + ")");
+		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "Success ({})", success);
 		
 		bManaged = success;
 		return success;
@@ -364,25 +367,28 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 		DeviceTopic topic = DeviceTopic.UNMANAGE;
 
 		JsonObject jsonPayload = new JsonObject();
-		JsonObject jsonResponse = sendAndWait(topic, jsonPayload, REGISTER_TIMEOUT_VALUE);
-		if (jsonResponse != null && jsonResponse.get("rc").getAsInt() == 
-				ResponseCode.DM_SUCCESS.getCode()) {
-			success = true;	
-		}
-
-		terminate();
-		DMListener.stop(this);
-		DMRequestHandler.clearRequestHandlers(this);
-		this.deviceData.terminateHandlers();
-		this.supportsDeviceActions = false;
-		this.supportsFirmwareActions = false;
-		
-		if (responseSubscription != null) {
-			this.unsubscribe(this.responseSubscription);
-			responseSubscription = null;
+		try {
+			JsonObject jsonResponse = sendAndWait(topic, jsonPayload, REGISTER_TIMEOUT_VALUE);
+			if (jsonResponse != null && jsonResponse.get("rc").getAsInt() == 
+					ResponseCode.DM_SUCCESS.getCode()) {
+				success = true;	
+			}
+		} finally {
+			// The handlers are released even when the request could not be sent, the static
+			// maps of DMListener and DMRequestHandler would otherwise keep the device forever
+			terminate();
+			DMListener.stop(this);
+			this.deviceData.terminateHandlers();
+			this.supportsDeviceActions = false;
+			this.supportsFirmwareActions = false;
+			DMRequestHandler.clearRequestHandlers(this);
+			if (responseSubscription != null) {
+				this.unsubscribe(this.responseSubscription);
+				responseSubscription = null;
+			}
 		}
 
-		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "Success (" + success + ")");
+		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "Success ({})", success);
 		if(success) {
 			bManaged = false;
 		}
@@ -402,13 +408,9 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 	 */
 	public void subscribe(ServerTopic topic, int qos, IMqttMessageListener listener) throws MqttException {
 		final String METHOD = "subscribe";
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic(" + topic + ")");
+		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic({})", topic);
 		if (isConnected()) {
-			if (mqttAsyncClient != null) {
-				mqttAsyncClient.subscribe(topic.getName(), qos, listener);
-			} else if(mqttClient != null) {
-				mqttClient.subscribe(topic.getName(), qos, listener);
-			}
+			transport.subscribe(topic.getName(), qos, listener);
 		} else {
 			LoggerUtility.warn(CLASS_NAME, METHOD, "Will not subscribe to topic(" + topic +
 					") because MQTT client is not connected.");
@@ -428,13 +430,9 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 	 */
 	public void subscribe(String[] topics, int[] qos, IMqttMessageListener[] listeners) throws MqttException {
 		final String METHOD = "subscribe#2";
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Topics(" + topics + ")");
+		LoggerUtility.fine(CLASS_NAME, METHOD, "Topics({})", Arrays.asList(topics));
 		if (isConnected()) {
-			if (mqttAsyncClient != null) {
-				mqttAsyncClient.subscribe(topics, qos, listeners);
-			} else if(mqttClient != null) {
-				mqttClient.subscribe(topics, qos, listeners);
-			}
+			transport.subscribe(topics, qos, listeners);
 		} else {
 			LoggerUtility.warn(CLASS_NAME, METHOD, "Will not subscribe to topics(" + topics +
 					") because MQTT client is not connected.");
@@ -452,13 +450,9 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 	 */
 	public void unsubscribe(ServerTopic topic) throws MqttException {
 		final String METHOD = "unsubscribe";
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic(" + topic + ")");
+		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic({})", topic);
 		if (isConnected()) {
-			if (mqttAsyncClient != null) {
-				mqttAsyncClient.unsubscribe(topic.getName());
-			} else if (mqttClient != null) {
-				mqttClient.unsubscribe(topic.getName());
-			}
+			transport.unsubscribe(topic.getName());
 		} else {
 			LoggerUtility.warn(CLASS_NAME, METHOD, "Will not unsubscribe from topic(" + 
 										topic + ") because MQTT client is not connected.");
@@ -476,13 +470,9 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 	 */
 	public void unsubscribe(String[] topics) throws MqttException {
 		final String METHOD = "unsubscribe#2";
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Topics(" + topics + ")");
+		LoggerUtility.fine(CLASS_NAME, METHOD, "Topics({})", Arrays.asList(topics));
 		if (isConnected()) {
-			if (mqttAsyncClient != null) {
-				mqttAsyncClient.unsubscribe(topics);
-			} else if (mqttClient != null) {
-				mqttClient.unsubscribe(topics);
-			}
+			transport.unsubscribe(topics);
 		} else {
 			LoggerUtility.warn(CLASS_NAME, METHOD, "Will not unsubscribe from topics(" + 
 										topics + ") because MQTT client is not connected.");
@@ -492,21 +482,17 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 	protected IMqttDeliveryToken publish(DeviceTopic topic, MqttMessage message) throws MqttException {
 		final String METHOD = "publish";
 		IMqttDeliveryToken token = null;
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic(" + topic + ")");
+		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic({})", topic);
 		while(true) {
 			if (isConnected()) {
 				try {
-					if (this.mqttAsyncClient != null) {
-						token = mqttAsyncClient.publish(topic.getName(), message);
-					} else if (mqttClient != null) {
-						mqttClient.publish(topic.getName(), message);
-					}
+					token = transport.publish(topic.getName(), message);
 				} catch(MqttException ex) {
 					String payload = null;
 					try {
 						payload = new String(message.getPayload(), "UTF-8");
 					} catch (UnsupportedEncodingException e1) {	}
-					if(this.mqttAsyncClient.isConnected() == false) {
+					if(this.transport.isConnected() == false) {
 						LoggerUtility.log(Level.WARNING, CLASS_NAME, METHOD, " Connection Lost retrying to publish MSG :"+
 								payload +" on topic "+topic+" every 5 seconds");
 					
@@ -555,8 +541,8 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 		jsonPubMsg.add("qos", new JsonPrimitive(qos));
 		jsonPubMsg.add("payload", payload);		
 		publishQueue.add(jsonPubMsg);
-		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, ": Queued Topic(" + topic + ") qos=" + 
-													qos + " payload (" + payload.toString() + ")");
+		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, ": Queued Topic({}) qos={} payload ({})",
+													topic, qos, payload);
 	}
 	
 	private void publish(JsonObject jsonPubMsg) throws MqttException, UnsupportedEncodingException {
@@ -564,8 +550,8 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 		String topic = jsonPubMsg.get("topic").getAsString();
 		int qos = jsonPubMsg.get("qos").getAsInt();
 		JsonObject payload = jsonPubMsg.getAsJsonObject("payload");
-		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, ": Topic(" + topic + ") qos=" + 
-												qos + " payload (" + payload.toString() + ")");
+		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, ": Topic({}) qos={} payload ({})",
+												topic, qos, payload);
 		MqttMessage message = new MqttMessage();
 		message.setPayload(payload.toString().getBytes("UTF-8"));
 		message.setQos(qos);
@@ -598,8 +584,8 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 		String uuid = UUID.randomUUID().toString();
 		jsonPayload.add("reqId", new JsonPrimitive(uuid));
 
-		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic (" + topic + 
-				") payload (" + jsonPayload.toString() + ") reqId (" + uuid + ")" );
+		LoggerUtility.fine(CLASS_NAME, METHOD, "Topic ({}) payload ({}) reqId ({})",
+				topic, jsonPayload, uuid);
 		
 		if (responseSubscription == null) {
 			responseSubscription = ServerTopic.RESPONSE;
@@ -618,7 +604,19 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 		
 		requests.put(uuid, message);
 		
-		publish(topic, message);
+		ClientTracer tracer = ClientTracer.getInstance();
+		Object trace = tracer == null ? null 
+				: tracer.requestStarted(this, topic.getName(), uuid, message.getPayload().length);
+		long start = System.nanoTime();
+		try {
+			publish(topic, message);
+		} catch (MqttException e) {
+			requests.remove(uuid);
+			if (tracer != null) {
+				tracer.requestCompleted(trace, false);
+			}
+			throw e;
+		}
 
 		JsonObject jsonResponse = null;
 		while (jsonResponse == null) {
@@ -628,8 +626,7 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 					break;
 				}
 				if (jsonResponse.get("reqId").getAsString().equals(uuid)) {
-					LoggerUtility.fine(CLASS_NAME, METHOD, ""
-							+ "This response is for me reqId:" + jsonResponse.toString() );
+					LoggerUtility.fine(CLASS_NAME, METHOD, "This response is for me reqId:{}", jsonResponse);
 					break;
 				} else {
 					// This response is not for our request, put it back to the queue.
@@ -641,9 +638,19 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 				break;
 			}
 		}
-		if (jsonResponse == null) {
-			LoggerUtility.warn(CLASS_NAME, METHOD, "NO RESPONSE from IoTF for request: " + jsonPayload.toString());
-			LoggerUtility.warn(CLASS_NAME, METHOD, "Connected(" + isConnected() + ")");
+		if (tracer != null) {
+			tracer.requestCompleted(trace, jsonResponse != null);
+		}
+		if (jsonResponse != null) {
+			metrics.requestCompleted(start);
+		} else {
+			// A late response is ignored
+			requests.remove(uuid);
+			metrics.requestTimedOut();
+			// The payload can be large, a firmware update for example, it is only logged at fine level
+			LoggerUtility.warn(CLASS_NAME, METHOD, "NO RESPONSE from IoTF for request " + uuid + " on " + topic.getName() 
+					+ ", connected(" + isConnected() + ")");
+			LoggerUtility.fine(CLASS_NAME, METHOD, "Request {}: {}", uuid, jsonPayload);
 		}
 		return jsonResponse;
 	}
@@ -677,7 +684,7 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 	protected void reconnect() {
 		String METHOD = "reconnect";
 		
-		IMqttDeliveryToken[] tokens = this.mqttAsyncClient.getPendingDeliveryTokens();
+		IMqttDeliveryToken[] tokens = this.transport.getPendingDeliveryTokens();
 		super.connect();
 		
 		responseSubscription = null;
@@ -692,7 +699,7 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 			}
 			try {
 				
-				LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "lifetime (" + lifetime + ")");
+				LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "lifetime ({})", lifetime);
 				this.manage(lifetime);
 				
 				if(tokens != null) {
@@ -700,7 +707,7 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 					for(int i = 0; i < tokens.length; i++) {
 						try {
 							MqttMessage msg = tokens[i].getMessage();
-							this.mqttAsyncClient.publish(tokens[i].getTopics()[0] , msg);
+							this.transport.publish(tokens[i].getTopics()[0] , msg);
 						} catch (MqttException e) {
 							e.printStackTrace();
 						}
@@ -718,16 +725,17 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 		final String METHOD = "messageArrived";
 		if (topic.equals(ServerTopic.RESPONSE.getName())) {
 			LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, 
-					"Received response from IoT Foundation, topic (" + topic + ")");
+					"Received response from IoT Foundation, topic ({})", topic);
 			
 			String responsePayload = new String (message.getPayload(), "UTF-8");
 			JsonObject jsonResponse = new JsonParser().parse(responsePayload).getAsJsonObject();
 			try {
 				String reqId = jsonResponse.get("reqId").getAsString();
-				LoggerUtility.fine(CLASS_NAME, METHOD, "reqId (" + reqId + "): " + jsonResponse.toString() );
+				LoggerUtility.fine(CLASS_NAME, METHOD, "reqId ({}): {}", reqId, jsonResponse);
 				MqttMessage sentMsg = requests.remove(reqId);
-				if (sentMsg != null) {
-					queue.put(jsonResponse);
+				if (sentMsg != null && !queue.offer(jsonResponse, RESPONSE_HANDOFF_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					// The request timed out meanwhile, the callback thread must not wait for it forever
+					LoggerUtility.warn(CLASS_NAME, METHOD, "The response to the request " + reqId + " arrived too late");
 				} 
 			} catch (Exception e) {
 				if (jsonResponse.get("reqId") == null) {
@@ -742,33 +750,68 @@ public class ManagedDevice extends DeviceClient implements IMqttMessageListener,
 		}
 	}
 
+	/**
+	 * Publishes the queued messages until the device is unmanaged, the device runs it on its own
+	 * thread when it is managed
+	 */
 	@Override
 	public void run() {
-		final String METHOD = "run";
-		running = true;
-		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "Running...");
-		while (running) {
-			try {
-				JsonObject o = publishQueue.take();
-				if (o.equals(dummy)) {
+		BlockingQueue<JsonObject> queue = publishQueue;
+		if (queue != null) {
+			new Publisher(queue).run();
+		}
+	}
+	
+	private synchronized void startPublisher() {
+		if (publisher == null) {
+			publisher = new Publisher(new LinkedBlockingQueue<JsonObject>());
+			publishQueue = publisher.queue;
+			new Thread(publisher, "ManagedDevice-" + getClientId()).start();
+		}
+	}
+	
+	private synchronized void terminate() {
+		if (publisher != null) {
+			publisher.queue.add(dummy);
+			publisher = null;
+		}
+	}
+	
+	/**
+	 * Publishes the messages of its own queue until it takes the dummy, a thread that is slow to
+	 * start after a quick unmanage and manage never takes from the queue of the next thread
+	 */
+	private class Publisher implements Runnable {
+		private final BlockingQueue<JsonObject> queue;
+		
+		private Publisher(BlockingQueue<JsonObject> queue) {
+			this.queue = queue;
+		}
+		
+		@Override
+		public void run() {
+			final String METHOD = "run";
+			LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "Running...");
+			while (true) {
+				JsonObject o;
+				try {
+					o = queue.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+				if (o == dummy) {
 					LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "It is time to quit.");
-				} else {
+					break;
+				}
+				try {
 					publish(o);
+				} catch (Exception e) {
+					// The thread keeps running, the queue would otherwise grow until the device is unmanaged
+					LoggerUtility.log(Level.SEVERE, CLASS_NAME, METHOD, e.toString());
+					e.printStackTrace();
 				}
-			} catch (Exception e) {
-				LoggerUtility.log(Level.SEVERE, CLASS_NAME, METHOD, e.toString());
-				e.printStackTrace();
-				running = false;
 			}
-		}
-		LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "Exiting...");
-	}
-	
-	private void terminate() {
-		running = false;
-		try {
-			publishQueue.put(dummy);
-		} catch (InterruptedException e) {
+			LoggerUtility.log(Level.FINE, CLASS_NAME, METHOD, "Exiting...");
 		}
 	}
 
@@ -15,8 +15,8 @@ package com.ibm.iotf.devicemgmt.device.handler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
@@ -37,13 +37,13 @@ public abstract class DMRequestHandler implements IMqttMessageListener {
 	
 	private ManagedDevice dmClient = null;
 	
-	private static Map<ManagedDevice, DeviceUpdateRequestHandler> deviceUpdateHandlers = new HashMap<ManagedDevice,DeviceUpdateRequestHandler>();
-	private static Map<ManagedDevice, ObserveRequestHandler> observeHandlers = new HashMap<ManagedDevice,ObserveRequestHandler>();
-	private static Map<ManagedDevice, CancelRequestHandler> cancelHandlers = new HashMap<ManagedDevice,CancelRequestHandler>();
-	private static Map<ManagedDevice, RebootRequestHandler> rebootHandlers = new HashMap<ManagedDevice,RebootRequestHandler>();
-	private static Map<ManagedDevice, FactoryResetRequestHandler> resetHandlers = new HashMap<ManagedDevice,FactoryResetRequestHandler>();
-	private static Map<ManagedDevice, FirmwareDownloadRequestHandler> fwDownloadHandlers = new HashMap<ManagedDevice,FirmwareDownloadRequestHandler>();
-	private static Map<ManagedDevice, FirmwareUpdateRequestHandler> fwUpdateHandlers = new HashMap<ManagedDevice,FirmwareUpdateRequestHandler>();
+	private static Map<ManagedDevice, DeviceUpdateRequestHandler> deviceUpdateHandlers = new ConcurrentHashMap<ManagedDevice,DeviceUpdateRequestHandler>();
+	private static Map<ManagedDevice, ObserveRequestHandler> observeHandlers = new ConcurrentHashMap<ManagedDevice,ObserveRequestHandler>();
+	private static Map<ManagedDevice, CancelRequestHandler> cancelHandlers = new ConcurrentHashMap<ManagedDevice,CancelRequestHandler>();
+	private static Map<ManagedDevice, RebootRequestHandler> rebootHandlers = new ConcurrentHashMap<ManagedDevice,RebootRequestHandler>();
+	private static Map<ManagedDevice, FactoryResetRequestHandler> resetHandlers = new ConcurrentHashMap<ManagedDevice,FactoryResetRequestHandler>();
+	private static Map<ManagedDevice, FirmwareDownloadRequestHandler> fwDownloadHandlers = new ConcurrentHashMap<ManagedDevice,FirmwareDownloadRequestHandler>();
+	private static Map<ManagedDevice, FirmwareUpdateRequestHandler> fwUpdateHandlers = new ConcurrentHashMap<ManagedDevice,FirmwareUpdateRequestHandler>();
 	
 	protected abstract void subscribe();
 	protected abstract void unsubscribe();
@@ -56,8 +56,8 @@ public abstract class DMRequestHandler implements IMqttMessageListener {
 		try {
 			String payload = new String (message.getPayload(), "UTF-8");
 			JsonObject jsonRequest = new JsonParser().parse(payload).getAsJsonObject();
-			LoggerUtility.fine(CLASS_NAME, METHOD, System.identityHashCode(this) + "Handler(" + this.getClass().getName() + 
-					") Received request on topic " + topic + ") " + jsonRequest.toString());
+			LoggerUtility.fine(CLASS_NAME, METHOD, "{}Handler({}) Received request on topic {}) {}",
+					System.identityHashCode(this), this.getClass().getName(), topic, jsonRequest);
 			
 			handleRequest(jsonRequest);
 		} catch (Exception e) {
@@ -118,78 +118,63 @@ public abstract class DMRequestHandler implements IMqttMessageListener {
 	 * Create all the necessary request handlers - this is called when manage request is
 	 * called by the agent
 	 * 
-	 * Do a bulk subscribe to improve the performance
+	 * Do a bulk subscribe to improve the performance. The existing handlers are subscribed
+	 * again, the device is managed again after a reconnect on a new transport.
 	 * @param dmClient
 	 * @throws MqttException
 	 */
 	public static void setRequestHandlers(ManagedDevice dmClient) throws MqttException{
 		
-		String[] topics = new String[7];
-		IMqttMessageListener[] listener = new IMqttMessageListener[7];
-		int index = 0;
-		
 		DeviceUpdateRequestHandler device = deviceUpdateHandlers.get(dmClient);
 		if (device == null) {
 			device = new DeviceUpdateRequestHandler(dmClient);
-			topics[index] = device.getTopic().getName();
-			listener[index++] = device;
-			//device.subscribe();
 			deviceUpdateHandlers.put(dmClient, device);
 		}
 		
 		ObserveRequestHandler observe = observeHandlers.get(dmClient);
 		if (observe == null) {
 			observe = new ObserveRequestHandler(dmClient);
-			topics[index] = observe.getTopic().getName();
-			listener[index++] = observe;
 			observeHandlers.put(dmClient, observe);
 		}
 		
 		CancelRequestHandler cancel = cancelHandlers.get(dmClient);
 		if (cancel == null) {
 			cancel = new CancelRequestHandler(dmClient);
-			topics[index] = cancel.getTopic().getName();
-			listener[index++] = cancel;
 			cancelHandlers.put(dmClient, cancel);
 		}
 		
 		RebootRequestHandler reboot = rebootHandlers.get(dmClient);
 		if (reboot == null) {
 			reboot = new RebootRequestHandler(dmClient);
-			topics[index] = reboot.getTopic().getName();
-			listener[index++] = reboot;
 			rebootHandlers.put(dmClient, reboot);
 		}
 		
 		FactoryResetRequestHandler reset = resetHandlers.get(dmClient);
 		if (reset == null) {
 			reset = new FactoryResetRequestHandler(dmClient);
-			topics[index] = reset.getTopic().getName();
-			listener[index++] = reset;
 			resetHandlers.put(dmClient, reset);
 		}
 		
 		FirmwareDownloadRequestHandler fwDownload = fwDownloadHandlers.get(dmClient);
 		if (fwDownload == null) {
 			fwDownload = new FirmwareDownloadRequestHandler(dmClient);
-			topics[index] = fwDownload.getTopic().getName();
-			listener[index++] = fwDownload;
 			fwDownloadHandlers.put(dmClient, fwDownload);
 		}
 		
 		FirmwareUpdateRequestHandler fwUpdate = fwUpdateHandlers.get(dmClient);
 		if (fwUpdate == null) {
 			fwUpdate = new FirmwareUpdateRequestHandler(dmClient);
-			topics[index] = fwUpdate.getTopic().getName();
-			listener[index++] = fwUpdate;
 			fwUpdateHandlers.put(dmClient, fwUpdate);
 		}
 		
-		if(index > 0) {
-			int[] qos = new int[index];
-			Arrays.fill(qos, 1);
-			dmClient.subscribe(topics, qos, listener);
+		DMRequestHandler[] handlers = {device, observe, cancel, reboot, reset, fwDownload, fwUpdate};
+		String[] topics = new String[handlers.length];
+		for (int i = 0; i < handlers.length; i++) {
+			topics[i] = handlers[i].getTopic().getName();
 		}
+		int[] qos = new int[handlers.length];
+		Arrays.fill(qos, 1);
+		dmClient.subscribe(topics, qos, handlers);
 	}
 	
 	/**
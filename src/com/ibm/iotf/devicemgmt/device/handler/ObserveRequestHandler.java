@@ -127,7 +127,7 @@ public class ObserveRequestHandler extends DMRequestHandler implements PropertyC
 
 	void cancel(JsonArray fields) {
 		final String METHOD = "cancel";
-		LoggerUtility.fine(CLASS_NAME, METHOD,  "Cancel observation for " + fields);
+		LoggerUtility.fine(CLASS_NAME, METHOD,  "Cancel observation for {}", fields);
 		for (int i=0; i < fields.size(); i++) {
 			JsonObject obj = (JsonObject)fields.get(i);
 			String name = obj.get("field").getAsString();
@@ -139,6 +139,9 @@ public class ObserveRequestHandler extends DMRequestHandler implements PropertyC
 		}
 	}
 	
+	/*
+	 * Returns the members of the value that changed since the last notification, null if none did
+	 */
 	private JsonElement trimResponse(String name, JsonElement newValue) {
 		JsonElement previousValue = responseMap.get(name);
 		if(previousValue == null) {
@@ -15,8 +15,8 @@ package com.ibm.iotf.devicemgmt.device.listener;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ibm.iotf.devicemgmt.device.DeviceLocation;
 import com.ibm.iotf.devicemgmt.device.DiagnosticErrorCode;
@@ -29,7 +29,7 @@ import com.ibm.iotf.util.LoggerUtility;
 
 public class DMListener implements PropertyChangeListener {
 	
-	private static Map<ManagedDevice, DMListener> dmListeners = new HashMap<ManagedDevice, DMListener>();
+	private static Map<ManagedDevice, DMListener> dmListeners = new ConcurrentHashMap<ManagedDevice, DMListener>();
 	private static final String CLASS_NAME = DMListener.class.getName();
 	
 	private ManagedDevice dmClient;
@@ -71,7 +71,7 @@ public class DMListener implements PropertyChangeListener {
 	
 	public static void start(ManagedDevice dmClient) {
 		final String METHOD = "start";
-		LoggerUtility.fine(CLASS_NAME, METHOD, "MQTT Connected(" + dmClient.isConnected() + ")");
+		LoggerUtility.fine(CLASS_NAME, METHOD, "MQTT Connected({})", dmClient.isConnected());
 		
 		DMListener dmListener = dmListeners.get(dmClient);
 		if(dmListener == null) {
@@ -69,8 +69,7 @@ public abstract class DMNotifier {
 		String uuid = UUID.randomUUID().toString();
 		payload.add("reqId", new JsonPrimitive(uuid));
 		
-		LoggerUtility.log(Level.FINER, CLASS_NAME, METHOD, "Topic(" + getNotifyTopic() + 
-				") payload("+ payload.toString() + ")");
+		LoggerUtility.log(Level.FINER, CLASS_NAME, METHOD, "Topic({}) payload({})", getNotifyTopic(), payload);
 		dmClient.publish(topic, payload, 1);
 	}
 	
@@ -82,8 +81,7 @@ public abstract class DMNotifier {
 	protected JsonObject notify(DeviceTopic topic, JsonObject payload,
 			long timeout) throws MqttException {
 		final String METHOD = "notify with timeout (1) " + timeout + "ms ";
-		LoggerUtility.log(Level.FINER, CLASS_NAME, METHOD, "Topic(" + getNotifyTopic() + 
-				") payload("+ payload.toString() + ")");
+		LoggerUtility.log(Level.FINER, CLASS_NAME, METHOD, "Topic({}) payload({})", getNotifyTopic(), payload);
 		return dmClient.sendAndWait(topic, payload, timeout);
 	}
 }
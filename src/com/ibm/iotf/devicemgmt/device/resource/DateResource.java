@@ -14,12 +14,10 @@ package com.ibm.iotf.devicemgmt.device.resource;
 
 import java.util.Date;
 
-import org.apache.commons.lang3.time.DateFormatUtils;
-import org.joda.time.DateTime;
-
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.ibm.iotf.util.Iso8601;
 
 /**
  * An internal class that represents a Date attribute of the
@@ -36,8 +34,7 @@ public class DateResource extends Resource<Date> {
 	 */
 	@Override
 	public JsonElement toJsonObject() {
-		String utcTime = DateFormatUtils.formatUTC(getValue(), 
-				DateFormatUtils.ISO_DATETIME_TIME_ZONE_FORMAT.getPattern());
+		String utcTime = Iso8601.formatUTCSeconds(getValue().getTime());
 		return (JsonElement) new JsonPrimitive(utcTime);	
 	}
 
@@ -46,8 +43,7 @@ public class DateResource extends Resource<Date> {
 	 */
 	@Override
 	public int update(JsonElement json, boolean fireEvent) {
-		DateTime dt = new DateTime(json.getAsString());
-		super.setValue(new Date(dt.getMillis()), fireEvent);
+		super.setValue(new Date(Iso8601.parse(json.getAsString())), fireEvent);
 		return this.getRC();
 	}
 	
@@ -0,0 +1,193 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * <p>A handler that queues the log records and publishes them to its target handlers from a daemon
+ * thread, so that the threads that log never wait for the output. When the queue is full the records
+ * are dropped and counted, a thread that logs is never blocked.</p>
+ *
+ * <p>The handler is installed with LoggerUtility.enableAsyncLogging(), or from the logging configuration:</p>
+ *
+ * <pre>
+ * com.ibm.iotf.util.LoggerUtility.handlers = com.ibm.iotf.util.AsyncLogHandler
+ * com.ibm.iotf.util.AsyncLogHandler.target = java.util.logging.FileHandler
+ * com.ibm.iotf.util.AsyncLogHandler.capacity = 8192
+ * </pre>
+ *
+ * <p>The target defaults to a ConsoleHandler and the capacity to 8192 records.</p>
+ */
+public class AsyncLogHandler extends Handler {
+
+	private static final int DEFAULT_CAPACITY = 8192;
+
+	// Formats the parameters of the records, which may change once the logging thread moves on
+	private static final Formatter MESSAGE_FORMATTER = new SimpleFormatter();
+
+	private final Handler[] targets;
+	private final boolean ownsTargets;
+	private final BlockingQueue<LogRecord> queue;
+	private final AtomicLong dropped = new AtomicLong();
+	// The records queued or being published
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Thread writer;
+	private volatile boolean closed;
+
+	/**
+	 * Creates the handler from the properties target and capacity of the logging configuration
+	 */
+	public AsyncLogHandler() {
+		this(getCapacity(), true, createTarget());
+	}
+
+	/**
+	 * @param capacity the number of records that can wait for the writer thread
+	 * @param targets the handlers that publish the records, they are not closed with this handler
+	 */
+	public AsyncLogHandler(int capacity, Handler... targets) {
+		this(capacity, false, targets);
+	}
+
+	private AsyncLogHandler(int capacity, boolean ownsTargets, Handler... targets) {
+		this.targets = targets.clone();
+		this.ownsTargets = ownsTargets;
+		this.queue = new ArrayBlockingQueue<LogRecord>(Math.max(1, capacity));
+		setLevel(Level.ALL);
+		writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "IoTF log writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (closed || !isLoggable(record)) {
+			return;
+		}
+		if (record.getParameters() != null && record.getParameters().length > 0) {
+			record.setMessage(MESSAGE_FORMATTER.formatMessage(record));
+			record.setParameters(null);
+		}
+		// Infers the caller while the logging thread is still in the call
+		record.getSourceClassName();
+		pending.incrementAndGet();
+		if (!queue.offer(record)) {
+			pending.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Waits, for a second at most, until the queued records are published, then flushes the targets
+	 */
+	@Override
+	public void flush() {
+		long deadline = System.currentTimeMillis() + 1000;
+		while (pending.get() > 0 && writer.isAlive() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		for (Handler target : targets) {
+			target.flush();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		flush();
+		closed = true;
+		writer.interrupt();
+		try {
+			writer.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (ownsTargets) {
+			for (Handler target : targets) {
+				target.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of records dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	private void write() {
+		while (!closed) {
+			LogRecord record;
+			try {
+				record = queue.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (record == null) {
+				continue;
+			}
+			for (Handler target : targets) {
+				try {
+					target.publish(record);
+				} catch (RuntimeException e) {
+					reportError("Unable to publish a log record", e, ErrorManager.WRITE_FAILURE);
+				}
+			}
+			pending.decrementAndGet();
+		}
+	}
+
+	private static int getCapacity() {
+		String value = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName() + ".capacity");
+		try {
+			return value != null ? Integer.parseInt(value.trim()) : DEFAULT_CAPACITY;
+		} catch (NumberFormatException e) {
+			return DEFAULT_CAPACITY;
+		}
+	}
+
+	private static Handler createTarget() {
+		String name = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName() + ".target");
+		if (name != null) {
+			try {
+				return (Handler) Class.forName(name.trim(), true, ClassLoader.getSystemClassLoader()).newInstance();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		return new ConsoleHandler();
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.util;
+
+/**
+ * <p>The wall clock time in microseconds since the epoch, for the send and receive times of the
+ * latency measurements.</p>
+ *
+ * <p>The time is read from System.nanoTime() anchored to System.currentTimeMillis(), which gives
+ * the microseconds that the wall clock does not have. The anchor follows the adjustments of the wall
+ * clock: it is reset when the two clocks drift more than a millisecond apart.</p>
+ */
+public final class EpochClock {
+
+	private static final long TOLERANCE = 1000;
+
+	private static volatile long offset = anchor();
+
+	private EpochClock() {
+	}
+
+	/**
+	 * @return the current time in microseconds since 1970-01-01T00:00:00Z
+	 */
+	public static long currentTimeMicros() {
+		long micros = System.nanoTime() / 1000 + offset;
+		long wall = System.currentTimeMillis() * 1000;
+		// The wall clock is truncated to the millisecond, the time is within [wall, wall + 1000) 
+		if (micros < wall - TOLERANCE || micros >= wall + 1000 + TOLERANCE) {
+			offset = anchor();
+			micros = System.nanoTime() / 1000 + offset;
+		}
+		return micros;
+	}
+
+	private static long anchor() {
+		return System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+	}
+}
@@ -0,0 +1,426 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.util;
+
+import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * <p>The thread safe codec of the ISO 8601 timestamps used by the library.</p>
+ *
+ * <p>The timestamps of the messages are formatted as yyyy-MM-dd'T'HH:mm:ss.SSSZ in the default time zone,
+ * for example 2015-09-16T10:15:30.123+0200, or in UTC as 2015-09-16T08:15:30.123Z. The date, the time down
+ * to the second and the zone offset of the latest second formatted are cached in an immutable entry shared
+ * by all the threads, the timestamps of the same second only differ by their milliseconds. No lock is
+ * taken, a thread that formats another second replaces the entry.</p>
+ *
+ * <p>The timestamps are parsed from a string or straight from the bytes of a payload. The extended
+ * form with a zone, yyyy-MM-dd'T'HH:mm[:ss[.S+]](Z|+hh|+hh:mm|+hhmm), is parsed without creating any
+ * object, the other forms of ISO 8601 are parsed by Joda's ISODateTimeFormat.dateTimeParser().</p>
+ */
+public final class Iso8601 {
+
+	private static final TimeZone ZONE = TimeZone.getDefault();
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	private static final DateTimeFormatter PARSER = ISODateTimeFormat.dateTimeParser();
+
+	private static final int PREFIX_LENGTH = 20;	// yyyy-MM-ddTHH:mm:ss.
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	private static volatile Second cache = new Second(null, Long.MIN_VALUE, null, null);
+	private static volatile Second utcCache = new Second(null, Long.MIN_VALUE, null, null);
+
+	private Iso8601() {
+	}
+
+	/**
+	 * @return the current time formatted in the default time zone
+	 */
+	public static String now() {
+		return format(System.currentTimeMillis());
+	}
+
+	public static String format(Date date) {
+		return format(date.getTime());
+	}
+
+	/**
+	 * @param millis the time in milliseconds since the epoch
+	 * @return the time formatted as yyyy-MM-dd'T'HH:mm:ss.SSSZ in the default time zone
+	 */
+	public static String format(long millis) {
+		return format(millis, ZONE);
+	}
+
+	/**
+	 * @param millis the time in milliseconds since the epoch
+	 * @return the time formatted as yyyy-MM-dd'T'HH:mm:ss.SSS'Z' in UTC, as Joda's ISODateTimeFormat.dateTime()
+	 */
+	public static String formatUTC(long millis) {
+		return format(millis, UTC);
+	}
+
+	/**
+	 * @param millis the time in milliseconds since the epoch
+	 * @return the time formatted as yyyy-MM-dd'T'HH:mm:ss+00:00, the form of the device management timestamps
+	 */
+	public static String formatUTCSeconds(long millis) {
+		Second second = second(millis, UTC);
+		if (second == null) {
+			return jdkFormat(millis, UTC, "yyyy-MM-dd'T'HH:mm:ss").concat("+00:00");
+		}
+		char[] chars = new char[PREFIX_LENGTH - 1 + 6];
+		System.arraycopy(second.prefix, 0, chars, 0, PREFIX_LENGTH - 1);
+		"+00:00".getChars(0, 6, chars, PREFIX_LENGTH - 1);
+		return new String(chars);
+	}
+
+	/**
+	 * @param millis the time in milliseconds since the epoch
+	 * @param zone the time zone of the timestamp
+	 * @return the time formatted as yyyy-MM-dd'T'HH:mm:ss.SSSZ
+	 */
+	public static String format(long millis, TimeZone zone) {
+		Second second = second(millis, zone);
+		if (second == null) {
+			return jdkFormat(millis, zone, zone == UTC ? "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" : "yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		}
+		char[] chars = new char[PREFIX_LENGTH + 3 + second.offset.length];
+		System.arraycopy(second.prefix, 0, chars, 0, PREFIX_LENGTH);
+		writeMillis(chars, millis);
+		System.arraycopy(second.offset, 0, chars, PREFIX_LENGTH + 3, second.offset.length);
+		return new String(chars);
+	}
+
+	/**
+	 * Writes the ASCII bytes of the formatted time into a buffer, without creating any object for the
+	 * timestamps of the years 1583 to 9999
+	 *
+	 * @param millis the time in milliseconds since the epoch
+	 * @param zone the time zone of the timestamp
+	 * @param buffer the buffer, with room for at least 40 bytes after the offset
+	 * @param offset the position of the timestamp in the buffer
+	 * @return the position that follows the timestamp
+	 */
+	public static int format(long millis, TimeZone zone, byte[] buffer, int offset) {
+		Second second = second(millis, zone);
+		if (second == null) {
+			byte[] bytes;
+			try {
+				bytes = format(millis, zone).getBytes("US-ASCII");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+			return offset + bytes.length;
+		}
+		for (int i = 0; i < PREFIX_LENGTH; i++) {
+			buffer[offset + i] = (byte) second.prefix[i];
+		}
+		int ms = millisOf(millis);
+		buffer[offset + PREFIX_LENGTH] = (byte) ('0' + ms / 100);
+		buffer[offset + PREFIX_LENGTH + 1] = (byte) ('0' + ms / 10 % 10);
+		buffer[offset + PREFIX_LENGTH + 2] = (byte) ('0' + ms % 10);
+		offset += PREFIX_LENGTH + 3;
+		for (int i = 0; i < second.offset.length; i++) {
+			buffer[offset++] = (byte) second.offset[i];
+		}
+		return offset;
+	}
+
+	/**
+	 * Parses an ISO 8601 timestamp, as Joda's ISODateTimeFormat.dateTimeParser() does
+	 *
+	 * @return the time in milliseconds since the epoch
+	 * @throws IllegalArgumentException if the text is not a valid timestamp
+	 */
+	public static long parse(String text) {
+		long millis = parse(text, null, 0, text.length());
+		return millis != Long.MIN_VALUE ? millis : PARSER.parseMillis(text);
+	}
+
+	/**
+	 * Parses an ISO 8601 timestamp from its ASCII bytes, as Joda's ISODateTimeFormat.dateTimeParser() does
+	 *
+	 * @param bytes the bytes holding the timestamp
+	 * @param offset the position of the timestamp
+	 * @param length the length of the timestamp
+	 * @return the time in milliseconds since the epoch
+	 * @throws IllegalArgumentException if the bytes are not a valid timestamp
+	 */
+	public static long parse(byte[] bytes, int offset, int length) {
+		long millis = parse(null, bytes, offset, length);
+		if (millis != Long.MIN_VALUE) {
+			return millis;
+		}
+		try {
+			return PARSER.parseMillis(new String(bytes, offset, length, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Parses the extended form with a zone from a string or from bytes
+	 *
+	 * @return the time, or Long.MIN_VALUE when the text is not in the extended form or not valid
+	 */
+	private static long parse(String text, byte[] bytes, int start, int length) {
+		// yyyy-MM-ddTHH:mm and a zone at least
+		if (length < 17) {
+			return Long.MIN_VALUE;
+		}
+		int end = start + length;
+		int year = digits(text, bytes, start, 4);
+		int month = digits(text, bytes, start + 5, 2);
+		int day = digits(text, bytes, start + 8, 2);
+		int hour = digits(text, bytes, start + 11, 2);
+		int minute = digits(text, bytes, start + 14, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59
+				|| at(text, bytes, start + 4) != '-' || at(text, bytes, start + 7) != '-'
+				|| at(text, bytes, start + 10) != 'T' || at(text, bytes, start + 13) != ':') {
+			return Long.MIN_VALUE;
+		}
+		int i = start + 16;
+		int second = 0;
+		int millis = 0;
+		if (i < end && at(text, bytes, i) == ':') {
+			second = i + 3 <= end ? digits(text, bytes, i + 1, 2) : -1;
+			if (second < 0 || second > 59) {
+				return Long.MIN_VALUE;
+			}
+			i += 3;
+			if (i < end && (at(text, bytes, i) == '.' || at(text, bytes, i) == ',')) {
+				// The fraction is truncated to the milliseconds
+				int digits = 0;
+				for (i++; i < end && isDigit(at(text, bytes, i)); i++, digits++) {
+					if (digits < 3) {
+						millis = millis * 10 + (at(text, bytes, i) - '0');
+					}
+				}
+				if (digits == 0) {
+					return Long.MIN_VALUE;
+				}
+				for (; digits < 3; digits++) {
+					millis *= 10;
+				}
+			}
+		}
+
+		// The zone, a local time is left to Joda for its daylight saving rules
+		if (i >= end) {
+			return Long.MIN_VALUE;
+		}
+		int offset;
+		char sign = at(text, bytes, i);
+		if (sign == 'Z' && i + 1 == end) {
+			offset = 0;
+		} else if (sign == '+' || sign == '-') {
+			int hours = i + 3 <= end ? digits(text, bytes, i + 1, 2) : -1;
+			int minutes = 0;
+			if (i + 3 == end) {
+				minutes = 0;
+			} else if (i + 6 == end && at(text, bytes, i + 3) == ':') {
+				minutes = digits(text, bytes, i + 4, 2);
+			} else if (i + 5 == end) {
+				minutes = digits(text, bytes, i + 3, 2);
+			} else {
+				return Long.MIN_VALUE;
+			}
+			if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+				return Long.MIN_VALUE;
+			}
+			offset = (hours * 60 + minutes) * 60000;
+			if (sign == '-') {
+				offset = -offset;
+			}
+		} else {
+			return Long.MIN_VALUE;
+		}
+		return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+				+ ((hour * 60 + minute) * 60 + second) * 1000L + millis - offset;
+	}
+
+	private static char at(String text, byte[] bytes, int index) {
+		return text != null ? text.charAt(index) : (char) (bytes[index] & 0xff);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @return the value of the decimal digits, or -1 if one of them is not a digit
+	 */
+	private static int digits(String text, byte[] bytes, int index, int count) {
+		int value = 0;
+		for (int i = index; i < index + count; i++) {
+			char c = at(text, bytes, i);
+			if (!isDigit(c)) {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * @return the number of days since the epoch of the date, in the proleptic Gregorian calendar
+	 */
+	static long daysFromCivil(long year, int month, int day) {
+		year -= month <= 2 ? 1 : 0;
+		long era = floorDiv(year, 400);
+		int yoe = (int) (year - era * 400);
+		int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	static long floorDiv(long x, long y) {
+		long q = x / y;
+		return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+	}
+
+	private static int millisOf(long millis) {
+		return (int) (millis - floorDiv(millis, 1000) * 1000);
+	}
+
+	private static void writeMillis(char[] chars, long millis) {
+		int ms = millisOf(millis);
+		chars[PREFIX_LENGTH] = (char) ('0' + ms / 100);
+		chars[PREFIX_LENGTH + 1] = (char) ('0' + ms / 10 % 10);
+		chars[PREFIX_LENGTH + 2] = (char) ('0' + ms % 10);
+	}
+
+	private static String jdkFormat(long millis, TimeZone zone, String pattern) {
+		// A year that is not written on 4 digits, rare enough to use the JDK formatter
+		SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setTimeZone(zone);
+		return format.format(new Date(millis));
+	}
+
+	/**
+	 * @return the cached fields of the second of the time, or null if its year is not between 1583 and 9999
+	 */
+	private static Second second(long millis, TimeZone zone) {
+		long second = floorDiv(millis, 1000);
+		boolean utc = zone == UTC;
+		// The UTC timestamps have their own entry, the messages of the batches are formatted in UTC
+		Second cached = utc ? utcCache : cache;
+		if (cached.second == second && (cached.zone == zone || zone.equals(cached.zone))) {
+			return cached;
+		}
+		cached = Second.of(second, zone);
+		if (cached != null) {
+			if (utc) {
+				utcCache = cached;
+			} else {
+				cache = cached;
+			}
+		}
+		return cached;
+	}
+
+	/**
+	 * The formatted fields of a second, immutable once created
+	 */
+	private static final class Second {
+		private final TimeZone zone;
+		private final long second;
+		private final char[] prefix;
+		private final char[] offset;
+
+		private Second(TimeZone zone, long second, char[] prefix, char[] offset) {
+			this.zone = zone;
+			this.second = second;
+			this.prefix = prefix;
+			this.offset = offset;
+		}
+
+		private static Second of(long second, TimeZone zone) {
+			int offsetMillis = zone.getOffset(second * 1000);
+			long local = second + offsetMillis / 1000;
+			long days = floorDiv(local, 86400);
+			int seconds = (int) (local - days * 86400);
+
+			// The civil date of the day since the epoch, in the proleptic Gregorian calendar
+			long z = days + 719468;
+			long era = floorDiv(z, 146097);
+			int doe = (int) (z - era * 146097);
+			int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+			int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+			int mp = (5 * doy + 2) / 153;
+			int day = doy - (153 * mp + 2) / 5 + 1;
+			int month = mp < 10 ? mp + 3 : mp - 9;
+			long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+			if (year < 1583 || year > 9999) {
+				// The JDK formatter uses the Julian calendar before the Gregorian one
+				return null;
+			}
+
+			char[] prefix = new char[PREFIX_LENGTH];
+			digits(prefix, 0, year, 4);
+			prefix[4] = '-';
+			digits(prefix, 5, month, 2);
+			prefix[7] = '-';
+			digits(prefix, 8, day, 2);
+			prefix[10] = 'T';
+			digits(prefix, 11, seconds / 3600, 2);
+			prefix[13] = ':';
+			digits(prefix, 14, seconds / 60 % 60, 2);
+			prefix[16] = ':';
+			digits(prefix, 17, seconds % 60, 2);
+			prefix[19] = '.';
+
+			char[] offset;
+			if (zone == UTC) {
+				offset = new char[] { 'Z' };
+			} else {
+				offset = new char[5];
+				int minutes = offsetMillis / 60000;
+				offset[0] = minutes < 0 ? '-' : '+';
+				minutes = Math.abs(minutes);
+				digits(offset, 1, minutes / 60, 2);
+				digits(offset, 3, minutes % 60, 2);
+			}
+			return new Second(zone, second, prefix, offset);
+		}
+
+		private static void digits(char[] chars, int start, long value, int count) {
+			for (int i = start + count - 1; i >= start; i--) {
+				chars[i] = (char) ('0' + value % 10);
+				value /= 10;
+			}
+		}
+	}
+}
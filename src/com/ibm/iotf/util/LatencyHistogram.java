@@ -0,0 +1,174 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A histogram of durations in nanoseconds, recorded concurrently without a lock.</p>
+ *
+ * <p>The buckets are laid out as in an HDR histogram: the values below 64 have a bucket each, above
+ * that every power of two is split in 32 buckets of the same width, so that a percentile is within
+ * about 3% of the recorded value. The values above an hour are recorded as an hour. A histogram
+ * takes about 10 KB whatever the number of recorded values.</p>
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+	private static final long MAX_VALUE = TimeUnit.HOURS.toNanos(1);
+
+	private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos the duration, the negative durations are recorded as 0
+	 */
+	public void record(long nanos) {
+		long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+		}
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+		}
+	}
+
+	/**
+	 * Records the time elapsed since start
+	 *
+	 * @param start the System.nanoTime() of the start
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the largest recorded duration in nanoseconds, 0 when none is recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the recorded durations in nanoseconds, 0 when none is recorded
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the duration in nanoseconds below which the given percentage of the durations fall,
+	 * 0 when none is recorded
+	 */
+	public long getPercentile(double percentile) {
+		return percentile(copyCounts(), percentile);
+	}
+
+	/**
+	 * @return the count, extremes, mean and main percentiles of the durations, in microseconds
+	 */
+	public LatencySnapshot snapshot() {
+		long[] copy = copyCounts();
+		long n = 0;
+		for (long c : copy) {
+			n += c;
+		}
+		if (n == 0) {
+			return new LatencySnapshot(0, 0, 0, 0, 0, 0, 0, 0);
+		}
+		return new LatencySnapshot(n, micros(min.get()), micros(max.get()), getMean() / 1000,
+				micros(percentile(copy, 50)), micros(percentile(copy, 90)),
+				micros(percentile(copy, 99)), micros(percentile(copy, 99.9)));
+	}
+
+	/**
+	 * Clears the recorded durations, the durations recorded during the reset may be partly kept
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+	private long[] copyCounts() {
+		long[] copy = new long[counts.length()];
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = counts.get(i);
+		}
+		return copy;
+	}
+
+	private long percentile(long[] copy, double percentile) {
+		long total = 0;
+		for (long c : copy) {
+			total += c;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < copy.length; i++) {
+			seen += copy[i];
+			if (seen >= rank) {
+				return Math.min(highestEquivalent(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		// The top SUB_BUCKET_BITS bits of the value select the bucket within its power of two
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) ((value >>> shift) - SUB_BUCKET_HALF);
+	}
+
+	static long highestEquivalent(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+		long mantissa = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.util;
+
+import java.beans.ConstructorProperties;
+import java.util.Locale;
+
+/**
+ * The summary of a {@link LatencyHistogram} at a point in time, the durations are in microseconds.
+ * It is exposed as a composite value by the JMX beans of the library.
+ */
+public class LatencySnapshot {
+
+	private final long count;
+	private final double min;
+	private final double max;
+	private final double mean;
+	private final double p50;
+	private final double p90;
+	private final double p99;
+	private final double p999;
+
+	@ConstructorProperties({ "count", "min", "max", "mean", "p50", "p90", "p99", "p999" })
+	public LatencySnapshot(long count, double min, double max, double mean,
+			double p50, double p90, double p99, double p999) {
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getP50() {
+		return p50;
+	}
+
+	public double getP90() {
+		return p90;
+	}
+
+	public double getP99() {
+		return p99;
+	}
+
+	public double getP999() {
+		return p999;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "count=%d min=%.1fus mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+				count, min, mean, p50, p90, p99, p999, max);
+	}
+}
@@ -13,58 +13,192 @@
  */
 package com.ibm.iotf.util;
 
-import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * <p>The logger of the library. The messages are prefixed with the name of the calling thread,
+ * which, like the message itself, is only built when the level is enabled.</p>
+ *
+ * <p>The methods taking parameters format the message from a pattern where each {} is replaced by
+ * the next parameter, for example fine(CLASS_NAME, METHOD, "Topic = {}, payload = {}", topic, payload).
+ * The parameters are only converted to strings when the level is enabled, the code on the publish and
+ * receive paths should use them rather than concatenate its messages.</p>
+ */
 public class LoggerUtility {
 	private static final String CLASS_NAME = LoggerUtility.class.getName();
 	private static Logger LOGGER = Logger.getLogger(CLASS_NAME);
-	
-	public static void log(Level level, String sourceClass, 
+
+	private static AsyncLogHandler asyncHandler;
+	private static Handler[] replacedHandlers;
+	private static boolean replacedUseParentHandlers;
+
+	public static void log(Level level, String sourceClass,
 			String sourceMethod, String message) {
-		
-		String threadName = Thread.currentThread().getName();
-		LOGGER.logp(level, sourceClass, sourceMethod, threadName + ": "+ message);
+
+		if (LOGGER.isLoggable(level)) {
+			logp(level, sourceClass, sourceMethod, message, null);
+		}
 	}
-	
-	public static void fine(String sourceClass, 
+
+	public static void fine(String sourceClass,
 			String sourceMethod, String message) {
-		
-		String threadName = Thread.currentThread().getName();
-		LOGGER.logp(Level.FINE, sourceClass, sourceMethod, threadName + ": "+ message);
+
+		if (LOGGER.isLoggable(Level.FINE)) {
+			logp(Level.FINE, sourceClass, sourceMethod, message, null);
+		}
 	}
-	
-	public static void info(String sourceClass, 
+
+	public static void info(String sourceClass,
 			String sourceMethod, String message) {
-		
-		String threadName = Thread.currentThread().getName();
-		LOGGER.logp(Level.INFO, sourceClass, sourceMethod, threadName + ": "+ message);
+
+		if (LOGGER.isLoggable(Level.INFO)) {
+			logp(Level.INFO, sourceClass, sourceMethod, message, null);
+		}
 	}
-	
-	public static void warn(String sourceClass, 
+
+	public static void warn(String sourceClass,
 			String sourceMethod, String message) {
-		
-		String threadName = Thread.currentThread().getName();
-		LOGGER.logp(Level.WARNING, sourceClass, sourceMethod, threadName + ": "+ message);
+
+		if (LOGGER.isLoggable(Level.WARNING)) {
+			logp(Level.WARNING, sourceClass, sourceMethod, message, null);
+		}
 	}
-	
-	public static void severe(String sourceClass, 
+
+	public static void severe(String sourceClass,
 			String sourceMethod, String message) {
-		
-		String threadName = Thread.currentThread().getName();
-		LOGGER.logp(Level.SEVERE, sourceClass, sourceMethod, threadName + ": "+ message);
+
+		if (LOGGER.isLoggable(Level.SEVERE)) {
+			logp(Level.SEVERE, sourceClass, sourceMethod, message, null);
+		}
 	}
 
 	public static void log(Level level, String className, String method,
 			String message, Exception e) {
-		String threadName = Thread.currentThread().getName();
-		LOGGER.logp(level, className, method, threadName + ": "+ message, e);
+		if (LOGGER.isLoggable(level)) {
+			logp(level, className, method, message, e);
+		}
+	}
+
+	/**
+	 * Logs a message formatted from a pattern, only when the level is enabled
+	 *
+	 * @param pattern the message, where each {} is replaced by the next parameter
+	 * @param params the parameters, converted with String.valueOf()
+	 */
+	public static void log(Level level, String sourceClass,
+			String sourceMethod, String pattern, Object... params) {
+
+		if (LOGGER.isLoggable(level)) {
+			logp(level, sourceClass, sourceMethod, format(pattern, params), null);
+		}
+	}
+
+	public static void fine(String sourceClass,
+			String sourceMethod, String pattern, Object... params) {
+
+		if (LOGGER.isLoggable(Level.FINE)) {
+			logp(Level.FINE, sourceClass, sourceMethod, format(pattern, params), null);
+		}
+	}
+
+	public static void info(String sourceClass,
+			String sourceMethod, String pattern, Object... params) {
+
+		if (LOGGER.isLoggable(Level.INFO)) {
+			logp(Level.INFO, sourceClass, sourceMethod, format(pattern, params), null);
+		}
+	}
+
+	public static void warn(String sourceClass,
+			String sourceMethod, String pattern, Object... params) {
+
+		if (LOGGER.isLoggable(Level.WARNING)) {
+			logp(Level.WARNING, sourceClass, sourceMethod, format(pattern, params), null);
+		}
 	}
 
 	public static boolean isLoggable(Level level) {
 		return LOGGER.isLoggable(level);
 	}
 
+	/**
+	 * <p>Hands the messages of the library over to a background thread, which writes them with the handlers
+	 * that were in use, the handlers of this logger and of its parents. The threads that log, the publishing
+	 * and MQTT callback threads among them, no longer wait for the console or the log file. When more than
+	 * capacity messages are waiting, the new ones are dropped rather than block the logging thread.</p>
+	 *
+	 * <p>The same is achieved from the logging configuration by setting the handlers of the logger
+	 * com.ibm.iotf.util.LoggerUtility to {@link AsyncLogHandler}.</p>
+	 *
+	 * @param capacity the number of messages that can wait for the background thread
+	 */
+	public static synchronized void enableAsyncLogging(int capacity) {
+		if (asyncHandler != null) {
+			return;
+		}
+		List<Handler> targets = new ArrayList<Handler>();
+		for (Logger logger = LOGGER; logger != null; logger = logger.getParent()) {
+			for (Handler handler : logger.getHandlers()) {
+				targets.add(handler);
+			}
+			if (!logger.getUseParentHandlers()) {
+				break;
+			}
+		}
+		replacedHandlers = LOGGER.getHandlers();
+		replacedUseParentHandlers = LOGGER.getUseParentHandlers();
+		asyncHandler = new AsyncLogHandler(capacity, targets.toArray(new Handler[targets.size()]));
+		for (Handler handler : replacedHandlers) {
+			LOGGER.removeHandler(handler);
+		}
+		LOGGER.addHandler(asyncHandler);
+		LOGGER.setUseParentHandlers(false);
+	}
+
+	/**
+	 * Writes the waiting messages and restores the handlers replaced by enableAsyncLogging()
+	 */
+	public static synchronized void disableAsyncLogging() {
+		if (asyncHandler == null) {
+			return;
+		}
+		LOGGER.removeHandler(asyncHandler);
+		asyncHandler.close();
+		for (Handler handler : replacedHandlers) {
+			LOGGER.addHandler(handler);
+		}
+		LOGGER.setUseParentHandlers(replacedUseParentHandlers);
+		asyncHandler = null;
+		replacedHandlers = null;
+	}
+
+	/**
+	 * @return the number of messages dropped since async logging was enabled, as its background thread fell behind
+	 */
+	public static synchronized long getDroppedMessageCount() {
+		return asyncHandler != null ? asyncHandler.getDroppedCount() : 0;
+	}
 
+	private static void logp(Level level, String sourceClass, String sourceMethod, String message, Throwable thrown) {
+		String threadName = Thread.currentThread().getName();
+		LOGGER.logp(level, sourceClass, sourceMethod, threadName + ": "+ message, thrown);
+	}
+
+	static String format(String pattern, Object[] params) {
+		if (params == null || params.length == 0) {
+			return pattern;
+		}
+		StringBuilder message = new StringBuilder(pattern.length() + 16 * params.length);
+		int start = 0;
+		int index;
+		for (int i = 0; i < params.length && (index = pattern.indexOf("{}", start)) >= 0; i++) {
+			message.append(pattern, start, index).append(String.valueOf(params[i]));
+			start = index + 2;
+		}
+		return message.append(pattern, start, pattern.length()).toString();
+	}
 }
@@ -0,0 +1,115 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2015 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.iotf.util;
+
+/**
+ * <p>Tracks the sequence numbers of the messages of one sender, starting at 1, to detect the
+ * messages missing, received out of order or received twice.</p>
+ *
+ * <p>A jump in the sequence counts the skipped numbers as missing. When a skipped number arrives
+ * later it is counted as reordered and is no longer missing, so the missing count is the loss
+ * observed so far. The {@value #WINDOW} numbers below the highest one are remembered to tell the
+ * duplicates from the reordered messages. A 1 after a sequence longer than the window is a restart
+ * of the sender, the tracking starts again.</p>
+ */
+public class SequenceTracker {
+
+	public static final int WINDOW = 64;
+
+	private long last;
+	/* Bit i is set when last - 1 - i was received */
+	private long window;
+
+	private long received;
+	private long missing;
+	private long reordered;
+	private long duplicates;
+	private long restarts;
+
+	/**
+	 * @param sequence the sequence number of a message received
+	 */
+	public synchronized void record(long sequence) {
+		received++;
+		if (last == 0 || (sequence == 1 && last > WINDOW)) {
+			if (last != 0) {
+				restarts++;
+			}
+			// Joined in the middle of the sequence, the numbers before this one are not missing
+			last = sequence;
+			window = 0;
+		} else if (sequence > last) {
+			long shift = sequence - last;
+			missing += shift - 1;
+			window = shift >= WINDOW ? 0 : (window << shift) | (1L << (shift - 1));
+			last = sequence;
+		} else if (sequence == last) {
+			duplicates++;
+		} else {
+			long offset = last - 1 - sequence;
+			if (offset < WINDOW) {
+				long bit = 1L << offset;
+				if ((window & bit) != 0) {
+					duplicates++;
+					return;
+				}
+				window |= bit;
+			}
+			// Older than the window, assumed to be a late message rather than a duplicate
+			reordered++;
+			if (missing > 0) {
+				missing--;
+			}
+		}
+	}
+
+	/**
+	 * @return the highest sequence number received, 0 if none
+	 */
+	public synchronized long getLast() {
+		return last;
+	}
+
+	public synchronized long getReceived() {
+		return received;
+	}
+
+	/**
+	 * @return the sequence numbers skipped and not received since
+	 */
+	public synchronized long getMissing() {
+		return missing;
+	}
+
+	/**
+	 * @return the messages received after a message with a higher sequence number
+	 */
+	public synchronized long getReordered() {
+		return reordered;
+	}
+
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * @return the times the sequence started again at 1
+	 */
+	public synchronized long getRestarts() {
+		return restarts;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "last " + last + ", received " + received + ", missing " + missing + ", reordered " + reordered 
+				+ ", duplicates " + duplicates + ", restarts " + restarts;
+	}
+}
@@ -0,0 +1,197 @@
+package com.ibm.iotf.client.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.ClientMetrics;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.util.LatencyHistogram;
+import com.ibm.iotf.util.LatencySnapshot;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the metrics of the clients and their JMX exposure over the loopback transport
+ */
+public class TestClientMetrics extends TestCase {
+
+	private static final String BROKER = "TestClientMetrics";
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testHistogram() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		LatencySnapshot empty = histogram.snapshot();
+		assertEquals(0, empty.getCount());
+		assertEquals(0.0, empty.getP99());
+
+		// 1 to 100000 microseconds
+		for (int i = 1; i <= 100000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000000L, histogram.getMax());
+		assertEquals(50000500.0, histogram.getMean(), 1);
+		assertEquals(50000000, histogram.getPercentile(50), 50000000 * 0.035);
+		assertEquals(99000000, histogram.getPercentile(99), 99000000 * 0.035);
+		assertEquals(100000000L, histogram.getPercentile(100));
+		LatencySnapshot snapshot = histogram.snapshot();
+		assertEquals(1.0, snapshot.getMin());
+		assertEquals(100000.0, snapshot.getMax());
+		assertEquals(99900, snapshot.getP999(), 99900 * 0.035);
+
+		// The small values are exact, the negative ones are recorded as 0 and the large ones capped
+		histogram.reset();
+		histogram.record(-5);
+		histogram.record(7);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(0, histogram.getPercentile(10));
+		assertEquals(7, histogram.getPercentile(50));
+		assertEquals(TimeUnit.HOURS.toNanos(1), histogram.getMax());
+	}
+
+	@Test
+	public void testClientMetrics() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1");
+
+		Properties props = deviceProperties();
+		props.setProperty("Metrics-MBean", "true");
+		DeviceClient device = new DeviceClient(props);
+		ObjectName name = new ObjectName("com.ibm.iotf:type=ClientMetrics,name="
+				+ ObjectName.quote("d:metrics:sensor:dev1"));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		device.connect();
+		try {
+			JsonObject data = new JsonObject();
+			data.addProperty("temp", 21.5);
+			for (int i = 0; i < 30; i++) {
+				assertTrue(device.publishEvent(i % 3 == 0 ? "alarm" : "reading", data));
+			}
+			assertTrue(device.createPublishChannel("channel").publish(data));
+			for (int i = 0; i < 31; i++) {
+				assertNotNull(events.poll(5, TimeUnit.SECONDS));
+			}
+
+			ClientMetrics metrics = device.getMetrics();
+			assertEquals(31, metrics.getMessagesSent());
+			assertEquals(10, metrics.getMessagesSentByType().get("alarm").longValue());
+			assertEquals(20, metrics.getMessagesSentByType().get("reading").longValue());
+			assertEquals(1, metrics.getMessagesSentByType().get("channel").longValue());
+			long bytes = 0;
+			for (long b : metrics.getBytesSentByType().values()) {
+				bytes += b;
+			}
+			assertEquals(metrics.getBytesSent(), bytes);
+			assertTrue(bytes > 31 * 20);
+			assertEquals(31, metrics.getPublishLatency().getCount());
+			assertEquals(0, metrics.getInFlightPublishes());
+			assertTrue(metrics.getMaxInFlightPublishes() >= 1);
+			assertEquals(0, metrics.getPublishFailures());
+			assertEquals(1, metrics.getConnects());
+			assertEquals(0, metrics.getReconnects());
+			assertEquals(1, metrics.getConnectTime().getCount());
+
+			ClientMetrics appMetrics = app.getMetrics();
+			assertEquals(31, appMetrics.getMessagesReceived());
+			assertEquals(metrics.getBytesSent(), appMetrics.getBytesReceived());
+			assertEquals(10, appMetrics.getMessagesReceivedByType().get("alarm").longValue());
+			assertEquals(Collections.singletonMap("sensor", 31L), appMetrics.getMessagesReceivedByDeviceType());
+			assertEquals(31, app.getMessagesReceived());
+			// The callback time is recorded once the callback returns, the last one may still be running
+			waitForCallbacks(appMetrics, 31);
+
+			// The same metrics over JMX
+			assertTrue(server.isRegistered(name));
+			assertEquals(31L, server.getAttribute(name, "MessagesSent"));
+			CompositeData latency = (CompositeData) server.getAttribute(name, "PublishLatency");
+			assertEquals(31L, latency.get("count"));
+			assertTrue((Double) latency.get("p99") >= (Double) latency.get("p50"));
+			TabularData byType = (TabularData) server.getAttribute(name, "MessagesSentByType");
+			assertEquals(3, byType.size());
+			server.invoke(name, "reset", null, null);
+			assertEquals(0, metrics.getMessagesSent());
+			assertTrue(metrics.getMessagesSentByType().isEmpty());
+
+			// The commands are counted without a command callback
+			assertTrue(app.publishCommand("sensor", "dev1", "reboot", data));
+			assertTrue(app.publishCommand("sensor", "dev1", "reboot", data));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (metrics.getMessagesReceived() < 2 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(2, metrics.getMessagesReceived());
+			assertEquals(2, metrics.getMessagesReceivedByType().get("reboot").longValue());
+			assertTrue(metrics.getBytesReceived() > 0);
+		} finally {
+			device.disconnect();
+			app.disconnect();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+
+	/*
+	 * Waits for the given number of callbacks to complete
+	 */
+	private static void waitForCallbacks(ClientMetrics metrics, int callbacks) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (metrics.getCallbackTime().getCount() < callbacks && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(callbacks, metrics.getCallbackTime().getCount());
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "metrics");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "metrics");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-metrics-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
@@ -0,0 +1,161 @@
+package com.ibm.iotf.client.test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.AbstractClient;
+import com.ibm.iotf.client.ClientTracer;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the hooks of the ClientTracer over the loopback transport
+ */
+public class TestClientTracer extends TestCase {
+
+	private static final String BROKER = "TestClientTracer";
+
+	@Override
+	protected void tearDown() throws Exception {
+		ClientTracer.setInstance(null);
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testHooks() throws Exception {
+		RecordingTracer tracer = new RecordingTracer();
+		ClientTracer.setInstance(tracer);
+
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		DeviceClient device = new DeviceClient(deviceProperties());
+		try {
+			app.subscribeToDeviceEvents("sensor", "dev1");
+			device.connect();
+			JsonObject data = new JsonObject();
+			data.addProperty("temp", 21.5);
+			assertTrue(device.publishEvent("reading", data));
+			assertNotNull(events.poll(5, TimeUnit.SECONDS));
+		} finally {
+			device.disconnect();
+			app.disconnect();
+		}
+
+		// The publish completes and the dispatch ends concurrently with the callback
+		long deadline = System.currentTimeMillis() + 5000;
+		while (tracer.traces.size() < 5 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(tracer.traces.toString(), 5, tracer.traces.size());
+		assertEquals("connect a:tracer:app1 loopback://TestClientTracer #1 true", tracer.traces.get(0));
+		assertEquals("connect d:tracer:sensor:dev1 loopback://TestClientTracer #1 true", tracer.traces.get(1));
+		String publish = tracer.find("publish ");
+		assertTrue(publish, publish.startsWith("publish d:tracer:sensor:dev1 iot-2/evt/reading/fmt/json "));
+		assertTrue(publish, publish.endsWith(" true"));
+		String arrived = tracer.find("arrived ");
+		assertTrue(arrived, arrived.startsWith("arrived a:tracer:app1 iot-2/type/sensor/id/dev1/evt/reading/fmt/json "));
+		assertEquals(arrived.substring("arrived".length()), tracer.find("dispatched ").substring("dispatched".length()));
+
+		// Without a tracer the hooks are not called
+		ClientTracer.setInstance(null);
+		device = new DeviceClient(deviceProperties());
+		device.connect();
+		try {
+			assertTrue(device.publishEvent("reading", new JsonObject()));
+		} finally {
+			device.disconnect();
+		}
+		assertEquals(5, tracer.traces.size());
+	}
+
+	/* Records the hooks as strings, the context of a start hook is the string of its trace */
+	private static class RecordingTracer extends ClientTracer {
+		private final List<String> traces = new CopyOnWriteArrayList<String>();
+
+		private String find(String prefix) {
+			for (String trace : traces) {
+				if (trace.startsWith(prefix)) {
+					return trace;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public Object publishStarted(AbstractClient client, String topic) {
+			return "publish " + client.getClientId() + " " + topic;
+		}
+
+		@Override
+		public void publishCompleted(Object context, int bytes, boolean delivered) {
+			traces.add(context + " " + bytes + " " + delivered);
+		}
+
+		@Override
+		public Object messageArrived(AbstractClient client, String topic, int bytes) {
+			String trace = " " + client.getClientId() + " " + topic + " " + bytes;
+			traces.add("arrived" + trace);
+			return trace;
+		}
+
+		@Override
+		public void messageDispatched(Object context) {
+			traces.add("dispatched" + context);
+		}
+
+		@Override
+		public Object connectStarted(AbstractClient client, String serverURI, int attempt) {
+			return "connect " + client.getClientId() + " " + serverURI + " #" + attempt;
+		}
+
+		@Override
+		public void connectCompleted(Object context, boolean connected) {
+			traces.add(context + " " + connected);
+		}
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "tracer");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "tracer");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-tracer-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
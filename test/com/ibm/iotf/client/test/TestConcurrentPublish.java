@@ -0,0 +1,182 @@
+package com.ibm.iotf.client.test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.client.PublishChannel;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.util.Iso8601;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests many threads publishing through one client over the loopback transport
+ */
+public class TestConcurrentPublish extends TestCase {
+
+	private static final String BROKER = "TestConcurrentPublish";
+	private static final int THREADS = 16;
+	private static final int EVENTS = 1000;
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testTimestampsAreThreadSafe() throws Exception {
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			final long seed = t;
+			threads[t] = new Thread() {
+				public void run() {
+					SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+					Random random = new Random(seed);
+					long now = System.currentTimeMillis();
+					for (int i = 0; i < 20000 && failure.get() == null; i++) {
+						// Mostly the current second, as the publishers, and some random times
+						long millis = i % 10 == 0 ? (long) (random.nextDouble() * 4102444800000L) : now + random.nextInt(3000);
+						String expected = format.format(new Date(millis));
+						String actual = Iso8601.format(millis);
+						if (!expected.equals(actual)) {
+							failure.compareAndSet(null, millis + ": " + actual + " instead of " + expected);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(failure.get(), failure.get());
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		for (long millis : new long[] { -1, 0, 999, -86400001L, -12219292800001L, 253402300800000L }) {
+			assertEquals(format.format(new Date(millis)), Iso8601.format(millis));
+		}
+	}
+
+	@Test
+	public void testConcurrentPublishers() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final ConcurrentHashMap<String, AtomicInteger> received = new ConcurrentHashMap<String, AtomicInteger>();
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final CountDownLatch done = new CountDownLatch(2 * THREADS * EVENTS);
+		final JsonParser parser = new JsonParser();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				JsonObject data = parser.parse(evt.getData()).getAsJsonObject();
+				String key = evt.getEvent() + data.get("thread").getAsInt();
+				AtomicInteger next = received.get(key);
+				if (next == null) {
+					received.putIfAbsent(key, new AtomicInteger());
+					next = received.get(key);
+				}
+				// The events of a thread arrive in the order they are published
+				int seq = data.get("seq").getAsInt();
+				if (!next.compareAndSet(seq, seq + 1)) {
+					failure.compareAndSet(null, key + " got " + seq + " instead of " + next.get());
+				}
+				if (evt.getTimestamp().getYear() < 2000) {
+					failure.compareAndSet(null, "invalid timestamp " + evt.getTimestamp());
+				}
+				done.countDown();
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1");
+
+		final DeviceClient device = new DeviceClient(deviceProperties());
+		device.connect();
+		final PublishChannel channel = device.createPublishChannel("channel");
+		final CyclicBarrier start = new CyclicBarrier(2 * THREADS);
+		Thread[] threads = new Thread[2 * THREADS];
+		try {
+			for (int t = 0; t < threads.length; t++) {
+				final int id = t;
+				threads[t] = new Thread() {
+					public void run() {
+						try {
+							start.await();
+							for (int i = 0; i < EVENTS; i++) {
+								JsonObject data = new JsonObject();
+								data.addProperty("thread", id);
+								data.addProperty("seq", i);
+								boolean sent = id % 2 == 0 ? device.publishEvent("event", data) : channel.publish(data);
+								if (!sent) {
+									failure.compareAndSet(null, "thread " + id + " failed to publish " + i);
+									return;
+								}
+							}
+						} catch (Exception e) {
+							failure.compareAndSet(null, e.toString());
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertNull(failure.get(), failure.get());
+			done.await(30, TimeUnit.SECONDS);
+			assertNull(failure.get(), failure.get());
+			assertEquals(0, done.getCount());
+			assertEquals(2 * THREADS, received.size());
+
+			// The delivery callbacks of the transport update the counter concurrently with the publishers
+			long deadline = System.currentTimeMillis() + 5000;
+			while (device.getMessageCount() < 2 * THREADS * EVENTS && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals(2 * THREADS * EVENTS, device.getMessageCount());
+		} finally {
+			device.disconnect();
+			app.disconnect();
+		}
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "concurrent");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "concurrent");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-concurrent-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
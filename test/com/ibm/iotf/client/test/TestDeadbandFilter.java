@@ -0,0 +1,161 @@
+package com.ibm.iotf.client.test;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeadbandFilter;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the change only publishing of the device events
+ */
+public class TestDeadbandFilter extends TestCase {
+
+	private static final String BROKER = "TestDeadbandFilter";
+	private static final JsonParser PARSER = new JsonParser();
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testDeadbands() throws Exception {
+		DeadbandFilter filter = new DeadbandFilter(0, 0, 0);
+		filter.setDeadband("temperature", 0.5, 0);
+		filter.setDeadband("power", 0, 10);
+
+		// Everything is sent the first time
+		assertEquals(json("{temperature:20.0,power:1000,state:'on'}"),
+				filter.filter("status", json("{temperature:20.0,power:1000,state:'on'}"), 0));
+		assertNull(filter.filter("status", json("{temperature:20.4,power:1099,state:'on'}"), 1000));
+		// The deadband is relative to the last sent value, not to the previous one
+		assertEquals(json("{temperature:20.6}"),
+				filter.filter("status", json("{temperature:20.6,power:1050,state:'on'}"), 2000));
+		assertEquals(json("{power:899}"), filter.filter("status", json("{temperature:20.2,power:899,state:'on'}"), 3000));
+		assertEquals(json("{state:'off'}"), filter.filter("status", json("{temperature:20.2,power:899,state:'off'}"), 4000));
+		// The fields without a deadband are sent on any change
+		assertEquals(json("{count:1}"), filter.filter("status", json("{count:1}"), 5000));
+		assertNull(filter.filter("status", json("{count:1}"), 5000));
+		assertEquals(json("{count:2}"), filter.filter("status", json("{count:2}"), 5000));
+		// A field that becomes a string, or null, is a change
+		assertEquals(json("{count:'n/a'}"), filter.filter("status", json("{count:'n/a'}"), 5000));
+		assertEquals(json("{count:null}"), filter.filter("status", json("{count:null}"), 5000));
+
+		// The events are tracked separately
+		assertEquals(json("{temperature:20.2}"), filter.filter("other", json("{temperature:20.2}"), 5000));
+
+		assertEquals(11, filter.getMessages());
+		assertEquals(2, filter.getSuppressedMessages());
+		assertEquals(10, filter.getSuppressedFields());
+
+		filter.reset("status");
+		assertEquals(json("{temperature:20.2,power:899,state:'off'}"),
+				filter.filter("status", json("{temperature:20.2,power:899,state:'off'}"), 6000));
+	}
+
+	@Test
+	public void testMaxSilence() throws Exception {
+		DeadbandFilter filter = new DeadbandFilter(1, 0, 10000);
+		assertNotNull(filter.filter("status", json("{a:1,b:1}"), 0));
+		assertEquals(json("{b:3}"), filter.filter("status", json("{a:1,b:3}"), 5000));
+		assertNull(filter.filter("status", json("{a:1,b:3}"), 9999));
+		// a was last sent at 0, b at 5000
+		assertEquals(json("{a:1}"), filter.filter("status", json("{a:1,b:3}"), 10000));
+		assertEquals(json("{b:3}"), filter.filter("status", json("{a:1,b:3}"), 15000));
+	}
+
+	@Test
+	public void testFlatTelemetryIsSuppressed() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1");
+
+		Properties props = deviceProperties();
+		props.setProperty("Deadband-Percent", "5");
+		DeviceClient device = new DeviceClient(props);
+		assertNotNull(device.getPublishFilter());
+		device.connect();
+
+		for (int i = 0; i < 100; i++) {
+			JsonObject data = new JsonObject();
+			data.addProperty("cpu", i < 50 ? 40 + i % 2 : 60);
+			data.addProperty("mem", 1024);
+			assertTrue(device.publishEvent("sigar", data));
+		}
+		Event first = events.poll(5, TimeUnit.SECONDS);
+		assertEquals(json("{cpu:40,mem:1024}"), PARSER.parse(first.getData()));
+		Event second = events.poll(5, TimeUnit.SECONDS);
+		assertEquals(json("{cpu:60}"), PARSER.parse(second.getData()));
+		assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+		assertEquals(98, device.getPublishFilter().getSuppressedMessages());
+
+		// Without the filter every event is published
+		device.setPublishFilter(null);
+		assertTrue(device.publishEvent("sigar", second.getData()));
+		assertNotNull(events.poll(5, TimeUnit.SECONDS));
+
+		device.disconnect();
+		app.disconnect();
+	}
+
+	@Test
+	public void testFailedPublishIsResent() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties());
+		assertNull(device.getPublishFilter());
+		DeadbandFilter filter = new DeadbandFilter(0, 0, 0);
+		device.setPublishFilter(filter);
+		// Not connected
+		assertFalse(device.publishEvent("status", json("{a:1}")));
+		assertEquals(json("{a:1}"), filter.filter("status", json("{a:1}"), 0));
+	}
+
+	private static JsonObject json(String json) {
+		return PARSER.parse(json).getAsJsonObject();
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "deadband");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "deadband");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-deadband-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
@@ -0,0 +1,209 @@
+package com.ibm.iotf.client.test;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.DeviceStateTracker;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.device.DeviceState;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the delta synchronization of the device state documents
+ */
+public class TestDeviceState extends TestCase {
+
+	private static final String BROKER = "TestDeviceState";
+	private static final JsonParser PARSER = new JsonParser();
+
+	private ApplicationClient app;
+	private DeviceStateTracker tracker;
+	private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+
+	@Override
+	protected void setUp() throws Exception {
+		app = new ApplicationClient(appProperties());
+		tracker = new DeviceStateTracker(app);
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				tracker.update(evt);
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1", "state", 1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		app.disconnect();
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testChangesAreCoalescedIntoDeltas() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties());
+		DeviceState state = device.getDeviceState();
+		state.set("firmware", "1.0.2");
+		state.set("mode", "eco");
+		try {
+			device.connect();
+			JsonObject snapshot = message(events.poll(5, TimeUnit.SECONDS));
+			assertTrue(snapshot.get("full").getAsBoolean());
+			assertEquals(PARSER.parse("{\"firmware\":\"1.0.2\",\"mode\":\"eco\"}"), snapshot.get("state"));
+	
+			for (int i = 0; i <= 50; i++) {
+				state.set("setpoint", 20 + i * 0.1);
+			}
+			state.set("mode", "comfort");
+			state.set("mode", "comfort");
+			JsonObject delta = message(events.poll(5, TimeUnit.SECONDS));
+			assertFalse(delta.get("full").getAsBoolean());
+			assertEquals(2, delta.get("v").getAsLong());
+			assertEquals(PARSER.parse("{\"setpoint\":25.0,\"mode\":\"comfort\"}"), delta.get("state"));
+			assertNull("the changes are not coalesced", events.poll(300, TimeUnit.MILLISECONDS));
+	
+			state.remove("firmware");
+			state.flush();
+			delta = message(events.poll(5, TimeUnit.SECONDS));
+			assertEquals(PARSER.parse("{\"firmware\":null}"), delta.get("state"));
+			assertEquals(state.getSnapshot(), tracker.getState("sensor", "dev1"));
+			assertTrue(tracker.isSynchronized("sensor", "dev1"));
+			assertEquals(3, tracker.getVersion("sensor", "dev1"));
+			assertEquals(2, state.getDeltasSent());
+			assertEquals(1, state.getSnapshotsSent());
+		} finally {
+			device.disconnect();
+		}
+	}
+
+	@Test
+	public void testPendingChangesArePublishedOnDisconnect() throws Exception {
+		Properties props = deviceProperties();
+		props.setProperty("State-Coalesce-Window", "60000");
+		DeviceClient device = new DeviceClient(props);
+		DeviceState state = device.getDeviceState();
+		device.connect();
+		waitForVersion(1);
+		state.set("mode", "eco");
+		device.disconnect();
+		JsonObject delta = message(events.poll(5, TimeUnit.SECONDS));
+		assertFalse(delta.get("full").getAsBoolean());
+		assertEquals(PARSER.parse("{\"mode\":\"eco\"}"), delta.get("state"));
+	}
+
+	@Test
+	public void testSnapshotOnReconnect() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties());
+		DeviceState state = device.getDeviceState();
+		state.set("mode", "eco");
+		try {
+			device.connect();
+			waitForVersion(1);
+			device.disconnect();
+	
+			// The changes made while disconnected are in the snapshot of the connect
+			state.set("mode", "off");
+			state.set("battery", 80);
+			Thread.sleep(300);
+			assertTrue(events.isEmpty());
+			device.connect();
+			JsonObject snapshot = message(events.poll(5, TimeUnit.SECONDS));
+			assertTrue(snapshot.get("full").getAsBoolean());
+			assertEquals(2, snapshot.get("v").getAsLong());
+			assertEquals(PARSER.parse("{\"mode\":\"off\",\"battery\":80}"), tracker.getState("sensor", "dev1"));
+			assertEquals(2, state.getSnapshotsSent());
+			assertEquals(0, state.getDeltasSent());
+		} finally {
+			device.disconnect();
+		}
+	}
+
+	@Test
+	public void testMissedDeltaTriggersSnapshot() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties());
+		DeviceState state = device.getDeviceState();
+		state.set("mode", "eco");
+		try {
+			device.connect();
+			waitForVersion(1);
+	
+			// A delta from the future, as if some were lost
+			tracker.update(stateEvent("{\"v\":5,\"full\":false,\"state\":{\"extra\":1}}"));
+			// The tracker asked the device for a snapshot
+			long deadline = System.currentTimeMillis() + 5000;
+			while (tracker.getVersion("sensor", "dev1") != 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertTrue(tracker.isSynchronized("sensor", "dev1"));
+			assertEquals(PARSER.parse("{\"mode\":\"eco\"}"), tracker.getState("sensor", "dev1"));
+			assertEquals(2, state.getSnapshotsSent());
+		} finally {
+			device.disconnect();
+		}
+
+		// An outdated delta is ignored
+		tracker.update(stateEvent("{\"v\":1,\"full\":false,\"state\":{\"mode\":\"old\"}}"));
+		assertEquals(PARSER.parse("{\"mode\":\"eco\"}"), tracker.getState("sensor", "dev1"));
+		assertFalse(tracker.update(new Event("sensor", "dev1", "status", "json",
+				new MqttMessage("{\"d\":{\"cpu\":1}}".getBytes("UTF-8")))));
+	}
+
+	private void waitForVersion(long version) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (tracker.getVersion("sensor", "dev1") < version && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(tracker.getVersion("sensor", "dev1") >= version);
+		events.clear();
+	}
+
+	private static JsonObject message(Event event) {
+		assertNotNull("no state event", event);
+		return PARSER.parse(event.getData()).getAsJsonObject();
+	}
+
+	private static Event stateEvent(String message) throws Exception {
+		return new Event("sensor", "dev1", "state", "json", new MqttMessage(("{\"d\":" + message + "}").getBytes("UTF-8")));
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "state");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		props.setProperty("State-Coalesce-Window", "200");
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "state");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-state-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
@@ -0,0 +1,138 @@
+package com.ibm.iotf.client.test;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.ibm.iotf.client.EndpointSelector;
+import com.ibm.iotf.client.EndpointSelector.Endpoint;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.client.transport.loopback.LoopbackServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the latency based selection of the MQTT endpoints against local broker stand-ins
+ */
+public class TestEndpointSelector extends TestCase {
+
+	private static final String BROKER = "TestEndpointSelector";
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testEndpointsAreRankedByLatency() throws Exception {
+		final Map<String, Long> latencies = new HashMap<String, Long>();
+		latencies.put("far", 80000L);
+		latencies.put("near", 2000L);
+		latencies.put("middle", 30000L);
+		latencies.put("down", -1L);
+		EndpointSelector selector = new EndpointSelector(Arrays.asList("ssl://far:8883", "ssl://down:8883",
+				"ssl://near:8883", "ssl://middle:8883"), 1000, 1) {
+			@Override
+			protected long probe(Endpoint endpoint) {
+				return latencies.get(endpoint.getServerURI().substring(6, endpoint.getServerURI().length() - 5));
+			}
+		};
+		assertEquals(Arrays.asList("ssl://near:8883", "ssl://middle:8883", "ssl://far:8883", "ssl://down:8883"),
+				uris(selector.rank()));
+		assertEquals(2000L, selector.getEndpoints().get(2).getRtt());
+		assertFalse(selector.getEndpoints().get(1).isReachable());
+
+		// An endpoint that fails the MQTT connect goes after the other reachable ones
+		List<Endpoint> ranked = selector.rank();
+		selector.failed(ranked.get(0));
+		assertEquals(Arrays.asList("ssl://middle:8883", "ssl://far:8883", "ssl://near:8883", "ssl://down:8883"),
+				uris(selector.rank()));
+		selector.connected(ranked.get(0), 15);
+		assertEquals("ssl://near:8883", selector.rank().get(0).getServerURI());
+		assertEquals(15, ranked.get(0).getConnectTime());
+	}
+
+	@Test
+	public void testProbes() throws Exception {
+		ServerSocket live = new ServerSocket(0);
+		ServerSocket closed = new ServerSocket(0);
+		int deadPort = closed.getLocalPort();
+		closed.close();
+		try {
+			EndpointSelector selector = new EndpointSelector(Arrays.asList("tcp://localhost:" + deadPort,
+					"tcp://localhost:" + live.getLocalPort(), "tcp://unknown.invalid:1883"), 1000, 2);
+			List<Endpoint> ranked = selector.rank();
+			assertEquals("tcp://localhost:" + live.getLocalPort(), ranked.get(0).getServerURI());
+			assertTrue(ranked.get(0).isReachable());
+			assertFalse(ranked.get(1).isReachable());
+			assertFalse(ranked.get(2).isReachable());
+		} finally {
+			live.close();
+		}
+	}
+
+	@Test
+	public void testClientSwitchesToTheNextEndpoint() throws Exception {
+		LoopbackBroker broker = LoopbackBroker.getBroker(BROKER);
+		LoopbackServer first = new LoopbackServer(broker, 0);
+		LoopbackServer second = new LoopbackServer(broker, 0);
+		ServerSocket closed = new ServerSocket(0);
+		int deadPort = closed.getLocalPort();
+		closed.close();
+
+		Properties props = new Properties();
+		props.setProperty("org", "endpoints");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Endpoints", "tcp://localhost:" + deadPort + ", tcp://localhost:" + first.getPort()
+				+ ", tcp://localhost:" + second.getPort());
+		props.setProperty("Endpoint-Probe-Timeout", "500");
+		DeviceClient device = new DeviceClient(props);
+		assertEquals(3, device.getEndpoints().size());
+
+		try {
+			// The unreachable endpoint is not tried first, so no retry delay is spent on it
+			long start = System.currentTimeMillis();
+			device.connect();
+			assertTrue(device.isConnected());
+			assertTrue(System.currentTimeMillis() - start < 3000);
+			assertEquals(1, first.getConnectionCount() + second.getConnectionCount());
+
+			// The connected endpoint goes down, the client moves to the other one
+			LoopbackServer connected = first.getConnectionCount() == 1 ? first : second;
+			LoopbackServer other = connected == first ? second : first;
+			connected.stop();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (other.getConnectionCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals(1, other.getConnectionCount());
+			deadline = System.currentTimeMillis() + 5000;
+			while (!device.isConnected() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertTrue(device.isConnected());
+			assertTrue(device.publishEvent("reading", "{}"));
+			device.disconnect();
+		} finally {
+			first.stop();
+			second.stop();
+		}
+	}
+
+	private static List<String> uris(List<Endpoint> endpoints) {
+		String[] uris = new String[endpoints.size()];
+		for (int i = 0; i < uris.length; i++) {
+			uris[i] = endpoints.get(i).getServerURI();
+		}
+		return Arrays.asList(uris);
+	}
+}
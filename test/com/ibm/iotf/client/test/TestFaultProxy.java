@@ -0,0 +1,236 @@
+package com.ibm.iotf.client.test;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.ClientMetrics;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.CommandCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.FaultProxy;
+import com.ibm.iotf.client.transport.loopback.FaultProxy.Fault;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.client.transport.loopback.LoopbackServer;
+import com.ibm.iotf.devicemgmt.device.DeviceData;
+import com.ibm.iotf.devicemgmt.device.DeviceInfo;
+import com.ibm.iotf.devicemgmt.device.ManagedDevice;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the reconnect of the clients through the fault injecting proxy, in front of the loopback server
+ */
+public class TestFaultProxy extends TestCase {
+
+	private static final String BROKER = "TestFaultProxy";
+
+	private LoopbackServer server;
+	private FaultProxy proxy;
+	private ApplicationClient app;
+	private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+	private final BlockingQueue<com.ibm.iotf.client.device.Command> commands =
+			new LinkedBlockingQueue<com.ibm.iotf.client.device.Command>();
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new LoopbackServer(LoopbackBroker.getBroker(BROKER), 0);
+		proxy = new FaultProxy("localhost", server.getPort(), 0);
+		app = new ApplicationClient(appProperties());
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		app.disconnect();
+		proxy.stop();
+		server.stop();
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testDropAndResubscribe() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties());
+		device.setCommandCallback(new Callback());
+		device.connect();
+		try {
+			assertTrue(probe());
+
+			assertEquals(1, proxy.dropConnections());
+			ClientMetrics metrics = device.getMetrics();
+			waitFor(metrics, 1, 10);
+			assertEquals(1, metrics.getConnectionsLost());
+			assertTrue(device.isConnected());
+
+			// The device subscribed to the commands again
+			assertTrue(probe());
+			assertTrue(device.publishEvent("reading", new JsonObject(), 1));
+			assertNotNull(events.poll(5, TimeUnit.SECONDS));
+		} finally {
+			device.disconnect();
+		}
+	}
+
+	@Test
+	public void testBlackhole() throws Exception {
+		Properties props = deviceProperties();
+		props.setProperty("Keep-Alive", "1");
+		DeviceClient device = new DeviceClient(props);
+		device.connect();
+		try {
+			ClientMetrics metrics = device.getMetrics();
+			// The silent connection is only noticed by the keep alive
+			proxy.setFault(Fault.BLACKHOLE);
+			long start = System.nanoTime();
+			while (metrics.getConnectionsLost() == 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, metrics.getConnectionsLost());
+			assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+
+			proxy.setFault(Fault.NONE);
+			waitFor(metrics, 1, 30);
+			assertTrue(device.publishEvent("reading", new JsonObject(), 1));
+			assertNotNull(events.poll(5, TimeUnit.SECONDS));
+		} finally {
+			device.disconnect();
+		}
+	}
+
+	@Test
+	public void testRefuse() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties());
+		device.connect();
+		try {
+			ClientMetrics metrics = device.getMetrics();
+			proxy.setFault(Fault.REFUSE);
+			proxy.dropConnections();
+			Thread.sleep(1500);
+			assertFalse(device.isConnected());
+			assertTrue(metrics.getFailedConnectAttempts() >= 1);
+
+			proxy.setFault(Fault.NONE);
+			waitFor(metrics, 1, 10);
+			assertTrue(device.publishEvent("reading", new JsonObject(), 1));
+			assertNotNull(events.poll(5, TimeUnit.SECONDS));
+		} finally {
+			device.disconnect();
+		}
+	}
+
+	@Test
+	public void testDelay() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties());
+		device.connect();
+		try {
+			proxy.setDelay(300);
+			proxy.setFault(Fault.DELAY);
+			long start = System.nanoTime();
+			// The PUBACK is delayed as well
+			assertTrue(device.publishEvent("reading", new JsonObject(), 1));
+			assertNotNull(events.poll(5, TimeUnit.SECONDS));
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(600));
+			assertEquals(0, device.getMetrics().getConnectionsLost());
+		} finally {
+			proxy.setFault(Fault.NONE);
+			device.disconnect();
+		}
+	}
+
+	@Test
+	public void testManagedDeviceReconnect() throws Exception {
+		DeviceInfo deviceInfo = new DeviceInfo.Builder().serialNumber("10087").manufacturer("IBM").build();
+		DeviceData deviceData = new DeviceData.Builder().deviceInfo(deviceInfo).build();
+		ManagedDevice device = new ManagedDevice(deviceProperties(), deviceData);
+		device.setCommandCallback(new Callback());
+		device.connect();
+		try {
+			// The loopback broker accepts the device management requests
+			assertTrue(device.manage());
+			ClientMetrics metrics = device.getMetrics();
+			assertEquals(1, metrics.getRequestRoundTrip().getCount());
+
+			proxy.dropConnections();
+			waitFor(metrics, 1, 10);
+			// The device is managed again after the reconnect
+			long start = System.nanoTime();
+			while (metrics.getRequestRoundTrip().getCount() < 2 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+				Thread.sleep(10);
+			}
+			assertEquals(2, metrics.getRequestRoundTrip().getCount());
+			assertEquals(0, metrics.getRequestTimeouts());
+			assertTrue(probe());
+		} finally {
+			device.disconnect();
+		}
+	}
+
+	/*
+	 * Sends commands to the device until one arrives, the subscription of the device completes asynchronously
+	 */
+	private boolean probe() throws InterruptedException {
+		for (int i = 0; i < 50; i++) {
+			app.publishCommand("sensor", "dev1", "probe", new JsonObject());
+			if (commands.poll(100, TimeUnit.MILLISECONDS) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Waits for the given number of reconnects
+	 */
+	private static void waitFor(ClientMetrics metrics, int reconnects, int seconds) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		while (metrics.getReconnects() < reconnects && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(reconnects, metrics.getReconnects());
+	}
+
+	private class Callback implements CommandCallback {
+		public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+			commands.add(cmd);
+		}
+	}
+
+	private Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "proxy");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "nio");
+		props.setProperty("Endpoints", "tcp://localhost:" + proxy.getPort());
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "proxy");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-proxy-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
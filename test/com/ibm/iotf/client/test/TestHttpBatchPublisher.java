@@ -0,0 +1,220 @@
+package com.ibm.iotf.client.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.client.HttpBatchPublisher;
+import com.ibm.iotf.client.HttpClientPool;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the batched and compressed HTTP event posts against a local HTTP server
+ */
+public class TestHttpBatchPublisher extends TestCase {
+
+	private HttpServer server;
+	private final AtomicInteger posts = new AtomicInteger();
+	private final AtomicInteger events = new AtomicInteger();
+	private final AtomicInteger failures = new AtomicInteger();
+	private final AtomicInteger concurrent = new AtomicInteger();
+	private final AtomicInteger maxConcurrent = new AtomicInteger();
+	private volatile long delay = 0;
+
+	@Override
+	protected void setUp() throws Exception {
+		HttpClientPool.shutdown();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				int now = concurrent.incrementAndGet();
+				while (true) {
+					int max = maxConcurrent.get();
+					if (now <= max || maxConcurrent.compareAndSet(max, now)) {
+						break;
+					}
+				}
+				int status = 200;
+				try {
+					if (delay > 0) {
+						Thread.sleep(delay);
+					}
+					assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+					InputStream in = new GZIPInputStream(exchange.getRequestBody());
+					JsonArray array = new JsonParser().parse(new InputStreamReader(in, "UTF-8")).getAsJsonArray();
+					if (failures.getAndDecrement() > 0) {
+						status = 503;
+					} else {
+						posts.incrementAndGet();
+						for (int i = 0; i < array.size(); i++) {
+							JsonObject message = array.get(i).getAsJsonObject();
+							assertTrue(message.has("ts"));
+							assertTrue(message.getAsJsonObject("d").has("seq"));
+							events.incrementAndGet();
+						}
+					}
+				} catch (Throwable e) {
+					status = 400;
+				} finally {
+					concurrent.decrementAndGet();
+				}
+				exchange.sendResponseHeaders(status, -1);
+				OutputStream out = exchange.getResponseBody();
+				out.close();
+			}
+		});
+		server.setExecutor(Executors.newFixedThreadPool(10));
+		server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop(0);
+		HttpClientPool.shutdown();
+	}
+
+	@Test
+	public void testEventsAreBatchedAndCompressed() throws Exception {
+		Properties options = new Properties();
+		options.setProperty("Http-Batch-Size", "10");
+		options.setProperty("Http-Batch-Linger", "200");
+		HttpBatchPublisher publisher = new HttpBatchPublisher(HttpClientPool.getInstance(null), null, options);
+		for (int i = 0; i < 25; i++) {
+			assertTrue(publisher.publish(url("temperature"), event(i)));
+		}
+		// The last 5 events are posted after the linger time
+		Thread.sleep(1000);
+		assertEquals(25, events.get());
+		assertEquals(3, posts.get());
+		assertTrue(publisher.close(5000));
+
+		assertEquals(25, publisher.getEventsSent());
+		assertEquals(3, publisher.getBatchesSent());
+		assertEquals(0, publisher.getPendingEvents());
+		assertTrue(publisher.getBytesSent() < publisher.getBytesUncompressed());
+	}
+
+	@Test
+	public void testFailedBatchesAreRetried() throws Exception {
+		failures.set(2);
+		Properties options = new Properties();
+		options.setProperty("Http-Batch-Size", "5");
+		HttpBatchPublisher publisher = new HttpBatchPublisher(HttpClientPool.getInstance(null), null, options);
+		for (int i = 0; i < 5; i++) {
+			publisher.publish(url("temperature"), event(i));
+		}
+		assertTrue(publisher.close(10000));
+		assertEquals(5, events.get());
+		assertEquals(2, publisher.getRetries());
+		assertEquals(0, publisher.getEventsDropped());
+	}
+
+	@Test
+	public void testBatchIsDroppedAfterTheRetries() throws Exception {
+		failures.set(100);
+		Properties options = new Properties();
+		options.setProperty("Http-Batch-Retries", "1");
+		HttpBatchPublisher publisher = new HttpBatchPublisher(HttpClientPool.getInstance(null), null, options);
+		publisher.publish(url("temperature"), event(0));
+		assertTrue(publisher.close(10000));
+		assertEquals(1, publisher.getRetries());
+		assertEquals(1, publisher.getEventsDropped());
+		assertEquals(0, publisher.getEventsSent());
+	}
+
+	@Test
+	public void testConcurrentPostsAreBounded() throws Exception {
+		delay = 50;
+		Properties options = new Properties();
+		options.setProperty("Http-Batch-Size", "1");
+		options.setProperty("Http-Batch-Max-Requests", "2");
+		HttpBatchPublisher publisher = new HttpBatchPublisher(HttpClientPool.getInstance(null), null, options);
+		for (int i = 0; i < 20; i++) {
+			publisher.publish(url("e" + (i % 3)), event(i));
+		}
+		assertTrue(publisher.close(10000));
+		assertEquals(20, events.get());
+		assertTrue("too many concurrent posts: " + maxConcurrent.get(), maxConcurrent.get() <= 2);
+	}
+
+	@Test
+	public void testPendingEventsAreBounded() throws Exception {
+		Properties options = new Properties();
+		options.setProperty("Http-Batch-Max-Pending", "5");
+		options.setProperty("Http-Batch-Linger", "60000");
+		HttpBatchPublisher publisher = new HttpBatchPublisher(HttpClientPool.getInstance(null), null, options);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(publisher.publish(url("temperature"), event(i)));
+		}
+		assertFalse(publisher.publish(url("temperature"), event(5)));
+		assertEquals(1, publisher.getEventsDropped());
+		assertTrue(publisher.close(5000));
+		assertEquals(5, events.get());
+		assertFalse(publisher.publish(url("temperature"), event(6)));
+	}
+
+	@Test
+	public void testDisconnectPostsTheBatchedEvents() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("org", "batch");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", "TestHttpBatchPublisher");
+		props.setProperty("Http-Endpoint", "http://localhost:" + server.getAddress().getPort());
+		props.setProperty("Http-Batch-Linger", "60000");
+		DeviceClient device = new DeviceClient(props);
+		try {
+			device.connect();
+			for (int i = 0; i < 3; i++) {
+				assertTrue(device.publishEventOverHTTPBatched("temperature", event(i)));
+			}
+			HttpBatchPublisher publisher = device.getHttpBatchPublisher();
+			device.disconnect();
+			assertEquals(3, events.get());
+			assertTrue(publisher.isClosed());
+
+			// A new publisher is created on the next use, also when the caller closed it
+			assertTrue(device.publishEventOverHTTPBatched("temperature", event(3)));
+			assertTrue(device.getHttpBatchPublisher().close(5000));
+			assertTrue(device.publishEventOverHTTPBatched("temperature", event(4)));
+			assertTrue(device.getHttpBatchPublisher().close(5000));
+			assertEquals(5, events.get());
+		} finally {
+			LoopbackBroker.shutdown("TestHttpBatchPublisher");
+		}
+	}
+
+	private String url(String eventName) {
+		return "http://localhost:" + server.getAddress().getPort()
+				+ "/api/v0002/device/types/sensor/devices/dev1/events/" + eventName;
+	}
+
+	private static JsonObject event(int seq) {
+		JsonObject event = new JsonObject();
+		event.addProperty("seq", seq);
+		event.addProperty("name", "foo");
+		event.addProperty("cpu", 90);
+		return event;
+	}
+}
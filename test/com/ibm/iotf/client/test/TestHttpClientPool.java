@@ -0,0 +1,147 @@
+package com.ibm.iotf.client.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.Test;
+
+import com.ibm.iotf.client.HttpClientPool;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the HTTP publishes reuse the pooled keep-alive connections
+ */
+public class TestHttpClientPool extends TestCase {
+
+	private HttpServer server;
+	private final Set<String> connections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile int status = 200;
+
+	@Override
+	protected void setUp() throws Exception {
+		HttpClientPool.shutdown();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				InputStream in = exchange.getRequestBody();
+				while (in.read() >= 0) {
+				}
+				connections.add(exchange.getRemoteAddress().toString());
+				requests.incrementAndGet();
+				byte[] body = "{}".getBytes("UTF-8");
+				exchange.sendResponseHeaders(status, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.setExecutor(Executors.newFixedThreadPool(10));
+		server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop(0);
+		HttpClientPool.shutdown();
+	}
+
+	@Test
+	public void testSequentialPostsReuseOneConnection() throws Exception {
+		HttpClientPool pool = HttpClientPool.getInstance(new Properties());
+		for (int i = 0; i < 20; i++) {
+			assertEquals(200, PoolClient.post(pool, newPost()));
+		}
+		// An error response must not leak its connection either
+		status = 500;
+		assertEquals(500, PoolClient.post(pool, newPost()));
+		status = 200;
+		assertEquals(200, PoolClient.post(pool, newPost()));
+
+		assertEquals(22, requests.get());
+		assertEquals("the connection is not kept alive", 1, connections.size());
+		assertEquals(0, pool.getLeasedConnections());
+		assertEquals(1, pool.getAvailableConnections());
+	}
+
+	@Test
+	public void testConcurrentPostsAreBoundedPerRoute() throws Exception {
+		Properties options = new Properties();
+		options.setProperty("Http-Max-Connections-Per-Route", "4");
+		final HttpClientPool pool = HttpClientPool.getInstance(options);
+		// The clients with other settings get their own pool, whichever is created first
+		assertNotSame(pool, HttpClientPool.getInstance(null));
+		assertSame(pool, HttpClientPool.getInstance((Properties) options.clone()));
+
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < 100; i++) {
+			results.add(PoolClient.submit(pool, newPost()));
+		}
+		for (Future<Integer> result : results) {
+			assertEquals(Integer.valueOf(200), result.get());
+		}
+		assertEquals(100, requests.get());
+		assertTrue("too many connections: " + connections.size(), connections.size() <= 4);
+		assertEquals(0, pool.getLeasedConnections());
+	}
+
+	@Test
+	public void testInvalidSettingsUseTheDefaults() throws Exception {
+		Properties options = new Properties();
+		options.setProperty("Http-Max-Connections", "0");
+		options.setProperty("Http-Max-Connections-Per-Route", "many");
+		options.setProperty("Http-Connect-Timeout", "-1");
+		HttpClientPool pool = HttpClientPool.getInstance(options);
+		assertSame(HttpClientPool.getInstance(null), pool);
+		assertEquals(Integer.valueOf(200), PoolClient.submit(pool, newPost()).get());
+	}
+
+	private HttpPost newPost() throws Exception {
+		HttpPost post = new HttpPost("http://localhost:" + server.getAddress().getPort() + "/api/v0002/device/types/t/devices/d/events/e");
+		post.setEntity(new StringEntity("{\"d\":{\"value\":1}}"));
+		post.addHeader("Content-Type", "application/json");
+		return post;
+	}
+
+	/**
+	 * Gives the test access to the protected HTTP helpers of the clients
+	 */
+	private static class PoolClient extends DeviceClient {
+
+		private PoolClient() throws Exception {
+			super(new Properties());
+		}
+
+		static int post(HttpClientPool pool, HttpPost post) throws IOException {
+			return executeHttpPost(pool, post);
+		}
+
+		static Future<Integer> submit(final HttpClientPool pool, final HttpPost post) {
+			return pool.getExecutor().submit(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					return executeHttpPost(pool, post);
+				}
+			});
+		}
+	}
+}
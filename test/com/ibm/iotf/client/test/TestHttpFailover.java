@@ -0,0 +1,188 @@
+package com.ibm.iotf.client.test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.client.HttpClientPool;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the events go over HTTP while the MQTT broker is down, and back over MQTT once it is up
+ */
+public class TestHttpFailover extends TestCase {
+
+	private static final String BROKER = "TestHttpFailover";
+
+	private HttpServer server;
+	private final BlockingQueue<JsonObject> httpEvents = new LinkedBlockingQueue<JsonObject>();
+	private final BlockingQueue<String> httpPaths = new LinkedBlockingQueue<String>();
+
+	@Override
+	protected void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				httpPaths.add(exchange.getRequestURI().getPath());
+				httpEvents.add(new JsonParser().parse(new InputStreamReader(exchange.getRequestBody(), "UTF-8"))
+						.getAsJsonObject());
+				exchange.sendResponseHeaders(200, -1);
+				OutputStream out = exchange.getResponseBody();
+				out.close();
+			}
+		});
+		server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop(0);
+		LoopbackBroker.getBroker(BROKER).setAvailable(true);
+		LoopbackBroker.shutdown(BROKER);
+		HttpClientPool.shutdown();
+	}
+
+	@Test
+	public void testEventsFailoverToHttpWhileTheBrokerIsDown() throws Exception {
+		LoopbackBroker broker = LoopbackBroker.getBroker(BROKER);
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> mqttEvents = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				mqttEvents.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1");
+
+		Properties props = deviceProperties();
+		props.setProperty("Failover-To-HTTP", "true");
+		DeviceClient device = new DeviceClient(props);
+		assertTrue(device.isFailoverToHttpEnabled());
+		device.connect();
+
+		assertTrue(device.publishEvent("reading", seq(0)));
+		assertNotNull(mqttEvents.poll(5, TimeUnit.SECONDS));
+
+		// The broker goes down, the clients keep trying to reconnect
+		broker.setAvailable(false);
+		assertFalse(device.isConnected());
+		for (int i = 1; i <= 5; i++) {
+			assertTrue(device.publishEvent("reading", seq(i)));
+		}
+		for (int i = 1; i <= 5; i++) {
+			JsonObject message = httpEvents.poll(5, TimeUnit.SECONDS);
+			assertNotNull("the event is not posted", message);
+			assertTrue(message.has("ts"));
+			assertEquals(i, message.getAsJsonObject("d").get("seq").getAsInt());
+			assertEquals("/api/v0002/device/types/sensor/devices/dev1/events/reading", httpPaths.poll());
+		}
+		assertEquals(5, device.getFailoverEventCount());
+
+		// The broker is back, the events go over MQTT again
+		broker.setAvailable(true);
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((!device.isConnected() || !app.isConnected()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+		assertTrue(device.isConnected());
+		app.subscribeToDeviceEvents("sensor", "dev1");
+		assertTrue(device.publishEvent("reading", seq(6)));
+		Event event = mqttEvents.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the event is not published over MQTT", event);
+		assertTrue(event.getPayload().contains("\"seq\":6"));
+		assertNull("an event was duplicated", httpEvents.poll(500, TimeUnit.MILLISECONDS));
+		assertTrue(mqttEvents.isEmpty());
+		assertEquals(5, device.getFailoverEventCount());
+
+		device.disconnect();
+		app.disconnect();
+	}
+
+	@Test
+	public void testPublishFailsWithoutFailover() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties());
+		assertFalse(device.isFailoverToHttpEnabled());
+		device.connect();
+		device.disconnect();
+		assertFalse(device.publishEvent("reading", seq(1)));
+		assertNull(httpEvents.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testOnlyUndeliveredMessagesFailover() throws Exception {
+		assertTrue(FailoverClient.isSafe(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED), 1));
+		assertTrue(FailoverClient.isSafe(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST), 0));
+		// A QoS 1 message in flight may have been received, posting it again could duplicate it
+		assertFalse(FailoverClient.isSafe(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST), 1));
+		assertFalse(FailoverClient.isSafe(new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT), 0));
+	}
+
+	private static JsonObject seq(int seq) {
+		JsonObject data = new JsonObject();
+		data.addProperty("seq", seq);
+		return data;
+	}
+
+	private Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "failover");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		props.setProperty("Http-Endpoint", "http://localhost:" + server.getAddress().getPort());
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "failover");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-failover-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	/**
+	 * Gives the test access to the failover rules of the clients
+	 */
+	private static class FailoverClient extends DeviceClient {
+
+		private FailoverClient() throws Exception {
+			super(new Properties());
+		}
+
+		static boolean isSafe(MqttException e, int qos) {
+			return isSafeToFailover(e, qos);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.ibm.iotf.client.test;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.apache.commons.lang3.time.DateFormatUtils;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+import com.ibm.iotf.util.Iso8601;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the ISO 8601 codec against the Joda and commons-lang formatters it replaces
+ */
+public class TestIso8601 extends TestCase {
+
+	private static final DateTimeFormatter JODA_PARSER = ISODateTimeFormat.dateTimeParser();
+
+	@Test
+	public void testParse() throws Exception {
+		String[] valid = {
+			"2015-09-16T10:15:30.123Z",
+			"2015-09-16T10:15:30.123+02:00",
+			"2015-09-16T10:15:30.123-0530",
+			"2015-09-16T10:15:30.123+01",
+			"2015-09-16T10:15:30Z",
+			"2015-09-16T10:15Z",
+			"2015-09-16T10:15:30.1Z",
+			"2015-09-16T10:15:30.12-03:30",
+			"2015-09-16T10:15:30.123456789+0545",
+			"2015-09-16T10:15:30,5Z",
+			"2016-02-29T23:59:59.999+23:59",
+			"1600-01-01T00:00:00.000Z",
+			"1969-12-31T23:59:59.999Z",
+			"9999-12-31T23:59:59.999-12:00",
+			"2015-09-16T10:15:30.123",
+			"2015-09-16",
+			"2015-W38-3T10:15Z",
+		};
+		for (String text : valid) {
+			long expected = JODA_PARSER.parseMillis(text);
+			assertEquals(text, expected, Iso8601.parse(text));
+			byte[] bytes = ("xx" + text + "yy").getBytes("US-ASCII");
+			assertEquals(text, expected, Iso8601.parse(bytes, 2, text.length()));
+		}
+
+		String[] invalid = {
+			"", "now", "2015-02-29T10:15:30Z", "2015-09-16T24:00:00Z", "2015-09-16T10:15:60Z",
+			"2015-09-16T10:15:30.Z", "2015-09-16T10:15:30+2", "2015-09-16T10:15:30.123X", "2015-13-01T10:15Z",
+		};
+		for (String text : invalid) {
+			try {
+				Iso8601.parse(text);
+				fail(text + " is not a valid timestamp");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testFormat() throws Exception {
+		DateTimeFormatter joda = ISODateTimeFormat.dateTime().withZoneUTC();
+		Random random = new Random(11);
+		long[] fixed = { 0, -1, 999, 951782400000L, 253402300799999L, -12219292800000L };
+		byte[] buffer = new byte[64];
+		for (int i = 0; i < 5000; i++) {
+			long millis = i < fixed.length ? fixed[i] : (long) (random.nextDouble() * 253402300799999L);
+			assertEquals(joda.print(millis), Iso8601.formatUTC(millis));
+			assertEquals(DateFormatUtils.formatUTC(new Date(millis), DateFormatUtils.ISO_DATETIME_TIME_ZONE_FORMAT.getPattern()),
+					Iso8601.formatUTCSeconds(millis));
+
+			String text = Iso8601.format(millis);
+			assertEquals(text, millis, Iso8601.parse(text));
+			int end = Iso8601.format(millis, TimeZone.getDefault(), buffer, 3);
+			assertEquals(text, new String(buffer, 3, end - 3, "US-ASCII"));
+		}
+
+		// The time zones of the half and quarter hour offsets
+		for (String id : new String[] { "America/St_Johns", "Asia/Kathmandu", "Pacific/Chatham" }) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			long millis = 1445000000123L;
+			String text = Iso8601.format(millis, zone);
+			assertEquals(text, millis, Iso8601.parse(text));
+			assertEquals(text, millis, JODA_PARSER.parseMillis(text));
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.ibm.iotf.client.test;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.ClientMetrics;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.util.EpochClock;
+import com.ibm.iotf.util.SequenceTracker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the sequence numbers and send times stamped by the devices and the end-to-end metrics of the applications
+ */
+public class TestLatencyStamping extends TestCase {
+
+	private static final String BROKER = "TestLatencyStamping";
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testSequenceTracker() {
+		SequenceTracker tracker = new SequenceTracker();
+		// Joined in the middle of the sequence
+		tracker.record(10);
+		tracker.record(11);
+		assertEquals(0, tracker.getMissing());
+
+		// 12 and 13 skipped, 13 arrives late, 11 twice
+		tracker.record(14);
+		assertEquals(2, tracker.getMissing());
+		tracker.record(13);
+		tracker.record(11);
+		tracker.record(14);
+		assertEquals(1, tracker.getMissing());
+		assertEquals(1, tracker.getReordered());
+		assertEquals(2, tracker.getDuplicates());
+		tracker.record(13);
+		assertEquals(3, tracker.getDuplicates());
+
+		// A jump beyond the window
+		tracker.record(200);
+		assertEquals(186, tracker.getMissing());
+		tracker.record(100);
+		assertEquals(185, tracker.getMissing());
+		assertEquals(2, tracker.getReordered());
+
+		// The sender restarted
+		tracker.record(1);
+		tracker.record(2);
+		assertEquals(1, tracker.getRestarts());
+		assertEquals(2, tracker.getLast());
+		assertEquals(185, tracker.getMissing());
+		assertEquals(11, tracker.getReceived());
+	}
+
+	@Test
+	public void testEpochClock() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			long before = System.currentTimeMillis();
+			long micros = EpochClock.currentTimeMicros();
+			long after = System.currentTimeMillis();
+			assertTrue(micros / 1000 >= before - 2);
+			assertTrue(micros / 1000 <= after + 2);
+			Thread.sleep(0, 100000);
+		}
+	}
+
+	@Test
+	public void testEndToEnd() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "+");
+
+		Properties props = deviceProperties("dev1");
+		props.setProperty("Latency-Stamps", "true");
+		DeviceClient stamped = new DeviceClient(props);
+		DeviceClient plain = new DeviceClient(deviceProperties("dev2"));
+		assertTrue(stamped.isLatencyStampingEnabled());
+		assertFalse(plain.isLatencyStampingEnabled());
+		stamped.connect();
+		plain.connect();
+		try {
+			JsonObject data = new JsonObject();
+			data.addProperty("temp", 21.5);
+			long start = EpochClock.currentTimeMicros();
+			for (int i = 0; i < 20; i++) {
+				assertTrue(stamped.publishEvent("reading", data));
+				assertTrue(plain.publishEvent("reading", data));
+			}
+			for (int i = 1; i <= 40; i++) {
+				Event evt = events.poll(5, TimeUnit.SECONDS);
+				assertNotNull(evt);
+				if (evt.getDeviceId().equals("dev1")) {
+					assertTrue(evt.getSequence() > 0);
+					assertTrue(evt.getSentTime() >= start);
+					assertEquals("{\"temp\":21.5}", evt.getData());
+				} else {
+					assertEquals(-1, evt.getSequence());
+					assertEquals(-1, evt.getSentTime());
+				}
+			}
+
+			ClientMetrics metrics = app.getMetrics();
+			assertEquals(20, metrics.getEndToEndLatency().getCount());
+			assertTrue(metrics.getEndToEndLatencyHistogram().getPercentile(99) < TimeUnit.SECONDS.toNanos(5));
+			assertEquals(20, metrics.getSequenceTracker("sensor:dev1").getLast());
+			assertNull(metrics.getSequenceTracker("sensor:dev2"));
+			assertEquals(0, metrics.getEventsMissing());
+			assertEquals(0, metrics.getEventsReordered());
+
+			// A gap in the sequence of a device
+			metrics.stampedEventReceived("sensor:dev1", 25, -1, 0);
+			assertEquals(4, metrics.getEventsMissing());
+			assertEquals(Long.valueOf(4), metrics.getEventsMissingByDevice().get("sensor:dev1"));
+			metrics.stampedEventReceived("sensor:dev1", 22, -1, 0);
+			assertEquals(3, metrics.getEventsMissing());
+			assertEquals(1, metrics.getEventsReordered());
+		} finally {
+			stamped.disconnect();
+			plain.disconnect();
+			app.disconnect();
+		}
+	}
+
+	private static Properties deviceProperties(String id) {
+		Properties props = new Properties();
+		props.setProperty("org", "stamps");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", id);
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "stamps");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-stamps-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
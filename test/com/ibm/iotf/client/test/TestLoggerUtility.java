@@ -0,0 +1,125 @@
+package com.ibm.iotf.client.test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import com.ibm.iotf.util.LoggerUtility;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parameterized messages of the library logger and its async handler
+ */
+public class TestLoggerUtility extends TestCase {
+
+	private static final Logger LOGGER = Logger.getLogger(LoggerUtility.class.getName());
+
+	private final RecordingHandler handler = new RecordingHandler();
+	private Level level;
+	private boolean useParentHandlers;
+
+	@Override
+	protected void setUp() throws Exception {
+		level = LOGGER.getLevel();
+		useParentHandlers = LOGGER.getUseParentHandlers();
+		LOGGER.addHandler(handler);
+		LOGGER.setUseParentHandlers(false);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoggerUtility.disableAsyncLogging();
+		LOGGER.removeHandler(handler);
+		LOGGER.setLevel(level);
+		LOGGER.setUseParentHandlers(useParentHandlers);
+	}
+
+	@Test
+	public void testParameterizedMessages() throws Exception {
+		LOGGER.setLevel(Level.INFO);
+		Counter counter = new Counter();
+		LoggerUtility.fine("Test", "test", "Payload = {}", counter);
+		LoggerUtility.log(Level.FINEST, "Test", "test", "{} {}", counter, counter);
+		assertEquals("the parameters of a disabled level are not converted", 0, counter.count);
+		assertTrue(handler.records.isEmpty());
+
+		LOGGER.setLevel(Level.FINE);
+		String thread = Thread.currentThread().getName();
+		LoggerUtility.fine("Test", "test", "Topic = {}, payload = {}", "iot-2/evt/a/fmt/json", counter);
+		LoggerUtility.info("Test", "test", "{} and {}", "one");
+		LoggerUtility.warn("Test", "test", "no parameter {}", "extra", "parameters");
+		LoggerUtility.fine("Test", "test", "null {}", (Object) null);
+		LoggerUtility.fine("Test", "test", "{}");
+		assertEquals(1, counter.count);
+		assertEquals(5, handler.records.size());
+		assertEquals(thread + ": Topic = iot-2/evt/a/fmt/json, payload = counted", handler.records.get(0).getMessage());
+		assertEquals(thread + ": one and {}", handler.records.get(1).getMessage());
+		assertEquals(Level.WARNING, handler.records.get(2).getLevel());
+		assertEquals(thread + ": no parameter extra", handler.records.get(2).getMessage());
+		assertEquals(thread + ": null null", handler.records.get(3).getMessage());
+		assertEquals(thread + ": {}", handler.records.get(4).getMessage());
+		assertEquals("Test", handler.records.get(0).getSourceClassName());
+	}
+
+	@Test
+	public void testAsyncLogging() throws Exception {
+		LOGGER.setLevel(Level.FINE);
+		LoggerUtility.enableAsyncLogging(1000);
+		LoggerUtility.enableAsyncLogging(1000);
+		assertFalse(LOGGER.getUseParentHandlers());
+		for (int i = 0; i < 500; i++) {
+			LoggerUtility.fine("Test", "test", "message {}", i);
+		}
+		LOGGER.getHandlers()[0].flush();
+		assertEquals(0, LoggerUtility.getDroppedMessageCount());
+		assertEquals(500, handler.records.size());
+		for (int i = 0; i < handler.records.size(); i++) {
+			assertTrue(handler.records.get(i).getMessage().endsWith(": message " + i));
+			assertEquals("IoTF log writer", handler.threads.get(i));
+		}
+
+		LoggerUtility.disableAsyncLogging();
+		assertEquals(1, LOGGER.getHandlers().length);
+		assertSame(handler, LOGGER.getHandlers()[0]);
+		handler.records.clear();
+		handler.threads.clear();
+		LoggerUtility.fine("Test", "test", "direct");
+		assertEquals(1, handler.records.size());
+		assertEquals(Thread.currentThread().getName(), handler.threads.get(0));
+	}
+
+	private static class Counter {
+		private int count;
+
+		@Override
+		public String toString() {
+			count++;
+			return "counted";
+		}
+	}
+
+	private static class RecordingHandler extends Handler {
+		private final List<LogRecord> records = new CopyOnWriteArrayList<LogRecord>();
+		private final List<String> threads = new CopyOnWriteArrayList<String>();
+
+		@Override
+		public void publish(LogRecord record) {
+			records.add(record);
+			threads.add(Thread.currentThread().getName());
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
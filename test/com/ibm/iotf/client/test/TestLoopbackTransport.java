@@ -0,0 +1,226 @@
+package com.ibm.iotf.client.test;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.ApplicationStatus;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.DeviceStatus;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.app.StatusCallback;
+import com.ibm.iotf.client.device.CommandCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+
+import junit.framework.TestCase;
+
+/**
+ * Exercises the device and application clients against the in-JVM loopback broker,
+ * no connection to the IBM Internet of Things Foundation is needed.
+ */
+public class TestLoopbackTransport extends TestCase {
+
+	private static final String BROKER = "TestLoopbackTransport";
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testDeviceEventReachesApplication() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties("app1", false));
+		EventQueue events = new EventQueue();
+		app.setEventCallback(events);
+		app.connect();
+		app.subscribeToDeviceEvents("sensor");
+
+		DeviceClient device = new DeviceClient(deviceProperties("sensor", "dev1"));
+		device.connect();
+		assertTrue(device.isConnected());
+
+		JsonObject data = new JsonObject();
+		data.addProperty("temp", 21);
+		assertTrue(device.publishEvent("status", data));
+
+		Event event = events.events.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the event is not delivered", event);
+		assertEquals("sensor", event.getDeviceType());
+		assertEquals("dev1", event.getDeviceId());
+		assertEquals("status", event.getEvent());
+		assertEquals("json", event.getFormat());
+		assertTrue(event.getPayload().contains("\"temp\":21"));
+		assertEquals(1, app.getMessagesReceived());
+
+		device.disconnect();
+		app.disconnect();
+	}
+
+	@Test
+	public void testCommandReachesDevice() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties("sensor", "dev1"));
+		final BlockingQueue<com.ibm.iotf.client.device.Command> commands =
+				new LinkedBlockingQueue<com.ibm.iotf.client.device.Command>();
+		device.setCommandCallback(new CommandCallback() {
+			public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+				commands.add(cmd);
+			}
+		});
+		device.connect();
+
+		ApplicationClient app = new ApplicationClient(appProperties("app1", false));
+		app.connect();
+		JsonObject data = new JsonObject();
+		data.addProperty("interval", 10);
+		assertTrue(app.publishCommand("sensor", "dev1", "configure", data));
+		// A device of another type must not receive it
+		assertTrue(app.publishCommand("other", "dev1", "ignored", data));
+
+		com.ibm.iotf.client.device.Command cmd = commands.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the command is not delivered", cmd);
+		assertEquals("configure", cmd.getCommand());
+		assertTrue(cmd.getPayload().contains("\"interval\":10"));
+		assertNull(commands.poll(200, TimeUnit.MILLISECONDS));
+
+		device.disconnect();
+		app.disconnect();
+	}
+
+	@Test
+	public void testDeviceStatus() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties("app1", false));
+		final BlockingQueue<DeviceStatus> statuses = new LinkedBlockingQueue<DeviceStatus>();
+		app.setStatusCallback(new StatusCallback() {
+			public void processDeviceStatus(DeviceStatus status) {
+				statuses.add(status);
+			}
+			public void processApplicationStatus(ApplicationStatus status) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceStatus();
+
+		DeviceClient device = new DeviceClient(deviceProperties("sensor", "dev1"));
+		device.connect();
+		device.disconnect();
+
+		DeviceStatus connect = statuses.poll(5, TimeUnit.SECONDS);
+		assertNotNull(connect);
+		assertEquals("Connect", connect.action);
+		DeviceStatus disconnect = statuses.poll(5, TimeUnit.SECONDS);
+		assertNotNull(disconnect);
+		assertEquals("Disconnect", disconnect.action);
+		app.disconnect();
+	}
+
+	@Test
+	public void testSharedSubscriptionIsBalanced() throws Exception {
+		ApplicationClient[] apps = new ApplicationClient[3];
+		EventQueue events = new EventQueue();
+		for (int i = 0; i < apps.length; i++) {
+			apps[i] = new ApplicationClient(appProperties("shared", true));
+			apps[i].setEventCallback(events);
+			apps[i].connect();
+			apps[i].subscribeToDeviceEvents();
+		}
+		// The shared instances must not take over the connection of each other
+		for (ApplicationClient app : apps) {
+			assertTrue(app.isConnected());
+		}
+		assertEquals(3, LoopbackBroker.getBroker(BROKER).getConnectionCount());
+
+		DeviceClient device = new DeviceClient(deviceProperties("sensor", "dev1"));
+		device.connect();
+		for (int i = 0; i < 30; i++) {
+			JsonObject data = new JsonObject();
+			data.addProperty("seq", i);
+			device.publishEvent("reading", data);
+		}
+		for (int i = 0; i < 30; i++) {
+			assertNotNull(events.events.poll(5, TimeUnit.SECONDS));
+		}
+		for (ApplicationClient app : apps) {
+			assertEquals(10, app.getMessagesReceived());
+		}
+
+		device.disconnect();
+		for (ApplicationClient app : apps) {
+			app.disconnect();
+		}
+	}
+
+	@Test
+	public void testDeviceReconnectsWhenConnectionIsLost() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties("sensor", "dev2"));
+		final BlockingQueue<com.ibm.iotf.client.device.Command> commands =
+				new LinkedBlockingQueue<com.ibm.iotf.client.device.Command>();
+		device.setCommandCallback(new CommandCallback() {
+			public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+				commands.add(cmd);
+			}
+		});
+		device.connect();
+
+		LoopbackBroker broker = LoopbackBroker.getBroker(BROKER);
+		assertTrue(broker.dropConnection("d:loopback:sensor:dev2"));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!device.isConnected() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(device.isConnected());
+
+		// The command subscription is restored after the reconnect
+		ApplicationClient app = new ApplicationClient(appProperties("app1", false));
+		app.connect();
+		app.publishCommand("sensor", "dev2", "reboot", new JsonObject());
+		assertNotNull(commands.poll(5, TimeUnit.SECONDS));
+
+		device.disconnect();
+		app.disconnect();
+	}
+
+	private static Properties deviceProperties(String type, String id) {
+		Properties props = new Properties();
+		props.setProperty("org", "loopback");
+		props.setProperty("type", type);
+		props.setProperty("id", id);
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties(String id, boolean shared) {
+		Properties props = new Properties();
+		props.setProperty("org", "loopback");
+		props.setProperty("id", id);
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-loopback-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		if (shared) {
+			props.setProperty("Shared-Subscription", "true");
+		}
+		return props;
+	}
+
+	private static class EventQueue implements EventCallback {
+		private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+
+		public void processEvent(Event evt) {
+			events.add(evt);
+		}
+
+		public void processCommand(Command cmd) {
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.ibm.iotf.client.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.junit.Test;
+
+import com.ibm.iotf.client.persist.MappedFilePersistence;
+
+import junit.framework.TestCase;
+
+public class TestMappedFilePersistence extends TestCase {
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("iotf-persistence", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(dir);
+	}
+
+	@Test
+	public void testPutGetRemove() throws Exception {
+		MappedFilePersistence persistence = new MappedFilePersistence(dir.getPath());
+		persistence.open("d:org:type:id", "ssl://localhost:8883");
+
+		persistence.put("s-1", new Persistable("header-1", "payload-1"));
+		persistence.put("s-2", new Persistable("header-2", ""));
+
+		assertTrue(persistence.containsKey("s-1"));
+		assertEquals("header-1", new String(persistence.get("s-1").getHeaderBytes(), "UTF-8"));
+		assertEquals("payload-1", new String(persistence.get("s-1").getPayloadBytes(), "UTF-8"));
+		assertEquals(0, persistence.get("s-2").getPayloadLength());
+
+		persistence.remove("s-1");
+		assertFalse(persistence.containsKey("s-1"));
+		assertNull(persistence.get("s-1"));
+		assertEquals(1, count(persistence.keys()));
+		persistence.close();
+	}
+
+	@Test
+	public void testMessagesSurviveReopen() throws Exception {
+		MappedFilePersistence persistence = new MappedFilePersistence(dir.getPath());
+		persistence.open("client", "tcp://localhost:1883");
+		for (int i = 0; i < 100; i++) {
+			persistence.put("s-" + i, new Persistable("h" + i, "p" + i));
+		}
+		for (int i = 0; i < 100; i += 2) {
+			persistence.remove("s-" + i);
+		}
+		persistence.put("s-1", new Persistable("h1", "updated"));
+		persistence.close();
+
+		persistence = new MappedFilePersistence(dir.getPath());
+		persistence.open("client", "tcp://localhost:1883");
+		assertEquals(50, count(persistence.keys()));
+		assertFalse(persistence.containsKey("s-0"));
+		assertEquals("updated", new String(persistence.get("s-1").getPayloadBytes(), "UTF-8"));
+		assertEquals("p99", new String(persistence.get("s-99").getPayloadBytes(), "UTF-8"));
+		persistence.close();
+	}
+
+	@Test
+	public void testTornRecordIsDiscarded() throws Exception {
+		MappedFilePersistence persistence = new MappedFilePersistence(dir.getPath());
+		persistence.open("client", "tcp://localhost:1883");
+		persistence.put("s-1", new Persistable("h1", "p1"));
+		long validSize = persistence.getLogSize();
+		persistence.put("s-2", new Persistable("h2", "p2"));
+		persistence.close();
+
+		// Corrupt the payload of the last record as if the process crashed while writing it
+		File log = findLog();
+		RandomAccessFile raf = new RandomAccessFile(log, "rw");
+		raf.seek(validSize + 20);
+		raf.write(0x7f);
+		raf.close();
+
+		persistence = new MappedFilePersistence(dir.getPath());
+		persistence.open("client", "tcp://localhost:1883");
+		assertTrue(persistence.containsKey("s-1"));
+		assertFalse(persistence.containsKey("s-2"));
+
+		// The log must be usable after the torn record
+		persistence.put("s-3", new Persistable("h3", "p3"));
+		persistence.close();
+		persistence.open("client", "tcp://localhost:1883");
+		assertTrue(persistence.containsKey("s-3"));
+		persistence.close();
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		MappedFilePersistence persistence = new MappedFilePersistence(dir.getPath(), false, 4096);
+		persistence.open("client", "tcp://localhost:1883");
+		StringBuilder payload = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			payload.append("0123456789");
+		}
+		persistence.put("keep", new Persistable("h", "kept"));
+		for (int i = 0; i < 2000; i++) {
+			persistence.put("s-" + i, new Persistable("h", payload.toString()));
+			persistence.remove("s-" + i);
+		}
+		assertTrue("log is not compacted: " + persistence.getLogSize(), persistence.getLogSize() < 1024 * 1024);
+		persistence.close();
+
+		persistence.open("client", "tcp://localhost:1883");
+		assertEquals(1, count(persistence.keys()));
+		assertEquals("kept", new String(persistence.get("keep").getPayloadBytes(), "UTF-8"));
+
+		persistence.clear();
+		assertEquals(0, count(persistence.keys()));
+		persistence.close();
+	}
+
+	@Test
+	public void testConcurrentWritersAreCommitted() throws Exception {
+		final MappedFilePersistence persistence = new MappedFilePersistence(dir.getPath(), true);
+		persistence.open("client", "tcp://localhost:1883");
+		Thread[] writers = new Thread[8];
+		for (int t = 0; t < writers.length; t++) {
+			final int id = t;
+			writers[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 200; i++) {
+						try {
+							persistence.put("s-" + id + "-" + i, new Persistable("h", "p"));
+						} catch (Exception e) {
+							throw new RuntimeException(e);
+						}
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		// The writers waiting at the same time are made durable by the same commit
+		assertTrue("1600 writes, " + persistence.getCommitCount() + " commits", persistence.getCommitCount() < 1600);
+		persistence.close();
+
+		persistence.open("client", "tcp://localhost:1883");
+		assertEquals(1600, count(persistence.keys()));
+		persistence.close();
+	}
+
+	@Test
+	public void testBackgroundCommit() throws Exception {
+		MappedFilePersistence persistence = new MappedFilePersistence(dir.getPath(), false);
+		persistence.open("client", "tcp://localhost:1883");
+		for (int i = 0; i < 1000; i++) {
+			persistence.put("s-" + i, new Persistable("h", "p"));
+		}
+		// A single writer does not wait, the commits batch its writes
+		assertTrue("1000 writes, " + persistence.getCommitCount() + " commits", persistence.getCommitCount() < 1000);
+		persistence.close();
+
+		persistence.open("client", "tcp://localhost:1883");
+		assertEquals(1000, count(persistence.keys()));
+		persistence.close();
+	}
+
+	@Test
+	public void testLogIsLocked() throws Exception {
+		MappedFilePersistence persistence = new MappedFilePersistence(dir.getPath());
+		persistence.open("client", "tcp://localhost:1883");
+		try {
+			new MappedFilePersistence(dir.getPath()).open("client", "tcp://localhost:1883");
+			fail("The log is in use by another persistence");
+		} catch (MqttPersistenceException e) {
+			// expected
+		} finally {
+			persistence.close();
+		}
+	}
+
+	private static int count(Enumeration<?> keys) {
+		return Collections.list(keys).size();
+	}
+
+	private File findLog() {
+		for (File clientDir : dir.listFiles()) {
+			for (File f : clientDir.listFiles()) {
+				if (f.getName().endsWith(".log")) {
+					return f;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static class Persistable implements MqttPersistable {
+		private final byte[] header;
+		private final byte[] payload;
+
+		Persistable(String header, String payload) throws Exception {
+			this.header = header.getBytes("UTF-8");
+			this.payload = payload.getBytes("UTF-8");
+		}
+
+		public byte[] getHeaderBytes() { return header; }
+		public int getHeaderLength() { return header.length; }
+		public int getHeaderOffset() { return 0; }
+		public byte[] getPayloadBytes() { return payload; }
+		public int getPayloadLength() { return payload.length; }
+		public int getPayloadOffset() { return 0; }
+	}
+}
@@ -0,0 +1,369 @@
+package com.ibm.iotf.client.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.CommandCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.MqttTransport;
+import com.ibm.iotf.client.transport.MqttTransportFactory;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.client.transport.loopback.LoopbackServer;
+import com.ibm.iotf.client.transport.nio.MqttCodec;
+import com.ibm.iotf.client.transport.nio.MqttPacket;
+import com.ibm.iotf.client.transport.nio.NioTransport;
+import com.ibm.iotf.client.transport.nio.NioTransportFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the non-blocking transport against the loopback server on localhost
+ */
+public class TestNioTransport extends TestCase {
+
+	private static final String BROKER = "TestNioTransport";
+
+	private LoopbackServer server;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new LoopbackServer(LoopbackBroker.getBroker(BROKER), 0);
+		LocalFactory.serverURI = "tcp://localhost:" + server.getPort();
+		LocalFactory.sslContext = null;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop();
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testCodecRoundTrip() throws Exception {
+		byte[] payload = new byte[300];
+		ByteBuffer buffer = MqttCodec.encode(MqttPacket.publish("iot-2/evt/e/fmt/json", payload, 1, true, 42));
+		// An incomplete packet is not decoded
+		ByteBuffer partial = buffer.duplicate();
+		partial.limit(partial.limit() - 1);
+		assertNull(MqttCodec.decode(partial));
+		assertEquals(0, partial.position());
+
+		MqttPacket packet = MqttCodec.decode(buffer);
+		assertEquals(MqttPacket.PUBLISH, packet.type);
+		assertEquals("iot-2/evt/e/fmt/json", packet.topic);
+		assertEquals(1, packet.qos);
+		assertTrue(packet.retained);
+		assertEquals(42, packet.messageId);
+		assertEquals(300, packet.payload.length);
+		assertFalse(buffer.hasRemaining());
+
+		packet = MqttCodec.decode(MqttCodec.encode(MqttPacket.connect("d:org:type:id", "use-token-auth",
+				"token".toCharArray(), 60, false)));
+		assertEquals("d:org:type:id", packet.clientId);
+		assertEquals("use-token-auth", packet.userName);
+		assertEquals("token", new String(packet.password, "UTF-8"));
+		assertEquals(60, packet.keepAlive);
+		assertFalse(packet.cleanSession);
+
+		packet = MqttCodec.decode(MqttCodec.encode(MqttPacket.subscribe(7, new String[] {"a/+", "b/#"}, new int[] {0, 1})));
+		assertEquals(7, packet.messageId);
+		assertEquals("b/#", packet.topics[1]);
+		assertEquals(1, packet.qosLevels[1]);
+	}
+
+	@Test
+	public void testDeviceAndApplicationClients() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		assertTrue(app.isConnected());
+		app.subscribeToDeviceEvents("sensor", "dev1", "reading", 1);
+
+		DeviceClient device = new DeviceClient(deviceProperties("dev1"));
+		final BlockingQueue<com.ibm.iotf.client.device.Command> commands =
+				new LinkedBlockingQueue<com.ibm.iotf.client.device.Command>();
+		device.setCommandCallback(new CommandCallback() {
+			public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+				commands.add(cmd);
+			}
+		});
+		device.connect();
+		assertTrue(device.isConnected());
+		// Wait for the SUBACK of the commands
+		Thread.sleep(200);
+
+		JsonObject data = new JsonObject();
+		data.addProperty("value", 7);
+		assertTrue(device.publishEvent("reading", data, 1));
+		Event event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the event is not delivered", event);
+		assertTrue(event.getPayload().contains("\"value\":7"));
+
+		assertTrue(app.publishCommand("sensor", "dev1", "reboot", new JsonObject()));
+		com.ibm.iotf.client.device.Command cmd = commands.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the command is not delivered", cmd);
+		assertEquals("reboot", cmd.getCommand());
+
+		device.disconnect();
+		app.disconnect();
+	}
+
+	@Test
+	public void testKeepAlive() throws Exception {
+		NioTransport transport = new NioTransport("tcp://localhost:" + server.getPort(), "d:org:type:ping");
+		MqttConnectOptions options = new MqttConnectOptions();
+		options.setKeepAliveInterval(1);
+		transport.connect(options).waitForCompletion(5000);
+		Thread.sleep(3000);
+		assertTrue("the pings are not answered", transport.isConnected());
+		transport.disconnect().waitForCompletion(5000);
+	}
+
+	@Test
+	public void testConnectionLostWhenPingIsNotAnswered() throws Exception {
+		final ServerSocket silent = new ServerSocket(0);
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					Socket socket = silent.accept();
+					InputStream in = socket.getInputStream();
+					OutputStream out = socket.getOutputStream();
+					MqttCodec.read(in);
+					out.write(MqttCodec.encode(MqttPacket.connack(0)).array());
+					// Read and ignore everything else
+					while (in.read() >= 0) {
+					}
+				} catch (Exception e) {
+					// closed by the client
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+
+		NioTransport transport = new NioTransport("tcp://localhost:" + silent.getLocalPort(), "d:org:type:silent");
+		final CountDownLatch lost = new CountDownLatch(1);
+		transport.setCallback(new Callback() {
+			public void connectionLost(Throwable cause) {
+				lost.countDown();
+			}
+		});
+		MqttConnectOptions options = new MqttConnectOptions();
+		options.setKeepAliveInterval(1);
+		transport.connect(options).waitForCompletion(5000);
+		assertTrue(transport.isConnected());
+		assertTrue("the connection is not closed", lost.await(6, TimeUnit.SECONDS));
+		assertFalse(transport.isConnected());
+		silent.close();
+	}
+
+	@Test
+	public void testConnectFailure() throws Exception {
+		ServerSocket closed = new ServerSocket(0);
+		int port = closed.getLocalPort();
+		closed.close();
+		NioTransport transport = new NioTransport("tcp://localhost:" + port, "d:org:type:refused");
+		IMqttToken token = transport.connect(new MqttConnectOptions());
+		try {
+			token.waitForCompletion(5000);
+			fail("The connect must fail");
+		} catch (MqttException e) {
+			assertEquals(MqttException.REASON_CODE_SERVER_CONNECT_ERROR, e.getReasonCode());
+		}
+		assertFalse(transport.isConnected());
+	}
+
+	@Test
+	public void testManyConnectionsShareTheEventLoops() throws Exception {
+		int count = 500;
+		List<NioTransport> transports = new ArrayList<NioTransport>();
+		List<IMqttToken> tokens = new ArrayList<IMqttToken>();
+		for (int i = 0; i < count; i++) {
+			NioTransport transport = new NioTransport("tcp://localhost:" + server.getPort(), "d:org:sim:" + i);
+			transports.add(transport);
+			tokens.add(transport.connect(new MqttConnectOptions()));
+		}
+		for (IMqttToken token : tokens) {
+			token.waitForCompletion(10000);
+		}
+		List<IMqttDeliveryToken> published = new ArrayList<IMqttDeliveryToken>();
+		for (NioTransport transport : transports) {
+			MqttMessage message = new MqttMessage("{}".getBytes("UTF-8"));
+			message.setQos(1);
+			published.add(transport.publish("iot-2/evt/sim/fmt/json", message));
+		}
+		for (IMqttDeliveryToken token : published) {
+			token.waitForCompletion(10000);
+		}
+
+		int loops = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().matches("iotf-nio-\\d+")) {
+				loops++;
+			}
+		}
+		assertTrue("too many event loop threads: " + loops, loops <= Runtime.getRuntime().availableProcessors());
+
+		for (NioTransport transport : transports) {
+			transport.disconnect();
+		}
+	}
+
+	@Test
+	public void testTls() throws Exception {
+		File keystore = createKeyStore();
+		if (keystore == null) {
+			// keytool is not available
+			return;
+		}
+		KeyStore ks = KeyStore.getInstance("JKS");
+		FileInputStream in = new FileInputStream(keystore);
+		ks.load(in, "password".toCharArray());
+		in.close();
+		keystore.delete();
+
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(ks, "password".toCharArray());
+		SSLContext serverContext = SSLContext.getInstance("TLSv1.2");
+		serverContext.init(kmf.getKeyManagers(), null, null);
+		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(ks);
+		SSLContext clientContext = SSLContext.getInstance("TLSv1.2");
+		clientContext.init(null, tmf.getTrustManagers(), null);
+
+		LoopbackServer tlsServer = new LoopbackServer(LoopbackBroker.getBroker(BROKER), 0, serverContext);
+		try {
+			LocalFactory.serverURI = "ssl://localhost:" + tlsServer.getPort();
+			LocalFactory.sslContext = clientContext;
+
+			DeviceClient device = new DeviceClient(deviceProperties("tls"));
+			final BlockingQueue<com.ibm.iotf.client.device.Command> commands =
+					new LinkedBlockingQueue<com.ibm.iotf.client.device.Command>();
+			device.setCommandCallback(new CommandCallback() {
+				public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+					commands.add(cmd);
+				}
+			});
+			device.connect();
+			assertTrue(device.isConnected());
+			Thread.sleep(200);
+
+			// A command larger than a TLS record
+			ApplicationClient app = new ApplicationClient(appProperties());
+			app.connect();
+			StringBuilder large = new StringBuilder();
+			for (int i = 0; i < 3000; i++) {
+				large.append("0123456789");
+			}
+			JsonObject firmware = new JsonObject();
+			firmware.addProperty("image", large.toString());
+			assertTrue(app.publishCommand("sensor", "tls", "firmware", firmware));
+			com.ibm.iotf.client.device.Command cmd = commands.poll(5, TimeUnit.SECONDS);
+			assertNotNull("the command is not delivered over TLS", cmd);
+			assertTrue(cmd.getPayload().length() > 30000);
+			device.disconnect();
+			app.disconnect();
+		} finally {
+			tlsServer.stop();
+		}
+	}
+
+	private static File createKeyStore() throws Exception {
+		File keytool = new File(System.getProperty("java.home"), "bin/keytool");
+		if (!keytool.exists()) {
+			return null;
+		}
+		File keystore = File.createTempFile("iotf-test", ".jks");
+		keystore.delete();
+		Process process = new ProcessBuilder(keytool.getPath(), "-genkeypair", "-alias", "server",
+				"-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=localhost", "-validity", "1",
+				"-storetype", "JKS", "-keystore", keystore.getPath(),
+				"-storepass", "password", "-keypass", "password").redirectErrorStream(true).start();
+		InputStream out = process.getInputStream();
+		while (out.read() >= 0) {
+		}
+		return process.waitFor() == 0 ? keystore : null;
+	}
+
+	private static Properties deviceProperties(String id) {
+		Properties props = new Properties();
+		props.setProperty("org", "nio");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", id);
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", LocalFactory.class.getName());
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "nio");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-nio-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", LocalFactory.class.getName());
+		return props;
+	}
+
+	/**
+	 * Creates the NIO transports to the local server instead of the IoTF
+	 */
+	public static class LocalFactory implements MqttTransportFactory {
+		static volatile String serverURI;
+		static volatile SSLContext sslContext;
+
+		public MqttTransport create(String uri, String clientId, MqttClientPersistence persistence,
+				Properties options) throws MqttException {
+			return new NioTransportFactory(sslContext).create(serverURI, clientId, persistence, options);
+		}
+	}
+
+	private static class Callback implements MqttCallback {
+		public void connectionLost(Throwable cause) {
+		}
+		public void messageArrived(String topic, MqttMessage message) throws Exception {
+		}
+		public void deliveryComplete(IMqttDeliveryToken token) {
+		}
+	}
+}
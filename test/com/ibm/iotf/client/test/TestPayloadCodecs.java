@@ -0,0 +1,252 @@
+package com.ibm.iotf.client.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.codec.CborCodec;
+import com.ibm.iotf.client.codec.JsonCodec;
+import com.ibm.iotf.client.codec.MessagePackCodec;
+import com.ibm.iotf.client.codec.PayloadCodec;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+import com.ibm.iotf.client.device.CommandCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the payload codecs against the examples of their specifications, and the events and
+ * commands in the binary formats over the loopback transport
+ */
+public class TestPayloadCodecs extends TestCase {
+
+	private static final String BROKER = "TestPayloadCodecs";
+	private static final JsonParser PARSER = new JsonParser();
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testCborEncoding() throws Exception {
+		CborCodec cbor = new CborCodec();
+		assertEncoding(cbor, "0", "00");
+		assertEncoding(cbor, "23", "17");
+		assertEncoding(cbor, "24", "1818");
+		assertEncoding(cbor, "1000", "1903e8");
+		assertEncoding(cbor, "1000000000000", "1b000000e8d4a51000");
+		assertEncoding(cbor, "-1", "20");
+		assertEncoding(cbor, "-1000", "3903e7");
+		assertEncoding(cbor, "1.5", "fa3fc00000");
+		assertEncoding(cbor, "1.1", "fb3ff199999999999a");
+		assertEncoding(cbor, "\"IETF\"", "6449455446");
+		assertEncoding(cbor, "\"ü\"", "62c3bc");
+		assertEncoding(cbor, "[1,[2,3],[4,5]]", "8301820203820405");
+		assertEncoding(cbor, "{\"a\":1,\"b\":[2,3]}", "a26161016162820203");
+		assertEncoding(cbor, "[true,false,null]", "83f5f4f6");
+
+		// The forms that are only decoded
+		assertEquals(1.5, cbor.decode(hex("f93e00")).getAsDouble());
+		assertEquals(-4.0, cbor.decode(hex("f9c400")).getAsDouble());
+		assertEquals(PARSER.parse("[1,[2,3],[4,5]]"), cbor.decode(hex("9f018202039f0405ffff")));
+		assertEquals(PARSER.parse("{\"a\":1,\"b\":[2,3]}"), cbor.decode(hex("bf61610161629f0203ffff")));
+		assertEquals("streaming", cbor.decode(hex("7f657374726561646d696e67ff")).getAsString());
+		assertEquals("2013-03-21T20:04:00Z", cbor.decode(hex("c074323031332d30332d32315432303a30343a30305a")).getAsString());
+		assertEquals("AQIDBA==", cbor.decode(hex("4401020304")).getAsString());
+		assertEquals("18446744073709551615", cbor.decode(hex("1bffffffffffffffff")).getAsBigInteger().toString());
+		assertInvalid(cbor, "1903");
+		assertInvalid(cbor, "830102");
+		assertInvalid(cbor, "0000");
+	}
+
+	@Test
+	public void testMessagePackEncoding() throws Exception {
+		MessagePackCodec msgpack = new MessagePackCodec();
+		assertEncoding(msgpack, "{\"compact\":true,\"schema\":0}", "82a7636f6d70616374c3a6736368656d6100");
+		assertEncoding(msgpack, "127", "7f");
+		assertEncoding(msgpack, "200", "ccc8");
+		assertEncoding(msgpack, "70000", "ce00011170");
+		assertEncoding(msgpack, "-1", "ff");
+		assertEncoding(msgpack, "-32", "e0");
+		assertEncoding(msgpack, "-33", "d0df");
+		assertEncoding(msgpack, "-200", "d1ff38");
+		assertEncoding(msgpack, "1.5", "ca3fc00000");
+		assertEncoding(msgpack, "0.1", "cb3fb999999999999a");
+		assertEncoding(msgpack, "[null,false]", "92c0c2");
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 40; i++) {
+			text.append('x');
+		}
+		byte[] encoded = msgpack.encode(PARSER.parse("\"" + text + "\""));
+		assertEquals(0xd9, encoded[0] & 0xff);
+		assertEquals(40, encoded[1]);
+		assertEquals(text.toString(), msgpack.decode(encoded).getAsString());
+
+		assertEquals("AQID", msgpack.decode(hex("c403010203")).getAsString());
+		assertEquals("18446744073709551615", msgpack.decode(hex("cfffffffffffffffff")).getAsBigInteger().toString());
+		assertInvalid(msgpack, "cd01");
+		assertInvalid(msgpack, "c1");
+	}
+
+	@Test
+	public void testMessagesRoundTrip() throws Exception {
+		JsonObject message = new JsonObject();
+		message.addProperty("ts", "2015-09-16T10:15:30.123+0000");
+		JsonObject data = new JsonObject();
+		data.addProperty("name", "foo");
+		data.addProperty("cpu", 90);
+		data.addProperty("mem", 70.25);
+		data.addProperty("load", 0.3);
+		data.addProperty("uptime", 123456789012L);
+		data.addProperty("ok", true);
+		JsonArray readings = new JsonArray();
+		for (int i = 0; i < 20; i++) {
+			readings.add(PARSER.parse(Integer.toString(i * 37 - 100)));
+		}
+		data.add("readings", readings);
+		message.add("d", data);
+
+		int json = new JsonCodec().encode(message).length;
+		for (String format : new String[] { "json", "cbor", "msgpack", "CBOR" }) {
+			PayloadCodec codec = PayloadCodecs.get(format);
+			assertNotNull(format, codec);
+			byte[] payload = codec.encode(message);
+			assertEquals(format, message, codec.decode(payload));
+			if (!"json".equals(format)) {
+				assertTrue(format + " is not smaller than json", payload.length < json * 3 / 4);
+			}
+		}
+		assertNull(PayloadCodecs.get("bin"));
+	}
+
+	@Test
+	public void testBinaryEventsAndCommands() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1", "+", "+", 0);
+
+		Properties props = deviceProperties();
+		props.setProperty("format", "msgpack");
+		DeviceClient device = new DeviceClient(props);
+		final BlockingQueue<com.ibm.iotf.client.device.Command> commands =
+				new LinkedBlockingQueue<com.ibm.iotf.client.device.Command>();
+		device.setCommandCallback(new CommandCallback() {
+			public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+				commands.add(cmd);
+			}
+		});
+		device.connect();
+
+		JsonObject data = new JsonObject();
+		data.addProperty("temperature", 21.5);
+		data.addProperty("humidity", 40);
+		assertTrue(device.publishEvent("reading", data, "cbor", 1));
+		Event event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the cbor event is not received", event);
+		assertEquals("cbor", event.getFormat());
+		assertEquals(data, PARSER.parse(event.getData()));
+		assertEquals(data, PARSER.parse(event.getPayload()).getAsJsonObject().get("d"));
+		assertEquals(new CborCodec().decode(event.getRawPayload()), PARSER.parse(event.getPayload()));
+		assertTrue(event.getTimestamp().getYear() > 2000);
+
+		// The formats without a codec carry the data as is
+		assertTrue(device.publishEvent("image", new byte[] { 1, 2, 3 }, "bin", 0));
+		event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the bin event is not received", event);
+		assertEquals("bin", event.getFormat());
+		assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, event.getRawPayload()));
+
+		// The device only subscribes to the commands of its format
+		JsonObject reboot = new JsonObject();
+		reboot.addProperty("delay", 5);
+		assertTrue(app.publishCommand("sensor", "dev1", "reboot", reboot, "json", 0));
+		assertTrue(app.publishCommand("sensor", "dev1", "reboot", reboot, "msgpack", 0));
+		com.ibm.iotf.client.device.Command command = commands.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the msgpack command is not received", command);
+		assertEquals("msgpack", command.getFormat());
+		assertEquals(reboot, PARSER.parse(command.getData()));
+		assertNull(commands.poll(200, TimeUnit.MILLISECONDS));
+
+		device.disconnect();
+		app.disconnect();
+	}
+
+	private static void assertEncoding(PayloadCodec codec, String json, String hex) throws IOException {
+		JsonElement element = PARSER.parse(json);
+		assertEquals(json, hex, toHex(codec.encode(element)));
+		assertEquals(json, element, codec.decode(hex(hex)));
+	}
+
+	private static void assertInvalid(PayloadCodec codec, String hex) {
+		try {
+			codec.decode(hex(hex));
+			fail(hex + " is not a valid " + codec.getFormat() + " payload");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static byte[] hex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "codecs");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "codecs");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-codecs-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
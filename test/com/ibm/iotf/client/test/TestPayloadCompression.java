@@ -0,0 +1,267 @@
+package com.ibm.iotf.client.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.codec.CompressionStatistics;
+import com.ibm.iotf.client.codec.PayloadCompressor;
+import com.ibm.iotf.client.device.CommandCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the compression of the large payloads, signalled by the -deflate suffix of their format
+ */
+public class TestPayloadCompression extends TestCase {
+
+	private static final String BROKER = "TestPayloadCompression";
+	private static final JsonParser PARSER = new JsonParser();
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testCompressor() throws Exception {
+		assertTrue(PayloadCompressor.isCompressed("json-deflate"));
+		assertFalse(PayloadCompressor.isCompressed("json"));
+		assertEquals("cbor", PayloadCompressor.getBaseFormat("cbor-deflate"));
+		assertEquals("json", PayloadCompressor.getBaseFormat("json"));
+
+		PayloadCompressor compressor = new PayloadCompressor(256, 1);
+		byte[] large = document(50).toString().getBytes("UTF-8");
+		byte[] compressed = compressor.compress("t", large);
+		assertNotNull(compressed);
+		assertTrue(compressed.length * 4 < large.length);
+		assertNull(compressor.compress("t", "{\"d\":{}}".getBytes("UTF-8")));
+
+		// The payloads that do not shrink are published as they are
+		byte[] random = new byte[1024];
+		new Random(1).nextBytes(random);
+		assertNull(compressor.compress("t", random));
+
+		CompressionStatistics stats = compressor.getStatistics("t");
+		assertEquals(3, stats.getMessages());
+		assertEquals(1, stats.getCompressedMessages());
+		assertEquals(large.length, stats.getUncompressedBytes());
+		assertTrue(stats.getCompressionRatio() > 4);
+		assertTrue(stats.getCompressNanos() > 0);
+
+		assertTrue(Arrays.equals(large, compressor.decompress("t", compressed)));
+		assertEquals(1, stats.getDecompressedMessages());
+		assertEquals(large.length, stats.getDecompressedBytes());
+
+		try {
+			compressor.decompress("t", new byte[] { 1, 2, 3 });
+			fail("the payload is not deflate");
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			compressor.decompress("t", Arrays.copyOf(compressed, compressed.length / 2));
+			fail("the payload is truncated");
+		} catch (IOException e) {
+			// expected
+		}
+
+		// Without a threshold the payloads are only decompressed
+		assertNull(new PayloadCompressor(-1, -1).compress("t", large));
+		assertTrue(Arrays.equals(large, new PayloadCompressor(-1, -1).decompress("t", compressed)));
+	}
+
+	@Test
+	public void testLargeEventsAndCommandsAreCompressed() throws Exception {
+		Properties appProps = appProperties();
+		appProps.setProperty("Compression-Threshold", "512");
+		ApplicationClient app = new ApplicationClient(appProps);
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1");
+
+		Properties props = deviceProperties();
+		props.setProperty("Compression-Threshold", "512");
+		DeviceClient device = new DeviceClient(props);
+		final BlockingQueue<com.ibm.iotf.client.device.Command> commands =
+				new LinkedBlockingQueue<com.ibm.iotf.client.device.Command>();
+		device.setCommandCallback(new CommandCallback() {
+			public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+				commands.add(cmd);
+			}
+		});
+		device.connect();
+		assertTrue(device.isCompressionEnabled());
+
+		JsonObject small = new JsonObject();
+		small.addProperty("cpu", 90);
+		JsonObject large = document(40);
+		assertTrue(device.publishEvent("status", small));
+		assertTrue(device.publishEvent("status", large));
+
+		Event event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals("json", event.getFormat());
+		assertEquals(small, PARSER.parse(event.getData()));
+		event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the compressed event is not received", event);
+		assertEquals("json-deflate", event.getFormat());
+		assertEquals(large, PARSER.parse(event.getData()));
+		assertNotNull(event.getTimestamp());
+
+		CompressionStatistics sent = device.getPayloadCompressor().getStatistics("iot-2/evt/status/fmt/json");
+		assertEquals(2, sent.getMessages());
+		assertEquals(1, sent.getCompressedMessages());
+		assertTrue(sent.getCompressionRatio() > 4);
+		CompressionStatistics received = app.getPayloadCompressor()
+				.getStatistics("iot-2/type/sensor/id/dev1/evt/status/fmt/json");
+		assertEquals(1, received.getDecompressedMessages());
+		assertEquals(sent.getCompressedBytes(), received.getReceivedBytes());
+		// The statistics of the application are kept by event, not by device
+		assertSame(received, app.getPayloadCompressor().getStatistics("evt/status/fmt/json"));
+		assertEquals(1, app.getPayloadCompressor().getStatistics().size());
+
+		// The device subscribes to the compressed commands of its format too
+		assertTrue(app.publishCommand("sensor", "dev1", "configure", large));
+		com.ibm.iotf.client.device.Command command = commands.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the compressed command is not received", command);
+		assertEquals("json-deflate", command.getFormat());
+		assertEquals(large, PARSER.parse(command.getData()));
+
+		device.disconnect();
+		app.disconnect();
+	}
+
+	@Test
+	public void testCompressionWithoutReceiverThreshold() throws Exception {
+		// The receivers do not set a threshold, the senders do
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1", "status", 0);
+		app.subscribeToDeviceEvents("sensor", "dev1", "load", "json");
+
+		Properties props = deviceProperties();
+		props.setProperty("Compression-Threshold", "100");
+		DeviceClient device = new DeviceClient(props);
+		device.connect();
+
+		Properties senderProps = appProperties();
+		senderProps.setProperty("id", "app2");
+		senderProps.setProperty("Compression-Threshold", "100");
+		ApplicationClient sender = new ApplicationClient(senderProps);
+		sender.connect();
+		Properties receiverProps = deviceProperties();
+		receiverProps.setProperty("id", "dev2");
+		DeviceClient receiver = new DeviceClient(receiverProps);
+		final BlockingQueue<com.ibm.iotf.client.device.Command> commands =
+				new LinkedBlockingQueue<com.ibm.iotf.client.device.Command>();
+		receiver.setCommandCallback(new CommandCallback() {
+			public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+				commands.add(cmd);
+			}
+		});
+		receiver.connect();
+		try {
+			JsonObject small = new JsonObject();
+			small.addProperty("cpu", 90);
+			JsonObject large = document(40);
+			assertTrue(device.publishEvent("status", small));
+			assertTrue(device.publishEvent("status", large));
+			assertTrue(device.publishEvent("load", large));
+			for (int i = 0; i < 3; i++) {
+				assertNotNull("the event " + i + " is not received", events.poll(5, TimeUnit.SECONDS));
+			}
+
+			// The compressed events are unsubscribed with those of their format
+			app.unsubscribeFromDeviceEvents("sensor", "dev1", "load", "json", 0);
+			assertTrue(device.publishEvent("load", large));
+			assertTrue(device.publishEvent("status", large));
+			Event event = events.poll(5, TimeUnit.SECONDS);
+			assertNotNull(event);
+			assertEquals("status", event.getEvent());
+			assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+
+			assertTrue(sender.publishCommand("sensor", "dev2", "configure", large));
+			com.ibm.iotf.client.device.Command command = commands.poll(5, TimeUnit.SECONDS);
+			assertNotNull("the compressed command is not received", command);
+			assertEquals("json-deflate", command.getFormat());
+		} finally {
+			receiver.disconnect();
+			sender.disconnect();
+			device.disconnect();
+			app.disconnect();
+		}
+	}
+
+	/**
+	 * A document with the repetitive keys of the real events
+	 */
+	private static JsonObject document(int readings) {
+		JsonObject data = new JsonObject();
+		JsonArray array = new JsonArray();
+		for (int i = 0; i < readings; i++) {
+			JsonObject reading = new JsonObject();
+			reading.addProperty("sensorName", "temperature-" + (i % 4));
+			reading.addProperty("measurementUnit", "celsius");
+			reading.addProperty("value", 20 + i % 7);
+			reading.addProperty("status", "nominal");
+			array.add(reading);
+		}
+		data.add("readings", array);
+		return data;
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "compression");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "compression");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-compression-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
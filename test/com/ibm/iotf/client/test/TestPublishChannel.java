@@ -0,0 +1,172 @@
+package com.ibm.iotf.client.test;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.client.PublishChannel;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.CommandCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the events and commands published through the pre-bound channels over the loopback transport
+ */
+public class TestPublishChannel extends TestCase {
+
+	private static final String BROKER = "TestPublishChannel";
+	private static final JsonParser PARSER = new JsonParser();
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testEventChannels() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1", "+", "+", 0);
+
+		Properties props = deviceProperties();
+		props.setProperty("Compression-Threshold", "512");
+		DeviceClient device = new DeviceClient(props);
+		PublishChannel channel = device.createPublishChannel("reading");
+		assertEquals("iot-2/evt/reading/fmt/json", channel.getTopic());
+		assertFalse("the client is not connected", channel.publish(new Reading(1, 20.5)));
+		device.connect();
+		try {
+			for (int i = 0; i < 100; i++) {
+				assertTrue(channel.publish(new Reading(i, 20 + i * 0.5)));
+			}
+			for (int i = 0; i < 100; i++) {
+				Event event = events.poll(5, TimeUnit.SECONDS);
+				assertNotNull("the event is not received", event);
+				assertEquals("reading", event.getEvent());
+				assertEquals("json", event.getFormat());
+				JsonObject data = PARSER.parse(event.getData()).getAsJsonObject();
+				assertEquals(i, data.get("seq").getAsInt());
+				assertEquals(20 + i * 0.5, data.get("value").getAsDouble());
+				assertTrue(event.getTimestamp().getYear() > 2000);
+			}
+
+			// The null fields of a JSON element are kept, as by publishEvent()
+			JsonObject state = new JsonObject();
+			state.addProperty("mode", "eco");
+			state.add("alarm", JsonNull.INSTANCE);
+			assertTrue(channel.publish(state));
+			assertEquals(state, PARSER.parse(events.poll(5, TimeUnit.SECONDS).getData()));
+
+			// The large payloads are compressed
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < 100; i++) {
+				text.append("the same text ");
+			}
+			assertTrue(channel.publish(text.toString()));
+			Event event = events.poll(5, TimeUnit.SECONDS);
+			assertEquals("json-deflate", event.getFormat());
+			assertEquals(text.toString(), PARSER.parse(event.getData()).getAsString());
+
+			PublishChannel cbor = device.createPublishChannel("reading", "cbor", 1);
+			assertTrue(cbor.publish(new Reading(7, 1.5)));
+			event = events.poll(5, TimeUnit.SECONDS);
+			assertEquals("cbor", event.getFormat());
+			assertEquals(PARSER.parse("{\"seq\":7,\"value\":1.5}"), PARSER.parse(event.getData()));
+
+			// An application publishes on behalf of the device
+			PublishChannel proxy = app.createEventChannel("sensor", "dev1", "status", "json", 0);
+			assertTrue(proxy.publish(new Reading(3, 0)));
+			event = events.poll(5, TimeUnit.SECONDS);
+			assertEquals("status", event.getEvent());
+			assertEquals(3, PARSER.parse(event.getData()).getAsJsonObject().get("seq").getAsInt());
+		} finally {
+			device.disconnect();
+			app.disconnect();
+		}
+	}
+
+	@Test
+	public void testCommandChannel() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		app.connect();
+		DeviceClient device = new DeviceClient(deviceProperties());
+		final BlockingQueue<com.ibm.iotf.client.device.Command> commands =
+				new LinkedBlockingQueue<com.ibm.iotf.client.device.Command>();
+		device.setCommandCallback(new CommandCallback() {
+			public void processCommand(com.ibm.iotf.client.device.Command cmd) {
+				commands.add(cmd);
+			}
+		});
+		device.connect();
+		try {
+			PublishChannel channel = app.createCommandChannel("sensor", "dev1", "reboot", "json", 1);
+			assertEquals(1, channel.getQos());
+			for (int i = 0; i < 10; i++) {
+				assertTrue(channel.publish(new Reading(i, 0)));
+			}
+			for (int i = 0; i < 10; i++) {
+				com.ibm.iotf.client.device.Command command = commands.poll(5, TimeUnit.SECONDS);
+				assertNotNull("the command is not received", command);
+				assertEquals("reboot", command.getCommand());
+				assertEquals(i, PARSER.parse(command.getData()).getAsJsonObject().get("seq").getAsInt());
+			}
+		} finally {
+			device.disconnect();
+			app.disconnect();
+		}
+	}
+
+	private static class Reading {
+		private final int seq;
+		private final double value;
+
+		private Reading(int seq, double value) {
+			this.seq = seq;
+			this.value = value;
+		}
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "channels");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "channels");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-channels-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
@@ -0,0 +1,302 @@
+package com.ibm.iotf.client.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.iotf.client.ClientMetrics;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+import com.ibm.iotf.client.transport.loopback.LoopbackServer;
+import com.ibm.iotf.devicemgmt.device.DeviceData;
+import com.ibm.iotf.devicemgmt.device.DeviceInfo;
+import com.ibm.iotf.devicemgmt.device.ManagedDevice;
+import com.ibm.iotf.devicemgmt.device.internal.DeviceTopic;
+import com.ibm.iotf.util.LoggerUtility;
+
+import junit.framework.TestCase;
+
+/**
+ * Soak tests of the long-running clients, the memory and the threads are released and the hot paths keep their allocation budgets
+ */
+public class TestResourceLeaks extends TestCase {
+
+	private static final String BROKER = "TestResourceLeaks";
+
+	/*
+	 * The bytes allocated by the calling thread for one event, about twice what is measured today
+	 */
+	private static final long PUBLISH_BUDGET = 4 * 1024;
+	private static final long RECEIVE_BUDGET = 8 * 1024;
+
+	/*
+	 * The growth of the heap tolerated after the cycles, well below what a leaked client or request retains
+	 */
+	private static final long HEAP_TOLERANCE = 4 * 1024 * 1024;
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testConnectDisconnectCycles() throws Exception {
+		LoopbackServer server = new LoopbackServer(LoopbackBroker.getBroker(BROKER), 0);
+		try {
+			Properties props = deviceProperties("dev1");
+			props.setProperty("Transport", "nio");
+			props.setProperty("Endpoints", "tcp://localhost:" + server.getPort());
+			List<WeakReference<DeviceClient>> clients = new ArrayList<WeakReference<DeviceClient>>();
+
+			cycle(props, 20, clients);
+			long heap = usedHeap();
+			int threads = Thread.activeCount();
+			cycle(props, 300, clients);
+
+			assertCollected(clients);
+			assertTrue("heap grew by " + (usedHeap() - heap), usedHeap() - heap < HEAP_TOLERANCE);
+			// The shared pools of the transport may still grow, a thread leaked per client would add hundreds
+			assertTrue("threads " + threads + " -> " + Thread.getAllStackTraces().keySet(), Thread.activeCount() < threads + 10);
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static void cycle(Properties props, int count, List<WeakReference<DeviceClient>> clients) throws Exception {
+		for (int i = 0; i < count; i++) {
+			DeviceClient client = new DeviceClient(props);
+			// Each connect of the same client creates a new transport
+			for (int j = 0; j < 2; j++) {
+				client.connect();
+				assertTrue(client.publishEvent("reading", new JsonObject(), 1));
+				client.disconnect();
+			}
+			clients.add(new WeakReference<DeviceClient>(client));
+		}
+	}
+
+	@Test
+	public void testManageUnmanageCycles() throws Exception {
+		List<WeakReference<ManagedDevice>> devices = new ArrayList<WeakReference<ManagedDevice>>();
+		manageCycle(5, devices);
+		int threads = Thread.activeCount();
+		manageCycle(50, devices);
+
+		// The static handlers and listeners do not hold the devices once they are unmanaged
+		assertCollected(devices);
+		assertEquals(0, countThreads("ManagedDevice-"));
+		assertTrue("threads " + threads + " -> " + Thread.activeCount(), Thread.activeCount() <= threads + 2);
+	}
+
+	private void manageCycle(int count, List<WeakReference<ManagedDevice>> devices) throws Exception {
+		for (int i = 0; i < count; i++) {
+			DeviceInfo deviceInfo = new DeviceInfo.Builder().serialNumber("10087").manufacturer("IBM").build();
+			DeviceData deviceData = new DeviceData.Builder().deviceInfo(deviceInfo).build();
+			ManagedDevice device = new ManagedDevice(deviceProperties("dm" + i), deviceData);
+			device.connect();
+			assertTrue(device.manage());
+			// Managing again, and after a reconnect, does not start another publisher
+			assertTrue(device.manage(3600));
+			ClientMetrics metrics = device.getMetrics();
+			assertTrue(LoopbackBroker.getBroker(BROKER).dropConnection(device.getClientId()));
+			waitFor(metrics, 3);
+			assertEquals(1, countThreads("ManagedDevice-" + device.getClientId()));
+			assertTrue(device.unmanage());
+			// Managed again before the previous publisher thread may have stopped
+			assertTrue(device.manage());
+			assertTrue(device.unmanage());
+			device.disconnect();
+			devices.add(new WeakReference<ManagedDevice>(device));
+		}
+	}
+
+	@Test
+	public void testDeviceStateCycles() throws Exception {
+		List<WeakReference<DeviceClient>> clients = new ArrayList<WeakReference<DeviceClient>>();
+		for (int i = 0; i < 50; i++) {
+			DeviceClient client = new DeviceClient(deviceProperties("dev1"));
+			client.connect();
+			client.getDeviceState().set("count", i);
+			client.disconnect();
+			clients.add(new WeakReference<DeviceClient>(client));
+		}
+
+		// The thread of the state document stops when the client disconnects
+		assertCollected(clients);
+		assertEquals(0, countThreads("iotf-device-state"));
+	}
+
+	@Test
+	public void testRequestTimeouts() throws Exception {
+		ManagedDevice device = new ManagedDevice(deviceProperties("dev1"), new DeviceData.Builder().build());
+		// Each timeout is logged as a warning, the failures of the test would be lost among them
+		Logger logger = Logger.getLogger(LoggerUtility.class.getName());
+		Level level = logger.getLevel();
+		logger.setLevel(Level.SEVERE);
+		device.connect();
+		try {
+			// The broker does not answer on the response topic, each request times out
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < 16 * 1024; i++) {
+				text.append('x');
+			}
+			JsonObject payload = new JsonObject();
+			payload.addProperty("text", text.toString());
+
+			assertNull(device.sendAndWait(DeviceTopic.RESPONSE, payload, 1));
+			long heap = usedHeap();
+			for (int i = 0; i < 500; i++) {
+				assertNull(device.sendAndWait(DeviceTopic.RESPONSE, payload, 1));
+			}
+			assertEquals(501, device.getMetrics().getRequestTimeouts());
+			assertTrue("heap grew by " + (usedHeap() - heap), usedHeap() - heap < HEAP_TOLERANCE);
+		} finally {
+			device.disconnect();
+			logger.setLevel(level);
+		}
+	}
+
+	@Test
+	public void testPublishAllocation() throws Exception {
+		DeviceClient device = new DeviceClient(deviceProperties("dev1"));
+		device.connect();
+		try {
+			JsonObject data = new JsonObject();
+			data.addProperty("temperature", 21.5);
+			data.addProperty("humidity", 40);
+			for (int i = 0; i < 20000; i++) {
+				device.publishEvent("reading", data, 0);
+			}
+			int count = 20000;
+			long start = allocatedBytes();
+			for (int i = 0; i < count; i++) {
+				device.publishEvent("reading", data, 0);
+			}
+			long perEvent = (allocatedBytes() - start) / count;
+			assertTrue("publish allocates " + perEvent + " bytes", perEvent < PUBLISH_BUDGET);
+		} finally {
+			device.disconnect();
+		}
+	}
+
+	@Test
+	public void testReceiveAllocation() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				evt.getData();
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		try {
+			String topic = "iot-2/type/sensor/id/dev1/evt/reading/fmt/json";
+			byte[] payload = "{\"d\":{\"temperature\":21.5,\"humidity\":40}}".getBytes("UTF-8");
+			for (int i = 0; i < 20000; i++) {
+				app.messageArrived(topic, new MqttMessage(payload));
+			}
+			int count = 20000;
+			long start = allocatedBytes();
+			for (int i = 0; i < count; i++) {
+				app.messageArrived(topic, new MqttMessage(payload));
+			}
+			long perEvent = (allocatedBytes() - start) / count;
+			assertTrue("receive allocates " + perEvent + " bytes", perEvent < RECEIVE_BUDGET);
+		} finally {
+			app.disconnect();
+		}
+	}
+
+	/*
+	 * The bytes allocated so far by the current thread
+	 */
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/*
+	 * The heap used after the garbage is collected, the collection is requested a few times as it is only a hint
+	 */
+	private static long usedHeap() throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static <T> void assertCollected(List<WeakReference<T>> references) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		int alive;
+		do {
+			usedHeap();
+			alive = 0;
+			for (WeakReference<T> reference : references) {
+				if (reference.get() != null) {
+					alive++;
+				}
+			}
+		} while (alive > 0 && System.nanoTime() < deadline);
+		assertEquals(0, alive);
+	}
+
+	private static int countThreads(String prefix) {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Waits for the given number of completed device management requests
+	 */
+	private static void waitFor(ClientMetrics metrics, int requests) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (metrics.getRequestRoundTrip().getCount() < requests && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(requests, metrics.getRequestRoundTrip().getCount());
+	}
+
+	private static Properties deviceProperties(String id) {
+		Properties props = new Properties();
+		props.setProperty("org", "leaks");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", id);
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "leaks");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-leaks-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
@@ -0,0 +1,269 @@
+package com.ibm.iotf.client.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.codec.GorillaCodec;
+import com.ibm.iotf.client.codec.PayloadCodecs;
+import com.ibm.iotf.client.codec.TelemetryBatch;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the columnar gorilla encoding of the telemetry batches
+ */
+public class TestTelemetryBatch extends TestCase {
+
+	private static final String BROKER = "TestTelemetryBatch";
+
+	private final GorillaCodec codec = new GorillaCodec();
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testPowerMeterSamples() throws Exception {
+		// One sample per second, the voltage and the frequency change rarely
+		TelemetryBatch batch = new TelemetryBatch("voltage", "current", "frequency");
+		long start = 1442398530000L;
+		Random random = new Random(7);
+		double voltage = 230.1;
+		for (int i = 0; i < 600; i++) {
+			if (i % 60 == 0) {
+				voltage = 229.5 + random.nextInt(10) / 10.0;
+			}
+			batch.add(start + i * 1000L + (i % 50 == 0 ? 1 : 0), voltage, 12.5 + (i / 100), 50.0);
+		}
+		byte[] payload = codec.encodeBatch(batch);
+		assertSameBatch(batch, codec.decodeBatch(payload));
+
+		int json = json(batch).length;
+		assertTrue("gorilla " + payload.length + " bytes, json " + json, payload.length * 10 < json);
+	}
+
+	@Test
+	public void testVibrationSamples() throws Exception {
+		// A 1 kHz accelerometer with 3 decimals of resolution
+		TelemetryBatch batch = new TelemetryBatch(1000, "x", "y", "z");
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 1000; i++) {
+			double t = i / 1000.0;
+			batch.add(start + i, round(Math.sin(2 * Math.PI * 50 * t)), round(0.5 * Math.cos(2 * Math.PI * 120 * t)), 1.0);
+		}
+		byte[] payload = codec.encodeBatch(batch);
+		assertSameBatch(batch, codec.decodeBatch(payload));
+		assertTrue(payload.length * 3 < json(batch).length);
+	}
+
+	@Test
+	public void testIrregularSamples() throws Exception {
+		TelemetryBatch batch = new TelemetryBatch("value");
+		long[] timestamps = { 0, 1, 1, 100000, 99990, Long.MAX_VALUE / 2, -5, 3000, 3001, 3001 + 2047, 3001 + 4095 };
+		double[] values = { 0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE,
+				-1.5, 1e-300, 1.0, 1.0, Double.NEGATIVE_INFINITY };
+		for (int i = 0; i < timestamps.length; i++) {
+			batch.add(timestamps[i], values[i]);
+		}
+		assertSameBatch(batch, codec.decodeBatch(codec.encodeBatch(batch)));
+
+		TelemetryBatch single = new TelemetryBatch("a", "b");
+		single.add(42, 1.0, 2.0);
+		assertSameBatch(single, codec.decodeBatch(codec.encodeBatch(single)));
+		TelemetryBatch empty = new TelemetryBatch("ünïcode");
+		assertSameBatch(empty, codec.decodeBatch(codec.encodeBatch(empty)));
+	}
+
+	@Test
+	public void testInvalidBatches() throws Exception {
+		TelemetryBatch batch = new TelemetryBatch("a");
+		for (int i = 0; i < 10; i++) {
+			batch.add(i * 1000L, i * 0.1);
+		}
+		byte[] payload = codec.encodeBatch(batch);
+		try {
+			codec.decodeBatch(Arrays.copyOf(payload, payload.length - 4));
+			fail("the batch is truncated");
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			codec.decodeBatch(crafted(60000, 400000));
+			fail("the batch is longer than the payload");
+		} catch (IOException e) {
+			// expected
+		}
+		payload[0] = 9;
+		try {
+			codec.decodeBatch(payload);
+			fail("the version is not supported");
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			batch.add(1, 1.0, 2.0);
+			fail("the batch has one channel");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testJsonRepresentation() throws Exception {
+		TelemetryBatch batch = new TelemetryBatch("temperature", "humidity");
+		batch.add(1442398530000L, 21.5, 40);
+		batch.add(1442398531000L, 21.5, Double.NaN);
+		JsonElement message = PayloadCodecs.get("gorilla").decode(codec.encodeBatch(batch));
+		JsonObject expected = new JsonParser().parse("{\"ts\":\"2015-09-16T10:15:30.000Z\",\"d\":{"
+				+ "\"timestamps\":[1442398530000,1442398531000],"
+				+ "\"channels\":{\"temperature\":[21.5,21.5],\"humidity\":[40.0,null]}}}").getAsJsonObject();
+		assertEquals(expected, message);
+		assertSameBatch(batch, codec.decodeBatch(codec.encode(expected)));
+	}
+
+	@Test
+	public void testBatchEvents() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("meter", "m1", "power", "gorilla", 0);
+
+		DeviceClient device = new DeviceClient(deviceProperties());
+		device.connect();
+		TelemetryBatch batch = new TelemetryBatch("voltage", "current");
+		for (int i = 0; i < 100; i++) {
+			batch.add(1442398530000L + i * 1000, 230.0, 10 + i % 3);
+		}
+		assertTrue(device.publishTelemetryBatch("power", batch));
+
+		Event event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull("the batch is not received", event);
+		assertTrue(event.isTelemetryBatch());
+		assertEquals(1442398530000L, event.getTimestamp().getMillis());
+		assertSameBatch(batch, event.getTelemetryBatch());
+		JsonObject data = new JsonParser().parse(event.getData()).getAsJsonObject();
+		assertEquals(100, data.getAsJsonArray("timestamps").size());
+
+		List<Event> samples = event.getSamples();
+		assertEquals(100, samples.size());
+		Event sample = samples.get(2);
+		assertEquals("json", sample.getFormat());
+		assertEquals("m1", sample.getDeviceId());
+		assertEquals(1442398532000L, sample.getTimestamp().getMillis());
+		assertEquals(new JsonParser().parse("{\"voltage\":230.0,\"current\":12.0}"), new JsonParser().parse(sample.getData()));
+		assertFalse(sample.isTelemetryBatch());
+		assertNull(sample.getTelemetryBatch());
+
+		device.disconnect();
+		app.disconnect();
+	}
+
+	private static void assertSameBatch(TelemetryBatch expected, TelemetryBatch actual) {
+		assertEquals(expected.getChannels(), actual.getChannels());
+		assertTrue(Arrays.equals(expected.getTimestamps(), actual.getTimestamps()));
+		for (String channel : expected.getChannels()) {
+			double[] a = expected.getValues(channel);
+			double[] b = actual.getValues(channel);
+			assertEquals(a.length, b.length);
+			for (int i = 0; i < a.length; i++) {
+				assertEquals(channel + "[" + i + "]", Double.doubleToRawLongBits(a[i]), Double.doubleToRawLongBits(b[i]));
+			}
+		}
+	}
+
+	/**
+	 * The size of the samples as the json events of a batch
+	 */
+	/* A batch of unnamed channels announcing more samples than the payload holds, with zero bits */
+	private static byte[] crafted(int channels, int samples) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(1);
+		writeVarint(out, channels);
+		for (int c = 0; c < channels; c++) {
+			out.write(0);
+		}
+		writeVarint(out, samples);
+		out.write(new byte[50000], 0, 50000);
+		return out.toByteArray();
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.write((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static byte[] json(TelemetryBatch batch) throws IOException {
+		JsonArray array = new JsonArray();
+		for (int i = 0; i < batch.size(); i++) {
+			JsonObject message = new JsonObject();
+			message.addProperty("ts", new DateTime(batch.getTimestamp(i)).toString());
+			JsonObject data = new JsonObject();
+			for (int c = 0; c < batch.getChannels().size(); c++) {
+				data.add(batch.getChannels().get(c), new JsonPrimitive(batch.getValue(c, i)));
+			}
+			message.add("d", data);
+			array.add(message);
+		}
+		return array.toString().getBytes("UTF-8");
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 1000) / 1000.0;
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "telemetry");
+		props.setProperty("type", "meter");
+		props.setProperty("id", "m1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "telemetry");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-telemetry-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}
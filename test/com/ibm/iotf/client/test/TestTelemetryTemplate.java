@@ -0,0 +1,204 @@
+package com.ibm.iotf.client.test;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.iotf.client.app.Command;
+import com.ibm.iotf.client.app.Event;
+import com.ibm.iotf.client.app.EventCallback;
+import com.ibm.iotf.client.codec.TelemetryTemplate;
+import com.ibm.iotf.client.device.DeviceClient;
+import com.ibm.iotf.client.transport.loopback.LoopbackBroker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the encoding of the fixed shape events and their publishing over the loopback transport
+ */
+public class TestTelemetryTemplate extends TestCase {
+
+	private static final String BROKER = "TestTelemetryTemplate";
+	private static final JsonParser PARSER = new JsonParser();
+
+	@Override
+	protected void tearDown() throws Exception {
+		LoopbackBroker.shutdown(BROKER);
+	}
+
+	@Test
+	public void testEncoding() throws Exception {
+		TelemetryTemplate template = new TelemetryTemplate("temp", "hum", "count", "ok", "name", "missing");
+		template.setDouble("temp", 21.5).setDouble("hum", 0.1).setLong("count", Long.MIN_VALUE)
+				.setBoolean("ok", true).setString("name", "a\"b\\c\n€😀");
+		JsonObject message = parse(template, 0);
+		assertEquals(PARSER.parse("{\"temp\":21.5,\"hum\":0.1,\"count\":-9223372036854775808,\"ok\":true,"
+				+ "\"name\":\"a\\\"b\\\\c\\n€😀\",\"missing\":null}"), message.get("d"));
+
+		assertDouble(template, 0, "0");
+		assertDouble(template, -3.25, "-3.25");
+		assertDouble(template, 1e-7, "0");
+		assertDouble(template, -1e-7, "0");
+		assertDouble(template, 123456789.1234567, "123456789.123457");
+		assertDouble(template, 1e300, "1.0E300");
+		assertDouble(template, Double.NaN, "null");
+		assertDouble(template, Double.NEGATIVE_INFINITY, "null");
+		template.setDecimals("temp", 2);
+		assertDouble(template, 3.14159, "3.14");
+		assertDouble(template, 2.999, "3");
+		template.setDecimals("temp", 0);
+		assertDouble(template, 1234.5, "1235");
+
+		template.setLong("count", 0);
+		assertEquals("0", parse(template, 0).getAsJsonObject("d").get("count").toString());
+		template.setLong("count", Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, parse(template, 0).getAsJsonObject("d").get("count").getAsLong());
+		template.clear();
+		assertTrue(parse(template, 0).getAsJsonObject("d").get("temp").isJsonNull());
+
+		try {
+			template.setDouble("unknown", 1);
+			fail("the template has no such field");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testTimestamps() throws Exception {
+		TimeZone defaultZone = TimeZone.getDefault();
+		try {
+			for (String zone : new String[] { "UTC", "America/St_Johns", "Asia/Kolkata", "Pacific/Chatham" }) {
+				TimeZone.setDefault(TimeZone.getTimeZone(zone));
+				TelemetryTemplate template = new TelemetryTemplate("v");
+				SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+				Random random = new Random(7);
+				long[] fixed = { 0, -1, 951782400000L, 4107542399999L, 1425168000000L };
+				for (int i = 0; i < 2000; i++) {
+					long timestamp = i < fixed.length ? fixed[i] : (long) (random.nextDouble() * 4102444800000L);
+					assertEquals(zone + " " + timestamp, format.format(new Date(timestamp)),
+							parse(template, timestamp).get("ts").getAsString());
+				}
+			}
+		} finally {
+			TimeZone.setDefault(defaultZone);
+		}
+	}
+
+	@Test
+	public void testEncodingDoesNotAllocate() throws Exception {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			return;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+		TelemetryTemplate template = new TelemetryTemplate("temp", "hum", "count", "ok", "state");
+		int temp = template.indexOf("temp");
+		int hum = template.indexOf("hum");
+		int count = template.indexOf("count");
+		long sum = 0;
+		for (int round = 0; round < 3; round++) {
+			long thread = Thread.currentThread().getId();
+			long before = threads.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < 100000; i++) {
+				template.setDouble(temp, 20 + i * 0.01).setDouble(hum, 40.5).setLong(count, i)
+						.setBoolean("ok", (i & 1) == 0).setString("state", "running");
+				sum += template.encode(1445000000000L + i);
+			}
+			long allocated = threads.getThreadAllocatedBytes(thread) - before;
+			if (round == 2) {
+				assertTrue("the encoding allocated " + allocated + " bytes", allocated < 100000);
+			}
+		}
+		assertTrue(sum > 0);
+	}
+
+	@Test
+	public void testPublishTemplate() throws Exception {
+		ApplicationClient app = new ApplicationClient(appProperties());
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		app.setEventCallback(new EventCallback() {
+			public void processEvent(Event evt) {
+				events.add(evt);
+			}
+			public void processCommand(Command cmd) {
+			}
+		});
+		app.connect();
+		app.subscribeToDeviceEvents("sensor", "dev1");
+
+		DeviceClient device = new DeviceClient(deviceProperties());
+		TelemetryTemplate template = new TelemetryTemplate("temp", "hum");
+		assertFalse(device.publishEvent("env", template));
+		device.connect();
+		try {
+			for (int i = 0; i < 50; i++) {
+				template.setDouble("temp", 20 + i * 0.25).setDouble("hum", 40);
+				assertTrue(device.publishEvent("env", template, 1));
+			}
+			for (int i = 0; i < 50; i++) {
+				Event event = events.poll(5, TimeUnit.SECONDS);
+				assertNotNull("the event is not received", event);
+				assertEquals("env", event.getEvent());
+				JsonObject data = PARSER.parse(event.getData()).getAsJsonObject();
+				assertEquals(20 + i * 0.25, data.get("temp").getAsDouble());
+				assertTrue(event.getTimestamp().getYear() > 2000);
+			}
+			assertTrue(device.createPublishChannel("env").publish(template));
+			assertNotNull(events.poll(5, TimeUnit.SECONDS));
+		} finally {
+			device.disconnect();
+			app.disconnect();
+		}
+	}
+
+	private static void assertDouble(TelemetryTemplate template, double value, String expected) throws Exception {
+		template.setDouble("temp", value);
+		String message = new String(template.toByteArray(0), "UTF-8");
+		String text = message.substring(message.indexOf("\"temp\":") + 7, message.indexOf(",\"hum\""));
+		assertEquals(Double.toString(value), expected, text);
+	}
+
+	private static JsonObject parse(TelemetryTemplate template, long timestamp) throws Exception {
+		return PARSER.parse(new String(template.toByteArray(timestamp), "UTF-8")).getAsJsonObject();
+	}
+
+	private static Properties deviceProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "templates");
+		props.setProperty("type", "sensor");
+		props.setProperty("id", "dev1");
+		props.setProperty("auth-method", "token");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+
+	private static Properties appProperties() {
+		Properties props = new Properties();
+		props.setProperty("org", "templates");
+		props.setProperty("id", "app1");
+		props.setProperty("auth-method", "apikey");
+		props.setProperty("auth-key", "a-templates-key");
+		props.setProperty("auth-token", "secret");
+		props.setProperty("Transport", "loopback");
+		props.setProperty("Loopback-Broker", BROKER);
+		return props;
+	}
+}